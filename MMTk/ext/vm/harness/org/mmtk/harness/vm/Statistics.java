@@ -63,4 +63,11 @@ public class Statistics extends org.mmtk.vm.Statistics {
       return;
     throw new UnsupportedOperationException("Statistics#perfEventInit(" + events + "): Not Implemented");
   }
+
+  /**
+   * The harness keeps no counts of its own.
+   */
+  @Override
+  public void perfEventPrintTotals(boolean xml) {
+  }
 }
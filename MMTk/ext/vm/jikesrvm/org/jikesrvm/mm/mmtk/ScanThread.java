@@ -12,10 +12,15 @@
  */
 package org.jikesrvm.mm.mmtk;
 
+import static org.jikesrvm.mm.mminterface.MemoryManagerConstants.MOVES_CODE;
+import static org.jikesrvm.runtime.JavaSizeConstants.LOG_BYTES_IN_INT;
+import static org.jikesrvm.runtime.SysCall.sysCall;
 import static org.jikesrvm.runtime.UnboxedSizeConstants.BYTES_IN_ADDRESS;
+import static org.jikesrvm.runtime.UnboxedSizeConstants.LOG_BYTES_IN_ADDRESS;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.architecture.AbstractRegisters;
+import org.jikesrvm.architecture.ArchConstants;
 import org.jikesrvm.architecture.StackFrameLayout;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.compilers.common.CompiledMethod;
@@ -27,11 +32,14 @@ import org.jikesrvm.mm.mminterface.MemoryManager;
 import org.jikesrvm.mm.mminterface.Selected;
 import org.jikesrvm.runtime.Magic;
 import org.jikesrvm.runtime.RuntimeEntrypoints;
+import org.jikesrvm.runtime.Time;
 import org.jikesrvm.scheduler.RVMThread;
+import org.jikesrvm.scheduler.Synchronization;
 import org.mmtk.plan.TraceLocal;
 import org.mmtk.utility.Log;
 import org.mmtk.utility.options.Options;
 import org.vmmagic.pragma.Inline;
+import org.vmmagic.pragma.Interruptible;
 import org.vmmagic.pragma.Uninterruptible;
 import org.vmmagic.pragma.Untraced;
 import org.vmmagic.unboxed.Address;
@@ -77,7 +85,31 @@ import org.vmmagic.unboxed.Offset;
  * things must occur: first the pointed to object must be kept alive,
  * and second, if the pointed to object is moved by a copying
  * collector, the pointer into the object must be adjusted so it now
- * points into the newly copied object
+ * points into the newly copied object<p>
+ *
+ * <i>Scans ahead of the collection:</i> With
+ * {@link Options#useHandshakeStackScans}, the stacks of the mutator threads
+ * are scanned while the world is being stopped rather than in the root
+ * scanning phase: a thread that runs Java code scans its own stack when it
+ * stops for the collection, and the collector that stops the world scans
+ * the stacks of the threads that are blocked in native code while it waits
+ * for the others.  Those stacks cannot change until the collection is over,
+ * so the roots are recorded with the thread (see
+ * {@link org.jikesrvm.mm.mminterface.ThreadContext#addStackRoot}) and only
+ * reported to the trace in the root scanning phase.  With
+ * {@link Options#useShortStackScans} the recording scan stops at the return
+ * barrier; a collection that needs the frames below it scans the stack
+ * again. <p>
+ *
+ * <i>Stack segments:</i> With {@link Options#stackSegmentFrames}, the
+ * collector thread that claims a thread with a deep stack splits the stack
+ * into segments of that many frames, and publishes all but the top one for
+ * the other collector threads to scan.  The location of a register at the
+ * start of a segment depends on the frames above it, so a segment is
+ * scanned with a placeholder for each register.  A reference found at a
+ * placeholder, and the placeholders left at the end of the segment, are
+ * resolved once the segment above has been scanned, which is the only
+ * point at which the scans of the segments of a stack wait for each other.
  */
 @Uninterruptible public final class ScanThread {
 
@@ -97,6 +129,44 @@ import org.vmmagic.unboxed.Offset;
   private static final int DEFAULT_VERBOSITY = 0 /*0*/;
   private static final int FAILURE_VERBOSITY = 4;
 
+  /** The maximum number of stack segments in a collection */
+  private static final int MAX_STACK_SEGMENTS = 4096;
+
+  /*
+   * Layout of a stack segment, in words
+   */
+  /** The slot of the thread */
+  private static final int SEGMENT_THREAD = 0;
+  /** {@link #TOP_SEGMENT} and {@link #SEGMENT_DONE} */
+  private static final int SEGMENT_STATE = 1;
+  /** The frame pointer of the first frame */
+  private static final int SEGMENT_FP = 2;
+  /** The instruction pointer of the first frame */
+  private static final int SEGMENT_IP = 3;
+  /** The frame pointer of the frame above the first frame */
+  private static final int SEGMENT_CALLEE_FP = 4;
+  /** The frame pointer of the first frame of the next segment */
+  private static final int SEGMENT_END_FP = 5;
+  /** The locations of the registers at the end of the segment */
+  private static final int SEGMENT_REGISTERS = 6;
+
+  /** The segment is scanned by the collector thread that split the stack */
+  private static final int TOP_SEGMENT = 1;
+  /** The locations of the registers at the end of the segment are known */
+  private static final int SEGMENT_DONE = 2;
+
+  /*
+   * Indices into segmentCounters
+   */
+  /** The number of segments reserved in this collection */
+  private static final int RESERVED = 0;
+  /** The number of segments published in this collection */
+  private static final int PUBLISHED = 1;
+  /** The number of segments claimed in this collection */
+  private static final int CLAIMED = 2;
+  /** The number of collector threads that have claimed a thread, and may still split its stack */
+  private static final int SPLITTING = 3;
+
   /***********************************************************************
    *
    * Instance variables
@@ -119,6 +189,38 @@ import org.vmmagic.unboxed.Offset;
   private int compiledMethodType;
   private boolean failed;
   private boolean reinstallReturnBarrier;
+  /** Are the roots recorded with the thread rather than reported to a trace? */
+  private boolean recording;
+
+  /** Scanners for the threads that scan their own stacks when they stop for a collection */
+  private static ScanThread[] handshakeScanners = new ScanThread[0];
+  /** Whether each of the {@link #handshakeScanners} is in use */
+  private static int[] handshakeScannersInUse = new int[0];
+
+  /** The stack segments, in memory outside the heap, or zero if stacks are not split */
+  private static Address segments = Address.zero();
+  /** The size of a stack segment, in words */
+  private static int segmentWords;
+  /** The number of stack segments that fit into {@link #segments} */
+  private static int segmentCapacity;
+  /** Zeroed words that stand for the registers while their locations are unknown */
+  private static Address placeholders = Address.zero();
+  /** Counters for the stack segments of the current collection */
+  private static final int[] segmentCounters = new int[4];
+
+  /** The frame pointer at which the scan of a stack segment stops, or zero */
+  private Address stopFp;
+  /** The registers found to hold references before their locations were known */
+  private int deferredRegisters;
+
+  /** When the current collector thread started to scan roots */
+  private long rootScanStart;
+  /** The time spent scanning roots in the current collection */
+  private long rootScanTime;
+  /** The number of threads scanned in the current collection */
+  private int rootScanThreads;
+  /** The number of stack segments scanned for other collector threads in the current collection */
+  private int rootScanSegments;
 
   /***********************************************************************
    *
@@ -139,6 +241,18 @@ import org.vmmagic.unboxed.Offset;
       VM.sysWriteln("scanning ",thread.getThreadSlot());
     }
 
+    /* Grab the ScanThread instance associated with this thread */
+    ScanThread scanner = RVMThread.getCurrentThread().getCollectorThread().getThreadScanner();
+    scanner.rootScanThreads++;
+
+    /* the roots may have been recorded while the world was being stopped */
+    if (thread.hasStackRoots(newRootsSufficient && Options.useShortStackScans.getValue())) {
+      reportStackRoots(thread, trace, processCodeLocations);
+      return;
+    }
+    /* the recorded roots, if any, stop at the return barrier, but this collection needs the whole stack */
+    thread.discardStackRoots();
+
     /* get the gprs associated with this thread */
     AbstractRegisters regs = thread.getContextRegisters();
     Address gprs = Magic.objectAsAddress(regs.getGPRs());
@@ -148,7 +262,106 @@ import org.vmmagic.unboxed.Offset;
     regs.clear();
     regs.setInnermost(ip,fp);
 
-    scanThread(thread, trace, processCodeLocations, gprs, Address.zero(), newRootsSufficient);
+    scanner.recording = false;
+    scanThread(scanner, thread, trace, processCodeLocations, gprs, Address.zero(), newRootsSufficient);
+  }
+
+  /**
+   * Creates the scanners for the threads that scan their own stacks when
+   * they stop for a collection.
+   *
+   * @param count the number of threads that may scan their stacks at once
+   */
+  @Interruptible
+  public static void createHandshakeScanners(int count) {
+    ScanThread[] scanners = new ScanThread[count];
+    for (int i = 0; i < count; i++) {
+      scanners[i] = new ScanThread();
+    }
+    handshakeScannersInUse = new int[count];
+    handshakeScanners = scanners;
+  }
+
+  /**
+   * Records the roots of the stack of the current thread, which is about to
+   * stop for a collection.  If all the scanners are in use by other threads,
+   * the stack is left to be scanned by a collector.
+   */
+  public static void recordOwnStackRoots() {
+    RVMThread thread = RVMThread.getCurrentThread();
+    for (int i = 0; i < handshakeScanners.length; i++) {
+      if (handshakeScannersInUse[i] == 0 &&
+          Synchronization.tryCompareAndSwap(handshakeScannersInUse, Offset.fromIntZeroExtend(i << LOG_BYTES_IN_INT), 0, 1)) {
+        recordStackRoots(handshakeScanners[i], thread);
+        Magic.sync();
+        handshakeScannersInUse[i] = 0;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Records the roots of the stack of a thread that is blocked in native
+   * code for a collection, while the world is still being stopped.  Must be
+   * called by a collector thread.
+   *
+   * @param thread the thread
+   */
+  public static void recordBlockedStackRoots(RVMThread thread) {
+    recordStackRoots(RVMThread.getCurrentThread().getCollectorThread().getThreadScanner(), thread);
+  }
+
+  /**
+   * Scans the stack of a thread that cannot run Java code until the
+   * collection is over, and records its roots with the thread.  With
+   * {@link Options#useShortStackScans} the scan stops at the return barrier,
+   * as a short stack scan would.  Whether the collection is a nursery
+   * collection is not known yet, so a collection that needs the whole
+   * stack scans it again in the root scanning phase.
+   *
+   * @param scanner the scanner to use
+   * @param thread the thread
+   */
+  private static void recordStackRoots(ScanThread scanner, RVMThread thread) {
+    if (thread.getExecStatus() == RVMThread.NEW || thread.getIsAboutToTerminate()) {
+      return;
+    }
+    AbstractRegisters regs = thread.getContextRegisters();
+    Address gprs = Magic.objectAsAddress(regs.getGPRs());
+    Address ip = regs.getInnermostInstructionAddress();
+    Address fp = regs.getInnermostFramePointer();
+    regs.clear();
+    regs.setInnermost(ip,fp);
+
+    boolean shortScan = Options.useShortStackScans.getValue() &&
+        thread.getNextUnencounteredFrame().NE(StackFrameLayout.getStackFrameSentinelFP());
+    thread.beginStackRoots(shortScan);
+    scanner.recording = true;
+    scanThread(scanner, thread, null, MOVES_CODE, gprs, Address.zero(), shortScan);
+    scanner.recording = false;
+    thread.endStackRoots();
+  }
+
+  /**
+   * Reports the roots recorded with a thread to a trace, and forgets them.
+   *
+   * @param thread the thread
+   * @param trace the trace
+   * @param processCodeLocations whether to report pointers into code
+   */
+  private static void reportStackRoots(RVMThread thread, TraceLocal trace,
+                                       boolean processCodeLocations) {
+    int length = thread.getStackRootsLength();
+    for (int i = 0; i < length; i++) {
+      Address location = thread.getStackRootLocation(i);
+      Address code = thread.getStackRootCode(i);
+      if (code.isZero()) {
+        reportDelayedRootEdge(trace, location);
+      } else if (processCodeLocations) {
+        trace.processInteriorEdge(code.toObjectReference(), location, true);
+      }
+    }
+    thread.discardStackRoots();
   }
 
   /**
@@ -169,8 +382,10 @@ import org.vmmagic.unboxed.Offset;
    * scanning of stack segments which are dislocated from the thread
    * structure.
    *
+   * @param scanner The scanner to use
    * @param thread The thread to be scanned
-   * @param trace The trace instance to use for reporting references.
+   * @param trace The trace instance to use for reporting references,
+   * or {@code null} if the scanner records them.
    * @param processCodeLocations Should code locations be processed?
    * @param gprs The general purpose registers associated with the
    * stack being scanned (normally extracted from the thread).
@@ -178,7 +393,7 @@ import org.vmmagic.unboxed.Offset;
    * if this is to be inferred from the thread (normally the case).
    * @param newRootsSufficent Is a partial stack scan sufficient, or must we do a full scan?
    */
-  private static void scanThread(RVMThread thread, TraceLocal trace,
+  private static void scanThread(ScanThread scanner, RVMThread thread, TraceLocal trace,
                                  boolean processCodeLocations,
                                  Address gprs, Address topFrame, boolean newRootsSufficent) {
     // figure out if the thread should be scanned at all; if not, exit
@@ -197,9 +412,6 @@ import org.vmmagic.unboxed.Offset;
       initialIPLoc = thread.getContextRegisters().getIPLocation(); // FIXME
     }
 
-    /* Grab the ScanThread instance associated with this thread */
-    ScanThread scanner = RVMThread.getCurrentThread().getCollectorThread().getThreadScanner();
-
     /* Expicitly establish the stopping point for this scan (not necessarily the bottom of stack) */
     Address sentinalFp = newRootsSufficent && Options.useShortStackScans.getValue() ? thread.getNextUnencounteredFrame() : StackFrameLayout.getStackFrameSentinelFP();
 
@@ -208,8 +420,14 @@ import org.vmmagic.unboxed.Offset;
       thread.deInstallStackTrampoline();
     }
 
+    /* let the other collector threads scan the lower parts of a deep stack */
+    int segment = scanner.splitStack(thread, fp, sentinalFp);
+
     /* scan the stack */
     scanner.startScan(trace, processCodeLocations, thread, gprs, ip, fp, initialIPLoc, topFrame, sentinalFp);
+    if (segment >= 0) {
+      scanner.publishRegisterLocations(segment);
+    }
   }
 
   /**
@@ -282,7 +500,7 @@ import org.vmmagic.unboxed.Offset;
       Log.write("Thread #");
       Log.writeln(thread.getThreadSlot());
     }
-    if (VM.VerifyAssertions) assertImmovableInCurrentCollection();
+    if (VM.VerifyAssertions && !recording) assertImmovableInCurrentCollection();
 
     /* first find any references to exception handlers in the registers */
     getHWExceptionRegisters();
@@ -299,7 +517,7 @@ import org.vmmagic.unboxed.Offset;
       /* At start of loop:
          fp -> frame for method invocation being processed
          ip -> instruction pointer in the method (normally a call site) */
-      while (Magic.getCallerFramePointer(fp).NE(sentinelFp)) {
+      while (Magic.getCallerFramePointer(fp).NE(sentinelFp) && fp.NE(stopFp)) {
         if (false) {
           VM.sysWriteln("Thread ",RVMThread.getCurrentThreadSlot()," at fp = ",fp);
         }
@@ -370,7 +588,391 @@ import org.vmmagic.unboxed.Offset;
         if (!failed) failed = true;
       }
     }
-    trace.processInteriorEdge(code, ipLoc, true);
+    if (recording) {
+      thread.addStackRoot(ipLoc, code.toAddress());
+    } else {
+      trace.processInteriorEdge(code, ipLoc, true);
+    }
+  }
+
+  /***********************************************************************
+   *
+   * Stack segments
+   */
+
+  /**
+   * Creates the memory for the stack segments.  Stacks are only split on
+   * IA32: the PowerPC baseline compiler may load a return address through
+   * the location of a register, which is not known in a segment until the
+   * segments above it have been scanned.
+   */
+  @Interruptible
+  public static void createStackSegments() {
+    if (!VM.BuildForIA32) return;
+    int registers = ArchConstants.getNumberOfGPRs();
+    placeholders = sysCall.sysCalloc(registers << LOG_BYTES_IN_ADDRESS);
+    segmentWords = SEGMENT_REGISTERS + registers;
+    segments = sysCall.sysMalloc(MAX_STACK_SEGMENTS * (segmentWords << LOG_BYTES_IN_ADDRESS));
+    if (!placeholders.isZero() && !segments.isZero()) {
+      segmentCapacity = MAX_STACK_SEGMENTS;
+    }
+  }
+
+  /**
+   * Forgets the stack segments of the previous collection.  Called before
+   * the threads are scanned, while no collector thread uses the segments.
+   */
+  public static void resetStackSegments() {
+    for (int i = 0; i < segmentCounters.length; i++) {
+      segmentCounters[i] = 0;
+    }
+  }
+
+  /**
+   * Notes that the current collector thread is about to claim a thread, and
+   * may split its stack.  The other collector threads wait for segments
+   * until it has called {@link #endThreadClaim()}.
+   */
+  public static void beginThreadClaim() {
+    if (segmentCapacity != 0) {
+      Synchronization.fetchAndAdd(segmentCounters, counter(SPLITTING), 1);
+    }
+  }
+
+  /**
+   * Notes that the current collector thread has scanned the thread it
+   * claimed, or found none to claim.
+   */
+  public static void endThreadClaim() {
+    if (segmentCapacity != 0) {
+      Synchronization.fetchAndAdd(segmentCounters, counter(SPLITTING), -1);
+    }
+  }
+
+  /**
+   * Scans the stack segments published by other collector threads, until
+   * there are none left to claim.
+   *
+   * @param trace the trace to report the references to
+   * @param processCodeLocations whether to report pointers into code
+   */
+  public static void scanStackSegments(TraceLocal trace, boolean processCodeLocations) {
+    if (segmentCapacity == 0) return;
+    ScanThread scanner = RVMThread.getCurrentThread().getCollectorThread().getThreadScanner();
+    for (int index = claimStackSegment(); index >= 0; index = claimStackSegment()) {
+      if ((segment(index).loadInt(word(SEGMENT_STATE)) & TOP_SEGMENT) == 0) {
+        scanner.scanStackSegment(index, trace, processCodeLocations);
+        scanner.rootScanSegments++;
+      }
+    }
+  }
+
+  /**
+   * Scans the stack segments published by other collector threads until
+   * no thread is left whose stack could still be split.
+   *
+   * @param trace the trace to report the references to
+   * @param processCodeLocations whether to report pointers into code
+   */
+  public static void finishStackSegments(TraceLocal trace, boolean processCodeLocations) {
+    if (segmentCapacity == 0) return;
+    while (true) {
+      scanStackSegments(trace, processCodeLocations);
+      if (segmentCounters[SPLITTING] == 0 && segmentCounters[CLAIMED] >= segmentCounters[PUBLISHED]) {
+        break;
+      }
+      Magic.pause();
+    }
+  }
+
+  /**
+   * @param index an index into {@link #segmentCounters}
+   * @return the offset of the counter
+   */
+  @Inline
+  private static Offset counter(int index) {
+    return Offset.fromIntZeroExtend(index << LOG_BYTES_IN_INT);
+  }
+
+  /**
+   * @param index the index of a stack segment
+   * @return the address of the segment
+   */
+  @Inline
+  private static Address segment(int index) {
+    return segments.plus(index * (segmentWords << LOG_BYTES_IN_ADDRESS));
+  }
+
+  /**
+   * @param index the index of a word of a stack segment
+   * @return the offset of the word
+   */
+  @Inline
+  private static Offset word(int index) {
+    return Offset.fromIntZeroExtend(index << LOG_BYTES_IN_ADDRESS);
+  }
+
+  /**
+   * @param location the location of a register
+   * @return whether the location is a placeholder for the register
+   */
+  @Inline
+  private static boolean isPlaceholder(Address location) {
+    return !placeholders.isZero() && location.GE(placeholders) &&
+      location.LT(placeholders.plus(ArchConstants.getNumberOfGPRs() << LOG_BYTES_IN_ADDRESS));
+  }
+
+  /**
+   * Reserves consecutive stack segments, unless there are not enough left.
+   *
+   * @param count the number of segments
+   * @return the index of the first segment, or -1
+   */
+  private static int reserveStackSegments(int count) {
+    while (true) {
+      int reserved = segmentCounters[RESERVED];
+      if (reserved + count > segmentCapacity) return -1;
+      if (Synchronization.tryCompareAndSwap(segmentCounters, counter(RESERVED), reserved, reserved + count)) {
+        return reserved;
+      }
+    }
+  }
+
+  /**
+   * Publishes reserved stack segments for the collector threads to claim.
+   * Segments are published in the order in which they were reserved, so
+   * this waits for any collector thread that reserved segments before.
+   *
+   * @param first the index of the first segment
+   * @param count the number of segments
+   */
+  private static void publishStackSegments(int first, int count) {
+    Magic.sync();
+    while (!Synchronization.tryCompareAndSwap(segmentCounters, counter(PUBLISHED), first, first + count)) {
+      Magic.pause();
+    }
+  }
+
+  /**
+   * Claims the next published stack segment.  Segments are claimed in
+   * order, so the segment above a claimed segment has always been claimed
+   * too.
+   *
+   * @return the index of the segment, or -1 if there is none
+   */
+  private static int claimStackSegment() {
+    while (true) {
+      int claimed = segmentCounters[CLAIMED];
+      if (claimed >= segmentCounters[PUBLISHED]) return -1;
+      if (Synchronization.tryCompareAndSwap(segmentCounters, counter(CLAIMED), claimed, claimed + 1)) {
+        Magic.isync();
+        return claimed;
+      }
+    }
+  }
+
+  /**
+   * Splits a deep stack into segments, and publishes all of them but the
+   * top one, which is left to this scanner.  Stacks with native frames are
+   * not split, as the frames of the JNI transitions are scanned in order.
+   *
+   * @param thread the thread whose stack is scanned
+   * @param fp the frame pointer of the top frame
+   * @param sentinelFp the frame pointer at which the scan stops
+   * @return the index of the top segment, or -1 if the stack is scanned as
+   *  a whole
+   */
+  private int splitStack(RVMThread thread, Address fp, Address sentinelFp) {
+    stopFp = Address.zero();
+    int frames = Options.stackSegmentFrames.getValue();
+    if (frames == 0 || segmentCapacity == 0 || recording ||
+        fp.EQ(StackFrameLayout.getStackFrameSentinelFP()) ||
+        RVMThread.getCurrentThread().getCollectorContext().parallelWorkerCount() == 1) {
+      return -1;
+    }
+
+    /* count the frames */
+    int depth = 0;
+    for (Address f = fp; Magic.getCallerFramePointer(f).NE(sentinelFp); f = Magic.getCallerFramePointer(f)) {
+      int compiledMethodId = Magic.getCompiledMethodID(f);
+      if (compiledMethodId != StackFrameLayout.getInvisibleMethodID()) {
+        CompiledMethod method = CompiledMethods.getCompiledMethod(compiledMethodId);
+        int type = method.getCompilerType();
+        if (type == CompiledMethod.JNI ||
+            (type != CompiledMethod.TRAP && method.getMethod().getDeclaringClass().hasBridgeFromNativeAnnotation())) {
+          return -1;
+        }
+      }
+      depth++;
+    }
+    int count = depth / frames;
+    if (count < 2) return -1;
+    int top = reserveStackSegments(count);
+    if (top < 0) return -1;
+
+    /* note where each segment starts and the one above it ends */
+    int slot = thread.getThreadSlot();
+    int last = top + count - 1;
+    int index = top;
+    Address segment = segment(top);
+    segment.store(slot, word(SEGMENT_THREAD));
+    segment.store(TOP_SEGMENT, word(SEGMENT_STATE));
+    Address calleeFp = Address.zero();
+    Address f = fp;
+    for (int frame = 0; Magic.getCallerFramePointer(f).NE(sentinelFp); frame++) {
+      if (frame == frames && index < last) {
+        segment.store(f, word(SEGMENT_END_FP));
+        segment = segment(++index);
+        segment.store(slot, word(SEGMENT_THREAD));
+        segment.store(0, word(SEGMENT_STATE));
+        segment.store(f, word(SEGMENT_FP));
+        segment.store(Magic.getReturnAddress(calleeFp, thread), word(SEGMENT_IP));
+        segment.store(calleeFp, word(SEGMENT_CALLEE_FP));
+        frame = 0;
+      }
+      calleeFp = f;
+      f = Magic.getCallerFramePointer(f);
+    }
+    segment.store(f, word(SEGMENT_END_FP));
+    publishStackSegments(top, count);
+
+    stopFp = segment(top).loadAddress(word(SEGMENT_END_FP));
+    return top;
+  }
+
+  /**
+   * Scans a stack segment published by another collector thread.
+   *
+   * @param index the index of the segment
+   * @param trace the trace to report the references to
+   * @param processCodeLocations whether to report pointers into code
+   */
+  private void scanStackSegment(int index, TraceLocal trace, boolean processCodeLocations) {
+    Address segment = segment(index);
+    this.trace = trace;
+    this.processCodeLocations = processCodeLocations;
+    this.thread = RVMThread.getThreadBySlot(segment.loadInt(word(SEGMENT_THREAD)));
+    this.recording = false;
+    this.failed = false;
+    this.topFrame = Address.zero();
+    this.stopFp = segment.loadAddress(word(SEGMENT_END_FP));
+    scanStackSegmentInternal(segment, DEFAULT_VERBOSITY);
+    if (failed) {
+      /* rescan verbosely on failure */
+      scanStackSegmentInternal(segment, FAILURE_VERBOSITY);
+      VM.sysFail("Error encountered while scanning stack");
+    }
+
+    /* the locations still missing are those at the end of the segment above */
+    boolean resolved = deferredRegisters == 0;
+    int registers = ArchConstants.getNumberOfGPRs();
+    for (int i = 0; i < registers && resolved; i++) {
+      resolved = !isPlaceholder(iteratorGroup.getRegisterLocation(i));
+    }
+    if (!resolved) {
+      Address above = segment(index - 1);
+      while ((above.loadInt(word(SEGMENT_STATE)) & SEGMENT_DONE) == 0) {
+        Magic.pause();
+      }
+      Magic.isync();
+      for (int i = 0; i < registers; i++) {
+        Address location = above.loadAddress(word(SEGMENT_REGISTERS + i));
+        if (isPlaceholder(iteratorGroup.getRegisterLocation(i))) {
+          iteratorGroup.setRegisterLocation(i, location);
+        }
+        if ((deferredRegisters & (1 << i)) != 0) {
+          reportDelayedRootEdge(trace, location);
+        }
+      }
+    }
+    publishRegisterLocations(index);
+  }
+
+  /**
+   * The stack scanning loop for a stack segment.
+   *
+   * @param segment the address of the segment
+   * @param verbosity The level of verbosity to be used when
+   * performing the scan.
+   */
+  private void scanStackSegmentInternal(Address segment, int verbosity) {
+    fp = segment.loadAddress(word(SEGMENT_FP));
+    ip = segment.loadAddress(word(SEGMENT_IP));
+    prevFp = segment.loadAddress(word(SEGMENT_CALLEE_FP));
+    reinstallReturnBarrier = false;
+    deferredRegisters = 0;
+    iteratorGroup.newStackWalk(thread, placeholders);
+    if (verbosity >= 2) {
+      Log.write("--- Start Of Stack Segment Scan at fp = ");
+      Log.writeln(fp);
+    }
+    while (fp.NE(stopFp)) {
+      prevFp = scanFrame(verbosity);
+      ip = Magic.getReturnAddress(fp, thread);
+      fp = Magic.getCallerFramePointer(fp);
+    }
+    if (verbosity >= 2) Log.writeln("--- End Of Stack Segment Scan ---\n");
+  }
+
+  /**
+   * Publishes the locations of the registers at the end of a stack segment,
+   * for the scan of the segment below.
+   *
+   * @param index the index of the segment
+   */
+  private void publishRegisterLocations(int index) {
+    Address segment = segment(index);
+    int registers = ArchConstants.getNumberOfGPRs();
+    for (int i = 0; i < registers; i++) {
+      segment.store(iteratorGroup.getRegisterLocation(i), word(SEGMENT_REGISTERS + i));
+    }
+    Magic.sync();
+    segment.store(segment.loadInt(word(SEGMENT_STATE)) | SEGMENT_DONE, word(SEGMENT_STATE));
+  }
+
+  /***********************************************************************
+   *
+   * Root scanning statistics
+   */
+
+  /**
+   * Notes that the current collector thread starts to scan roots.
+   */
+  public static void beginRootScan() {
+    ScanThread scanner = RVMThread.getCurrentThread().getCollectorThread().getThreadScanner();
+    scanner.rootScanThreads = 0;
+    scanner.rootScanSegments = 0;
+    scanner.rootScanStart = Time.nanoTime();
+  }
+
+  /**
+   * Notes that the current collector thread has scanned its share of roots.
+   */
+  public static void endRootScan() {
+    ScanThread scanner = RVMThread.getCurrentThread().getCollectorThread().getThreadScanner();
+    scanner.rootScanTime = Time.nanoTime() - scanner.rootScanStart;
+  }
+
+  /**
+   * Prints the time each collector thread spent scanning stacks in the
+   * current collection, and the threads and segments it scanned.
+   */
+  public static void reportRootScanTimes() {
+    for (int i = 0; i < RVMThread.numThreads; i++) {
+      RVMThread thread = RVMThread.threads[i];
+      if (thread == null || !thread.isCollectorThread()) continue;
+      ScanThread scanner = thread.getCollectorThread().getThreadScanner();
+      if (scanner.rootScanStart == 0) continue;
+      Log.write("[Stack roots: thread ");
+      Log.write(thread.getThreadSlot());
+      Log.write(" ");
+      Log.write(Time.nanosToMillis(scanner.rootScanTime));
+      Log.write(" ms, ");
+      Log.write(scanner.rootScanThreads);
+      Log.write(" threads, ");
+      Log.write(scanner.rootScanSegments);
+      Log.writeln(" segments]");
+    }
   }
 
   /***********************************************************************
@@ -482,9 +1084,18 @@ import org.vmmagic.unboxed.Offset;
     for (Address refaddr = iterator.getNextReferenceAddress();
          !refaddr.isZero();
          refaddr = iterator.getNextReferenceAddress()) {
+      if (isPlaceholder(refaddr)) {
+        /* the reference is reported once the segment above has been scanned */
+        deferredRegisters |= 1 << (refaddr.diff(placeholders).toInt() >> LOG_BYTES_IN_ADDRESS);
+        continue;
+      }
       if (VALIDATE_REFS) checkReference(refaddr, verbosity);
       if (verbosity >= 4) dumpRef(refaddr, verbosity);
-      reportDelayedRootEdge(trace, refaddr);
+      if (recording) {
+        thread.addStackRoot(refaddr, Address.zero());
+      } else {
+        reportDelayedRootEdge(trace, refaddr);
+      }
     }
   }
 
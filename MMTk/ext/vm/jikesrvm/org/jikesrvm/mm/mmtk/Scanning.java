@@ -29,6 +29,7 @@ import org.jikesrvm.scheduler.RVMThread;
 import org.mmtk.plan.CollectorContext;
 import org.mmtk.plan.TraceLocal;
 import org.mmtk.plan.TransitiveClosure;
+import org.mmtk.utility.options.Options;
 import org.vmmagic.pragma.Inline;
 import org.vmmagic.pragma.Uninterruptible;
 import org.vmmagic.unboxed.Address;
@@ -79,10 +80,13 @@ public final class Scanning extends org.mmtk.vm.Scanning {
   @Override
   public void resetThreadCounter() {
     threadCounter.reset();
+    ScanThread.resetStackSegments();
   }
 
   @Override
   public void notifyInitialThreadScanComplete(boolean partialScan) {
+    if (Options.verbose.getValue() >= 3)
+      ScanThread.reportRootScanTimes();
     if (!partialScan)
       CompiledMethods.snipObsoleteCompiledMethods();
     /* flush out any remset entries generated during the above activities */
@@ -187,18 +191,27 @@ public final class Scanning extends org.mmtk.vm.Scanning {
    */
   private void computeThreadRoots(TraceLocal trace, boolean newRootsSufficient) {
     boolean processCodeLocations = MOVES_CODE;
+    ScanThread.beginRootScan();
 
-    /* scan all threads */
+    /* scan all threads, and the segments of deep stacks split by other collector threads */
     while (true) {
+      ScanThread.scanStackSegments(trace, processCodeLocations);
+      ScanThread.beginThreadClaim();
       int threadIndex = threadCounter.increment();
-      if (threadIndex > RVMThread.numThreads) break;
+      if (threadIndex > RVMThread.numThreads) {
+        ScanThread.endThreadClaim();
+        break;
+      }
 
       RVMThread thread = RVMThread.threads[threadIndex];
-      if (thread == null || thread.isCollectorThread()) continue;
-
-      /* scan the thread (stack etc.) */
-      ScanThread.scanThread(thread, trace, processCodeLocations, newRootsSufficient);
+      if (thread != null && !thread.isCollectorThread()) {
+        /* scan the thread (stack etc.) */
+        ScanThread.scanThread(thread, trace, processCodeLocations, newRootsSufficient);
+      }
+      ScanThread.endThreadClaim();
     }
+    ScanThread.finishStackSegments(trace, processCodeLocations);
+    ScanThread.endRootScan();
 
     /* flush out any remset entries generated during the above activities */
     Selected.Mutator.get().flushRememberedSets();
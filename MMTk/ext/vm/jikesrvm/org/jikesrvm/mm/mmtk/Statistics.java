@@ -12,7 +12,10 @@
  */
 package org.jikesrvm.mm.mmtk;
 
+import org.mmtk.utility.Log;
 import org.mmtk.utility.statistics.PerfEvent;
+import org.mmtk.utility.statistics.Xml;
+import org.jikesrvm.runtime.PerfCounters;
 import org.jikesrvm.runtime.Time;
 import static org.jikesrvm.runtime.SysCall.sysCall;
 
@@ -62,6 +65,22 @@ public final class Statistics extends org.mmtk.vm.Statistics {
 
   private PerfEvent[] perfEvents;
 
+  /**
+   * For each perf event, the index of its counter in {@link PerfCounters},
+   * or -1 if the event is counted with libpfm
+   */
+  private int[] perfCounters;
+
+  /**
+   * For each perf event counted with libpfm, its id in the native code
+   */
+  private int[] perfEventIds;
+
+  /**
+   * Initializes the perf events.  The events that {@link PerfCounters}
+   * knows are counted for every thread of the VM; other events are passed
+   * to libpfm, which counts them for the current thread.
+   */
   @Override
   @Interruptible
   public void perfEventInit(String events) {
@@ -72,18 +91,124 @@ public final class Statistics extends org.mmtk.vm.Statistics {
     // initialize perf event
     String[] perfEventNames = events.split(",");
     int n = perfEventNames.length;
-    sysCall.sysPerfEventInit(n);
     perfEvents = new PerfEvent[n];
+    perfCounters = new int[n];
+    perfEventIds = new int[n];
+    int[] vmEvents = new int[n];
+    int numVmEvents = 0;
+    int numNativeEvents = 0;
     for (int i = 0; i < n; i++) {
-      sysCall.sysPerfEventCreate(i, perfEventNames[i].concat("\0").getBytes());
+      int event = PerfCounters.eventIndex(perfEventNames[i]);
+      if (event >= 0) {
+        vmEvents[numVmEvents++] = event;
+      } else {
+        perfEventIds[i] = numNativeEvents++;
+      }
       perfEvents[i] = new PerfEvent(i, perfEventNames[i]);
     }
-    sysCall.sysPerfEventEnable();
+    if (numVmEvents > 0) {
+      int[] counted = new int[numVmEvents];
+      System.arraycopy(vmEvents, 0, counted, 0, numVmEvents);
+      PerfCounters.boot(counted);
+    }
+    if (numNativeEvents > 0) {
+      sysCall.sysPerfEventInit(numNativeEvents);
+    }
+    for (int i = 0; i < n; i++) {
+      int event = PerfCounters.eventIndex(perfEventNames[i]);
+      if (event >= 0) {
+        perfCounters[i] = PerfCounters.counterOf(event);
+      } else {
+        perfCounters[i] = -1;
+        sysCall.sysPerfEventCreate(perfEventIds[i], perfEventNames[i].concat("\0").getBytes());
+      }
+    }
+    if (numNativeEvents > 0) {
+      sysCall.sysPerfEventEnable();
+    }
   }
 
   @Override
   public void perfEventRead(int id, long[] values) {
-    sysCall.sysPerfEventRead(id, values);
+    int counter = perfCounters[id];
+    if (counter >= 0) {
+      // the counts of each thread are already scaled
+      values[0] = PerfCounters.readTotal(counter);
+      values[1] = 1;
+      values[2] = 1;
+    } else {
+      sysCall.sysPerfEventRead(perfEventIds[id], values);
+    }
   }
-}
 
+  /**
+   * Prints the counts of each thread in each phase of {@link PerfCounters},
+   * and their totals.
+   */
+  @Override
+  @Interruptible
+  public void perfEventPrintTotals(boolean xml) {
+    if (!PerfCounters.enabled) return;
+    PerfCounters.ThreadCounts[] threads = PerfCounters.getThreadCounts();
+    int numEvents = PerfCounters.getNumEvents();
+    long[] totals = new long[PerfCounters.NUM_PHASES * numEvents];
+    for (PerfCounters.ThreadCounts t : threads) {
+      for (int i = 0; i < totals.length; i++) {
+        totals[i] += t.counts[i];
+      }
+    }
+    if (xml) {
+      Xml.openMinorTag("perf-counters");
+      Xml.closeTag(false);
+      for (PerfCounters.ThreadCounts t : threads) {
+        printCountsXml(t.name, t.counts);
+      }
+      printCountsXml("total", totals);
+      Xml.closeTag("perf-counters");
+    } else {
+      Log.writeln("Perf counters per thread (mu = mutator, gc = collector, opt = optimizing compiler)");
+      Log.write("thread");
+      for (int e = 0; e < numEvents; e++) {
+        for (int p = 0; p < PerfCounters.NUM_PHASES; p++) {
+          Log.write("\t"); Log.write(PerfCounters.getEventName(e));
+          Log.write("."); Log.write(PerfCounters.getPhaseName(p));
+        }
+      }
+      Log.writeln();
+      for (PerfCounters.ThreadCounts t : threads) {
+        printCounts(t.name, t.counts);
+      }
+      printCounts("total", totals);
+    }
+  }
+
+  @Interruptible
+  private static void printCounts(String name, long[] counts) {
+    int numEvents = PerfCounters.getNumEvents();
+    Log.write(name);
+    for (int e = 0; e < numEvents; e++) {
+      for (int p = 0; p < PerfCounters.NUM_PHASES; p++) {
+        Log.write("\t"); Log.write(counts[p * numEvents + e]);
+      }
+    }
+    Log.writeln();
+  }
+
+  @Interruptible
+  private static void printCountsXml(String name, long[] counts) {
+    int numEvents = PerfCounters.getNumEvents();
+    Xml.openMinorTag("thread");
+    Xml.attribute("name", name);
+    Xml.closeTag(false);
+    for (int e = 0; e < numEvents; e++) {
+      for (int p = 0; p < PerfCounters.NUM_PHASES; p++) {
+        Xml.openMinorTag("stat");
+        Xml.attribute("name", PerfCounters.getEventName(e));
+        Xml.attribute("value", counts[p * numEvents + e]);
+        Xml.attribute("phase", PerfCounters.getPhaseName(p));
+        Xml.closeMinorTag();
+      }
+    }
+    Xml.closeTag("thread");
+  }
+}
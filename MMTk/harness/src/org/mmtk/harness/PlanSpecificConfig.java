@@ -199,6 +199,7 @@ public class PlanSpecificConfig {
       addExpectedSpaces("non-moving");
       addExpectedSpaces("sm-code");
       addExpectedSpaces("lg-code");
+      addExpectedSpaces("sm-hot-code");
     }
 
     /**
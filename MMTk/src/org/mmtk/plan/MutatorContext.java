@@ -122,6 +122,9 @@ public abstract class MutatorContext {
   /** Per-mutator allocator into the large code space */
   protected final LargeObjectLocal lgcode = Plan.USE_CODE_SPACE ? new LargeObjectLocal(Plan.largeCodeSpace) : null;
 
+  /** Per-mutator allocator into the small hot code space */
+  protected final MarkSweepLocal smhotcode = Plan.USE_CODE_SPACE ? new MarkSweepLocal(Plan.smallHotCodeSpace) : null;
+
   /** Per-mutator allocator into the non moving space */
   protected final MarkSweepLocal nonmove = new MarkSweepLocal(Plan.nonMovingSpace);
 
@@ -164,7 +167,7 @@ public abstract class MutatorContext {
       return (maxBytes > Plan.MAX_NON_LOS_DEFAULT_ALLOC_BYTES || (maxBytes > Plan.MAX_NON_LOS_COPY_BYTES && maxBytes > Plan.pretenureThreshold)) ? Plan.ALLOC_LOS : Plan.ALLOC_DEFAULT;
     }
 
-    if (Plan.USE_CODE_SPACE && allocator == Plan.ALLOC_CODE) {
+    if (Plan.USE_CODE_SPACE && (allocator == Plan.ALLOC_CODE || allocator == Plan.ALLOC_SMALL_HOT_CODE)) {
       return (maxBytes > Plan.MAX_NON_LOS_NONMOVING_ALLOC_BYTES || (maxBytes > Plan.MAX_NON_LOS_COPY_BYTES && maxBytes > Plan.pretenureThreshold)) ? Plan.ALLOC_LARGE_CODE : allocator;
     }
 
@@ -196,6 +199,7 @@ public abstract class MutatorContext {
     case      Plan.ALLOC_IMMORTAL: return immortal.alloc(bytes, align, offset);
     case      Plan.ALLOC_CODE: return smcode.alloc(bytes, align, offset);
     case      Plan.ALLOC_LARGE_CODE: return lgcode.alloc(bytes, align, offset);
+    case      Plan.ALLOC_SMALL_HOT_CODE: return smhotcode.alloc(bytes, align, offset);
     case      Plan.ALLOC_NON_MOVING: return nonmove.alloc(bytes, align, offset);
     default:
       VM.assertions.fail("No such allocator");
@@ -220,6 +224,7 @@ public abstract class MutatorContext {
     case      Plan.ALLOC_IMMORTAL: Plan.immortalSpace.initializeHeader(ref);  return;
     case          Plan.ALLOC_CODE: Plan.smallCodeSpace.initializeHeader(ref, true); return;
     case    Plan.ALLOC_LARGE_CODE: Plan.largeCodeSpace.initializeHeader(ref, true); return;
+    case Plan.ALLOC_SMALL_HOT_CODE: Plan.smallHotCodeSpace.initializeHeader(ref, true); return;
     case    Plan.ALLOC_NON_MOVING: Plan.nonMovingSpace.initializeHeader(ref, true); return;
     default:
       VM.assertions.fail("No such allocator");
@@ -246,6 +251,7 @@ public abstract class MutatorContext {
     if (space == Plan.nonMovingSpace) return nonmove;
     if (Plan.USE_CODE_SPACE && space == Plan.smallCodeSpace) return smcode;
     if (Plan.USE_CODE_SPACE && space == Plan.largeCodeSpace) return lgcode;
+    if (Plan.USE_CODE_SPACE && space == Plan.smallHotCodeSpace) return smhotcode;
 
     // Invalid request has been made
     if (space == Plan.metaDataSpace) {
@@ -1221,6 +1227,7 @@ public abstract class MutatorContext {
   public void flush() {
     flushRememberedSets();
     smcode.flush();
+    smhotcode.flush();
     nonmove.flush();
   }
 
@@ -83,10 +83,11 @@ public abstract class Plan {
   public static final int ALLOC_GCSPY = 6;
   public static final int ALLOC_CODE = 7;
   public static final int ALLOC_LARGE_CODE = 8;
-  public static final int ALLOC_HOT_CODE = USE_CODE_SPACE ? ALLOC_CODE : ALLOC_DEFAULT;
+  public static final int ALLOC_SMALL_HOT_CODE = 9;
+  public static final int ALLOC_HOT_CODE = USE_CODE_SPACE ? ALLOC_SMALL_HOT_CODE : ALLOC_DEFAULT;
   public static final int ALLOC_COLD_CODE = USE_CODE_SPACE ? ALLOC_CODE : ALLOC_DEFAULT;
   public static final int ALLOC_STACK = ALLOC_LOS;
-  public static final int ALLOCATORS = 9;
+  public static final int ALLOCATORS = 10;
   public static final int DEFAULT_SITE = -1;
 
   /* Miscellaneous Constants */
@@ -125,6 +126,9 @@ public abstract class Plan {
   public static final MarkSweepSpace smallCodeSpace = USE_CODE_SPACE ? new MarkSweepSpace("sm-code", VMRequest.discontiguous()) : null;
   public static final LargeObjectSpace largeCodeSpace = USE_CODE_SPACE ? new LargeObjectSpace("lg-code", VMRequest.discontiguous()) : null;
 
+  /** Code of hot methods is kept apart from cold code so that it stays dense in the i-cache and iTLB. */
+  public static final MarkSweepSpace smallHotCodeSpace = USE_CODE_SPACE ? new MarkSweepSpace("sm-hot-code", VMRequest.discontiguous()) : null;
+
   public static int pretenureThreshold = Integer.MAX_VALUE;
 
   /* Space descriptors */
@@ -136,6 +140,7 @@ public abstract class Plan {
   public static final int NON_MOVING = nonMovingSpace.getDescriptor();
   public static final int SMALL_CODE = USE_CODE_SPACE ? smallCodeSpace.getDescriptor() : 0;
   public static final int LARGE_CODE = USE_CODE_SPACE ? largeCodeSpace.getDescriptor() : 0;
+  public static final int SMALL_HOT_CODE = USE_CODE_SPACE ? smallHotCodeSpace.getDescriptor() : 0;
 
   /** Timer that counts total time */
   public static final Timer totalTime = new Timer("time");
@@ -173,6 +178,8 @@ public abstract class Plan {
     Options.perfEvents = new PerfEvents();
     Options.useReturnBarrier = new UseReturnBarrier();
     Options.useShortStackScans = new UseShortStackScans();
+    Options.useHandshakeStackScans = new UseHandshakeStackScans();
+    Options.stackSegmentFrames = new StackSegmentFrames();
     Options.threads = new Threads();
     Options.cycleTriggerThreshold = new CycleTriggerThreshold();
     HeapLayout.vmMap.finalizeStaticSpaceMap();
@@ -1058,6 +1065,8 @@ public abstract class Plan {
       return true;
     if (USE_CODE_SPACE && Space.isInSpace(LARGE_CODE, object))
       return true;
+    if (USE_CODE_SPACE && Space.isInSpace(SMALL_HOT_CODE, object))
+      return true;
     /*
      * Default to false- this preserves correctness over efficiency.
      * Individual plans should override for non-moving spaces they define.
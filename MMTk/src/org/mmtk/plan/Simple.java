@@ -216,6 +216,7 @@ public abstract class Simple extends Plan {
       if (USE_CODE_SPACE) {
         smallCodeSpace.prepare(true);
         largeCodeSpace.prepare(true);
+        smallHotCodeSpace.prepare(true);
       }
       immortalSpace.prepare();
       VM.memory.globalPrepareVMSpace();
@@ -240,6 +241,7 @@ public abstract class Simple extends Plan {
       if (USE_CODE_SPACE) {
         smallCodeSpace.release();
         largeCodeSpace.release(true);
+        smallHotCodeSpace.release();
       }
       immortalSpace.release();
       VM.memory.globalReleaseVMSpace();
@@ -44,6 +44,7 @@ public class CMS extends Concurrent {
   static {
     msSpace.makeAllocAsMarked();
     smallCodeSpace.makeAllocAsMarked();
+    smallHotCodeSpace.makeAllocAsMarked();
     nonMovingSpace.makeAllocAsMarked();
   }
 
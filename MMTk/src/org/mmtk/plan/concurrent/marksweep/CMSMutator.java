@@ -160,6 +160,7 @@ public class CMSMutator extends ConcurrentMutator {
         else if (Space.isInSpace(CMS.NON_MOVING, ref)) CMS.nonMovingSpace.traceObject(remset, ref);
         else if (Space.isInSpace(CMS.SMALL_CODE, ref)) CMS.smallCodeSpace.traceObject(remset, ref);
         else if (Space.isInSpace(CMS.LARGE_CODE, ref)) CMS.largeCodeSpace.traceObject(remset, ref);
+        else if (Space.isInSpace(CMS.SMALL_HOT_CODE, ref)) CMS.smallHotCodeSpace.traceObject(remset, ref);
       }
     }
 
@@ -171,6 +172,7 @@ public class CMSMutator extends ConcurrentMutator {
         else if (Space.isInSpace(CMS.NON_MOVING, ref)) VM.assertions._assert(CMS.nonMovingSpace.isLive(ref));
         else if (Space.isInSpace(CMS.SMALL_CODE, ref)) VM.assertions._assert(CMS.smallCodeSpace.isLive(ref));
         else if (Space.isInSpace(CMS.LARGE_CODE, ref)) VM.assertions._assert(CMS.largeCodeSpace.isLive(ref));
+        else if (Space.isInSpace(CMS.SMALL_HOT_CODE, ref)) VM.assertions._assert(CMS.smallHotCodeSpace.isLive(ref));
       }
     }
   }
@@ -79,6 +79,7 @@ public class RCBaseMutator extends StopTheWorldMutator {
       case RCBase.ALLOC_DEFAULT:
       case RCBase.ALLOC_NON_MOVING:
       case RCBase.ALLOC_CODE:
+      case RCBase.ALLOC_SMALL_HOT_CODE:
         return rc.alloc(bytes, align, offset);
       case RCBase.ALLOC_LOS:
       case RCBase.ALLOC_PRIMITIVE_LOS:
@@ -100,6 +101,7 @@ public class RCBaseMutator extends StopTheWorldMutator {
     case RCBase.ALLOC_NON_MOVING:
       if (RCBase.BUILD_FOR_GENRC) modBuffer.push(ref);
     case RCBase.ALLOC_CODE:
+    case RCBase.ALLOC_SMALL_HOT_CODE:
       if (RCBase.BUILD_FOR_GENRC) {
         decBuffer.push(ref);
         RCHeader.initializeHeader(ref, true);
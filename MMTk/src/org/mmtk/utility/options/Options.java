@@ -57,9 +57,11 @@ public final class Options {
   public static PrintPhaseStats printPhaseStats;
   public static ProtectOnRelease protectOnRelease;
   public static SanityCheck sanityCheck;
+  public static StackSegmentFrames stackSegmentFrames;
   public static StressFactor stressFactor;
   public static Threads threads;
   public static TraceRate traceRate;
+  public static UseHandshakeStackScans useHandshakeStackScans;
   public static UseReturnBarrier useReturnBarrier;
   public static UseShortStackScans useShortStackScans;
   public static VariableSizeHeap variableSizeHeap;
@@ -21,7 +21,7 @@ public class PerfEvents extends org.vmutil.options.StringOption {
    */
   public PerfEvents() {
     super(Options.set, "Perf Events",
-        "Use this to specify a comma seperated list of performance events to measure",
+        "Use this to specify a comma seperated list of performance events to measure. The VM may count some events for all of its threads",
         "");
   }
 }
@@ -0,0 +1,36 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.mmtk.utility.options;
+
+/**
+ * The number of frames in each of the segments into which a deep stack is
+ * split, so that the collector threads can scan it in parallel.
+ */
+public final class StackSegmentFrames extends org.vmutil.options.IntOption {
+  /**
+   * Create the option.
+   */
+  public StackSegmentFrames() {
+    super(Options.set, "Stack Segment Frames",
+          "Split stacks into segments of this many frames that are scanned in parallel (0 scans each stack as a whole)",
+          0);
+  }
+
+  /**
+   * Only accept non-negative values
+   */
+  @Override
+  protected void validate() {
+    failIf(this.value < 0, "The number of frames must not be negative");
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.mmtk.utility.options;
+
+/**
+ * Option to scan the stacks of mutator threads while the world is being
+ * stopped for a collection, rather than in the root scanning phase.
+ */
+public final class UseHandshakeStackScans extends org.vmutil.options.BooleanOption {
+  /**
+   * Create the option.
+   */
+  public UseHandshakeStackScans() {
+    super(Options.set, "Use Handshake Stack Scans",
+          "Should running threads scan their own stacks when they stop for a collection, and the stacks of blocked threads be scanned while the others stop?",
+          false);
+  }
+}
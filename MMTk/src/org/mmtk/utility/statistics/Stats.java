@@ -207,6 +207,7 @@ public class Stats {
     Log.writeln();
     Log.write("Total time: ");
     Plan.totalTime.printTotal(); Log.writeln(" ms");
+    VM.statistics.perfEventPrintTotals(false);
     Log.writeln("------------------------------ End MMTk Statistics -----------------------------");
   }
 
@@ -312,6 +313,7 @@ public class Stats {
       }
     }
     Xml.singleValue("total-time",Plan.totalTime.getTotalMillis(),"ms");
+    VM.statistics.perfEventPrintTotals(true);
     Xml.closeTag("mmtk-stats-totals");
   }
 
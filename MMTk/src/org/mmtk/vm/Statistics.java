@@ -82,4 +82,14 @@ public abstract class Statistics {
    * read (3 64-bit values).
    */
   public abstract void perfEventRead(int counter, long[] values);
+
+  /**
+   * Prints the counts of performance events that the VM keeps by itself,
+   * such as the counts of each of its threads, with the totals of the
+   * statistics.
+   *
+   * @param xml whether to print them in XML format
+   */
+  @Interruptible
+  public abstract void perfEventPrintTotals(boolean xml);
 }
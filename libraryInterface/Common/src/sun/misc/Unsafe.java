@@ -24,6 +24,8 @@ import org.jikesrvm.runtime.RuntimeEntrypoints;
 import org.jikesrvm.scheduler.Synchronization;
 import org.jikesrvm.runtime.Memory;
 import org.jikesrvm.scheduler.RVMThread;
+import org.jikesrvm.scheduler.VirtualThread;
+import org.jikesrvm.scheduler.VirtualThreadScheduler;
 import org.vmmagic.pragma.Inline;
 import org.vmmagic.unboxed.Offset;
 
@@ -183,6 +185,9 @@ public final class Unsafe {
     RVMThread vmthread = java.lang.JikesRVMSupport.getThread((Thread)thread);
     if (vmthread != null) {
       vmthread.unpark();
+    } else if (thread instanceof VirtualThread) {
+      // not mounted on a carrier thread yet
+      VirtualThreadScheduler.unpark((VirtualThread) thread);
     }
   }
 
@@ -102,7 +102,7 @@ public class JikesRVMSupport {
     } else if (thread.vmThread == null) {
       return null;
     } else {
-      return thread.vmThread.vmdata;
+      return thread.vmThread.getRVMThread();
     }
   }
 
@@ -15,28 +15,58 @@ package java.lang;
 import static java.lang.VMCommonLibrarySupport.stackSizeFromAPIToJikesRVM;
 
 import org.jikesrvm.scheduler.RVMThread;
+import org.jikesrvm.scheduler.VirtualThread;
+import org.jikesrvm.scheduler.VirtualThreadScheduler;
 
 /**
  * Wrapper for Jikes RVM thread class
  */
 final class VMThread {
   /**
-   * Corresponding Thread accessed by JikesRVMSupport.getThread()
+   * Corresponding Thread accessed by JikesRVMSupport.getThread(), or
+   * {@code null} for a virtual thread
    */
   final RVMThread vmdata;
 
+  /**
+   * The virtual thread, which runs on the carrier threads of the
+   * VirtualThreadScheduler, or {@code null}
+   */
+  private final VirtualThread virtual;
+
+  /**
+   * The name of the virtual thread
+   */
+  private volatile String virtualName;
+
   /**
    * Constructor, called by JikesRVMSupport.createThread and VMThread.create
    */
   VMThread(RVMThread vmdata) {
     this.vmdata = vmdata;
+    this.virtual = null;
+  }
+
+  /**
+   * Constructor for a virtual thread, called by VMThread.create
+   */
+  private VMThread(VirtualThread virtual, String name) {
+    this.vmdata = null;
+    this.virtual = virtual;
+    this.virtualName = name;
   }
 
   /**
    * Creates the VM thread, sets this in the parent Thread and starts its
-   * execution.
+   * execution.  A virtual thread is queued to run on a carrier thread.
    */
   static void create(Thread parent, long stacksize) {
+    if (parent instanceof VirtualThread) {
+      VirtualThread v = (VirtualThread) parent;
+      parent.vmThread = new VMThread(v, parent.name);
+      VirtualThreadScheduler.start(v);
+      return;
+    }
     int boundedStackSize = stackSizeFromAPIToJikesRVM(stacksize);
     RVMThread vmd = new RVMThread(parent, boundedStackSize,  parent.name, parent.daemon, parent.priority);
     parent.vmThread = new VMThread(vmd);
@@ -48,13 +78,25 @@ final class VMThread {
    * @param name the new name for the thread
    */
   void setName(String name) {
-    vmdata.setName(name);
+    if (virtual != null) {
+      virtualName = name;
+    } else {
+      vmdata.setName(name);
+    }
   }
   /**
    * Gets the name of the thread
    */
   String getName() {
-    return vmdata.getName();
+    return virtual != null ? virtualName : vmdata.getName();
+  }
+  /**
+   * The RVMThread that runs the thread
+   * @return the RVMThread, which for a virtual thread is its carrier thread
+   *  while it runs, or else {@code null}
+   */
+  RVMThread getRVMThread() {
+    return virtual != null ? VirtualThreadScheduler.getCarrier(virtual) : vmdata;
   }
   /**
    * The current executing thread
@@ -77,27 +119,32 @@ final class VMThread {
    * @return whether this thread is a daemon
    */
   boolean isDaemon() {
-    return vmdata.isDaemonThread();
+    return virtual != null || vmdata.isDaemonThread();
   }
   /**
    * Get the priority of the thread
    * @return the thread's priority
    */
   int getPriority() {
-    return vmdata.getPriority();
+    return virtual != null ? Thread.NORM_PRIORITY : vmdata.getPriority();
   }
   /**
    * Set the priority of the thread
    * @param priority
    */
   void setPriority(int priority) {
-    vmdata.setPriority(priority);
+    if (virtual == null) {
+      vmdata.setPriority(priority);
+    }
   }
   /**
    * Get the state of the thread
    * @return thread state
    */
   String getState() {
+    if (virtual != null) {
+      return VirtualThreadScheduler.getState(virtual).toString();
+    }
     return vmdata.getState().toString();
   }
   /**
@@ -106,7 +153,11 @@ final class VMThread {
    * @param ns nanoseconds to wait
    */
   void join(long ms, int ns) throws InterruptedException {
-    vmdata.join(ms, ns);
+    if (virtual != null) {
+      VirtualThreadScheduler.join(virtual, ms, ns);
+    } else {
+      vmdata.join(ms, ns);
+    }
   }
   /**
    * Yield control
@@ -140,24 +191,33 @@ final class VMThread {
    * @return whether the thread was interrupted
    */
   boolean isInterrupted() {
+    if (virtual != null) {
+      return VirtualThreadScheduler.isInterrupted(virtual);
+    }
     return vmdata.isInterrupted();
   }
   /**
    * Interrupt this thread
    */
   void interrupt() {
-    vmdata.interrupt();
+    if (virtual != null) {
+      VirtualThreadScheduler.interrupt(virtual);
+    } else {
+      vmdata.interrupt();
+    }
   }
   /**
    * Suspend execution of this thread
    */
   void suspend() {
+    checkNotVirtual();
     vmdata.suspend();
   }
   /**
    * Resume execution of this thread
    */
   void resume() {
+    checkNotVirtual();
     vmdata.resume();
   }
   /**
@@ -165,12 +225,23 @@ final class VMThread {
    * @param t the throwable thrown when the thread dies
    */
   void stop(Throwable t) {
+    checkNotVirtual();
     vmdata.stop(t);
   }
   /**
    * Count the stack frames of this thread
    */
   int countStackFrames() {
+    checkNotVirtual();
     return vmdata.countStackFrames();
   }
+  /**
+   * Virtual threads cannot be suspended, stopped or inspected, as they
+   * do not own the thread that runs them
+   */
+  private void checkNotVirtual() {
+    if (virtual != null) {
+      throw new UnsupportedOperationException("virtual thread");
+    }
+  }
 }
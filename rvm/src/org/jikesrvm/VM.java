@@ -18,6 +18,7 @@ import static org.jikesrvm.runtime.ExitStatus.EXIT_STATUS_SYSFAIL;
 
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.util.CompilerAdvice;
+import org.jikesrvm.adaptive.util.ProfileArchive;
 import org.jikesrvm.architecture.StackFrameLayout;
 import org.jikesrvm.classloader.Atom;
 import org.jikesrvm.classloader.BootstrapClassLoader;
@@ -31,6 +32,7 @@ import org.jikesrvm.classloader.TypeDescriptorParsing;
 import org.jikesrvm.classloader.TypeReference;
 import org.jikesrvm.compilers.baseline.BaselineCompiler;
 import org.jikesrvm.compilers.common.BootImageCompiler;
+import org.jikesrvm.compilers.common.PerfMap;
 import org.jikesrvm.compilers.common.RuntimeCompiler;
 import org.jikesrvm.mm.mminterface.MemoryManager;
 import org.jikesrvm.runtime.BootRecord;
@@ -46,9 +48,11 @@ import org.jikesrvm.runtime.Time;
 import static org.jikesrvm.runtime.SysCall.sysCall;
 
 import org.jikesrvm.scheduler.Lock;
+import org.jikesrvm.scheduler.LockProfiler;
 import org.jikesrvm.scheduler.MainThread;
 import org.jikesrvm.scheduler.Synchronization;
 import org.jikesrvm.scheduler.RVMThread;
+import org.jikesrvm.scheduler.ThinLock;
 import org.jikesrvm.runtime.FileSystem;
 import org.jikesrvm.tuningfork.TraceEngine;
 import org.jikesrvm.util.Services;
@@ -462,6 +466,16 @@ public class VM extends Properties {
 
     if (VM.verboseClassLoading || verboseBoot >= 1) VM.sysWrite("[VM booted]\n");
 
+    if (VM.WritePerfMap || VM.WritePerfJitdump) {
+      if (verboseBoot >= 1) VM.sysWriteln("Initializing perf map");
+      PerfMap.boot();
+    }
+
+    if (VM.ProfileLocks) {
+      if (verboseBoot >= 1) VM.sysWriteln("Initializing lock profiler");
+      LockProfiler.boot();
+    }
+
     if (VM.BuildForAdaptiveSystem) {
       if (verboseBoot >= 1) VM.sysWriteln("Initializing adaptive system");
       Controller.boot();
@@ -504,6 +518,7 @@ public class VM extends Properties {
 
     if (VM.BuildForAdaptiveSystem) {
       CompilerAdvice.postBoot();
+      ProfileArchive.boot();
     }
 
     // enable alignment checking
@@ -2357,6 +2372,14 @@ public class VM extends Properties {
       RVMThread.reportThreadTransitionCounts();
     }
 
+    if (VM.ReportTimeToSafepoint) {
+      RVMThread.reportTimeToSafepoint();
+    }
+
+    if (VM.ReportBiasedLocking) {
+      ThinLock.reportBiasedLocking();
+    }
+
     if (Options.stackTraceAtExit) {
       VM.sysWriteln("[Here is the context of the call to VM.sysExit(", value, ")...:");
       VM.disableGC();
@@ -24,6 +24,18 @@ public final class AosEntrypoints {
   public static final NormalMethod osrGetRefAtMethod =
       getMethod(org.jikesrvm.osr.ObjectHolder.class, "getRefAt", "(II)Ljava/lang/Object;");
   public static final NormalMethod osrCleanRefsMethod = getMethod(org.jikesrvm.osr.ObjectHolder.class, "cleanRefs", "(I)V");
+  public static final NormalMethod osrGetSharedIntAtMethod =
+      getMethod(org.jikesrvm.osr.ObjectHolder.class, "getSharedIntAt", "(I)I");
+  public static final NormalMethod osrGetSharedLongAtMethod =
+      getMethod(org.jikesrvm.osr.ObjectHolder.class, "getSharedLongAt", "(I)J");
+  public static final NormalMethod osrGetSharedFloatAtMethod =
+      getMethod(org.jikesrvm.osr.ObjectHolder.class, "getSharedFloatAt", "(I)F");
+  public static final NormalMethod osrGetSharedDoubleAtMethod =
+      getMethod(org.jikesrvm.osr.ObjectHolder.class, "getSharedDoubleAt", "(I)D");
+  public static final NormalMethod osrGetSharedRefAtMethod =
+      getMethod(org.jikesrvm.osr.ObjectHolder.class, "getSharedRefAt", "(II)Ljava/lang/Object;");
+  public static final NormalMethod osrCleanSharedValuesMethod =
+      getMethod(org.jikesrvm.osr.ObjectHolder.class, "cleanSharedValues", "()V");
   public static final RVMField methodListenerNumSamplesField =
       getField(org.jikesrvm.adaptive.measurements.listeners.MethodListener.class, "numSamples", int.class);
   public static final RVMField edgeListenerUpdateCalledField =
@@ -12,8 +12,8 @@
  */
 package org.jikesrvm.adaptive;
 
+import java.util.ArrayList;
 import org.jikesrvm.adaptive.controller.Controller;
-import org.jikesrvm.runtime.Magic;
 import org.jikesrvm.scheduler.RVMThread;
 import org.jikesrvm.scheduler.SystemThread;
 import org.vmmagic.pragma.Uninterruptible;
@@ -22,9 +22,10 @@ import org.vmmagic.pragma.NonMoving;
 /**
  * Organizer thread collects OSR requests and inserted in controller queue
  * The producers are application threads, and the consumer thread is the
- * organizer. The buffer is RVMThread.threads array. The producer set
- * it is own flag "requesting_osr" and notify the consumer. The consumer
- * scans the threads array and collect requests.
+ * organizer. The producer sets its own flag "requesting_osr", links its
+ * event into the list of pending requests and notifies the consumer. The
+ * consumer takes all pending requests at once and groups the requests for
+ * the same compiled method, so that they are compiled and replaced together.
  */
 @NonMoving
 public final class OSROrganizerThread extends SystemThread {
@@ -33,52 +34,73 @@ public final class OSROrganizerThread extends SystemThread {
     super("OSR_Organizer");
   }
 
-  public boolean osr_flag = false;
+  /** The pending requests, linked through {@link OnStackReplacementEvent#next} */
+  private OnStackReplacementEvent pending = null;
 
   @Override
   public void run() {
     while (true) {
       rvmThread.monitor().lockNoHandshake();
-      if (!this.osr_flag) {
+      while (pending == null) {
         rvmThread.monitor().waitWithHandshake();
       }
-      this.osr_flag = false; /* if we get another activation after here
-                              then we should rescan the threads array */
+      OnStackReplacementEvent requests = pending;
+      pending = null; /* requests arriving after here are taken
+                         by the next iteration */
       rvmThread.monitor().unlock();
 
-      processOsrRequest();
+      processOsrRequests(requests);
     }
   }
 
   /**
-   * Activates organizer thread if it is waiting.
+   * Adds a request and activates organizer thread if it is waiting.
+   *
+   * @param event the event of the requesting thread
    */
   @Uninterruptible
-  public void activate() {
+  public void activate(OnStackReplacementEvent event) {
     rvmThread.monitor().lockNoHandshake();
-    osr_flag = true;
+    event.next = pending;
+    pending = event;
     rvmThread.monitor().broadcast();
     rvmThread.monitor().unlock();
   }
 
-  private void processOsrRequest() {
-    // scan RVMThread.threads (scan down so we don't miss anything)
-    for (int i = RVMThread.numThreads - 1; i >= 0; i--) {
-      Magic.sync();
-      RVMThread t = RVMThread.threads[i];
-      if (t != null) {
-        boolean go = false;
-        t.monitor().lockNoHandshake();
-        // NOTE: if threads are being removed, we may see a thread twice
-        if (t.requesting_osr) {
-          t.requesting_osr = false;
-          go = true;
-        }
-        t.monitor().unlock();
-        if (go) {
-          Controller.controllerInputQueue.insert(5.0, t.onStackReplacementEvent);
+  /**
+   * Groups the requests by compiled method and passes each group to the
+   * controller as one event.
+   *
+   * @param requests the requests, linked through {@link OnStackReplacementEvent#next}
+   */
+  private void processOsrRequests(OnStackReplacementEvent requests) {
+    ArrayList<OnStackReplacementEvent> groups = new ArrayList<OnStackReplacementEvent>();
+    while (requests != null) {
+      OnStackReplacementEvent event = requests;
+      requests = event.next;
+      event.next = null;
+
+      RVMThread t = event.suspendedThread;
+      t.monitor().lockNoHandshake();
+      t.requesting_osr = false;
+      t.monitor().unlock();
+
+      OnStackReplacementEvent group = null;
+      for (OnStackReplacementEvent g : groups) {
+        if (g.CMID == event.CMID) {
+          group = g;
+          break;
         }
       }
+      if (group == null) {
+        groups.add(event);
+      } else {
+        event.next = group.next;
+        group.next = event;
+      }
+    }
+    for (OnStackReplacementEvent group : groups) {
+      Controller.controllerInputQueue.insert(5.0, group);
     }
   }
 }
@@ -12,6 +12,7 @@
  */
 package org.jikesrvm.adaptive;
 
+import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.controller.ControllerInputEvent;
 import org.jikesrvm.adaptive.controller.ControllerMemory;
@@ -31,7 +32,12 @@ import org.vmmagic.unboxed.Offset;
  * Event generated by a thread aware of on-stack-replacement request.
  * The event is feed to the controller with suspended thread, and hot
  * method id. Since it does not need to go through analytic model, it does
- * not extend the HotMethodEvent.
+ * not extend the HotMethodEvent.<p>
+ *
+ * Each thread has its own event. The OSR organizer chains the events of
+ * the threads requesting replacement in the same compiled method, and
+ * feeds only the first one to the controller, which generates one plan
+ * for all of them.
  */
 public final class OnStackReplacementEvent implements ControllerInputEvent {
 
@@ -50,9 +56,18 @@ public final class OnStackReplacementEvent implements ControllerInputEvent {
   /** the osr method's fp offset */
   public Offset ypTakenFPoff;
 
+  /** the time the replacement was triggered, in nanoseconds */
+  public long timeTriggered;
+
+  /**
+   * the next pending request, or the next request in the same compiled
+   * method once the organizer has grouped the requests
+   */
+  public OnStackReplacementEvent next;
+
   /**
-   * This function will generate a controller plan and
-   * inserted in the recompilation queue.
+   * This function will generate a controller plan for this and the
+   * chained requests and inserted in the recompilation queue.
    */
   @Override
   public void process() {
@@ -80,21 +95,24 @@ public final class OnStackReplacementEvent implements ControllerInputEvent {
 
     CompilationPlan compPlan = new CompilationPlan(todoMethod, optimizationPlan, null, options);
 
-    OnStackReplacementPlan plan =
-        new OnStackReplacementPlan(this.suspendedThread,
-                                       compPlan,
-                                       this.CMID,
-                                       this.whereFrom,
-                                       this.tsFromFPoff,
-                                       this.ypTakenFPoff,
-                                       priority);
+    OnStackReplacementPlan plan = new OnStackReplacementPlan(compPlan, this.CMID, priority);
+
+    OnStackReplacementEvent event = this;
+    while (event != null) {
+      if (VM.VerifyAssertions) VM._assert(event.CMID == this.CMID);
+      plan.addRequest(event.suspendedThread, event.tsFromFPoff, event.ypTakenFPoff, event.timeTriggered);
+      OnStackReplacementEvent nextEvent = event.next;
+
+      // do not hold the reference anymore.
+      event.suspendedThread = null;
+      event.next = null;
+      if (event != this) event.CMID = 0;
+      event = nextEvent;
+    }
+    CMID = 0;
 
     Controller.compilationQueue.insert(priority, plan);
 
     AOSLogging.logger.logOsrEvent("OSR inserts compilation plan successfully!");
-
-    // do not hold the reference anymore.
-    suspendedThread = null;
-    CMID = 0;
   }
 }
@@ -12,6 +12,7 @@
  */
 package org.jikesrvm.adaptive;
 
+import java.util.ArrayList;
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.controller.ControllerPlan;
@@ -23,6 +24,7 @@ import org.jikesrvm.osr.ExecutionStateExtractor;
 import org.jikesrvm.osr.ExecutionState;
 import org.jikesrvm.osr.OSRProfiler;
 import org.jikesrvm.osr.SpecialCompiler;
+import org.jikesrvm.runtime.Time;
 import org.jikesrvm.scheduler.RVMThread;
 import org.vmmagic.unboxed.Offset;
 
@@ -30,16 +32,35 @@ import org.vmmagic.unboxed.Offset;
  * A OSR_ControllerOnStackReplacementPlan is scheduled by ControllerThread,
  * and executed by the RecompilationThread.<p>
  *
- * It has the suspended thread whose activation being replaced,
- * and a compilation plan.<p>
+ * It has the suspended threads whose activations of the same compiled
+ * method are being replaced, and a compilation plan. Requests for the same
+ * compiled method are merged into one plan, both by the OSR organizer and
+ * while the plan waits in the compilation queue.<p>
  *
  * The execution of this plan compiles the method, installs the new
- * code, and reschedule the thread.
+ * code, and reschedule the threads. Activations at the same bytecode
+ * index whose states have the same shape share one specialized
+ * compilation (see {@link ExecutionState#hasSameShape}).
  */
 public class OnStackReplacementPlan {
+
+  /** A suspended thread whose activation is being replaced */
+  private static final class Request {
+    final RVMThread thread;
+    final Offset tsFromFPoff;
+    final Offset ypTakenFPoff;
+    /** The time the thread triggered the replacement, in nanoseconds */
+    final long timeTriggered;
+
+    Request(RVMThread thread, Offset tsFromFPoff, Offset ypTakenFPoff, long timeTriggered) {
+      this.thread = thread;
+      this.tsFromFPoff = tsFromFPoff;
+      this.ypTakenFPoff = ypTakenFPoff;
+      this.timeTriggered = timeTriggered;
+    }
+  }
+
   private final int CMID;
-  private final Offset tsFromFPoff;
-  private final Offset ypTakenFPoff;
 
   /**
    * Status is write-only at the moment, but I suspect it comes in
@@ -48,22 +69,70 @@ public class OnStackReplacementPlan {
   @SuppressWarnings("unused")
   private byte status;
 
-  private final RVMThread suspendedThread;
+  private final ArrayList<Request> requests = new ArrayList<Request>();
   private final CompilationPlan compPlan;
+  private double priority;
 
   private int timeInitiated = 0;
   private int timeCompleted = 0;
 
-  public OnStackReplacementPlan(RVMThread thread, CompilationPlan cp, int cmid, int source, Offset tsoff,
-                                Offset ypoff, double priority) {
-    this.suspendedThread = thread;
+  /*
+   * Statistics over all plans, updated by the compilation thread
+   */
+
+  /** Number of activations replaced */
+  private static int numReplaced;
+  /** Number of specialized compilations */
+  private static int numCompilations;
+  /** Number of activations replaced by code shared with other activations */
+  private static int numShared;
+  /** Total and largest time from trigger to replacement, in nanoseconds */
+  private static long totalLatency;
+  private static long maxLatency;
+
+  public OnStackReplacementPlan(CompilationPlan cp, int cmid, double priority) {
     this.compPlan = cp;
     this.CMID = cmid;
-    this.tsFromFPoff = tsoff;
-    this.ypTakenFPoff = ypoff;
+    this.priority = priority;
     this.status = ControllerPlan.UNINITIALIZED;
   }
 
+  /**
+   * Adds a thread whose activation is to be replaced.
+   *
+   * @param thread the suspended thread
+   * @param tsFromFPoff the frame pointer offset of the thread switch frame
+   * @param ypTakenFPoff the frame pointer offset of the activation
+   * @param timeTriggered the time the thread triggered the replacement
+   */
+  public void addRequest(RVMThread thread, Offset tsFromFPoff, Offset ypTakenFPoff, long timeTriggered) {
+    requests.add(new Request(thread, tsFromFPoff, ypTakenFPoff, timeTriggered));
+  }
+
+  /**
+   * Merges the requests of another plan for the same compiled method into
+   * this plan.  Called while both plans wait in the compilation queue.
+   *
+   * @param other the other plan
+   * @return {@code true} if the plans were merged, {@code false} if they
+   *  are for different compiled methods
+   */
+  public boolean merge(OnStackReplacementPlan other) {
+    if (other.CMID != CMID) return false;
+    requests.addAll(other.requests);
+    other.requests.clear();
+    priority = Math.max(priority, other.priority);
+    return true;
+  }
+
+  public int getCMID() {
+    return CMID;
+  }
+
+  public double getPriority() {
+    return priority;
+  }
+
   public int getTimeInitiated() {
     return timeInitiated;
   }
@@ -85,75 +154,174 @@ public class OnStackReplacementPlan {
   }
 
   public void execute() {
-    // 1. extract stack state
-    // 2. recompile the specialized method
+    // 1. extract stack states
+    // 2. recompile the specialized method, once per shape of states
     // 3. install the code
-    // 4. reschedule the thread to new code.
+    // 4. reschedule the threads to new code.
 
-    AOSLogging.logger.logOsrEvent("OSR compiling " + compPlan.method);
+    AOSLogging.logger.logOsrEvent("OSR compiling " + compPlan.method + " for " + requests.size() + " thread(s)");
 
     setTimeInitiated(Controller.controllerClock);
 
-    {
-      ExecutionStateExtractor extractor = null;
+    ExecutionStateExtractor extractor = null;
 
-      CompiledMethod cm = CompiledMethods.getCompiledMethod(this.CMID);
+    CompiledMethod cm = CompiledMethods.getCompiledMethod(this.CMID);
 
-      boolean invalidate = true;
-      if (cm.getCompilerType() == CompiledMethod.BASELINE) {
-        if (VM.BuildForIA32) {
-          extractor = new org.jikesrvm.osr.ia32.BaselineExecutionStateExtractor();
-        } else {
-          if (VM.VerifyAssertions) VM._assert(VM.BuildForPowerPC);
-          extractor = new org.jikesrvm.osr.ppc.BaselineExecutionStateExtractor();
-        }
-        // don't need to invalidate when transitioning from baseline
-        invalidate = false;
-      } else if (cm.getCompilerType() == CompiledMethod.OPT) {
-        if (VM.BuildForIA32) {
-          extractor = new org.jikesrvm.osr.ia32.OptExecutionStateExtractor();
-        } else {
-          if (VM.VerifyAssertions) VM._assert(VM.BuildForPowerPC);
-          extractor = new org.jikesrvm.osr.ppc.OptExecutionStateExtractor();
-        }
+    boolean invalidate = true;
+    if (cm.getCompilerType() == CompiledMethod.BASELINE) {
+      if (VM.BuildForIA32) {
+        extractor = new org.jikesrvm.osr.ia32.BaselineExecutionStateExtractor();
+      } else {
+        if (VM.VerifyAssertions) VM._assert(VM.BuildForPowerPC);
+        extractor = new org.jikesrvm.osr.ppc.BaselineExecutionStateExtractor();
+      }
+      // don't need to invalidate when transitioning from baseline
+      invalidate = false;
+    } else if (cm.getCompilerType() == CompiledMethod.OPT) {
+      if (VM.BuildForIA32) {
+        extractor = new org.jikesrvm.osr.ia32.OptExecutionStateExtractor();
       } else {
-        if (VM.VerifyAssertions) VM._assert(VM.NOT_REACHED);
-        return;
+        if (VM.VerifyAssertions) VM._assert(VM.BuildForPowerPC);
+        extractor = new org.jikesrvm.osr.ppc.OptExecutionStateExtractor();
       }
+    } else {
+      if (VM.VerifyAssertions) VM._assert(VM.NOT_REACHED);
+      return;
+    }
 
-      ////////
-      // states is a list of state: callee -> caller -> caller
-      ExecutionState state = extractor.extractState(suspendedThread, this.tsFromFPoff, this.ypTakenFPoff, CMID);
+    ////////
+    // states is a list of state: callee -> caller -> caller
+    int n = requests.size();
+    ExecutionState[] states = new ExecutionState[n];
+    for (int i = 0; i < n; i++) {
+      Request r = requests.get(i);
+      states[i] = extractor.extractState(r.thread, r.tsFromFPoff, r.ypTakenFPoff, CMID);
 
       if (invalidate) {
         AOSLogging.logger.debug("Invalidate cmid " + CMID);
-        OSRProfiler.notifyInvalidation(state);
+        OSRProfiler.notifyInvalidation(states[i]);
+      }
+    }
+
+    CompiledMethod[] newCMs = new CompiledMethod[n];
+    boolean[] done = new boolean[n];
+    int compilations = 0;
+    int shared = 0;
+    for (int i = 0; i < n; i++) {
+      if (done[i]) continue;
+
+      // share one compilation among the states with the same shape
+      if (!invalidate && Controller.options.OSR_SHARED_SPECIALIZATION &&
+          states[i].callerState == null && states[i].callee_cmid == -1) {
+        int sameShape = 0;
+        for (int j = i + 1; j < n; j++) {
+          if (!done[j] && states[i].hasSameShape(states[j])) sameShape++;
+        }
+        if (sameShape > 0) {
+          CompiledMethod sharedCM = SpecialCompiler.optCompileShared(states[i]);
+          if (sharedCM != null) {
+            compilations++;
+            for (int j = i; j < n; j++) {
+              if (!done[j] && (j == i || states[i].hasSameShape(states[j]))) {
+                states[j].handinSharedValues();
+                newCMs[j] = sharedCM;
+                done[j] = true;
+                shared++;
+              }
+            }
+            continue;
+          }
+        }
       }
 
       // compile from callee to caller
-      CompiledMethod newCM = SpecialCompiler.recompileState(state, invalidate);
+      newCMs[i] = SpecialCompiler.recompileState(states[i], invalidate);
+      done[i] = true;
+      compilations++;
+    }
 
-      setTimeCompleted(Controller.controllerClock);
+    setTimeCompleted(Controller.controllerClock);
 
-      if (newCM == null) {
-        setStatus(ControllerPlan.ABORTED_COMPILATION_ERROR);
-        AOSLogging.logger.logOsrEvent("OSR compilation failed!");
+    boolean failed = false;
+    for (int i = 0; i < n; i++) {
+      if (newCMs[i] == null) {
+        failed = true;
       } else {
-        setStatus(ControllerPlan.COMPLETED);
         // now let CodeInstaller generate a code stub,
         // and PostThreadSwitch will install the stub to run.
         if (VM.BuildForIA32) {
-          org.jikesrvm.osr.ia32.CodeInstaller.install(state, newCM);
+          org.jikesrvm.osr.ia32.CodeInstaller.install(states[i], newCMs[i]);
         } else {
-          org.jikesrvm.osr.ppc.CodeInstaller.install(state, newCM);
+          org.jikesrvm.osr.ppc.CodeInstaller.install(states[i], newCMs[i]);
         }
-        AOSLogging.logger.logOsrEvent("OSR compilation succeeded! " + compPlan.method);
       }
     }
+    if (failed) {
+      setStatus(ControllerPlan.ABORTED_COMPILATION_ERROR);
+      AOSLogging.logger.logOsrEvent("OSR compilation failed!");
+    } else {
+      setStatus(ControllerPlan.COMPLETED);
+      AOSLogging.logger.logOsrEvent("OSR compilation succeeded! " + compPlan.method + " (" + compilations +
+                                    " compilation(s) for " + n + " thread(s))");
+    }
+
+    for (int i = 0; i < n; i++) {
+      RVMThread suspendedThread = requests.get(i).thread;
+      suspendedThread.monitor().lockNoHandshake();
+      suspendedThread.osr_done = true;
+      suspendedThread.monitor().broadcast();
+      suspendedThread.monitor().unlock();
+    }
+    recordStatistics(compilations, shared);
+  }
+
+  private void recordStatistics(int compilations, int shared) {
+    synchronized (OnStackReplacementPlan.class) {
+      long now = Time.nanoTime();
+      for (Request r : requests) {
+        long latency = now - r.timeTriggered;
+        totalLatency += latency;
+        if (latency > maxLatency) maxLatency = latency;
+      }
+      numReplaced += requests.size();
+      numCompilations += compilations;
+      numShared += shared;
+    }
+  }
 
-    suspendedThread.monitor().lockNoHandshake();
-    suspendedThread.osr_done = true;
-    suspendedThread.monitor().broadcast();
-    suspendedThread.monitor().unlock();
+  /**
+   * @return the number of activations replaced
+   */
+  public static synchronized int getNumReplaced() {
+    return numReplaced;
+  }
+
+  /**
+   * @return the number of specialized compilations
+   */
+  public static synchronized int getNumCompilations() {
+    return numCompilations;
+  }
+
+  /**
+   * @return the number of activations replaced by code shared with other
+   *  activations
+   */
+  public static synchronized int getNumShared() {
+    return numShared;
+  }
+
+  /**
+   * @return the average time from trigger to replacement, in milliseconds
+   */
+  public static synchronized double getAverageLatencyMillis() {
+    return numReplaced == 0 ? 0 : Time.nanosToMillis(totalLatency) / numReplaced;
+  }
+
+  /**
+   * @return the longest time from trigger to replacement, in milliseconds
+   */
+  public static synchronized double getMaxLatencyMillis() {
+    return Time.nanosToMillis(maxLatency);
   }
 }
@@ -16,6 +16,7 @@ import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.common.CompiledMethods;
+import org.jikesrvm.runtime.Time;
 import org.jikesrvm.scheduler.RVMThread;
 import org.vmmagic.pragma.NoInline;
 import org.vmmagic.pragma.Unpreemptible;
@@ -42,12 +43,13 @@ public class OnStackReplacementTrigger {
     event.CMID = ypTakenInCMID;
     event.tsFromFPoff = tsFromFPoff;
     event.ypTakenFPoff = ypTakenFPoff;
+    event.timeTriggered = Time.nanoTime();
 
     thread.monitor().lockNoHandshake();
     thread.requesting_osr = true;
     thread.monitor().unlock();
 
-    Controller.osrOrganizer.activate();
+    Controller.osrOrganizer.activate(event);
     // PNT: Assumes that OSR doesn't need access to our context regs
     thread.monitor().lockNoHandshake();
     while (!thread.osr_done) {
@@ -13,6 +13,7 @@
 package org.jikesrvm.adaptive.controller;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.measurements.PerfEventSampler;
 import org.jikesrvm.adaptive.recompilation.CompilerDNA;
 import org.jikesrvm.adaptive.util.AOSLogging;
 import org.jikesrvm.classloader.NormalMethod;
@@ -96,6 +97,10 @@ abstract class AnalyticModel extends RecompilationStrategy {
 
     ControllerPlan plan = ControllerMemory.findMatchingPlan(cmpMethod);
 
+    if (plan != null && Controller.options.RECALIBRATE_COMPILER_DNA) {
+      observeSpeedup(plan, prevCompiler, hme);
+    }
+
     // for a outdated hot method from baseline, we consider OSR,
     // and execute plan in the routine, no more action here
     if (considerOSRRecompilation(cmpMethod, hme, plan)) return null;
@@ -109,6 +114,9 @@ abstract class AnalyticModel extends RecompilationStrategy {
     // opt level, which incurs no  compilation cost), and recompiling the
     // method at each greater compilation level.
     double futureTimeForMethod = futureTimeForMethod(hme);
+    if (Controller.options.COMPILE_CAPACITY_MODEL) {
+      CompileCapacity.update();
+    }
 
     // initialize bestAction as doing nothing, which means we'll
     // spend just as much time in the method in the future as we have so far.
@@ -130,9 +138,17 @@ abstract class AnalyticModel extends RecompilationStrategy {
       double cost = choice.getCost(meth);
       double futureExecutionTime = choice.getFutureExecutionTime(prevCompiler, futureTimeForMethod);
 
-      double curActionTime = cost + futureExecutionTime;
+      // Compiling on an idle core costs the application little, but the
+      // method only speeds up once the compilation queue has drained.
+      double chargedCost = cost;
+      if (Controller.options.COMPILE_CAPACITY_MODEL) {
+        futureExecutionTime += CompileCapacity.lostBenefit(futureTimeForMethod, futureExecutionTime, cost);
+        chargedCost *= CompileCapacity.costFactor();
+      }
 
-      AOSLogging.logger.recordControllerEstimateCostOpt(cmpMethod.getMethod(), choice.toString(), cost, curActionTime);
+      double curActionTime = chargedCost + futureExecutionTime;
+
+      AOSLogging.logger.recordControllerEstimateCostOpt(cmpMethod.getMethod(), choice.toString(), chargedCost, curActionTime);
 
       if (curActionTime < bestActionTime) {
         bestActionTime = curActionTime;
@@ -262,6 +278,10 @@ abstract class AnalyticModel extends RecompilationStrategy {
     // Use the model to calculate expected cost of (1) doing nothing
     // and (2) recompiling at the same opt level with the FDO boost
     double futureTimeForMethod = futureTimeForMethod(event);
+    if (Controller.options.COMPILE_CAPACITY_MODEL) {
+      CompileCapacity.update();
+      prevCompileTime *= CompileCapacity.costFactor();
+    }
     double futureTimeForFDOMethod = prevCompileTime + (futureTimeForMethod / event.getBoostFactor());
 
     int prevOptLevel = CompilerDNA.getOptLevel(prevCompiler);
@@ -287,6 +307,23 @@ abstract class AnalyticModel extends RecompilationStrategy {
     }
   }
 
+  /**
+   * Recalibrates the compiler DNA with the speedup that a completed
+   * recompilation of the method actually achieved.
+   *
+   * @param plan the plan that produced the compiled method
+   * @param compiler the compiler of the compiled method
+   * @param hme the event reporting the samples of the compiled method
+   */
+  private void observeSpeedup(ControllerPlan plan, int compiler, HotMethodEvent hme) {
+    if (plan.getPrevCompiler() == -1) return;
+    double speedup = plan.observeSpeedup(hme.getNumSamples());
+    if (speedup > 0) {
+      AOSLogging.logger.debug(" Observed speedup " + speedup + " for " + hme);
+      CompilerDNA.recordSpeedup(plan.getPrevCompiler(), compiler, speedup);
+    }
+  }
+
   /**
    * How much time do we expect to spend in the method in the future if
    * we take no recompilation action?
@@ -300,6 +337,10 @@ abstract class AnalyticModel extends RecompilationStrategy {
   double futureTimeForMethod(HotMethodEvent hme) {
     double numSamples = hme.getNumSamples();
     double timePerSample = VM.interruptQuantum;
+    if (PerfEventSampler.isSampling()) {
+      // a sample every PERF_EVENT_SAMPLE_PERIOD microseconds of the thread
+      timePerSample = VM.interruptQuantum / (double) PerfEventSampler.samplesPerTick();
+    }
     if (!VM.UseEpilogueYieldPoints) {
       // NOTE: we take two samples per timer interrupt, so we have to
       // adjust here (otherwise we'd give the method twice as much time
@@ -0,0 +1,271 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.controller;
+
+import java.util.ArrayList;
+import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.OnStackReplacementPlan;
+import org.jikesrvm.adaptive.util.AOSLogging;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.runtime.Time;
+
+/**
+ * The queue in which the controller places the plans to be compiled by the
+ * compilation thread.
+ * <p>
+ * Unlike a plain priority queue, the priority of a {@link ControllerPlan}
+ * is not fixed when the plan is inserted.  Each time the compilation thread
+ * takes a plan, the priorities of the waiting plans are refreshed from the
+ * method samples taken since they were made (see
+ * {@link ControllerPlan#getRecentHotness()}), so that after a phase change
+ * the methods that are hot now are compiled first.  A plan whose method has
+ * gone cold is cancelled.  A plan for a method that already has a plan in
+ * the queue is merged with it: the plan for the higher optimization level
+ * is kept, with the higher of the two priorities.
+ * <p>
+ * On-stack replacement plans keep the priority they were inserted with
+ * and are never cancelled, as threads are waiting for them.  A plan for a
+ * compiled method that already has one in the queue is merged with it, so
+ * that the threads are replaced together.
+ * <p>
+ * The queue is short, so it is kept unordered and searched on removal.
+ */
+public final class CompilationQueue {
+
+  private static final class Entry {
+    /** The plan */
+    Object plan;
+    /** The priority of the plan, as last refreshed */
+    double priority;
+    /** The priority the plan was inserted with */
+    double initialPriority;
+    /** The time the plan was inserted, in nanoseconds */
+    final long timeInserted;
+
+    Entry(Object plan, double priority, long timeInserted) {
+      this.plan = plan;
+      this.priority = priority;
+      this.initialPriority = priority;
+      this.timeInserted = timeInserted;
+    }
+  }
+
+  /** The waiting plans */
+  private final ArrayList<Entry> entries = new ArrayList<Entry>();
+
+  /** The largest number of plans that have been waiting at once */
+  private int maxDepth;
+
+  /** The number of plans removed for compilation */
+  private int numRemoved;
+
+  /** The total and largest times that removed plans have waited, in nanoseconds */
+  private long totalWaitTime;
+  private long maxWaitTime;
+
+  /** The number of plans cancelled because their methods went cold */
+  private int numCancelled;
+
+  /** The number of plans merged into another plan for the same method */
+  private int numMerged;
+
+  /**
+   * Inserts a plan and notifies the compilation thread.
+   *
+   * @param priority the priority of the plan
+   * @param plan the plan, a {@link ControllerPlan} or an on-stack replacement
+   *  plan
+   */
+  public synchronized void insert(double priority, Object plan) {
+    if (plan instanceof ControllerPlan && merge((ControllerPlan) plan, priority)) {
+      return;
+    }
+    if (plan instanceof OnStackReplacementPlan && merge((OnStackReplacementPlan) plan, priority)) {
+      return;
+    }
+    entries.add(new Entry(plan, priority, Time.nanoTime()));
+    if (entries.size() > maxDepth) {
+      maxDepth = entries.size();
+    }
+    notifyAll();
+  }
+
+  /**
+   * Merges a new plan with a plan for the same method that is already
+   * waiting, if there is one.
+   *
+   * @param plan the new plan
+   * @param priority its priority
+   * @return {@code true} if the plan was merged, {@code false} if it must
+   *  be inserted
+   */
+  private boolean merge(ControllerPlan plan, double priority) {
+    RVMMethod method = plan.getCompPlan().getMethod();
+    for (Entry e : entries) {
+      if (!(e.plan instanceof ControllerPlan)) continue;
+      ControllerPlan queued = (ControllerPlan) e.plan;
+      if (queued.getCompPlan().getMethod() != method) continue;
+
+      ControllerPlan kept = queued;
+      ControllerPlan dropped = plan;
+      if (plan.getCompPlan().options.getOptLevel() >= queued.getCompPlan().options.getOptLevel()) {
+        kept = plan;
+        dropped = queued;
+      }
+      dropped.setStatus(ControllerPlan.CANCELLED);
+      // the merged request has been waiting since the queued plan was inserted
+      e.plan = kept;
+      e.priority = Math.max(e.priority, priority);
+      e.initialPriority = Math.max(e.initialPriority, priority);
+      numMerged++;
+      AOSLogging.logger.recompilationMerged(dropped.getCompPlan(), kept.getCompPlan(), e.priority);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Merges a new on-stack replacement plan with a waiting plan for the same
+   * compiled method, if there is one.
+   *
+   * @param plan the new plan
+   * @param priority its priority
+   * @return {@code true} if the plan was merged, {@code false} if it must
+   *  be inserted
+   */
+  private boolean merge(OnStackReplacementPlan plan, double priority) {
+    for (Entry e : entries) {
+      if (e.plan instanceof OnStackReplacementPlan && ((OnStackReplacementPlan) e.plan).merge(plan)) {
+        e.priority = Math.max(e.priority, priority);
+        e.initialPriority = Math.max(e.initialPriority, priority);
+        numMerged++;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the plan with the highest priority, refreshing the priorities of
+   * the waiting plans first.  If no plan is waiting, blocks until one is
+   * inserted.
+   *
+   * @return the plan with the highest priority
+   */
+  public Object deleteMin() {
+    while (true) {
+      Entry[] waiting;
+      synchronized (this) {
+        while (entries.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            VM.sysWrite("Interrupted Exception occurred!\n");
+          }
+        }
+        waiting = entries.toArray(new Entry[entries.size()]);
+      }
+
+      // Refresh the priorities without holding the lock of the queue, as
+      // reading the method samples takes the lock of the sample data.
+      Object[] plans = new Object[waiting.length];
+      double[] hotness = new double[waiting.length];
+      for (int i = 0; i < waiting.length; i++) {
+        Object plan = waiting[i].plan;
+        plans[i] = plan;
+        hotness[i] = -1;
+        if (Controller.options.COMPILE_QUEUE_AGING && plan instanceof ControllerPlan) {
+          hotness[i] = ((ControllerPlan) plan).getRecentHotness();
+        }
+      }
+
+      synchronized (this) {
+        for (int i = 0; i < waiting.length; i++) {
+          Entry e = waiting[i];
+          // skip plans that were removed or merged in the meantime
+          if (hotness[i] < 0 || e.plan != plans[i] || !entries.contains(e)) continue;
+          if (hotness[i] < Controller.options.COMPILE_QUEUE_CANCEL_THRESHOLD) {
+            entries.remove(e);
+            ControllerPlan plan = (ControllerPlan) e.plan;
+            plan.setStatus(ControllerPlan.CANCELLED);
+            numCancelled++;
+            AOSLogging.logger.recompilationCancelled(plan.getCompPlan(), e.initialPriority, hotness[i]);
+          } else {
+            e.priority = e.initialPriority * hotness[i];
+          }
+        }
+        if (entries.isEmpty()) continue;
+
+        Entry best = entries.get(0);
+        for (Entry e : entries) {
+          if (e.priority > best.priority) best = e;
+        }
+        entries.remove(best);
+        long waited = Time.nanoTime() - best.timeInserted;
+        numRemoved++;
+        totalWaitTime += waited;
+        if (waited > maxWaitTime) maxWaitTime = waited;
+        return best.plan;
+      }
+    }
+  }
+
+  /**
+   * @return the number of plans waiting
+   */
+  public synchronized int numElements() {
+    return entries.size();
+  }
+
+  /**
+   * @return the largest number of plans that have been waiting at once
+   */
+  public synchronized int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * @return the number of plans removed for compilation
+   */
+  public synchronized int getNumRemoved() {
+    return numRemoved;
+  }
+
+  /**
+   * @return the average time that removed plans waited, in milliseconds
+   */
+  public synchronized double getAverageWaitMillis() {
+    return numRemoved == 0 ? 0 : Time.nanosToMillis(totalWaitTime) / numRemoved;
+  }
+
+  /**
+   * @return the longest time that a removed plan waited, in milliseconds
+   */
+  public synchronized double getMaxWaitMillis() {
+    return Time.nanosToMillis(maxWaitTime);
+  }
+
+  /**
+   * @return the number of plans cancelled because their methods went cold
+   */
+  public synchronized int getNumCancelled() {
+    return numCancelled;
+  }
+
+  /**
+   * @return the number of plans merged into another plan for the same method
+   */
+  public synchronized int getNumMerged() {
+    return numMerged;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.controller;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.scheduler.RVMThread;
+
+/**
+ * Estimates how much of the cost of a recompilation is paid by the
+ * application.
+ * <p>
+ * The analytic model charges the compile time of a recompilation against
+ * the application, as if compilation took its time one-for-one.  When
+ * there are idle cores, background compilation runs next to the
+ * application and only a small part of the compile time (set by
+ * {@code IDLE_CORE_COMPILE_COST}) is really lost.  What the method loses
+ * instead is the benefit of the faster code while the request waits in the
+ * compilation queue and is compiled.
+ * <p>
+ * The inputs are the number of idle cores, the depth of the compilation
+ * queue and the recent compile times.  They are sampled by the controller
+ * thread before each decision.
+ */
+final class CompileCapacity {
+
+  /** Weight of a new observation in the moving averages */
+  private static final double WEIGHT = 0.25;
+
+  /** Moving average of the cores not running application threads; -1 if unknown */
+  private static double idleCores = -1;
+
+  /** Moving average of measured recompilation times in milliseconds; -1 if unknown */
+  private static double recentCompileTime = -1;
+
+  /** Requests in the compilation queue at the last update */
+  private static int queueDepth;
+
+  private CompileCapacity() {}
+
+  /**
+   * Samples the number of idle cores and the depth of the compilation queue.
+   */
+  static void update() {
+    int running = 0;
+    RVMThread.acctLock.lockNoHandshake();
+    for (int i = 0; i < RVMThread.numThreads; i++) {
+      RVMThread t = RVMThread.threads[i];
+      if (!t.isSystemThread()) {
+        int status = t.getExecStatus();
+        if (status == RVMThread.IN_JAVA || status == RVMThread.IN_JAVA_TO_BLOCK) {
+          running++;
+        }
+      }
+    }
+    RVMThread.acctLock.unlock();
+
+    int idle = Math.max(0, RVMThread.availableProcessors - running);
+    idleCores = idleCores < 0 ? idle : (1 - WEIGHT) * idleCores + WEIGHT * idle;
+    queueDepth = Controller.compilationQueue.numElements();
+  }
+
+  /**
+   * Records the measured time of a recompilation.
+   *
+   * @param millis the compile time in milliseconds
+   */
+  static void compilationCompleted(double millis) {
+    recentCompileTime = recentCompileTime < 0 ? millis : (1 - WEIGHT) * recentCompileTime + WEIGHT * millis;
+  }
+
+  /**
+   * @return the fraction of compile time that is taken from the application
+   */
+  static double costFactor() {
+    if (!Controller.options.BACKGROUND_RECOMPILATION || idleCores <= 0) {
+      return 1.0;
+    }
+    double idleCost = Controller.options.IDLE_CORE_COMPILE_COST;
+    if (idleCores >= 1) {
+      return idleCost;
+    }
+    return 1.0 - idleCores * (1.0 - idleCost);
+  }
+
+  /**
+   * Estimates how much of the benefit of a recompilation is lost because
+   * the method keeps running its old code until the request has made its
+   * way through the compilation queue.
+   * <p>
+   * The model assumes the time the method spends in the future is spread
+   * over as much wall clock time as its past, i.e., since the VM booted.
+   *
+   * @param timeBefore future time of the method without recompilation
+   * @param timeAfter future time of the method with recompilation
+   * @param compileTime estimated compile time of the recompilation
+   * @return the future time to add to {@code timeAfter}
+   */
+  static double lostBenefit(double timeBefore, double timeAfter, double compileTime) {
+    double horizon = RVMThread.timerTicks * (double) VM.interruptQuantum;
+    if (horizon <= 0 || timeBefore <= timeAfter) {
+      return 0.0;
+    }
+    double waiting = queueDepth * (recentCompileTime < 0 ? compileTime : recentCompileTime);
+    return (timeBefore - timeAfter) * Math.min(1.0, (waiting + compileTime) / horizon);
+  }
+}
@@ -21,6 +21,8 @@ import org.jikesrvm.adaptive.OSROrganizerThread;
 import org.jikesrvm.adaptive.database.AOSDatabase;
 import org.jikesrvm.adaptive.database.callgraph.PartialCallGraph;
 import org.jikesrvm.adaptive.database.methodsamples.MethodCountData;
+import org.jikesrvm.adaptive.measurements.Decayable;
+import org.jikesrvm.adaptive.measurements.PerfEventSampler;
 import org.jikesrvm.adaptive.measurements.RuntimeMeasurements;
 import org.jikesrvm.adaptive.measurements.instrumentation.Instrumentation;
 import org.jikesrvm.adaptive.measurements.organizers.Organizer;
@@ -29,7 +31,9 @@ import org.jikesrvm.adaptive.recompilation.instrumentation.CounterBasedSampling;
 import org.jikesrvm.adaptive.util.AOSLogging;
 import org.jikesrvm.adaptive.util.AOSOptions;
 import org.jikesrvm.adaptive.util.BlockingPriorityQueue;
+import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.compilers.baseline.EdgeCounts;
+import org.jikesrvm.compilers.baseline.TypeProfiles;
 import org.jikesrvm.compilers.common.RecompilationManager;
 import org.jikesrvm.runtime.Callbacks;
 import org.jikesrvm.scheduler.RVMThread;
@@ -111,7 +115,7 @@ public class Controller implements Callbacks.ExitMonitor,
    * to be opt compiled
    * (an output of the controller thread)
    */
-  public static BlockingPriorityQueue compilationQueue;
+  public static CompilationQueue compilationQueue;
 
   /**
    * The strategy used to make recompilation decisions
@@ -163,7 +167,7 @@ public class Controller implements Callbacks.ExitMonitor,
       }
     });
 
-    compilationQueue = new BlockingPriorityQueue();
+    compilationQueue = new CompilationQueue();
 
     // Create the analytic model used to make cost/benefit decisions.
     recompilationStrategy = new MultiLevelAdaptiveModel();
@@ -174,6 +178,18 @@ public class Controller implements Callbacks.ExitMonitor,
     // Initialize subsystems, if being used
     AdaptiveInlining.boot(options);
 
+    // decay the profiles of baseline code along with the call graph
+    if (options.PROFILE_DECAY_RATE > 1.0) {
+      final double rate = options.PROFILE_DECAY_RATE;
+      RuntimeMeasurements.registerDecayableObject(new Decayable() {
+        @Override
+        public void decay() {
+          EdgeCounts.decay(rate);
+          TypeProfiles.decay(rate);
+        }
+      });
+    }
+
     // boot any instrumentation options
     Instrumentation.boot(options);
 
@@ -182,6 +198,8 @@ public class Controller implements Callbacks.ExitMonitor,
 
     CounterBasedSampling.boot(options);
 
+    PerfEventSampler.boot(options);
+
     createControllerThread();
 
     Controller controller = new Controller();
@@ -275,9 +293,24 @@ public class Controller implements Callbacks.ExitMonitor,
       VM.sysWriteln("\tTotal number of clock ticks ", RVMThread.timerTicks);
       VM.sysWriteln("\tController clock ", controllerClock);
       VM.sysWriteln("\tNumber of method samples taken ", (int) methodSamples.getTotalNumberOfSamples());
+      if (options.mlPerfEvent()) PerfEventSampler.report();
     }
   }
 
+  /**
+   * Called when the id of a reclaimed compiled method is given to a new
+   * compiled method, so that the data kept for the old compiled method is
+   * not attributed to the new one.
+   *
+   * @param method the method of the reclaimed compiled method
+   * @param cmid the id
+   */
+  public static void compiledMethodIdReused(RVMMethod method, int cmid) {
+    if (!booted) return;
+    if (methodSamples != null) methodSamples.reset(cmid);
+    ControllerMemory.forgetCompiledMethod(method, cmid);
+  }
+
   /**
    * Stop all AOS threads and exit the adaptive system.
    * Can be used to assess code quality in a steady state by
@@ -280,6 +280,25 @@ public final class ControllerMemory {
     return false;
   }
 
+  /**
+   * Forgets the id of a compiled method that was reclaimed, as the id is
+   * given to another compiled method.
+   *
+   * @param method the method of the reclaimed compiled method
+   * @param cmid the id
+   */
+  static synchronized void forgetCompiledMethod(RVMMethod method, int cmid) {
+    LinkedList<ControllerPlan> planList = findPlan(method);
+    if (planList == null) return;
+    synchronized (planList) {
+      for (ControllerPlan plan : planList) {
+        if (plan.getCMID() == cmid) {
+          plan.setCMID(-1);
+        }
+      }
+    }
+  }
+
   /**
    * @return {@code true} iff there is a plan to transition from Base to Opt for a
    * given CMID
@@ -14,6 +14,7 @@ package org.jikesrvm.adaptive.controller;
 
 import java.util.LinkedList;
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.recompilation.CompilerDNA;
 import org.jikesrvm.adaptive.util.AOSGenerator;
 import org.jikesrvm.adaptive.util.AOSLogging;
 import org.jikesrvm.compilers.common.CompiledMethod;
@@ -36,6 +37,7 @@ import org.jikesrvm.compilers.opt.driver.CompilationPlan;
  * <pre>
  * UNINITIALIZED -&gt; IN_PROGRESS -&gt; COMPLETED -&gt; OUTDATED
  *             \              \--&gt; ABORTED_COMPILATION_ERROR (never recompile method)
+ *              \--&gt; CANCELLED (method went cold while the plan was queued)
  * </pre>
  */
 public final class ControllerPlan {
@@ -59,6 +61,11 @@ public final class ControllerPlan {
   /** The compilation plan is for a promotion from BASE to OPT */
   public static final byte OSR_BASE_2_OPT = 5;
 
+  /** The plan was removed from the compilation queue before it was compiled,
+    * either because the method went cold or because it was merged into
+    * another plan for the same method */
+  public static final byte CANCELLED = 6;
+
   /** This is used by clients to initialize local variables for Java semantics */
   public static final byte UNKNOWN = 99;
 
@@ -117,12 +124,52 @@ public final class ControllerPlan {
    */
   private LinkedList<ControllerPlan> planList;
 
+  /**
+   * Number of method samples a version of the method must have taken
+   * before its share of the samples is used to observe a speedup
+   */
+  private static final double MIN_OBSERVED_SAMPLES = 8;
+
+  /**
+   *  The compiler constant of the previous version, -1 if unknown
+   */
+  private int prevCompiler = -1;
+
+  /**
+   *  The method samples of the previous version and of all methods
+   *  when this plan was executed
+   */
+  private double prevSamplesWhenExecuted;
+  private double totalSamplesWhenExecuted;
+
+  /**
+   *  The share of all method samples that the previous version took while
+   *  this plan was pending, -1 if it took too few to tell
+   */
+  private double prevShare = -1;
+
+  /**
+   *  The method samples of all methods when this plan completed
+   */
+  private double totalSamplesWhenCompleted;
+
+  /**
+   *  The samples credited to the new version when this plan completed
+   */
+  private double transferredSamples;
+
+  /**
+   *  Has the speedup of this plan been observed?
+   */
+  private boolean speedupObserved;
+
   /**
    * Construct a controller plan
    *
    * @param compPlan     The compilation plan
    * @param timeCreated  The "time" this plan was created
-   * @param prevCMID     The previous compiled method ID
+   * @param prevCMID     The previous compiled method ID, -1 if the method
+   *                     has not been compiled yet
    * @param expectedSpeedup     Expected recompilation benefit
    * @param expectedCompilationTime     Expected recompilation cost
    * @param priority     How important is executing this plan?
@@ -148,6 +195,15 @@ public final class ControllerPlan {
     setStatus(ControllerPlan.IN_PROGRESS);
     ControllerMemory.insert(this);
 
+    if (Controller.options.sampling() && prevCMID != -1) {
+      CompiledMethod prev = CompiledMethods.getCompiledMethod(prevCMID);
+      if (prev != null) {
+        prevCompiler = Controller.recompilationStrategy.getPreviousCompiler(prev);
+      }
+      prevSamplesWhenExecuted = Controller.methodSamples.getData(prevCMID);
+      totalSamplesWhenExecuted = Controller.methodSamples.getTotalNumberOfSamples();
+    }
+
     if (Controller.options
         .BACKGROUND_RECOMPILATION ||
                                   getCompPlan().getMethod().getDeclaringClass().isInBootImage()) {
@@ -187,7 +243,7 @@ public final class ControllerPlan {
     int newCMID = RuntimeCompiler.recompileWithOpt(cp);
     int prevCMID = getPrevCMID();
 
-    if (Controller.options.sampling()) {
+    if (Controller.options.sampling() && prevCMID != -1) {
       // transfer the samples from the old CMID to the new CMID.
       // scale the number of samples down by the expected speedup
       // in the newly compiled method.
@@ -198,6 +254,15 @@ public final class ControllerPlan {
       if (newCMID > -1) {
         Controller.methodSamples.augmentData(newCMID, newNumSamples);
       }
+
+      // remember how hot the old version was, to observe the real speedup later
+      double totalSamples = Controller.methodSamples.getTotalNumberOfSamples();
+      double prevSamples = oldNumSamples - prevSamplesWhenExecuted;
+      if (prevSamples >= MIN_OBSERVED_SAMPLES && totalSamples > totalSamplesWhenExecuted) {
+        prevShare = prevSamples / (totalSamples - totalSamplesWhenExecuted);
+      }
+      totalSamplesWhenCompleted = totalSamples;
+      transferredSamples = newNumSamples;
     }
 
     // set the status of the plan accordingly
@@ -215,6 +280,11 @@ public final class ControllerPlan {
     } else {
       AOSLogging.logger.recompilationCompleted(cp);
       AOSLogging.logger.recordCompileTime(cm, getExpectedCompilationTime());
+      CompileCapacity.compilationCompleted(cm.getCompilationTime());
+      if (Controller.options.RECALIBRATE_COMPILER_DNA) {
+        CompilerDNA.recordCompileTime(CompilerDNA.getCompilerConstant(cp.options.getOptLevel()),
+                                      cp.getMethod(), cm.getCompilationTime());
+      }
     }
     if (Controller.options.ENABLE_ADVICE_GENERATION && (newCMID != -1)) {
       AOSGenerator.reCompilationWithOpt(cp);
@@ -222,6 +292,50 @@ public final class ControllerPlan {
     return cm;
   }
 
+  /**
+   * Compares the share of all method samples that the new version of the
+   * method takes with the share the previous version took while this plan
+   * was pending.  Each plan is observed at most once.
+   *
+   * @param numSamples the samples credited to the new version so far
+   * @return the observed speedup, or -1 if there are not enough samples
+   *  to tell
+   */
+  double observeSpeedup(double numSamples) {
+    if (speedupObserved || prevShare <= 0 || status != COMPLETED) return -1;
+    double newSamples = numSamples - transferredSamples;
+    double totalSamples = Controller.methodSamples.getTotalNumberOfSamples() - totalSamplesWhenCompleted;
+    if (newSamples < MIN_OBSERVED_SAMPLES || totalSamples <= 0) return -1;
+    speedupObserved = true;
+    return prevShare / (newSamples / totalSamples);
+  }
+
+  /**
+   * Compares the share of all method samples that the previous version of
+   * the method has taken since this plan was executed with the share it had
+   * taken when this plan was executed.  Used by the compilation queue to
+   * refresh the priority of a plan that is waiting to be compiled.
+   *
+   * @return the ratio of the recent share to the original share, or -1 if
+   *  too few samples have been taken since this plan was executed to tell
+   */
+  double getRecentHotness() {
+    if (!Controller.options.sampling() || prevCMID == -1 || totalSamplesWhenExecuted <= 0) return -1;
+    double originalShare = prevSamplesWhenExecuted / totalSamplesWhenExecuted;
+    double totalSamples = Controller.methodSamples.getTotalNumberOfSamples() - totalSamplesWhenExecuted;
+    if (originalShare <= 0 || originalShare * totalSamples < MIN_OBSERVED_SAMPLES) return -1;
+    double prevSamples = Controller.methodSamples.getData(prevCMID) - prevSamplesWhenExecuted;
+    return (prevSamples / totalSamples) / originalShare;
+  }
+
+  /**
+   * @return the compiler constant of the previous version of the method,
+   *  -1 if unknown
+   */
+  int getPrevCompiler() {
+    return prevCompiler;
+  }
+
   /**
    * @return the compilation plan
    */
@@ -347,6 +461,8 @@ public final class ControllerPlan {
         return "OUTDATED";
       case OSR_BASE_2_OPT:
         return "OSR_BASE_2_OPT";
+      case CANCELLED:
+        return "CANCELLED";
       case UNKNOWN:
         return "UNKNOWN (not error)";
       default:
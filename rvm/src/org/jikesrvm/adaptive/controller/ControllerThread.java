@@ -30,6 +30,7 @@ import org.jikesrvm.adaptive.recompilation.InvocationCounts;
 import org.jikesrvm.adaptive.util.AOSGenerator;
 import org.jikesrvm.adaptive.util.AOSLogging;
 import org.jikesrvm.adaptive.util.AOSOptions;
+import org.jikesrvm.adaptive.util.ProfileArchive;
 import org.jikesrvm.scheduler.SoftLatch;
 import org.jikesrvm.scheduler.SystemThread;
 import org.vmmagic.pragma.NonMoving;
@@ -158,6 +159,7 @@ public final class ControllerThread extends SystemThread {
       if (Controller.options.EARLY_EXIT && Controller.options.EARLY_EXIT_TIME < Controller.controllerClock) {
         Controller.stop();
       }
+      ProfileArchive.snapshotIfDue();
       Object event = Controller.controllerInputQueue.deleteMin();
       ((ControllerInputEvent) event).process();
     }
@@ -278,6 +280,8 @@ public final class ControllerThread extends SystemThread {
    */
   public static void report() {
     AOSLogging.logger.printControllerStats();
+    AOSLogging.logger.printCompilationQueueStats();
+    AOSLogging.logger.printOsrStats();
   }
 
 }
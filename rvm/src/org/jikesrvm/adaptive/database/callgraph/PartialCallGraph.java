@@ -96,6 +96,13 @@ public final class PartialCallGraph implements Decayable, Reportable {
     totalEdgeWeights /= rate;
   }
 
+  /**
+   * @return the call sites that currently have targets
+   */
+  public synchronized CallSite[] getCallSites() {
+    return callGraph.keySet().toArray(new CallSite[callGraph.size()]);
+  }
+
   /**
    * @param caller caller method
    * @param bcIndex bytecode index in caller method
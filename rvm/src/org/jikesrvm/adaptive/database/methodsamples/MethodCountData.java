@@ -167,6 +167,15 @@ public final class MethodCountData implements Reportable {
     }
   }
 
+  /**
+   * @return the ids of all compiled methods that currently have an entry
+   */
+  public synchronized int[] getSampledCMIDs() {
+    int[] result = new int[nextIndex - 1];
+    System.arraycopy(cmids, 1, result, 0, result.length);
+    return result;
+  }
+
   /**
    * Reset (set to 0.0) the count for a given compiled method id.
    *
@@ -0,0 +1,360 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.measurements;
+
+import static org.jikesrvm.runtime.SysCall.sysCall;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.controller.Controller;
+import org.jikesrvm.adaptive.util.AOSOptions;
+import org.jikesrvm.architecture.ArchConstants;
+import org.jikesrvm.compilers.common.CompiledMethod;
+import org.jikesrvm.compilers.common.CompiledMethods;
+import org.jikesrvm.mm.mminterface.MemoryManager;
+import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.scheduler.RVMThread;
+import org.jikesrvm.scheduler.SystemThread;
+import org.vmmagic.pragma.NonMoving;
+import org.vmmagic.unboxed.Address;
+import org.vmmagic.unboxed.AddressArray;
+
+/**
+ * Takes method samples with the software clocks of the Linux perf_event
+ * system instead of at yieldpoints.
+ * <p>
+ * A timer tick can only be observed by a thread at its next yieldpoint,
+ * which biases the profile towards code that is rich in yieldpoints and
+ * never sees the time spent in GC or in native code.  This thread instead
+ * opens a perf_event sampler for every thread of the VM.  The kernel
+ * records the instruction pointer at which the thread was interrupted;
+ * this thread periodically drains those samples, maps them to compiled
+ * methods and feeds them to the method listeners installed with
+ * {@link RuntimeMeasurements#installPerfEventMethodListener}.  Samples
+ * outside of compiled code are counted as native.
+ * <p>
+ * A sampled instruction pointer says nothing about the caller, so the
+ * context listeners that build the dynamic call graph are still fed at
+ * yieldpoints.  If no sampler can be opened at all (for instance because
+ * of <code>/proc/sys/kernel/perf_event_paranoid</code>), the method
+ * listeners fall back to timer ticks.
+ */
+@NonMoving
+public final class PerfEventSampler extends SystemThread {
+
+  /** Number of instruction pointers drained by one system call */
+  private static final int BUFFER_SIZE = 1024;
+
+  /**
+   * Number of methods compiled after the index was built that are
+   * searched linearly before the index is rebuilt
+   */
+  private static final int REINDEX_THRESHOLD = 256;
+
+  /** Are samples being taken? */
+  private static boolean sampling;
+
+  /** Samples attributed to compiled methods */
+  private static long methodSamples;
+
+  /** Samples outside of compiled code */
+  private static long nativeSamples;
+
+  /** Samples the kernel dropped for threads that have terminated */
+  private static long lostSamples;
+
+  private final boolean cpuClock;
+  private final long periodNanos;
+
+  /** The thread whose sampler is in each slot, indexed by thread slot */
+  private RVMThread[] sampledThreads = new RVMThread[0];
+
+  /** Snapshot of the threads by slot taken under the accounting lock */
+  private RVMThread[] currentThreads = new RVMThread[0];
+
+  /** The native sampler of each slot, zero if there is none */
+  private AddressArray samplers = AddressArray.create(0);
+
+  /** Number of non-zero entries in {@link #samplers} */
+  private int openSamplers;
+
+  private final long[] ips = new long[BUFFER_SIZE];
+
+  /** Compiled methods sorted by the address of their code */
+  private CompiledMethod[] index = new CompiledMethod[0];
+  private long[] indexStarts = new long[0];
+  private long[] indexEnds = new long[0];
+
+  /** Compiled methods with an id of at least this are not in the index */
+  private int firstUnindexed = 1;
+
+  /**
+   * Starts the sampler if the method listener trigger asks for it.
+   *
+   * @param options the AOS options
+   */
+  public static void boot(AOSOptions options) {
+    if (options.mlPerfEvent()) {
+      sampling = true;
+      new PerfEventSampler(options).start();
+    }
+  }
+
+  /**
+   * @return whether method samples come from perf_event rather than
+   *  from timer ticks
+   */
+  public static boolean isSampling() {
+    return sampling;
+  }
+
+  /**
+   * @return the number of samples a running thread takes per timer tick
+   */
+  public static int samplesPerTick() {
+    int samples = VM.interruptQuantum * 1000 / samplePeriod(Controller.options);
+    return samples < 1 ? 1 : samples;
+  }
+
+  private static int samplePeriod(AOSOptions options) {
+    return options.PERF_EVENT_SAMPLE_PERIOD < 1 ? 1 : options.PERF_EVENT_SAMPLE_PERIOD;
+  }
+
+  private PerfEventSampler(AOSOptions options) {
+    super("PerfEventSampler");
+    cpuClock = options.pecCpuClock();
+    periodNanos = samplePeriod(options) * 1000L;
+  }
+
+  @Override
+  public void run() {
+    try {
+      rebuildIndex();
+      while (collect()) {
+        try {
+          RVMThread.sleep(VM.interruptQuantum * 1000L * 1000L);
+        } catch (InterruptedException e) {
+          // sample again
+        }
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      if (VM.ErrorsFatal) VM.sysFail("Exception in perf_event sampler");
+    }
+  }
+
+  /**
+   * Opens samplers for new threads, drains all samplers and closes the
+   * samplers of threads that have terminated.
+   *
+   * @return {@code false} if sampling is impossible and has been given up
+   */
+  private boolean collect() {
+    RVMThread self = RVMThread.getCurrentThread();
+    growSlots(RVMThread.getThreadSlotCapacity());
+    // no allocation while we hold the lock
+    RVMThread.acctLock.lockNoHandshake();
+    int slots = Math.min(RVMThread.nextSlot, currentThreads.length);
+    for (int i = 0; i < slots; i++) {
+      RVMThread t = RVMThread.getThreadBySlot(i);
+      if (t != null && t != self && !t.priority_handle.isZero()) {
+        currentThreads[i] = t;
+      }
+    }
+    RVMThread.acctLock.unlock();
+
+    boolean failed = false;
+    for (int i = 0; i < currentThreads.length; i++) {
+      RVMThread t = currentThreads[i];
+      currentThreads[i] = null;
+      Address sampler = samplers.get(i);
+      if (sampledThreads[i] != t) {
+        if (!sampler.isZero()) {
+          drain(sampler);
+          lostSamples += sysCall.sysPerfSamplerClose(sampler);
+          samplers.set(i, Address.zero());
+          openSamplers--;
+        }
+        sampledThreads[i] = t;
+        if (t != null) {
+          sampler = sysCall.sysPerfSamplerOpen(t.priority_handle.toInt(), cpuClock ? 1 : 0, periodNanos);
+          if (sampler.isZero()) {
+            failed = true;
+          } else {
+            samplers.set(i, sampler);
+            openSamplers++;
+          }
+        }
+      } else if (!sampler.isZero()) {
+        drain(sampler);
+      }
+    }
+
+    if (failed && openSamplers == 0 && methodSamples + nativeSamples == 0) {
+      VM.sysWriteln("AOS: perf_event sampling is not available, using timer ticks for method samples");
+      sampling = false;
+      RuntimeMeasurements.fallBackToTimerMethodListeners();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Makes room for the samplers of the given number of thread slots, as the
+   * thread slot tables may have grown.
+   *
+   * @param capacity the number of thread slots
+   */
+  private void growSlots(int capacity) {
+    if (capacity <= sampledThreads.length) return;
+    RVMThread[] newSampled = new RVMThread[capacity];
+    AddressArray newSamplers = AddressArray.create(capacity);
+    for (int i = 0; i < sampledThreads.length; i++) {
+      newSampled[i] = sampledThreads[i];
+      newSamplers.set(i, samplers.get(i));
+    }
+    sampledThreads = newSampled;
+    samplers = newSamplers;
+    currentThreads = new RVMThread[capacity];
+  }
+
+  /**
+   * Delivers all samples a sampler has taken.
+   *
+   * @param sampler the native sampler
+   */
+  private void drain(Address sampler) {
+    int n;
+    do {
+      n = sysCall.sysPerfSamplerRead(sampler, ips, BUFFER_SIZE);
+      for (int i = 0; i < n; i++) {
+        CompiledMethod cm = lookup(ips[i]);
+        if (cm == null) {
+          nativeSamples++;
+        } else {
+          methodSamples++;
+          RuntimeMeasurements.takePerfEventSample(cm.getId());
+        }
+      }
+    } while (n == BUFFER_SIZE);
+  }
+
+  /**
+   * Finds the compiled method whose code contains an instruction.
+   *
+   * @param ip the address of the instruction
+   * @return the compiled method or {@code null} if the instruction is
+   *  not in compiled code
+   */
+  private CompiledMethod lookup(long ip) {
+    // native code, the boot loader and the collector are not compiled code
+    if (!MemoryManager.addressInCodeSpace(Address.fromLong(ip))) return null;
+    int n = CompiledMethods.numCompiledMethods();
+    if (n - firstUnindexed > REINDEX_THRESHOLD) {
+      rebuildIndex();
+      n = firstUnindexed;
+    }
+    CompiledMethod cm = search(ip);
+    if (cm != null) {
+      if (isCurrent(cm) && contains(cm, ip)) return cm;
+      // the code has been reclaimed since the index was built
+      rebuildIndex();
+      return search(ip);
+    }
+    // at most REINDEX_THRESHOLD methods have been compiled since the index
+    // was built
+    for (int id = firstUnindexed; id < n; id++) {
+      cm = CompiledMethods.getCompiledMethodUnchecked(id);
+      if (cm != null && cm.isCompiled() && contains(cm, ip)) return cm;
+    }
+    return null;
+  }
+
+  private CompiledMethod search(long ip) {
+    int low = 0;
+    int high = index.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (ip < indexStarts[mid]) {
+        high = mid - 1;
+      } else if (ip >= indexEnds[mid]) {
+        low = mid + 1;
+      } else {
+        return index[mid];
+      }
+    }
+    return null;
+  }
+
+  private static boolean isCurrent(CompiledMethod cm) {
+    return CompiledMethods.getCompiledMethodUnchecked(cm.getId()) == cm && cm.isCompiled();
+  }
+
+  private static long codeStart(CompiledMethod cm) {
+    return Magic.objectAsAddress(cm.getEntryCodeArray()).toLong();
+  }
+
+  private static long codeEnd(CompiledMethod cm) {
+    return codeStart(cm) + (cm.numberOfInstructions() << ArchConstants.getLogInstructionWidth());
+  }
+
+  private static boolean contains(CompiledMethod cm, long ip) {
+    return codeStart(cm) <= ip && ip < codeEnd(cm);
+  }
+
+  private static final Comparator<CompiledMethod> BY_ADDRESS = new Comparator<CompiledMethod>() {
+    @Override
+    public int compare(CompiledMethod a, CompiledMethod b) {
+      long x = codeStart(a);
+      long y = codeStart(b);
+      return x < y ? -1 : (x == y ? 0 : 1);
+    }
+  };
+
+  /**
+   * Sorts all compiled methods by the address of their code.  Code does
+   * not move, so the index stays valid until code is reclaimed.
+   */
+  private void rebuildIndex() {
+    int n = CompiledMethods.numCompiledMethods();
+    CompiledMethod[] methods = new CompiledMethod[n];
+    int count = 0;
+    for (int id = 1; id < n; id++) {
+      CompiledMethod cm = CompiledMethods.getCompiledMethodUnchecked(id);
+      if (cm != null && cm.isCompiled() && cm.getEntryCodeArray() != null) {
+        methods[count++] = cm;
+      }
+    }
+    Arrays.sort(methods, 0, count, BY_ADDRESS);
+    long[] starts = new long[count];
+    long[] ends = new long[count];
+    for (int i = 0; i < count; i++) {
+      starts[i] = codeStart(methods[i]);
+      ends[i] = codeEnd(methods[i]);
+    }
+    index = Arrays.copyOf(methods, count);
+    indexStarts = starts;
+    indexEnds = ends;
+    firstUnindexed = n;
+  }
+
+  /**
+   * Prints the sample statistics.
+   */
+  public static void report() {
+    VM.sysWriteln("\tNumber of perf_event samples in compiled code ", methodSamples);
+    VM.sysWriteln("\tNumber of perf_event samples in native code ", nativeSamples);
+    VM.sysWriteln("\tNumber of perf_event samples dropped for terminated threads ", lostSamples);
+  }
+}
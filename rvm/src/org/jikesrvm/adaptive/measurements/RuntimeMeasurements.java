@@ -23,6 +23,7 @@ import org.jikesrvm.architecture.StackFrameLayout;
 import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.common.CompiledMethods;
 import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.scheduler.RVMThread;
 import org.vmmagic.pragma.Uninterruptible;
 import org.vmmagic.unboxed.Address;
 
@@ -277,6 +278,67 @@ public abstract class RuntimeMeasurements {
     }
   }
 
+  /////////////////////////////////////////////////////////////////////////
+  // Support for gathering profile data on perf_event samples
+  /////////////////////////////////////////////////////////////////////////
+
+  /**
+   * method listeners that are fed by the {@link PerfEventSampler}
+   */
+  private static MethodListener[] perfEventMethodListeners = new MethodListener[0];
+
+  /**
+   * has the {@link PerfEventSampler} given up, so that its listeners
+   * are installed on timer ticks instead?
+   */
+  private static boolean perfEventFallback;
+
+  /**
+   * Install a method listener on perf_event samples
+   * @param s method listener to be installed
+   */
+  public static synchronized void installPerfEventMethodListener(MethodListener s) {
+    if (perfEventFallback) {
+      installTimerMethodListener(s);
+      return;
+    }
+    int numListeners = perfEventMethodListeners.length;
+    MethodListener[] tmp = new MethodListener[numListeners + 1];
+    for (int i = 0; i < numListeners; i++) {
+      tmp[i] = perfEventMethodListeners[i];
+    }
+    tmp[numListeners] = s;
+    perfEventMethodListeners = tmp;
+  }
+
+  /**
+   * Moves the perf_event method listeners to the timer ticks.  Called
+   * when the operating system does not let us sample with perf_event.
+   */
+  static synchronized void fallBackToTimerMethodListeners() {
+    perfEventFallback = true;
+    for (MethodListener listener : perfEventMethodListeners) {
+      installTimerMethodListener(listener);
+    }
+    perfEventMethodListeners = new MethodListener[0];
+  }
+
+  /**
+   * Called by the {@link PerfEventSampler} for every sampled instruction
+   * pointer that lies in compiled code.  The sample carries no caller, so
+   * it is counted like a sample taken at a backedge.
+   *
+   * @param cmid the compiled method that was executing
+   */
+  @Uninterruptible
+  static void takePerfEventSample(int cmid) {
+    for (MethodListener aMl : perfEventMethodListeners) {
+      if (aMl.isActive()) {
+        aMl.update(cmid, -1, RVMThread.BACKEDGE);
+      }
+    }
+  }
+
   /////////////////////////////////////////////////////////////////////////
   // Support for decay
   /////////////////////////////////////////////////////////////////////////
@@ -372,6 +434,8 @@ public abstract class RuntimeMeasurements {
 
     cbsMethodListeners = new MethodListener[0];
     cbsContextListeners = new ContextListener[0];
+
+    perfEventMethodListeners = new MethodListener[0];
   }
 
   /**
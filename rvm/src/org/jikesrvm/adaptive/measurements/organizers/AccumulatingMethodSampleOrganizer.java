@@ -15,6 +15,7 @@ package org.jikesrvm.adaptive.measurements.organizers;
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.database.methodsamples.MethodCountData;
+import org.jikesrvm.adaptive.measurements.PerfEventSampler;
 import org.jikesrvm.adaptive.measurements.RuntimeMeasurements;
 import org.jikesrvm.adaptive.measurements.listeners.MethodListener;
 import org.jikesrvm.adaptive.util.AOSLogging;
@@ -40,7 +41,7 @@ public final class AccumulatingMethodSampleOrganizer extends Organizer {
   /**
    * Initialization: set up data structures and sampling objects.
    * <p>
-   * Uses either timer based sampling or counter based sampling,
+   * Uses timer based, counter based or perf_event based sampling,
    * depending on {@link Controller#options}.
    */
   @Override
@@ -50,6 +51,8 @@ public final class AccumulatingMethodSampleOrganizer extends Organizer {
     int numSamples = Controller.options.METHOD_SAMPLE_SIZE * RVMThread.availableProcessors;
     if (Controller.options.mlCBS()) {
       numSamples *= VM.CBSMethodSamplesPerTick;
+    } else if (Controller.options.mlPerfEvent()) {
+      numSamples *= PerfEventSampler.samplesPerTick();
     }
     MethodListener methodListener = new MethodListener(numSamples);
     listener = methodListener;
@@ -58,6 +61,8 @@ public final class AccumulatingMethodSampleOrganizer extends Organizer {
       RuntimeMeasurements.installTimerMethodListener(methodListener);
     } else if (Controller.options.mlCBS()) {
       RuntimeMeasurements.installCBSMethodListener(methodListener);
+    } else if (Controller.options.mlPerfEvent()) {
+      RuntimeMeasurements.installPerfEventMethodListener(methodListener);
     } else {
       if (VM.VerifyAssertions) VM._assert(VM.NOT_REACHED, "Unexpected value of method_listener_trigger");
     }
@@ -44,7 +44,8 @@ public final class CompilationThread extends SystemThread {
    */
   @Override
   public void run() {
-    // Make a blocking call to deleteMin to get a plan and then execute it.
+    // Make a blocking call to deleteMin to get the plan with the highest
+    // (refreshed) priority and then execute it.
     // Repeat...
     while (true) {
       Object plan = Controller.compilationQueue.deleteMin();
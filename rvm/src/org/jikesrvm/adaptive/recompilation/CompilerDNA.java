@@ -108,6 +108,38 @@ public class CompilerDNA {
     initializeCompilerRatioArrays();
   }
 
+  /**
+   * Number of compilations at an opt level that must have been measured
+   * before their rate replaces the one in the DNA
+   */
+  private static final int MIN_MEASURED_COMPILATIONS = 8;
+
+  /**
+   * Factor by which older compilations are discounted when a new one is
+   * measured, so that the measured rates follow the recent behavior
+   */
+  private static final double MEASUREMENT_DECAY = 0.98;
+
+  /**
+   * Weight of an observed speedup relative to the current speedup rate
+   */
+  private static final double SPEEDUP_WEIGHT = 0.1;
+
+  /**
+   * Discounted sums of the logs of the measured compilation rates and of
+   * the number of measurements, per compiler.  As in RuntimeCompiler we
+   * use the geometric mean, which is robust against tiny methods.
+   */
+  private static final double[] measuredLogOfRates = new double[compilerNames.length];
+  private static final double[] measuredCompilations = new double[compilerNames.length];
+  private static final int[] numMeasuredCompilations = new int[compilerNames.length];
+
+  /**
+   * The speedup rates before recalibration; recalibrated speedups are
+   * kept within a factor of two of them
+   */
+  private static double[] initialSpeedupRates;
+
   /**
    * This method returns the expected speedup from going from compiler1 to compiler2
    * @param compiler1 old compiler
@@ -170,6 +202,8 @@ public class CompilerDNA {
       initializeCompilerRatioArrays();
     }
 
+    initialSpeedupRates = speedupRates.clone();
+
     for (int i = 0; i < compilationRates.length; i++) {
       AOSLogging.logger.reportCompilationRate(i, compilationRates[i]);
     }
@@ -214,6 +248,67 @@ public class CompilerDNA {
     }
   }
 
+  /**
+   * Recalibrates the compilation rate of an optimizing compiler from a
+   * compilation measured on this machine.  Once enough compilations have
+   * been seen, the geometric mean of the measured rates replaces the
+   * built-in rate.
+   *
+   * @param compiler the compiler constant of the optimizing compiler
+   * @param meth the method that was compiled
+   * @param millis the measured compile time in milliseconds
+   */
+  public static synchronized void recordCompileTime(int compiler, NormalMethod meth, double millis) {
+    if (compiler == BASELINE || millis <= 0 || meth.getBytecodeLength() == 0) return;
+    measuredLogOfRates[compiler] =
+        measuredLogOfRates[compiler] * MEASUREMENT_DECAY + Math.log(meth.getBytecodeLength() / millis);
+    measuredCompilations[compiler] = measuredCompilations[compiler] * MEASUREMENT_DECAY + 1;
+    if (++numMeasuredCompilations[compiler] < MIN_MEASURED_COMPILATIONS) return;
+
+    // estimateCompileTime scales by the baseline rate measured at runtime, so
+    // express the measured rate relative to that to keep the other ratios valid
+    double runtimeBaselineRate = RuntimeCompiler.getBaselineRate();
+    if (!(runtimeBaselineRate > 0)) return;
+    double measuredRate = Math.exp(measuredLogOfRates[compiler] / measuredCompilations[compiler]);
+    compilationRates[compiler] = measuredRate * compilationRates[BASELINE] / runtimeBaselineRate;
+    AOSLogging.logger.reportCompilationRate(compiler, compilationRates[compiler]);
+    recomputeRatios();
+  }
+
+  /**
+   * Recalibrates the speedup rate of a compiler from the speedup that was
+   * observed after a method was recompiled with it.  Single observations
+   * are noisy, so they only move the rate a little, and the rate stays
+   * within a factor of two of the one in the DNA.
+   *
+   * @param prevCompiler the compiler of the previous version of the method
+   * @param compiler the compiler that recompiled it
+   * @param observedSpeedup how much faster the new version ran
+   */
+  public static synchronized void recordSpeedup(int prevCompiler, int compiler, double observedSpeedup) {
+    if (prevCompiler >= compiler || observedSpeedup <= 0 || initialSpeedupRates == null) return;
+    double target = speedupRates[prevCompiler] * observedSpeedup;
+    double rate = (1 - SPEEDUP_WEIGHT) * speedupRates[compiler] + SPEEDUP_WEIGHT * target;
+    rate = Math.max(rate, initialSpeedupRates[compiler] / 2);
+    rate = Math.min(rate, initialSpeedupRates[compiler] * 2);
+    speedupRates[compiler] = Math.max(rate, speedupRates[BASELINE]);
+    AOSLogging.logger.reportSpeedupRate(compiler, speedupRates[compiler]);
+    recomputeRatios();
+  }
+
+  /**
+   * Updates the ratio matrices in place after a recalibration; the
+   * controller may be reading them concurrently.
+   */
+  private static void recomputeRatios() {
+    for (int prevCompiler = 0; prevCompiler < numCompilers; prevCompiler++) {
+      for (int nextCompiler = prevCompiler + 1; nextCompiler < numCompilers; nextCompiler++) {
+        benefitRatio[prevCompiler][nextCompiler] = speedupRates[nextCompiler] / speedupRates[prevCompiler];
+        compileTimeRatio[prevCompiler][nextCompiler] = compilationRates[prevCompiler] / compilationRates[nextCompiler];
+      }
+    }
+  }
+
   /**
    * Read a serialized representation of the DNA info
    * @param filename DNA filename
@@ -17,6 +17,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.OnStackReplacementPlan;
+import org.jikesrvm.adaptive.controller.CompilationQueue;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.controller.ControllerMemory;
 import org.jikesrvm.adaptive.controller.ControllerPlan;
@@ -202,6 +204,58 @@ public final class AOSLogging {
     }
   }
 
+  /**
+   * Prints the statistics of the compilation queue: its depth, the time
+   * plans waited in it and the plans cancelled or merged while waiting.
+   */
+  public void printCompilationQueueStats() {
+    if (Controller.options.LOGGING_LEVEL >= 1) {
+      CompilationQueue queue = Controller.compilationQueue;
+      synchronized (log) {
+        log.print(getTime() +
+                  "\n  Compilation queue depth: " +
+                  queue.numElements() +
+                  " (max " +
+                  queue.getMaxDepth() +
+                  ")\n  Num plans compiled from the queue: " +
+                  queue.getNumRemoved() +
+                  "\n  Time waited in queue: " +
+                  queue.getAverageWaitMillis() +
+                  " ms average, " +
+                  queue.getMaxWaitMillis() +
+                  " ms max\n  Num plans cancelled: " +
+                  queue.getNumCancelled() +
+                  "\n  Num plans merged: " +
+                  queue.getNumMerged() +
+                  "\n\n");
+      }
+    }
+  }
+
+  /**
+   * Prints the statistics of on-stack replacement: the activations
+   * replaced, the specialized compilations and the time from trigger to
+   * replacement.
+   */
+  public void printOsrStats() {
+    if (Controller.options.LOGGING_LEVEL >= 1) {
+      synchronized (log) {
+        log.print(getTime() +
+                  "\n  Num activations replaced by OSR: " +
+                  OnStackReplacementPlan.getNumReplaced() +
+                  "\n  Num OSR specialized compilations: " +
+                  OnStackReplacementPlan.getNumCompilations() +
+                  "\n  Num activations sharing a compilation: " +
+                  OnStackReplacementPlan.getNumShared() +
+                  "\n  OSR latency: " +
+                  OnStackReplacementPlan.getAverageLatencyMillis() +
+                  " ms average, " +
+                  OnStackReplacementPlan.getMaxLatencyMillis() +
+                  " ms max\n\n");
+      }
+    }
+  }
+
   /**
    * This method reports the basic speedup rate for a compiler
    * @param compiler the compiler you are reporting about
@@ -298,6 +352,39 @@ public final class AOSLogging {
     }
   }
 
+  /**
+   * This method logs the cancellation of a recompilation that was waiting
+   * in the compilation queue because its method went cold.
+   * @param plan the Compilation plan being cancelled.
+   * @param priority the priority the plan was scheduled with.
+   * @param hotness the recent share of samples of the method, relative to
+   *   its share when the plan was scheduled.
+   */
+  public void recompilationCancelled(CompilationPlan plan, double priority, double hotness) {
+    if (Controller.options.LOGGING_LEVEL >= 2) {
+      synchronized (log) {
+        log.println(getTime() + " Cancelling level " + plan.options.getOptLevel() + " recompilation of " + plan
+            .method + " (plan had priority " + priority + ", method is " + hotness + " as hot)");
+      }
+    }
+  }
+
+  /**
+   * This method logs the merging of two recompilations of the same method
+   * in the compilation queue.
+   * @param dropped the Compilation plan that is dropped.
+   * @param kept the Compilation plan that is kept.
+   * @param priority the priority of the merged plan.
+   */
+  public void recompilationMerged(CompilationPlan dropped, CompilationPlan kept, double priority) {
+    if (Controller.options.LOGGING_LEVEL >= 2) {
+      synchronized (log) {
+        log.println(getTime() + " Merging level " + dropped.options.getOptLevel() + " recompilation of " + dropped
+            .method + " into level " + kept.options.getOptLevel() + " (plan has priority " + priority + ")");
+      }
+    }
+  }
+
   /**
    * This method logs the beginning of an adaptively selected recompilation
    * @param plan the Compilation plan being executed.
@@ -0,0 +1,502 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import org.jikesrvm.Configuration;
+import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.controller.Controller;
+import org.jikesrvm.adaptive.controller.ControllerPlan;
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
+import org.jikesrvm.adaptive.database.callgraph.WeightedCallTargets;
+import org.jikesrvm.adaptive.recompilation.CompilerDNA;
+import org.jikesrvm.classloader.Atom;
+import org.jikesrvm.classloader.BootstrapClassLoader;
+import org.jikesrvm.classloader.MemberReference;
+import org.jikesrvm.classloader.MethodReference;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMClass;
+import org.jikesrvm.classloader.RVMClassLoader;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.classloader.TypeReference;
+import org.jikesrvm.compilers.baseline.EdgeCounts;
+import org.jikesrvm.compilers.common.CompiledMethod;
+import org.jikesrvm.compilers.common.CompiledMethods;
+import org.jikesrvm.compilers.opt.driver.CompilationPlan;
+import org.jikesrvm.compilers.opt.runtimesupport.OptCompiledMethod;
+import org.jikesrvm.runtime.Callbacks;
+
+/**
+ * A binary archive of the profile gathered by the adaptive system, used
+ * to warm up a later run of the same application.
+ * <p>
+ * The archive is written to <code>-X:aos:pao=file</code> every
+ * <code>PROFILE_ARCHIVE_INTERVAL</code> controller clock ticks and when
+ * the VM exits.  It records
+ * <ul>
+ *  <li>the hotness and final opt level of every sampled method,
+ *  <li>the dynamic call graph and
+ *  <li>the baseline edge counters.
+ * </ul>
+ * Inlining decisions are not recorded separately: they are derived from
+ * the call graph, so restoring the call graph reproduces them.
+ * <p>
+ * An archive given by <code>-X:aos:pai=file</code> is read at boot.  The
+ * call graph and edge counters are seeded with its contents.  Each
+ * archived hot method is opt compiled at its archived opt level in the
+ * background as soon as its class is instantiated (see
+ * <code>PROFILE_ARCHIVE_PRECOMPILE</code>), or else as soon as it has been
+ * baseline compiled, instead of waiting for the controller to rediscover
+ * it.  Most hot methods therefore never run baseline code.
+ * <p>
+ * The archive is only used by the VM build that wrote it, and a hot method
+ * is only precompiled if its bytecodes are unchanged.  The machine code
+ * itself is not archived: opt compiled code embeds JTOC and TIB offsets
+ * that are assigned afresh in every run, and compiling the method again
+ * also registers its class hierarchy assumptions with the
+ * {@link org.jikesrvm.compilers.opt.inlining.ClassLoadingDependencyManager}.
+ * <p>
+ * All numbers are big endian, as written by {@link DataOutputStream}:
+ * <pre>
+ * archive   := MAGIC VERSION utf build atoms methods hot edges counts
+ * atoms     := int n, n * utf
+ * methods   := int n, n * (byte loader, int class, int name, int descriptor)
+ * hot       := int n, n * (int method, int bytecodeHash, byte optLevel, double samples)
+ * edges     := int n, n * (int caller, int bcIndex, int callee, double weight)
+ * counts    := int n, n * (int method, int length, length * int)
+ * </pre>
+ * Atoms and methods are referred to by their index in the respective
+ * table.  The loader is {@link #BOOTSTRAP_LOADER} or
+ * {@link #APPLICATION_LOADER}; methods of other class loaders are not
+ * archived.
+ */
+public final class ProfileArchive implements Callbacks.ExitMonitor, Callbacks.ClassInstantiatedMonitor {
+
+  private static final int MAGIC = 0x4A505241; // "JPRA"
+  private static final int VERSION = 2;
+
+  /** Identifies the VM build an archive was written by */
+  private static final String BUILD = Configuration.RVM_VERSION_STRING + " " + Configuration.RVM_CONFIGURATION;
+
+  private static final byte BOOTSTRAP_LOADER = 0;
+  private static final byte APPLICATION_LOADER = 1;
+
+  /**
+   * Archived hot methods that are still waiting for their first
+   * compilation, or {@code null} if there is nothing to warm up.
+   */
+  private static HashMap<MethodReference, MethodProfile> warmUp;
+
+  /** Controller clock value at which the next snapshot is due */
+  private static int nextSnapshot;
+
+  /**
+   * Reads the archive given on the command line, if any, and arranges for
+   * the profile of this run to be archived.  Called once the application
+   * class loader is available.
+   */
+  public static void boot() {
+    String input = Controller.options.PROFILE_ARCHIVE_INPUT;
+    if (input != null) {
+      if (Controller.options.BULK_COMPILATION_VERBOSITY >= 1) {
+        VM.sysWriteln("Loading profile archive: ", input);
+      }
+      try {
+        read(input);
+      } catch (IOException e) {
+        VM.sysWriteln("Ignoring unreadable profile archive " + input + ": " + e);
+        warmUp = null;
+      }
+      if (warmUp != null && Controller.options.PROFILE_ARCHIVE_PRECOMPILE) {
+        Callbacks.addClassInstantiatedMonitor(new ProfileArchive());
+      }
+    }
+    if (Controller.options.PROFILE_ARCHIVE_OUTPUT != null) {
+      nextSnapshot = Controller.controllerClock + Controller.options.PROFILE_ARCHIVE_INTERVAL;
+      Callbacks.addExitMonitor(new ProfileArchive());
+    }
+  }
+
+  @Override
+  public void notifyExit(int value) {
+    snapshot();
+  }
+
+  @Override
+  public void notifyClassInstantiated(RVMClass klass) {
+    if (warmUp == null) return;
+    for (RVMMethod method : klass.getDeclaredMethods()) {
+      if (method instanceof NormalMethod) {
+        precompile((NormalMethod) method, -1);
+      }
+    }
+  }
+
+  /**
+   * Called by the controller thread to archive the profile periodically.
+   */
+  public static void snapshotIfDue() {
+    if (Controller.options.PROFILE_ARCHIVE_OUTPUT == null ||
+        Controller.options.PROFILE_ARCHIVE_INTERVAL <= 0 ||
+        Controller.controllerClock < nextSnapshot) {
+      return;
+    }
+    nextSnapshot = Controller.controllerClock + Controller.options.PROFILE_ARCHIVE_INTERVAL;
+    snapshot();
+  }
+
+  /**
+   * Writes the current profile to the output archive.  The archive is
+   * written to a temporary file first so that a crash never leaves a
+   * truncated archive behind.
+   */
+  public static synchronized void snapshot() {
+    String output = Controller.options.PROFILE_ARCHIVE_OUTPUT;
+    if (output == null) return;
+    File file = new File(output);
+    File tmp = new File(output + ".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        new Writer().write(out);
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file)) {
+        VM.sysWriteln("ProfileArchive: could not rename ", tmp.getPath(), " to ", output);
+      }
+    } catch (IOException e) {
+      VM.sysWriteln("ProfileArchive: error writing " + output + ": " + e);
+    }
+  }
+
+  /**
+   * Called when a method has been baseline compiled.  If the archive says
+   * the method was hot, a recompilation at its archived opt level is
+   * queued right away.
+   *
+   * @param cm the new baseline compiled method
+   */
+  public static void baseCompilationCompleted(CompiledMethod cm) {
+    if (warmUp == null || !(cm.getMethod() instanceof NormalMethod)) return;
+    precompile((NormalMethod) cm.getMethod(), cm.getId());
+  }
+
+  /**
+   * Queues an opt compilation of a method if the archive says it was hot
+   * and its bytecodes have not changed since.
+   *
+   * @param method the method
+   * @param prevCMID the id of its current compiled method, -1 if it has
+   *  not been compiled yet
+   */
+  private static void precompile(NormalMethod method, int prevCMID) {
+    MethodProfile profile;
+    synchronized (warmUp) {
+      profile = warmUp.remove(method.getMemberRef());
+    }
+    if (profile == null) return;
+    if (method.hasNoOptCompileAnnotation() || method.getBytecodeHash() != profile.bytecodeHash) return;
+    int optLevel = Math.min(profile.optLevel, Controller.options.DERIVED_MAX_OPT_LEVEL);
+    if (optLevel < 0) return;
+
+    int compiler = CompilerDNA.getCompilerConstant(optLevel);
+    CompilationPlan compPlan = Controller.recompilationStrategy.createCompilationPlan(method, optLevel, null);
+    ControllerPlan plan =
+        new ControllerPlan(compPlan,
+                           Controller.controllerClock,
+                           prevCMID,
+                           CompilerDNA.getBenefitRatio(CompilerDNA.BASELINE, compiler),
+                           CompilerDNA.estimateCompileTime(compiler, method),
+                           profile.samples);
+    plan.execute();
+  }
+
+  /**
+   * The profile of a single method.
+   */
+  private static final class MethodProfile {
+    final MethodReference method;
+    final int bytecodeHash;
+    int optLevel;
+    double samples;
+
+    MethodProfile(MethodReference method, int bytecodeHash, int optLevel, double samples) {
+      this.method = method;
+      this.bytecodeHash = bytecodeHash;
+      this.optLevel = optLevel;
+      this.samples = samples;
+    }
+  }
+
+  /**
+   * An edge of the dynamic call graph.
+   */
+  private static final class Edge {
+    final MethodReference caller;
+    final int bcIndex;
+    final MethodReference callee;
+    final double weight;
+
+    Edge(MethodReference caller, int bcIndex, MethodReference callee, double weight) {
+      this.caller = caller;
+      this.bcIndex = bcIndex;
+      this.callee = callee;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Reads an archive and seeds the adaptive system with it.
+   *
+   * @param fileName the archive to read
+   * @throws IOException if the archive cannot be read or is malformed
+   */
+  private static void read(String fileName) throws IOException {
+    // Read the archive in one go; the sections are then decoded from memory.
+    File file = new File(fileName);
+    byte[] bytes = new byte[(int) file.length()];
+    DataInputStream raw = new DataInputStream(new FileInputStream(file));
+    try {
+      raw.readFully(bytes);
+    } finally {
+      raw.close();
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("not a profile archive of version " + VERSION);
+    }
+    String build = in.readUTF();
+    if (!build.equals(BUILD)) {
+      throw new IOException("archive was written by " + build);
+    }
+
+    Atom[] atoms = new Atom[in.readInt()];
+    for (int i = 0; i < atoms.length; i++) {
+      atoms[i] = Atom.findOrCreateUnicodeAtom(in.readUTF());
+    }
+
+    MethodReference[] methods = new MethodReference[in.readInt()];
+    for (int i = 0; i < methods.length; i++) {
+      byte loader = in.readByte();
+      Atom className = atoms[in.readInt()];
+      Atom name = atoms[in.readInt()];
+      Atom descriptor = atoms[in.readInt()];
+      ClassLoader cl = loader == BOOTSTRAP_LOADER ?
+          BootstrapClassLoader.getBootstrapClassLoader() :
+          RVMClassLoader.getApplicationClassLoader();
+      TypeReference type = TypeReference.findOrCreate(cl, className);
+      methods[i] = MemberReference.findOrCreate(type, name, descriptor).asMethodReference();
+    }
+
+    boolean warm = Controller.options.ENABLE_RECOMPILATION &&
+        Controller.options.BACKGROUND_RECOMPILATION &&
+        Controller.options.sampling();
+    HashMap<MethodReference, MethodProfile> hot = new HashMap<MethodReference, MethodProfile>();
+    int numHot = in.readInt();
+    for (int i = 0; i < numHot; i++) {
+      MethodReference method = methods[in.readInt()];
+      int bytecodeHash = in.readInt();
+      int optLevel = in.readByte();
+      double samples = in.readDouble();
+      if (warm && optLevel >= 0) {
+        hot.put(method, new MethodProfile(method, bytecodeHash, optLevel, samples));
+      }
+    }
+
+    int numEdges = in.readInt();
+    for (int i = 0; i < numEdges; i++) {
+      MethodReference callerRef = methods[in.readInt()];
+      int bcIndex = in.readInt();
+      MethodReference calleeRef = methods[in.readInt()];
+      double weight = in.readDouble();
+      if (Controller.dcg == null) continue;
+      RVMMethod caller = callerRef.peekResolvedMethod();
+      RVMMethod callee = calleeRef.peekResolvedMethod();
+      if (caller == null || callee == null) {
+        Controller.dcg.incrementUnResolvedEdge(callerRef, bcIndex, calleeRef, (float) weight);
+      } else {
+        Controller.dcg.incrementEdge(caller, bcIndex, callee, (float) weight);
+      }
+    }
+
+    int numCounts = in.readInt();
+    for (int i = 0; i < numCounts; i++) {
+      MethodReference method = methods[in.readInt()];
+      int[] counts = new int[in.readInt()];
+      for (int j = 0; j < counts.length; j++) {
+        counts[j] = in.readInt();
+      }
+      EdgeCounts.seedCounts(method.getId(), counts);
+    }
+
+    if (Controller.options.BULK_COMPILATION_VERBOSITY >= 1) {
+      VM.sysWriteln("Profile archive: hot methods ", hot.size(), ", call edges ", numEdges);
+    }
+    if (!hot.isEmpty()) {
+      warmUp = hot;
+    }
+  }
+
+  /**
+   * Collects the current profile and writes it out.
+   */
+  private static final class Writer {
+    private final HashMap<Atom, Integer> atomIndex = new HashMap<Atom, Integer>();
+    private final ArrayList<Atom> atoms = new ArrayList<Atom>();
+    private final HashMap<MethodReference, Integer> methodIndex = new HashMap<MethodReference, Integer>();
+    private final ArrayList<MethodReference> methods = new ArrayList<MethodReference>();
+
+    /**
+     * @param method a method to be archived
+     * @return its index in the method table, or -1 if its class loader
+     *  cannot be archived
+     */
+    private int index(MethodReference method) {
+      Integer index = methodIndex.get(method);
+      if (index != null) return index;
+      if (loaderOf(method) < 0) return -1;
+      index(method.getType().getName());
+      index(method.getName());
+      index(method.getDescriptor());
+      methodIndex.put(method, methods.size());
+      methods.add(method);
+      return methods.size() - 1;
+    }
+
+    private int index(Atom atom) {
+      Integer index = atomIndex.get(atom);
+      if (index == null) {
+        index = atoms.size();
+        atomIndex.put(atom, index);
+        atoms.add(atom);
+      }
+      return index;
+    }
+
+    private static byte loaderOf(MethodReference method) {
+      ClassLoader cl = method.getType().getClassLoader();
+      if (cl == BootstrapClassLoader.getBootstrapClassLoader()) return BOOTSTRAP_LOADER;
+      if (cl == RVMClassLoader.getApplicationClassLoader()) return APPLICATION_LOADER;
+      return -1;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      // Hot methods; several compiled versions of a method are merged.
+      LinkedHashMap<MethodReference, MethodProfile> hot = new LinkedHashMap<MethodReference, MethodProfile>();
+      if (Controller.methodSamples != null) {
+        for (int cmid : Controller.methodSamples.getSampledCMIDs()) {
+          CompiledMethod cm = CompiledMethods.getCompiledMethod(cmid);
+          if (cm == null || !(cm.getMethod() instanceof NormalMethod)) continue;
+          double samples = Controller.methodSamples.getData(cmid);
+          if (samples <= 0.0) continue;
+          MethodReference ref = cm.getMethod().getMemberRef().asMethodReference();
+          if (index(ref) < 0) continue;
+          int optLevel = cm.getCompilerType() == CompiledMethod.OPT ? ((OptCompiledMethod) cm).getOptLevel() : -1;
+          MethodProfile profile = hot.get(ref);
+          if (profile == null) {
+            int bytecodeHash = ((NormalMethod) cm.getMethod()).getBytecodeHash();
+            hot.put(ref, new MethodProfile(ref, bytecodeHash, optLevel, samples));
+          } else {
+            profile.optLevel = Math.max(profile.optLevel, optLevel);
+            profile.samples += samples;
+          }
+        }
+      }
+
+      // Call graph edges
+      final ArrayList<Edge> edges = new ArrayList<Edge>();
+      if (Controller.dcg != null) {
+        for (final CallSite cs : Controller.dcg.getCallSites()) {
+          WeightedCallTargets targets = Controller.dcg.getCallTargets(cs);
+          if (targets == null) continue;
+          targets.visitTargets(new WeightedCallTargets.Visitor() {
+            @Override
+            public void visit(RVMMethod callee, double weight) {
+              edges.add(new Edge(cs.getMethod().getMemberRef().asMethodReference(),
+                                 cs.getBytecodeIndex(),
+                                 callee.getMemberRef().asMethodReference(),
+                                 weight));
+            }
+          });
+        }
+      }
+      ArrayList<Edge> archivedEdges = new ArrayList<Edge>();
+      for (Edge edge : edges) {
+        if (index(edge.caller) >= 0 && index(edge.callee) >= 0) {
+          archivedEdges.add(edge);
+        }
+      }
+
+      // Edge counters, indexed by member reference id.
+      ArrayList<MethodReference> counted = new ArrayList<MethodReference>();
+      ArrayList<int[]> counts = new ArrayList<int[]>();
+      for (int id = 1; id < MemberReference.getNextId(); id++) {
+        int[] c = EdgeCounts.getCounts(id);
+        if (c == null) continue;
+        MethodReference ref = MemberReference.getMethodRef(id);
+        if (index(ref) < 0) continue;
+        counted.add(ref);
+        counts.add(c);
+      }
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(BUILD);
+      out.writeInt(atoms.size());
+      for (Atom atom : atoms) {
+        out.writeUTF(atom.toUnicodeString());
+      }
+      out.writeInt(methods.size());
+      for (MethodReference method : methods) {
+        out.writeByte(loaderOf(method));
+        out.writeInt(index(method.getType().getName()));
+        out.writeInt(index(method.getName()));
+        out.writeInt(index(method.getDescriptor()));
+      }
+      out.writeInt(hot.size());
+      for (MethodProfile profile : hot.values()) {
+        out.writeInt(index(profile.method));
+        out.writeInt(profile.bytecodeHash);
+        out.writeByte(profile.optLevel);
+        out.writeDouble(profile.samples);
+      }
+      out.writeInt(archivedEdges.size());
+      for (Edge edge : archivedEdges) {
+        out.writeInt(index(edge.caller));
+        out.writeInt(edge.bcIndex);
+        out.writeInt(index(edge.callee));
+        out.writeDouble(edge.weight);
+      }
+      out.writeInt(counted.size());
+      for (int i = 0; i < counted.size(); i++) {
+        int[] c = counts.get(i);
+        out.writeInt(index(counted.get(i)));
+        out.writeInt(c.length);
+        for (int value : c) {
+          out.writeInt(value);
+        }
+      }
+    }
+  }
+}
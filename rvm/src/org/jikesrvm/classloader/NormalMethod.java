@@ -15,6 +15,7 @@ package org.jikesrvm.classloader;
 import static org.jikesrvm.classloader.BytecodeConstants.*;
 import static org.jikesrvm.runtime.JavaSizeConstants.BITS_IN_BYTE;
 
+import java.util.Arrays;
 import org.jikesrvm.VM;
 import org.jikesrvm.compilers.common.BootImageCompiler;
 import org.jikesrvm.compilers.common.CompiledMethod;
@@ -209,6 +210,14 @@ public final class NormalMethod extends RVMMethod {
     return new BytecodeStream(this, bytecodes);
   }
 
+  /**
+   * @return a hash of the bytecodes of this method, used to recognize
+   *  an unchanged method in a later run
+   */
+  public int getBytecodeHash() {
+    return Arrays.hashCode(bytecodes);
+  }
+
   /**
    * Fill in DynamicLink object for the invoke at the given bytecode index
    * @param dynamicLink the dynamicLink object to initialize
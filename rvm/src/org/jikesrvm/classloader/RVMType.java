@@ -234,6 +234,30 @@ public abstract class RVMType extends AnnotatedElement {
    */
   protected int[] doesImplement;
 
+  /**
+   * The bias epoch of the instances of this type, in the position of the
+   * epoch in a thin lock word.  The bias of an instance whose lock word
+   * has a different epoch no longer holds.  Changed only while the world
+   * is stopped; see {@link org.jikesrvm.scheduler.ThinLock}.
+   */
+  public int biasEpoch;
+
+  /** Have the biases of the instances of this type been revoked for good? */
+  public boolean biasingRevoked;
+
+  /**
+   * The number of biases of instances of this type that were revoked from
+   * another thread since the epoch changed.  Updated without
+   * synchronization, so it is approximate.
+   */
+  public int biasRevocations;
+
+  /** The total number of biases of instances of this type that were revoked from another thread */
+  public int totalBiasRevocations;
+
+  /** When the biases of the instances of this type were last withdrawn in bulk, or 0 */
+  public long lastBulkRebias;
+
   /**
    * Create an instance of a {@link RVMType}
    * @param typeRef The canonical type reference for this type.
@@ -73,6 +73,21 @@ public abstract class BaselineCompiler extends TemplateCompilerFramework {
    */
   protected int edgeCounterIdx;
 
+  /**
+   * Are the types at calls and type checks of the method being profiled?
+   */
+  private boolean profileTypes;
+
+  /**
+   * Next type profile site to allocate
+   */
+  private int typeProfileIdx;
+
+  /**
+   * Bytecode indices of the type profile sites allocated so far
+   */
+  private int[] typeProfileSites;
+
   /**
    * Reference maps for method being compiled
    */
@@ -130,6 +145,28 @@ public abstract class BaselineCompiler extends TemplateCompilerFramework {
     return method.getId();
   }
 
+  @Override
+  protected final void emit_profile_type(int depth) {
+    if (!profileTypes) return;
+    if (typeProfileSites == null) {
+      typeProfileSites = new int[8];
+    } else if (typeProfileIdx == typeProfileSites.length) {
+      int[] tmp = new int[typeProfileSites.length * 2];
+      System.arraycopy(typeProfileSites, 0, tmp, 0, typeProfileSites.length);
+      typeProfileSites = tmp;
+    }
+    typeProfileSites[typeProfileIdx] = biStart;
+    emit_record_type(depth, typeProfileIdx++);
+  }
+
+  /**
+   * Emit code to pass an object on the expression stack to
+   * {@link TypeProfiles#recordType}
+   * @param depth the number of words above the object on the stack
+   * @param site the number of the type profile site in the method
+   */
+  protected abstract void emit_record_type(int depth, int site);
+
   /**
    * The types that locals can take.
    * There are two types of locals:
@@ -334,6 +371,14 @@ public abstract class BaselineCompiler extends TemplateCompilerFramework {
         ((BaselineCompiledMethod) compiledMethod).setHasCounterArray(); // yes, we will inject counters for this method.
       }
 
+      // determine if we are going to profile the types at calls and type checks.
+      // The bytecode indices of an OSR specialization are shifted by its prologue.
+      profileTypes = options.PROFILE_RECEIVER_TYPES &&
+          !VM.writingBootImage &&
+          isInterruptible &&
+          !method.getDeclaringClass().hasBridgeFromNativeAnnotation() &&
+          !(VM.BuildForAdaptiveSystem && method.isForOsrSpecialization());
+
       //do platform specific tasks before generating code;
       initializeCompiler();
 
@@ -386,6 +431,9 @@ public abstract class BaselineCompiler extends TemplateCompilerFramework {
       if (edgeCounterIdx > 0) {
         EdgeCounts.allocateCounters(method, edgeCounterIdx);
       }
+      if (typeProfileIdx > 0) {
+        TypeProfiles.allocateHistograms(method, typeProfileSites, typeProfileIdx);
+      }
       if (shouldPrint) {
         ((BaselineCompiledMethod) compiledMethod).printExceptionTable();
         printEndHeader(method);
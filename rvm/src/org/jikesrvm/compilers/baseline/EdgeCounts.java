@@ -53,6 +53,13 @@ public final class EdgeCounts implements Callbacks.ExitMonitor {
   @Entrypoint
   private static int[][] data;
 
+  /**
+   * Counts recorded by an earlier run and read from a profile archive,
+   * indexed like {@link #data}.  A method's seed replaces its fresh counters
+   * the first time it is baseline compiled and is then dropped.
+   */
+  private static int[][] seeds;
+
   @Override
   public void notifyExit(int value) {
     dumpCounts();
@@ -96,10 +103,25 @@ public final class EdgeCounts implements Callbacks.ExitMonitor {
       registered = true;
       Callbacks.addExitMonitor(new EdgeCounts());
     }
-    allocateCounters(m.getId(), numEntries);
+    int id = m.getId();
+    int[] seed = takeSeed(id);
+    installCounters(id, seed != null && seed.length == numEntries ? seed : new int[numEntries]);
+  }
+
+  /**
+   * Removes the seed of a method, so that it is used at most once.
+   *
+   * @param id the id of a method's member reference
+   * @return the seed of the method or {@code null} if it has none
+   */
+  private static synchronized int[] takeSeed(int id) {
+    if (seeds == null || id >= seeds.length) return null;
+    int[] seed = seeds[id];
+    seeds[id] = null;
+    return seed;
   }
 
-  private static synchronized void allocateCounters(int id, int numEntries) {
+  private static synchronized void installCounters(int id, int[] counts) {
     if (data == null) {
       data = new int[id + 500][];
     }
@@ -111,7 +133,68 @@ public final class EdgeCounts implements Callbacks.ExitMonitor {
       Magic.sync();
       data = tmp;
     }
-    data[id] = new int[numEntries];
+    data[id] = counts;
+  }
+
+  /**
+   * @param id the id of a method's member reference
+   * @return the counters for the method, its seed if it has not been
+   *  baseline compiled since the seed was installed, or {@code null}
+   */
+  public static synchronized int[] getCounts(int id) {
+    if (data != null && id < data.length && data[id] != null) return data[id];
+    if (seeds != null && id < seeds.length) return seeds[id];
+    return null;
+  }
+
+  /**
+   * Installs counts recorded by an earlier run.  The counts become the
+   * method's counters when it is next baseline compiled, if the number of
+   * counters still matches; any other baseline compilation, including a
+   * later recompilation of the same method, starts from zero as before.
+   *
+   * @param id the id of a method's member reference
+   * @param counts the counts to install
+   */
+  public static synchronized void seedCounts(int id, int[] counts) {
+    if (seeds == null) {
+      seeds = new int[id + 500][];
+    }
+    if (id >= seeds.length) {
+      int newSize = seeds.length * 2;
+      if (newSize <= id) newSize = id + 500;
+      int[][] tmp = new int[newSize][];
+      System.arraycopy(seeds, 0, tmp, 0, seeds.length);
+      seeds = tmp;
+    }
+    seeds[id] = counts;
+  }
+
+  /**
+   * Divides all counts by a rate, so that the branch profiles follow
+   * changes in the behavior of the program.
+   *
+   * @param rate the rate to decay by
+   */
+  public static synchronized void decay(double rate) {
+    if (data == null) return;
+    for (int[] d : data) {
+      if (d != null) {
+        for (int j = 0; j < d.length; j++) {
+          d[j] = decay(d[j], rate);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param count an unsigned count
+   * @param rate the rate to decay by
+   * @return the decayed count
+   */
+  static int decay(int count, double rate) {
+    if (VM.VerifyAssertions) VM._assert(rate >= 1.0);
+    return (int) (long) ((count & 0xFFFFFFFFL) / rate);
   }
 
   public static BranchProfiles getBranchProfiles(NormalMethod m) {
@@ -181,8 +264,8 @@ public final class EdgeCounts implements Callbacks.ExitMonitor {
           int numCounts = Integer.parseInt(parser.nextToken());
           MemberReference key = MemberReference.parse(parser);
           int id = key.getId();
-          allocateCounters(id, numCounts);
-          cur = data[id];
+          cur = new int[numCounts];
+          installCounters(id, cur);
           curIdx = 0;
           if (Controller.options.BULK_COMPILATION_VERBOSITY >= 1) {
             VM.sysWrite("M");
@@ -1438,6 +1438,10 @@ public abstract class TemplateCompilerFramework {
             }
           }
 
+          if (!isStaticallyBound(methodRef)) {
+            emit_profile_type(methodRef.getParameterWords());
+          }
+
           if (methodRef.isMiranda()) {
             /* Special case of abstract interface method should generate
              * an invokeinterface, despite the compiler claiming it should
@@ -1548,6 +1552,7 @@ public abstract class TemplateCompilerFramework {
           // Forbidden from uninterruptible code as interface invocation
           // causes runtime checks that can be interrupted
           if (VM.VerifyUnint && !isInterruptible) forbiddenBytecode("invokeinterface ", methodRef, bcodes.index());
+          emit_profile_type(methodRef.getParameterWords());
           emit_invokeinterface(methodRef);
 
           if (xx != null) {
@@ -1661,6 +1666,9 @@ public abstract class TemplateCompilerFramework {
           TypeReference typeRef = bcodes.getTypeReference();
           if (shouldPrint) asm.noteBytecode(biStart, "checkcast", typeRef);
           RVMType type = typeRef.peekType();
+          if (type == null || (type.isClassType() && !type.asClass().isFinal())) {
+            emit_profile_type(0);
+          }
           if (type != null) {
             if (type.isClassType()) {
               RVMClass cType = type.asClass();
@@ -1699,6 +1707,9 @@ public abstract class TemplateCompilerFramework {
           TypeReference typeRef = bcodes.getTypeReference();
           if (shouldPrint) asm.noteBytecode(biStart, "instanceof", typeRef);
           RVMType type = typeRef.peekType();
+          if (type == null || (type.isClassType() && !type.asClass().isFinal())) {
+            emit_profile_type(0);
+          }
           if (type != null) {
             if (type.isClassType()) {
               RVMClass cType = type.asClass();
@@ -2119,6 +2130,15 @@ public abstract class TemplateCompilerFramework {
     }
   }
 
+  /**
+   * @param methodRef the method referenced by an invokevirtual
+   * @return whether the invokevirtual is known to invoke a single method
+   */
+  private static boolean isStaticallyBound(MethodReference methodRef) {
+    RVMMethod target = methodRef.peekResolvedMethod();
+    return target != null && (target.isFinal() || target.isPrivate() || target.getDeclaringClass().isFinal());
+  }
+
   /*
    * The target-specific BaselineCompilerImpl class must implement the
    * following (lengthy) list of abstract methods.  Porting this
@@ -2985,6 +3005,13 @@ public abstract class TemplateCompilerFramework {
    */
   protected abstract void emit_athrow();
 
+  /**
+   * Emit code to record the type of an object on the expression stack in
+   * the type profile of the current bytecode, if types are being profiled
+   * @param depth the number of words above the object on the stack
+   */
+  protected abstract void emit_profile_type(int depth);
+
   /**
    * Emit code to implement the checkcast bytecode
    * @param typeRef the LHS type
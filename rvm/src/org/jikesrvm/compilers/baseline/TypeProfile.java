@@ -0,0 +1,104 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.baseline;
+
+import org.jikesrvm.classloader.RVMType;
+
+/**
+ * A snapshot of the types that baseline code saw at a virtual or
+ * interface call or at a checkcast or instanceof.
+ *
+ * @see TypeProfiles
+ */
+public final class TypeProfile {
+  /** The bytecode index of the call or type check */
+  private final int bci;
+
+  /** The recorded types, most frequent first */
+  private final RVMType[] types;
+
+  /** The number of times each type was seen */
+  private final float[] counts;
+
+  /** The number of times a type was seen that could not be recorded */
+  private final float megamorphic;
+
+  /** The number of times the site was executed with a non-null operand */
+  private final float total;
+
+  /**
+   * @param bci the bytecode index of the site
+   * @param types the recorded types, most frequent first
+   * @param counts the number of times each type was seen
+   * @param megamorphic the number of times an unrecorded type was seen
+   */
+  TypeProfile(int bci, RVMType[] types, float[] counts, float megamorphic) {
+    this.bci = bci;
+    this.types = types;
+    this.counts = counts;
+    this.megamorphic = megamorphic;
+    float sum = megamorphic;
+    for (float c : counts) {
+      sum += c;
+    }
+    this.total = sum;
+  }
+
+  public int getBytecodeIndex() {
+    return bci;
+  }
+
+  public int getNumberOfTypes() {
+    return types.length;
+  }
+
+  public RVMType getType(int i) {
+    return types[i];
+  }
+
+  public float getCount(int i) {
+    return counts[i];
+  }
+
+  public float getMegamorphicCount() {
+    return megamorphic;
+  }
+
+  public float getTotal() {
+    return total;
+  }
+
+  /**
+   * @param minFraction the fraction of all observations the type must
+   *  account for
+   * @return the most frequent type if it was seen at least
+   *  {@link TypeProfiles#MIN_OBSERVATIONS} times and accounts for at least
+   *  the given fraction of the observations, {@code null} otherwise
+   */
+  public RVMType getDominantType(double minFraction) {
+    if (types.length == 0 || counts[0] < TypeProfiles.MIN_OBSERVATIONS) return null;
+    return counts[0] >= minFraction * total ? types[0] : null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder ans = new StringBuilder();
+    ans.append(bci).append("\ttypes <");
+    for (int i = 0; i < types.length; i++) {
+      if (i > 0) ans.append(", ");
+      ans.append(types[i]).append(' ').append((long) counts[i]);
+    }
+    ans.append(">, megamorphic ").append((long) megamorphic);
+    return ans.toString();
+  }
+}
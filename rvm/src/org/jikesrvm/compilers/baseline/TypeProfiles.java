@@ -0,0 +1,220 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.baseline;
+
+import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_INT;
+import static org.jikesrvm.runtime.SysCall.sysCall;
+
+import java.util.Arrays;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMType;
+import org.jikesrvm.runtime.Magic;
+import org.vmmagic.pragma.Entrypoint;
+import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.unboxed.Address;
+import org.vmmagic.unboxed.AddressArray;
+import org.vmmagic.unboxed.Offset;
+
+/**
+ * A repository of the types seen by baseline compiled code at virtual and
+ * interface calls and at checkcast and instanceof.
+ * <p>
+ * Each such site has a histogram of {@link #TYPES} slots, each holding a
+ * type id and a count, followed by a count of the types that found no
+ * free slot.  The histograms are allocated outside of the heap.  Baseline
+ * code records a type by calling {@link #recordType}, which claims a free
+ * slot with a compare-and-swap and otherwise increments the counts without
+ * synchronization; like the edge counters, an update may occasionally be
+ * lost.  Type ids are recorded rather than TIBs, as TIBs may be moved by
+ * the garbage collector.
+ */
+public final class TypeProfiles {
+
+  /** Number of types recorded at each site */
+  public static final int TYPES = 4;
+
+  /** Number of observations below which a type is not considered dominant */
+  public static final int MIN_OBSERVATIONS = 16;
+
+  private static final int SLOT_BYTES = 2 * BYTES_IN_INT;
+  private static final Offset COUNT = Offset.fromIntZeroExtend(BYTES_IN_INT);
+  private static final Offset MEGAMORPHIC = Offset.fromIntZeroExtend(TYPES * SLOT_BYTES);
+  /** The size of a histogram, padded to a multiple of 8 bytes */
+  private static final int SITE_BYTES = (TYPES * 2 + 2) * BYTES_IN_INT;
+
+  /**
+   * The histograms of the sites of each method, indexed by the id of the
+   * method's member reference; zero if the method has none
+   */
+  private static AddressArray histograms;
+
+  /**
+   * The bytecode indices of the sites of each method, in ascending order.
+   * Indexed by the id of the method's member reference.
+   */
+  private static int[][] sites;
+
+  private TypeProfiles() {}
+
+  /**
+   * Allocates the histograms for a method that has just been baseline
+   * compiled.  A method that already has histograms keeps them, as its
+   * sites are the same.
+   *
+   * @param m the method
+   * @param bytecodeIndices the bytecode indices of its sites, in the order
+   *  in which they were numbered
+   * @param numSites the number of sites
+   */
+  static synchronized void allocateHistograms(NormalMethod m, int[] bytecodeIndices, int numSites) {
+    if (numSites == 0) return;
+    int id = m.getId();
+    if (sites != null && id < sites.length && sites[id] != null) return;
+    Address histogram = sysCall.sysCalloc(numSites * SITE_BYTES);
+    if (histogram.isZero()) return;
+
+    if (sites == null) {
+      sites = new int[id + 500][];
+      histograms = AddressArray.create(id + 500);
+    }
+    if (id >= sites.length) {
+      int newSize = sites.length * 2;
+      if (newSize <= id) newSize = id + 500;
+      int[][] tmpSites = new int[newSize][];
+      AddressArray tmpHistograms = AddressArray.create(newSize);
+      System.arraycopy(sites, 0, tmpSites, 0, sites.length);
+      for (int i = 0; i < histograms.length(); i++) {
+        tmpHistograms.set(i, histograms.get(i));
+      }
+      Magic.sync();
+      sites = tmpSites;
+      histograms = tmpHistograms;
+    }
+    sites[id] = Arrays.copyOf(bytecodeIndices, numSites);
+    Magic.sync();
+    histograms.set(id, histogram);
+  }
+
+  /**
+   * Records the type of an object at a site.  Called from baseline code.
+   *
+   * @param obj the object, may be {@code null}
+   * @param methodId the id of the member reference of the method
+   * @param site the number of the site in the method
+   */
+  @Entrypoint
+  @Uninterruptible
+  static void recordType(Object obj, int methodId, int site) {
+    if (obj == null) return;
+    AddressArray table = histograms;
+    if (table == null || methodId >= table.length()) return;
+    Address histogram = table.get(methodId);
+    if (histogram.isZero()) return;
+    histogram = histogram.plus(site * SITE_BYTES);
+    int typeId = Magic.getObjectType(obj).getId();
+    for (int i = 0; i < TYPES; i++) {
+      Offset slot = Offset.fromIntZeroExtend(i * SLOT_BYTES);
+      int id = histogram.loadInt(slot);
+      if (id == 0) {
+        if (histogram.prepareInt(slot) == 0 && histogram.attempt(0, typeId, slot)) {
+          id = typeId;
+        } else {
+          id = histogram.loadInt(slot);
+        }
+      }
+      if (id == typeId) {
+        Offset count = slot.plus(COUNT);
+        histogram.store(histogram.loadInt(count) + 1, count);
+        return;
+      }
+    }
+    histogram.store(histogram.loadInt(MEGAMORPHIC) + 1, MEGAMORPHIC);
+  }
+
+  /**
+   * @param m a method
+   * @param bcIndex a bytecode index in the method
+   * @return the types seen at the virtual or interface call or the type
+   *  check at the bytecode index, or {@code null} if none were recorded
+   */
+  public static TypeProfile getTypeProfile(NormalMethod m, int bcIndex) {
+    Address histogram;
+    int site;
+    synchronized (TypeProfiles.class) {
+      int id = m.getId();
+      if (sites == null || id >= sites.length || sites[id] == null) return null;
+      site = Arrays.binarySearch(sites[id], bcIndex);
+      if (site < 0) return null;
+      histogram = histograms.get(id).plus(site * SITE_BYTES);
+    }
+
+    RVMType[] types = new RVMType[TYPES];
+    float[] counts = new float[TYPES];
+    int n = 0;
+    for (int i = 0; i < TYPES; i++) {
+      Offset slot = Offset.fromIntZeroExtend(i * SLOT_BYTES);
+      int typeId = histogram.loadInt(slot);
+      float count = BranchProfile.countToFloat(histogram.loadInt(slot.plus(COUNT)));
+      if (typeId == 0 || count == 0) continue;
+      RVMType type = RVMType.getType(typeId);
+      // a slot that was freed by decay may have been claimed twice
+      int j = 0;
+      while (j < n && types[j] != type) j++;
+      if (j == n) {
+        types[n++] = type;
+      }
+      counts[j] += count;
+    }
+    // most frequent first
+    for (int i = 1; i < n; i++) {
+      for (int j = i; j > 0 && counts[j] > counts[j - 1]; j--) {
+        RVMType t = types[j];
+        types[j] = types[j - 1];
+        types[j - 1] = t;
+        float c = counts[j];
+        counts[j] = counts[j - 1];
+        counts[j - 1] = c;
+      }
+    }
+    return new TypeProfile(bcIndex,
+                           Arrays.copyOf(types, n),
+                           Arrays.copyOf(counts, n),
+                           BranchProfile.countToFloat(histogram.loadInt(MEGAMORPHIC)));
+  }
+
+  /**
+   * Divides all counts by a rate.  Slots whose count decays to zero are
+   * freed, so that the types of a new program phase can be recorded.
+   *
+   * @param rate the rate to decay by
+   */
+  public static synchronized void decay(double rate) {
+    if (sites == null) return;
+    for (int id = 0; id < sites.length; id++) {
+      if (sites[id] == null) continue;
+      Address histogram = histograms.get(id);
+      for (int site = 0; site < sites[id].length; site++) {
+        for (int i = 0; i < TYPES; i++) {
+          Offset slot = Offset.fromIntZeroExtend(i * SLOT_BYTES);
+          int count = EdgeCounts.decay(histogram.loadInt(slot.plus(COUNT)), rate);
+          histogram.store(count, slot.plus(COUNT));
+          if (count == 0) {
+            histogram.store(0, slot);
+          }
+        }
+        histogram.store(EdgeCounts.decay(histogram.loadInt(MEGAMORPHIC), rate), MEGAMORPHIC);
+        histogram = histogram.plus(SITE_BYTES);
+      }
+    }
+  }
+}
@@ -3181,6 +3181,20 @@ public final class BaselineCompilerImpl extends BaselineCompiler {
     asm.generateJTOCcall(Entrypoints.athrowMethod.getOffset());
   }
 
+  @Override
+  protected void emit_record_type(int depth, int site) {
+    Offset objectOffset = Offset.fromIntZeroExtend(depth << LG_WORDSIZE);
+    if (objectOffset.isZero()) {
+      asm.emitPUSH_RegInd(SP);                      // duplicate the object ref on the stack
+    } else {
+      asm.emitPUSH_RegDisp(SP, objectOffset);
+    }
+    asm.emitPUSH_Imm(method.getId());
+    asm.emitPUSH_Imm(site);
+    genParameterRegisterLoad(asm, 3);               // pass 3 parameter words
+    asm.generateJTOCcall(Entrypoints.recordTypeMethod.getOffset()); // recordType(obj, method id, site)
+  }
+
   @Override
   protected void emit_checkcast(TypeReference typeRef) {
     asm.emitPUSH_RegInd(SP);                        // duplicate the object ref on the stack
@@ -2783,6 +2783,16 @@ public final class BaselineCompilerImpl extends BaselineCompiler {
     asm.emitBCCTRL();
   }
 
+  @Override
+  protected void emit_record_type(int depth, int site) {
+    asm.emitLAddrToc(T0, Entrypoints.recordTypeMethod.getOffset());
+    asm.emitMTCTR(T0);
+    peekAddr(T0, depth);
+    asm.emitLVAL(T1, method.getId());
+    asm.emitLVAL(T2, site);
+    asm.emitBCCTRL();               // recordType(obj, method id, site)
+  }
+
   @Override
   protected void emit_checkcast(TypeReference typeRef) {
     asm.emitLAddrToc(T0, Entrypoints.checkcastMethod.getOffset());
@@ -287,6 +287,7 @@ public abstract class CompiledMethod {
   public final void compileComplete(CodeArray code) {
     instructions = code;
     flags |= COMPILED;
+    if (PerfMap.enabled) PerfMap.codeInstalled(this);
   }
 
   /**
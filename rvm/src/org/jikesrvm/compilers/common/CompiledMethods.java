@@ -19,12 +19,14 @@ import java.util.Set;
 import java.util.TreeMap;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.classloader.RVMArray;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.classloader.RVMType;
 import org.jikesrvm.compilers.baseline.BaselineCompiledMethod;
 import org.jikesrvm.compilers.opt.runtimesupport.OptCompiledMethod;
 import org.jikesrvm.jni.JNICompiledMethod;
+import org.jikesrvm.mm.mminterface.MemoryManager;
 import org.jikesrvm.runtime.Magic;
 import org.jikesrvm.runtime.Memory;
 import org.jikesrvm.util.Services;
@@ -57,10 +59,71 @@ public class CompiledMethods {
   private static int currentCompiledMethodId = 0;
 
   /**
-   * Used to communicate between {@link #setCompiledMethodObsolete}
-   * and {@link #snipObsoleteCompiledMethods}
+   * The ids of the obsolete compiled methods that have not been reclaimed
+   * yet, in the order in which they became obsolete
    */
-  private static boolean scanForObsoleteMethods = false;
+  private static int[] obsoleteIds = new int[64];
+
+  /**
+   * For each entry of {@link #obsoleteIds}, the number of full stack scans
+   * completed when the method became obsolete
+   */
+  private static int[] obsoleteEpochs = new int[64];
+
+  /** Number of valid entries in {@link #obsoleteIds} */
+  private static int numObsolete = 0;
+
+  /**
+   * Where the next call to {@link #snipObsoleteCompiledMethods} resumes
+   * examining {@link #obsoleteIds}
+   */
+  private static int obsoleteCursor = 0;
+
+  /**
+   * The ids of reclaimed compiled methods, which can be given to new
+   * compiled methods.  A ring buffer that starts at {@link #firstFree}, in
+   * the order in which the ids were reclaimed.
+   */
+  private static int[] freeIds = new int[64];
+
+  /**
+   * For each entry of {@link #freeIds}, the number of full stack scans
+   * completed when the id was reclaimed
+   */
+  private static int[] freeEpochs = new int[64];
+
+  /**
+   * For each entry of {@link #freeIds}, the method of the reclaimed compiled
+   * method, to tell the adaptive system when the id is reused
+   */
+  private static RVMMethod[] freeMethods = new RVMMethod[64];
+
+  /** Index in {@link #freeIds} of the oldest reclaimed id */
+  private static int firstFree = 0;
+
+  /** Number of valid entries in {@link #freeIds} */
+  private static int numFree = 0;
+
+  /** Number of full stack scans completed */
+  private static int scanEpoch = 0;
+
+  /**
+   * Serializes changes to {@link #obsoleteIds} and {@link #freeIds} between
+   * collections
+   */
+  private static final Object obsoleteLock = new Object();
+
+  /**
+   * The number of obsolete compiled methods examined by each call to
+   * {@link #snipObsoleteCompiledMethods}, to bound the work done in each
+   * collection
+   */
+  private static final int RECLAIM_BUDGET = 256;
+
+  /** Statistics on reclamation, see {@link #spaceReport} */
+  private static int numReclaimed = 0;
+  private static long reclaimedCodeBytes = 0;
+  private static int numRecycled = 0;
 
   /**
    * Ensure space in backing array for id.
@@ -117,9 +180,7 @@ public class CompiledMethods {
   }
 
   public static synchronized CompiledMethod createCompiledMethod(RVMMethod m, int compilerType) {
-    int id = currentCompiledMethodId + 1;
-    ensureCapacity(id);
-    currentCompiledMethodId++;
+    int id = nextCompiledMethodId();
     CompiledMethod cm = null;
     if (compilerType == CompiledMethod.BASELINE) {
       cm = new BaselineCompiledMethod(id, m);
@@ -135,12 +196,56 @@ public class CompiledMethods {
   }
 
   /**
-   * @return a CompiledMethod for the synthetic hardware trap frame
+   * Picks the id for a new compiled method: the id of a reclaimed compiled
+   * method if one has been free for a full stack scan, so that no stale
+   * reference to the id remains in a stack or in a sample buffer, or else a
+   * new id.
+   *
+   * @return the id
    */
-  public static synchronized CompiledMethod createHardwareTrapCompiledMethod() {
-    int id = currentCompiledMethodId + 1;
+  private static int nextCompiledMethodId() {
+    RVMMethod[] reclaimed = new RVMMethod[1];
+    int id;
+    synchronized (obsoleteLock) {
+      id = takeFreeId(reclaimed);
+    }
+    if (id > 0) {
+      numRecycled++;
+      if (VM.BuildForAdaptiveSystem && reclaimed[0] != null) {
+        Controller.compiledMethodIdReused(reclaimed[0], id);
+      }
+      return id;
+    }
+    id = currentCompiledMethodId + 1;
     ensureCapacity(id);
     currentCompiledMethodId++;
+    return id;
+  }
+
+  /**
+   * Removes the oldest reclaimed id from the free list if it can be reused.
+   * The caller holds {@link #obsoleteLock}; uninterruptible, so that no
+   * collection changes the free list meanwhile.
+   *
+   * @param reclaimed receives the method of the reclaimed compiled method
+   * @return the id, or 0 if none can be reused
+   */
+  @Uninterruptible
+  private static int takeFreeId(RVMMethod[] reclaimed) {
+    if (numFree == 0 || freeEpochs[firstFree] >= scanEpoch) return 0;
+    int id = freeIds[firstFree];
+    Services.setArrayUninterruptible(reclaimed, 0, freeMethods[firstFree]);
+    Services.setArrayUninterruptible(freeMethods, firstFree, null);
+    firstFree = (firstFree + 1) % freeIds.length;
+    numFree--;
+    return id;
+  }
+
+  /**
+   * @return a CompiledMethod for the synthetic hardware trap frame
+   */
+  public static synchronized CompiledMethod createHardwareTrapCompiledMethod() {
+    int id = nextCompiledMethodId();
     CompiledMethod cm = new HardwareTrapCompiledMethod(id, null);
     setCompiledMethod(id, cm);
     return cm;
@@ -201,9 +306,54 @@ public class CompiledMethods {
   // executed. Here, we keep track of them until we know they are no longer
   // in use.
   public static void setCompiledMethodObsolete(CompiledMethod compiledMethod) {
+    synchronized (obsoleteLock) {
+      // allocate first: the free list must also be able to take every
+      // obsolete method, as no allocation can happen during collection
+      int needed = numObsolete + numFree + 1;
+      if (needed > obsoleteIds.length || needed > freeIds.length) {
+        int length = Math.max(obsoleteIds.length, freeIds.length) * 2;
+        int[] ids = new int[length];
+        int[] epochs = new int[length];
+        int[] free = new int[length];
+        int[] freeEpochs = new int[length];
+        RVMMethod[] methods = new RVMMethod[length];
+        growObsoleteLists(ids, epochs, free, freeEpochs, methods);
+      }
+      addObsolete(compiledMethod);
+    }
+  }
+
+  @Uninterruptible
+  private static void growObsoleteLists(int[] ids, int[] epochs, int[] free, int[] freeEpochs, RVMMethod[] methods) {
+    for (int i = 0; i < numObsolete; i++) {
+      ids[i] = obsoleteIds[i];
+      epochs[i] = obsoleteEpochs[i];
+    }
+    for (int i = 0; i < numFree; i++) {
+      int j = (firstFree + i) % freeIds.length;
+      free[i] = freeIds[j];
+      freeEpochs[i] = CompiledMethods.freeEpochs[j];
+      Services.setArrayUninterruptible(methods, i, freeMethods[j]);
+    }
+    firstFree = 0;
+    obsoleteIds = ids;
+    obsoleteEpochs = epochs;
+    freeIds = free;
+    CompiledMethods.freeEpochs = freeEpochs;
+    freeMethods = methods;
+  }
+
+  @Uninterruptible
+  private static void addObsolete(CompiledMethod compiledMethod) {
+    if (compiledMethod.isObsolete()) return;
     compiledMethod.setObsolete();
+    // the flag may be left over from a stack scan that found the method
+    // while it was current
+    compiledMethod.clearActiveOnStack();
+    obsoleteIds[numObsolete] = compiledMethod.getId();
+    obsoleteEpochs[numObsolete] = scanEpoch;
+    numObsolete++;
     Magic.sync();
-    scanForObsoleteMethods = true;
   }
 
   /**
@@ -211,35 +361,75 @@ public class CompiledMethods {
    * the code is currently being executed, stack scanning is responsible for
    * marking it NOT obsolete. Keep such reference until a future GC.
    * <p>
+   * Only a compiled method that became obsolete before the start of the
+   * stack scan that just completed is reclaimed, so that a method made
+   * obsolete while the stacks were being scanned is kept.  At most
+   * {@link #RECLAIM_BUDGET} obsolete methods are examined in one collection;
+   * the next collection resumes where this one stopped.  The ids of the
+   * reclaimed methods are reused once another full stack scan has
+   * completed, except for the ids of opt compiled methods that depend on
+   * the class hierarchy.
+   * <p>
    * NOTE: It's expected that this is processed during GC, after scanning
    *    stacks to determine which methods are currently executing.
    */
   @Uninterruptible
   public static void snipObsoleteCompiledMethods() {
     Magic.isync();
-    if (!scanForObsoleteMethods) return;
-    scanForObsoleteMethods = false;
-    Magic.sync();
+    scanEpoch++;
+    if (numObsolete == 0) return;
 
-    int max = numCompiledMethods();
-    for (int i = 0; i < max; i++) {
-      CompiledMethod cm = getCompiledMethodUnchecked(i);
-      if (cm != null) {
-        if (cm.isActiveOnStack()) {
-          if (cm.isObsolete()) {
-            // can't get it this time; force us to look again next GC
-            scanForObsoleteMethods = true;
-            Magic.sync();
-          }
-          cm.clearActiveOnStack();
-        } else {
-          if (cm.isObsolete()) {
-            // obsolete and not active on a thread stack: it's garbage!
-            setCompiledMethod(i, null);
-          }
+    RVMArray codeArray = RVMType.CodeArrayType.asArray();
+    int budget = Math.min(RECLAIM_BUDGET, numObsolete);
+    if (obsoleteCursor >= numObsolete) obsoleteCursor = 0;
+    int i = obsoleteCursor;
+    while (budget-- > 0 && i < numObsolete) {
+      int id = obsoleteIds[i];
+      CompiledMethod cm = getCompiledMethodUnchecked(id);
+      if (cm.isActiveOnStack()) {
+        // can't get it this time; look again in a future GC
+        cm.clearActiveOnStack();
+        i++;
+      } else if (obsoleteEpochs[i] + 1 >= scanEpoch) {
+        // became obsolete during or after the start of this scan
+        i++;
+      } else {
+        // obsolete and not active on a thread stack: it's garbage!
+        if (cm.isCompiled()) {
+          int size = codeArray.getInstanceSize(cm.numberOfInstructions());
+          reclaimedCodeBytes += Memory.alignUp(size, BYTES_IN_ADDRESS);
+        }
+        numReclaimed++;
+        if (!hasClassLoadingDependencies(cm)) {
+          int j = (firstFree + numFree) % freeIds.length;
+          freeIds[j] = id;
+          freeEpochs[j] = scanEpoch;
+          Services.setArrayUninterruptible(freeMethods, j, cm.getMethod());
+          numFree++;
         }
+        setCompiledMethod(id, null);
+        numObsolete--;
+        obsoleteIds[i] = obsoleteIds[numObsolete];
+        obsoleteEpochs[i] = obsoleteEpochs[numObsolete];
       }
     }
+    obsoleteCursor = i;
+    Magic.sync();
+  }
+
+  /**
+   * The invalidation database of the class loading dependency manager
+   * keeps the ids of compiled methods that depend on the class hierarchy,
+   * and takes an id whose slot is empty to mean that its code has been
+   * reclaimed.  Such ids are never reused.
+   *
+   * @param cm a compiled method that is being reclaimed
+   * @return whether cm has recorded dependencies on the class hierarchy
+   */
+  @Uninterruptible
+  private static boolean hasClassLoadingDependencies(CompiledMethod cm) {
+    return VM.BuildForOptCompiler && cm.getCompilerType() == CompiledMethod.OPT &&
+        ((OptCompiledMethod) cm).hasClassLoadingDependencies();
   }
 
   /**
@@ -249,6 +439,9 @@ public class CompiledMethods {
     int[] codeCount = new int[CompiledMethod.NUM_COMPILER_TYPES + 1];
     int[] codeBytes = new int[CompiledMethod.NUM_COMPILER_TYPES + 1];
     int[] mapBytes = new int[CompiledMethod.NUM_COMPILER_TYPES + 1];
+    int obsoleteCount = 0;
+    long obsoleteBytes = 0;
+    long liveBytes = 0;
 
     RVMArray codeArray = RVMType.CodeArrayType.asArray();
     for (int i = 0; i < numCompiledMethods(); i++) {
@@ -256,9 +449,15 @@ public class CompiledMethods {
       if (cm == null || !cm.isCompiled()) continue;
       int ct = cm.getCompilerType();
       codeCount[ct]++;
-      int size = codeArray.getInstanceSize(cm.numberOfInstructions());
-      codeBytes[ct] += Memory.alignUp(size, BYTES_IN_ADDRESS);
+      int size = Memory.alignUp(codeArray.getInstanceSize(cm.numberOfInstructions()), BYTES_IN_ADDRESS);
+      codeBytes[ct] += size;
       mapBytes[ct] += cm.size();
+      if (cm.isObsolete()) {
+        obsoleteCount++;
+        obsoleteBytes += size;
+      } else {
+        liveBytes += size;
+      }
     }
     VM.sysWriteln("Compiled code space report\n");
 
@@ -280,6 +479,23 @@ public class CompiledMethods {
       VM.sysWriteln("    Total size of code (bytes) =         " + codeBytes[CompiledMethod.JNI]);
       VM.sysWriteln("    Total size of mapping data (bytes) = " + mapBytes[CompiledMethod.JNI]);
     }
+
+    if (VM.runningVM) {
+      VM.sysWriteln("  Obsolete code");
+      VM.sysWriteln("    Awaiting reclamation (methods) =     " + obsoleteCount);
+      VM.sysWriteln("    Awaiting reclamation (bytes) =       " + obsoleteBytes);
+      VM.sysWriteln("    Reclaimed (methods) =                " + numReclaimed);
+      VM.sysWriteln("    Reclaimed (bytes) =                  " + reclaimedCodeBytes);
+      VM.sysWriteln("    Compiled method ids reused =         " + numRecycled);
+      VM.sysWriteln("    Compiled method ids free =           " + numFree);
+      long reserved = MemoryManager.codeSpaceReservedBytes();
+      if (reserved > 0) {
+        VM.sysWriteln("  Code spaces");
+        VM.sysWriteln("    Reserved (bytes) =                   " + reserved);
+        VM.sysWriteln("    Live code (bytes) =                  " + liveBytes);
+        VM.sysWriteln("    Fragmentation =                      " + (100 - (100 * liveBytes / reserved)) + "%");
+      }
+    }
     if (!VM.runningVM) {
       TreeMap<String, Integer> packageData = new TreeMap<String, Integer>(
           new Comparator<String>() {
@@ -0,0 +1,260 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.common;
+
+import static org.jikesrvm.runtime.SysCall.sysCall;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import org.jikesrvm.VM;
+import org.jikesrvm.architecture.ArchConstants;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.runtime.Callbacks;
+import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.scheduler.SystemThread;
+import org.jikesrvm.util.StringUtilities;
+import org.vmmagic.pragma.NonMoving;
+import org.vmmagic.unboxed.Address;
+import org.vmmagic.unboxed.Offset;
+
+/**
+ * Publishes the code of compiled methods to Linux perf.
+ * <p>
+ * With <code>-X:vm:perfMap=true</code> every compiled method is listed in
+ * <code>/tmp/perf-&lt;pid&gt;.map</code>, which <code>perf report</code>
+ * reads to name addresses in anonymous memory.  With
+ * <code>-X:vm:perfJitdump=true</code> the code itself is also written to
+ * <code>/tmp/jit-&lt;pid&gt;.dump</code> in the jitdump format, for use
+ * with <code>perf record -k mono</code> and <code>perf inject --jit</code>.
+ * <p>
+ * Compiling threads only queue the compiled method; the files are written
+ * by a background thread.  The methods of the boot image are published
+ * when the VM boots.  Neither format can express that code has been
+ * unloaded: once obsolete code has been reclaimed, the entry of whatever
+ * method is compiled into its memory next supersedes the old one.
+ */
+@NonMoving
+public final class PerfMap extends SystemThread {
+
+  /** Is code being published?  Checked by {@link CompiledMethod#compileComplete}. */
+  public static boolean enabled;
+
+  private static final int JITDUMP_MAGIC = 0x4A695444;
+  private static final int JITDUMP_VERSION = 1;
+  private static final int JITDUMP_HEADER_SIZE = 40;
+  private static final int JIT_CODE_LOAD = 0;
+  private static final int JIT_CODE_CLOSE = 3;
+  private static final int JIT_CODE_LOAD_SIZE = 16 + 40;
+
+  private static final int EM_386 = 3;
+  private static final int EM_PPC = 20;
+  private static final int EM_PPC64 = 21;
+  private static final int EM_X86_64 = 62;
+
+  /** Methods waiting to be written and the times they were installed */
+  private static ArrayList<CompiledMethod> pending = new ArrayList<CompiledMethod>();
+  private static ArrayList<Long> pendingTimes = new ArrayList<Long>();
+  private static final Object lock = new Object();
+
+  private static int pid;
+  private static OutputStream map;
+  private static OutputStream jitdump;
+  private static long codeIndex;
+
+  /**
+   * Opens the output files, queues the methods of the boot image and
+   * starts the writer thread.
+   */
+  public static void boot() {
+    pid = sysCall.sysGetPid();
+    try {
+      if (VM.WritePerfMap) {
+        map = new BufferedOutputStream(new FileOutputStream("/tmp/perf-" + pid + ".map"));
+      }
+      if (VM.WritePerfJitdump) {
+        String fileName = "/tmp/jit-" + pid + ".dump";
+        jitdump = new BufferedOutputStream(new FileOutputStream(fileName));
+        writeInt(jitdump, JITDUMP_MAGIC);
+        writeInt(jitdump, JITDUMP_VERSION);
+        writeInt(jitdump, JITDUMP_HEADER_SIZE);
+        writeInt(jitdump, elfMachine());
+        writeInt(jitdump, 0);
+        writeInt(jitdump, pid);
+        writeLong(jitdump, sysCall.sysMonotonicNanoTime());
+        writeLong(jitdump, 0);
+        jitdump.flush();
+        if (sysCall.sysPerfJitdumpMarker(StringUtilities.stringToBytesNullTerminated(fileName)) != 0) {
+          VM.sysWriteln("PerfMap: could not map ", fileName, "; perf will not find it");
+        }
+      }
+    } catch (IOException e) {
+      VM.sysWriteln("PerfMap: could not open output: " + e);
+      return;
+    }
+
+    enabled = true;
+    for (int i = 0, n = CompiledMethods.numCompiledMethods(); i < n; i++) {
+      CompiledMethod cm = CompiledMethods.getCompiledMethodUnchecked(i);
+      if (cm != null && cm.isCompiled() && !cm.isObsolete()) {
+        codeInstalled(cm);
+      }
+    }
+    new PerfMap().start();
+    Callbacks.addExitMonitor(new Callbacks.ExitMonitor() {
+      @Override
+      public void notifyExit(int value) {
+        flush(true);
+      }
+    });
+  }
+
+  /**
+   * Queues a method whose compilation has just completed.
+   *
+   * @param cm the compiled method
+   */
+  static void codeInstalled(CompiledMethod cm) {
+    if (cm.getMethod() == null) return;
+    long time = sysCall.sysMonotonicNanoTime();
+    synchronized (lock) {
+      pending.add(cm);
+      pendingTimes.add(time);
+      lock.notifyAll();
+    }
+  }
+
+  private PerfMap() {
+    super("PerfMapWriter");
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      synchronized (lock) {
+        while (pending.isEmpty()) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            // keep waiting
+          }
+        }
+      }
+      flush(false);
+    }
+  }
+
+  /**
+   * Writes out all queued methods.
+   *
+   * @param close whether to close the output files afterwards
+   */
+  private static synchronized void flush(boolean close) {
+    ArrayList<CompiledMethod> methods;
+    ArrayList<Long> times;
+    synchronized (lock) {
+      methods = pending;
+      times = pendingTimes;
+      pending = new ArrayList<CompiledMethod>();
+      pendingTimes = new ArrayList<Long>();
+    }
+    try {
+      for (int i = 0; i < methods.size(); i++) {
+        write(methods.get(i), times.get(i));
+      }
+      if (close && jitdump != null) {
+        writeInt(jitdump, JIT_CODE_CLOSE);
+        writeInt(jitdump, 16);
+        writeLong(jitdump, sysCall.sysMonotonicNanoTime());
+      }
+      if (map != null) map.flush();
+      if (jitdump != null) jitdump.flush();
+      if (close) {
+        enabled = false;
+        if (map != null) map.close();
+        if (jitdump != null) jitdump.close();
+        map = null;
+        jitdump = null;
+      }
+    } catch (IOException e) {
+      VM.sysWriteln("PerfMap: error writing output: " + e);
+    }
+  }
+
+  private static void write(CompiledMethod cm, long time) throws IOException {
+    Address start = Magic.objectAsAddress(cm.getEntryCodeArray());
+    int size = cm.numberOfInstructions() << ArchConstants.getLogInstructionWidth();
+    RVMMethod method = cm.getMethod();
+    String name = method.getDeclaringClass() + "." + method.getName() + method.getDescriptor() +
+        " [" + cm.getCompilerName() + "]";
+
+    if (map != null) {
+      String line = Long.toHexString(start.toLong()) + " " + Integer.toHexString(size) + " " + name + "\n";
+      map.write(line.getBytes("UTF-8"));
+    }
+
+    if (jitdump != null) {
+      byte[] nameBytes = name.getBytes("UTF-8");
+      writeInt(jitdump, JIT_CODE_LOAD);
+      writeInt(jitdump, JIT_CODE_LOAD_SIZE + nameBytes.length + 1 + size);
+      writeLong(jitdump, time);
+      writeInt(jitdump, pid);
+      writeInt(jitdump, pid);
+      writeLong(jitdump, start.toLong());
+      writeLong(jitdump, start.toLong());
+      writeLong(jitdump, size);
+      writeLong(jitdump, codeIndex++);
+      jitdump.write(nameBytes);
+      jitdump.write(0);
+      for (int i = 0; i < size; i++) {
+        jitdump.write(start.loadByte(Offset.fromIntZeroExtend(i)));
+      }
+    }
+  }
+
+  private static int elfMachine() {
+    if (VM.BuildForIA32) {
+      return VM.BuildFor64Addr ? EM_X86_64 : EM_386;
+    } else {
+      return VM.BuildFor64Addr ? EM_PPC64 : EM_PPC;
+    }
+  }
+
+  /* jitdump files are in the byte order of the host */
+
+  private static void writeInt(OutputStream out, int value) throws IOException {
+    if (VM.LittleEndian) {
+      out.write(value);
+      out.write(value >>> 8);
+      out.write(value >>> 16);
+      out.write(value >>> 24);
+    } else {
+      out.write(value >>> 24);
+      out.write(value >>> 16);
+      out.write(value >>> 8);
+      out.write(value);
+    }
+  }
+
+  private static void writeLong(OutputStream out, long value) throws IOException {
+    if (VM.LittleEndian) {
+      writeInt(out, (int) value);
+      writeInt(out, (int) (value >>> 32));
+    } else {
+      writeInt(out, (int) (value >>> 32));
+      writeInt(out, (int) value);
+    }
+  }
+}
@@ -25,6 +25,7 @@ import org.jikesrvm.adaptive.recompilation.instrumentation.AOSInstrumentationPla
 import org.jikesrvm.adaptive.util.AOSGenerator;
 import org.jikesrvm.adaptive.util.AOSLogging;
 import org.jikesrvm.adaptive.util.CompilerAdviceAttribute;
+import org.jikesrvm.adaptive.util.ProfileArchive;
 import org.jikesrvm.architecture.ArchConstants;
 import org.jikesrvm.classloader.NativeMethod;
 import org.jikesrvm.classloader.NormalMethod;
@@ -39,6 +40,7 @@ import org.jikesrvm.compilers.opt.driver.OptimizationPlanElement;
 import org.jikesrvm.compilers.opt.driver.OptimizationPlanner;
 import org.jikesrvm.compilers.opt.driver.OptimizingCompiler;
 import org.jikesrvm.runtime.Callbacks;
+import org.jikesrvm.runtime.PerfCounters;
 import org.jikesrvm.runtime.Time;
 import org.jikesrvm.scheduler.RVMThread;
 
@@ -361,12 +363,14 @@ public class RuntimeCompiler implements Callbacks.ExitMonitor {
       Callbacks.notifyMethodCompile(method, CompiledMethod.OPT);
       long start = 0;
       CompiledMethod cm = null;
+      int phase = PerfCounters.enterPhase(PerfCounters.OPT_COMPILE);
       try {
         if (VM.MeasureCompilation || VM.BuildForAdaptiveSystem) {
           start = Time.nanoTime();
         }
         cm = OptimizingCompiler.compile(plan);
       } finally {
+        PerfCounters.enterPhase(phase);
         if (VM.MeasureCompilation || VM.BuildForAdaptiveSystem) {
           long end = Time.nanoTime();
           if (cm != null) {
@@ -625,6 +629,14 @@ public class RuntimeCompiler implements Callbacks.ExitMonitor {
     if (VM.MeasureCompilation) {
       Callbacks.addExitMonitor(new RuntimeCompiler());
     }
+    if (VM.ReportCodeSpace) {
+      Callbacks.addExitMonitor(new Callbacks.ExitMonitor() {
+        @Override
+        public void notifyExit(int value) {
+          CompiledMethods.spaceReport();
+        }
+      });
+    }
     if (VM.BuildForAdaptiveSystem) {
       optimizationPlan = OptimizationPlanner.createOptimizationPlan((OptOptions) options);
       if (VM.MeasureCompilationPhases) {
@@ -748,6 +760,9 @@ public class RuntimeCompiler implements Callbacks.ExitMonitor {
               .enabled) {
         AOSGenerator.baseCompilationCompleted(cm);
       }
+      if (cm.getCompilerType() == CompiledMethod.BASELINE && Controller.enabled) {
+        ProfileArchive.baseCompilationCompleted(cm);
+      }
       AOSLogging.logger.recordCompileTime(cm, 0.0);
       return cm;
     } else {
@@ -2560,7 +2560,7 @@ public final class BC2IR {
               break;
             }
             case PSEUDO_InvokeStatic: {
-              /* pseudo invoke static for getRefAt and cleanRefAt, both must be resolved already */
+              /* pseudo invoke static for the methods of ObjectHolder, all must be resolved already */
               int targetidx = bcodes.readIntConst();
               RVMMethod meth = InvokeStatic.targetMethod(targetidx);
 
@@ -2581,6 +2581,15 @@ public final class BC2IR {
 
                 TypeReference klass = Magic.getObjectType(realObj).getTypeRef();
 
+                RegisterOperand op0 = gc.getTemps().makeTemp(klass);
+                Call.setResult(s, op0);
+                pop();    // pop the old one and push the new return type.
+                push(op0.copyD2U(), klass);
+              } else if (targetidx == GETSHAREDREFAT) {
+                // the code is shared by several frames, whose objects all
+                // have the type passed as the first parameter
+                TypeReference klass = RVMType.getType(param1).getTypeRef();
+
                 RegisterOperand op0 = gc.getTemps().makeTemp(klass);
                 Call.setResult(s, op0);
                 pop();    // pop the old one and push the new return type.
@@ -39,11 +39,6 @@ public class Dominators {
    * Control for debug output
    */
   static final boolean DEBUG = false;
-  /**
-   * Should we compute post-dominators instead of dominators? This is
-   * false by default.
-   */
-  static boolean COMPUTE_POST_DOMINATORS = false;
 
   private Map<BasicBlock, DominatorInfo> dominatorInfo;
 
@@ -56,7 +51,7 @@ public class Dominators {
     if (ir.hasReachableExceptionHandlers()) {
       throw new OperationNotImplementedException("IR with exception handlers");
     }
-    DominatorSystem system = new DominatorSystem(ir);
+    DominatorSystem system = new DominatorSystem(ir, false);
     if (DEBUG) {
       System.out.print("Solving...");
     }
@@ -91,7 +86,7 @@ public class Dominators {
    * @param ir the IR in question
    */
   public void computeApproxDominators(IR ir) {
-    DominatorSystem system = new DominatorSystem(ir);
+    DominatorSystem system = new DominatorSystem(ir, false);
     if (DEBUG) {
       System.out.print("Solving...");
     }
@@ -124,8 +119,7 @@ public class Dominators {
    * @param ir the IR in question
    */
   public void computeApproxPostdominators(IR ir) {
-    Dominators.COMPUTE_POST_DOMINATORS = true;
-    DominatorSystem system = new DominatorSystem(ir);
+    DominatorSystem system = new DominatorSystem(ir, true);
     if (DEBUG) {
       System.out.print("Solving...");
     }
@@ -150,7 +144,6 @@ public class Dominators {
     if (ir.options.PRINT_DOMINATORS) {
       printDominators(ir);
     }
-    Dominators.COMPUTE_POST_DOMINATORS = false;
   }
 
   /**
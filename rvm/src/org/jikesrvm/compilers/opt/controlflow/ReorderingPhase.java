@@ -40,6 +40,10 @@ import org.jikesrvm.compilers.opt.ir.operand.BranchOperand;
  *     to the end of the code order.
  *  <li>(2) Pettis and Hansen Algo2.
  * </ul>
+ * With {@link OptOptions#REORDER_CODE_SPLIT_COLD}, Algo2 also splits the
+ * method into a hot and a cold part: chains never mix frequent and infrequent
+ * blocks, and the infrequent chains are placed after all frequent ones, so
+ * the hot path of the method is contiguous.
  */
 public final class ReorderingPhase extends CompilerPhase {
 
@@ -179,6 +183,7 @@ public final class ReorderingPhase extends CompilerPhase {
     //     (c) Create a set of blocks
     //     (d) Make fallthroughs explict by adding GOTOs
     int numBlocks = 0;
+    boolean splitCold = ir.options.REORDER_CODE_SPLIT_COLD;
     TreeSet<Edge> edges = new TreeSet<Edge>();
     LinkedHashSet<BasicBlock> chainHeads = new LinkedHashSet<BasicBlock>();
     HashMap<BasicBlock, BasicBlock> associatedChain = new HashMap<BasicBlock, BasicBlock>();
@@ -220,6 +225,10 @@ public final class ReorderingPhase extends CompilerPhase {
         if (DEBUG) VM.sysWriteln("\tTarget is not at start of a chain");
         continue;
       }
+      if (splitCold && e.source.getInfrequent() != e.target.getInfrequent()) {
+        if (DEBUG) VM.sysWriteln("\tEdge crosses between hot and cold code");
+        continue;
+      }
       BasicBlock sourceChain = associatedChain.get(e.source);
       BasicBlock targetChain = associatedChain.get(e.target);
       if (sourceChain == targetChain) {
@@ -299,36 +308,58 @@ public final class ReorderingPhase extends CompilerPhase {
       if (DEBUG) VM.sysWriteln("Chain Info " + chainInfo);
 
       // Find the next chain to append.
+      // When splitting cold code, cold chains are only placed once
+      // all hot chains have been placed.
       nextChoice = null;
-      for (ChainInfo cand : chainInfo.values()) {
-        if (cand.placedWeight > 0f) {
-          if (nextChoice == null) {
-            if (DEBUG) VM.sysWriteln("First reachable candidate " + cand);
-            nextChoice = cand;
-          } else if (cand.inWeight > nextChoice.inWeight ||
-                     (cand.inWeight == nextChoice.inWeight && cand.placedWeight > nextChoice.placedWeight)) {
-            if (DEBUG) VM.sysWriteln(cand + " is a better choice than " + nextChoice);
-            nextChoice = cand;
-          }
-        }
+      if (splitCold) {
+        nextChoice = chooseNextChain(chainInfo, false);
+      }
+      if (nextChoice == null) {
+        nextChoice = chooseNextChain(chainInfo, true);
       }
-      if (nextChoice != null) continue;
+    }
+
+    if (VM.VerifyAssertions) VM._assert(numPlaced == numBlocks); // Don't lose blocks!!
+    ir.cfg.setLastNode(lastNode);
+  }
 
-      // All remaining chains are fluff (not reachable from entry).
-      // Pick one with minimal inWeight and continue.
-      for (ChainInfo cand : chainInfo.values()) {
+  /**
+   * Pick the next chain to place.
+   *
+   * @param chainInfo the chains that have not been placed yet
+   * @param allowCold whether chains of infrequent blocks may be picked
+   * @return the chain to place next or {@code null} if there is no candidate
+   */
+  private ChainInfo chooseNextChain(LinkedHashMap<BasicBlock, ChainInfo> chainInfo, boolean allowCold) {
+    ChainInfo nextChoice = null;
+    for (ChainInfo cand : chainInfo.values()) {
+      if (!allowCold && cand.head.getInfrequent()) continue;
+      if (cand.placedWeight > 0f) {
         if (nextChoice == null) {
-          if (DEBUG) VM.sysWriteln("First candidate " + cand);
+          if (DEBUG) VM.sysWriteln("First reachable candidate " + cand);
           nextChoice = cand;
-        } else if (cand.inWeight < nextChoice.inWeight) {
+        } else if (cand.inWeight > nextChoice.inWeight ||
+                   (cand.inWeight == nextChoice.inWeight && cand.placedWeight > nextChoice.placedWeight)) {
           if (DEBUG) VM.sysWriteln(cand + " is a better choice than " + nextChoice);
           nextChoice = cand;
         }
       }
     }
-
-    if (VM.VerifyAssertions) VM._assert(numPlaced == numBlocks); // Don't lose blocks!!
-    ir.cfg.setLastNode(lastNode);
+    if (nextChoice != null) return nextChoice;
+
+    // All remaining chains are fluff (not reachable from entry).
+    // Pick one with minimal inWeight.
+    for (ChainInfo cand : chainInfo.values()) {
+      if (!allowCold && cand.head.getInfrequent()) continue;
+      if (nextChoice == null) {
+        if (DEBUG) VM.sysWriteln("First candidate " + cand);
+        nextChoice = cand;
+      } else if (cand.inWeight < nextChoice.inWeight) {
+        if (DEBUG) VM.sysWriteln(cand + " is a better choice than " + nextChoice);
+        nextChoice = cand;
+      }
+    }
+    return nextChoice;
   }
 
   private void dumpChain(BasicBlock head) {
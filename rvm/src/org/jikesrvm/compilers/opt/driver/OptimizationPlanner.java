@@ -46,6 +46,7 @@ import org.jikesrvm.compilers.opt.hir2lir.ConvertHIRtoLIR;
 import org.jikesrvm.compilers.opt.hir2lir.ExpandRuntimeServices;
 import org.jikesrvm.compilers.opt.ir.IR;
 import org.jikesrvm.compilers.opt.regalloc.CoalesceMoves;
+import org.jikesrvm.compilers.opt.ssa.ABCD;
 import org.jikesrvm.compilers.opt.ssa.GCP;
 import org.jikesrvm.compilers.opt.ssa.LeaveSSA;
 import org.jikesrvm.compilers.opt.ssa.LiveRangeSplitting;
@@ -316,6 +317,8 @@ public class OptimizationPlanner {
             new LocalConstantProp(),
             // Insert PI Nodes
             new PiNodes(true),
+            // eliminate redundant array bounds checks
+            new ABCD(),
             // branch optimization
             new BranchOptimizations(3, true, true),
             // Compute dominators
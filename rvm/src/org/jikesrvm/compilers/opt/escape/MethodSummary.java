@@ -30,7 +30,7 @@ class MethodSummary {
    * Is this method currently being analyzed?  Used for recursive
    * invocations of the optimizing compiler.
    */
-  private boolean inProgress = false;
+  private volatile boolean inProgress = false;
 
   private static final long RESULT_ESCAPES = 0x8000000000000000L;
 
@@ -38,9 +38,11 @@ class MethodSummary {
 
   /**
    * Escape result. Top bit is for the result of the method, i.e. the
-   * return value. The this parameter counts as a parameter.
+   * return value. The this parameter counts as a parameter. Volatile
+   * so that a summary published by one compilation is seen whole by
+   * concurrent ones.
    */
-  private long escapeInfo;
+  private volatile long escapeInfo;
 
   /**
    * @param m RVMMethod representing this method.
@@ -49,6 +51,18 @@ class MethodSummary {
     escapeInfo = EVERYTHING_ESCAPES;
   }
 
+  /**
+   * Replaces the escape information with the result of a completed
+   * analysis in a single write. The analysis builds its result in a
+   * private summary so that concurrent compilations never see a partially
+   * updated summary.
+   *
+   * @param result the summary computed by the analysis
+   */
+  void publish(MethodSummary result) {
+    escapeInfo = result.escapeInfo;
+  }
+
   /**
    * Record that a parameter may or may not escape from a thread.
    *
@@ -128,8 +128,10 @@ class SimpleEscape extends CompilerPhase {
     }
     // create a method summary object for this method
     RVMMethod m = ir.method;
-    MethodSummary summ = SummaryDatabase.findOrCreateMethodSummary(m);
-    summ.setInProgress(true);
+    MethodSummary published = SummaryDatabase.findOrCreateMethodSummary(m);
+    published.setInProgress(true);
+    // compute the new summary privately and publish it when done
+    MethodSummary summ = new MethodSummary(m);
     FI_EscapeSummary result = new FI_EscapeSummary();
     // set up register lists, SSA flags
     DefUse.computeDU(ir);
@@ -197,7 +199,8 @@ class SimpleEscape extends CompilerPhase {
       summ.setResultMayEscapeThread(false);
     }
     // record that we're done with analysis
-    summ.setInProgress(false);
+    published.publish(summ);
+    published.setInProgress(false);
     if (DEBUG) {
       VM.sysWrite("LEAVE Simple Escape Analysis " + ir.method + "\n");
     }
@@ -801,7 +804,10 @@ class SimpleEscape extends CompilerPhase {
     try {
       OptimizingCompiler.compile(plan);
     } catch (MagicNotImplementedException e) {
-      summ.setInProgress(false); // summary stays at bottom
+      summ = SummaryDatabase.findMethodSummary(m);
+      if (summ != null) {
+        summ.setInProgress(false); // summary stays at bottom
+      }
     }
   }
 
@@ -23,6 +23,11 @@ import org.jikesrvm.util.ImmutableEntryHashMapRVM;
  *  <ul>
  *   <li>MethodSummary, indexed by RVMMethod
  *  </ul>
+ *
+ * <p> The database may be used by several compilations at once. Lookups
+ * and insertions are synchronized; the summaries themselves are only
+ * updated by publishing a complete result (see
+ * {@link MethodSummary#publish(MethodSummary)}).
  */
 class SummaryDatabase {
 
@@ -818,7 +818,7 @@ public abstract class ConvertToLowLevelIR extends IRTools {
       Call.setAddress(v, InsertLoadOffsetJTOC(v, ir, REF_LOAD, TypeReference.CodeArray, Call.getClearAddress(v)));
     } else if (methOp.isVirtual()) {
       if (VM.VerifyAssertions) VM._assert(Call.hasAddress(v));
-      if (ir.options.H2L_CALL_VIA_JTOC && methOp.hasPreciseTarget()) {
+      if ((ir.options.H2L_CALL_VIA_JTOC || methOp.isInlineCacheEntry()) && methOp.hasPreciseTarget()) {
         // Call to precise type can go via JTOC
         RVMMethod target = methOp.getTarget();
         Call.setAddress(v,
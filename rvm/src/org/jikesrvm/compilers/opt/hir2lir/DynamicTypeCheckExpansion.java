@@ -19,6 +19,8 @@ import org.jikesrvm.classloader.DynamicTypeCheck;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.classloader.RVMType;
 import org.jikesrvm.classloader.TypeReference;
+import org.jikesrvm.compilers.baseline.TypeProfile;
+import org.jikesrvm.compilers.baseline.TypeProfiles;
 import org.jikesrvm.compilers.opt.OptimizingCompilerException;
 import org.jikesrvm.compilers.opt.ir.ALoad;
 import org.jikesrvm.compilers.opt.ir.Binary;
@@ -70,6 +72,7 @@ import org.jikesrvm.compilers.opt.ir.operand.RegisterOperand;
 import org.jikesrvm.compilers.opt.ir.operand.TrapCodeOperand;
 import org.jikesrvm.compilers.opt.ir.operand.TrueGuardOperand;
 import org.jikesrvm.runtime.Entrypoints;
+import org.jikesrvm.runtime.RuntimeEntrypoints;
 import org.vmmagic.unboxed.Address;
 import org.vmmagic.unboxed.Offset;
 
@@ -625,6 +628,10 @@ abstract class DynamicTypeCheckExpansion extends ConvertToLowLevelIR {
   private static Instruction generateValueProducingTypeCheck(Instruction s, IR ir, Operand RHSobj,
                                                                  TypeReference LHStype, Operand RHStib,
                                                                  RegisterOperand result) {
+    if (getProfiledType(s, ir, LHStype) != null) {
+      // Testing the profiled type first needs a branch anyways
+      return convertToBranchingTypeCheck(s, ir, RHSobj, LHStype, RHStib, result);
+    }
     // Is LHStype a class?
     if (LHStype.isClassType()) {
       RVMClass LHSclass = (RVMClass) LHStype.peekType();
@@ -837,11 +844,32 @@ abstract class DynamicTypeCheckExpansion extends ConvertToLowLevelIR {
                                                             BasicBlock trueBlock, BasicBlock falseBlock,
                                                             RegisterOperand oldGuard,
                                                             BranchProfileOperand falseProb) {
+    RVMClass profiledType = getProfiledType(s, ir, LHStype);
     Instruction continueAt = Goto.create(GOTO, trueBlock.makeJumpTarget());
     continueAt.copyPosition(s);
     s.insertBefore(continueAt);
     s.remove();
 
+    if (profiledType != null) {
+      // The type that baseline code saw most often passes with a single
+      // comparison of TIBs; all others take the full test below.
+      Instruction shortcircuit =
+          IfCmp.create(REF_IFCMP,
+                       oldGuard,
+                       RHStib.copy(),
+                       getTIB(continueAt, ir, profiledType),
+                       ConditionOperand.EQUAL(),
+                       trueBlock.makeJumpTarget(),
+                       BranchProfileOperand.likely());
+      if (oldGuard != null) {
+        oldGuard = oldGuard.copyD2D();
+      }
+      continueAt.insertBefore(shortcircuit);
+      BasicBlock myBlock = shortcircuit.getBasicBlock();
+      myBlock.splitNodeWithLinksAt(shortcircuit, ir);
+      myBlock.insertOut(trueBlock);       // must come after the splitNodeAt
+    }
+
     if (LHStype.isClassType()) {
       RVMClass LHSclass = (RVMClass) LHStype.peekType();
       if (LHSclass != null && LHSclass.isResolved()) {
@@ -1075,6 +1103,33 @@ abstract class DynamicTypeCheckExpansion extends ConvertToLowLevelIR {
     return null;
   }
 
+  /**
+   * Finds the type that the baseline code of the method saw most often at
+   * a checkcast or instanceof against a resolved class or interface that
+   * is not final.
+   *
+   * @param s the checkcast or instanceof
+   * @param ir the enclosing IR
+   * @param LHStype the type tested against
+   * @return the dominant type if it passes the test, {@code null} if there
+   *  is none
+   */
+  private static RVMClass getProfiledType(Instruction s, IR ir, TypeReference LHStype) {
+    if (!ir.options.H2L_TYPE_PROFILE_CHECKS || s.position() == null || !LHStype.isClassType()) {
+      return null;
+    }
+    RVMClass LHSclass = (RVMClass) LHStype.peekType();
+    if (LHSclass == null || !LHSclass.isResolved() || LHSclass.isFinal()) return null;
+    TypeProfile profile = TypeProfiles.getTypeProfile(s.position().getMethod(), s.getBytecodeIndex());
+    if (profile == null) return null;
+    RVMType dominant = profile.getDominantType(ir.options.PROFILE_DOMINANCE_FRACTION);
+    if (dominant == null || !dominant.isClassType() || !dominant.isInstantiated() ||
+        !RuntimeEntrypoints.isAssignableWith(LHSclass, dominant)) {
+      return null;
+    }
+    return dominant.asClass();
+  }
+
   // helper routine.
   // s is a conditional branch; Make it the last instruction in its block
   // if it isn't already and return the fallthrough block.
@@ -16,6 +16,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Iterator;
+import java.util.List;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.classloader.RVMClass;
@@ -35,9 +36,17 @@ import org.jikesrvm.compilers.opt.runtimesupport.OptCompiledMethod;
  */
 public final class ClassLoadingDependencyManager implements ClassLoadingListener {
 
-  /** Database holding information on class loading */
+  /** Database holding information on class loading. Guarded by this. */
   private final InvalidationDatabase db = new InvalidationDatabase();
 
+  /**
+   * Number of classes initialized at run time. Compilers read the epoch
+   * before inspecting the class hierarchy and pass it back when they record
+   * the dependencies of their decisions, so that decisions that may have
+   * been invalidated in the meantime can be detected.
+   */
+  private volatile int hierarchyEpoch;
+
   /** Debug execution */
   static final boolean DEBUG = false;
   /** Trace execution */
@@ -52,6 +61,7 @@ public final class ClassLoadingDependencyManager implements ClassLoadingListener
   public synchronized void classInitialized(RVMClass c, boolean writingBootImage) {
     // Process any dependencies on methods not being overridden.
     if (!writingBootImage) {
+      hierarchyEpoch++;
       if (DEBUG) {
         report("CLDM: " + c + " is about to be marked as initialized.\n");
       }
@@ -65,6 +75,41 @@ public final class ClassLoadingDependencyManager implements ClassLoadingListener
   // Entrypoints for the opt compiler to record dependencies
   /////////////////////////
 
+  /**
+   * @return the current class hierarchy epoch, to be passed to
+   *  {@link #addNotOverriddenDependencies}
+   */
+  public int getHierarchyEpoch() {
+    return hierarchyEpoch;
+  }
+
+  /**
+   * Record that the code currently being compiled (cm) must be
+   * invalidated if any of the sources is overridden. The dependencies
+   * are only recorded if no class was initialized since the caller
+   * read the epoch; otherwise the caller's view of the class hierarchy
+   * may be stale and it must not rely on the sources not being overridden.
+   *
+   * @param sources the methods whose overriding will cause invalidation
+   * @param cm the method to invalidate
+   * @param epoch the class hierarchy epoch the caller's decision is based on
+   * @return {@code true} if the dependencies were recorded (or there are none),
+   *  {@code false} if the class hierarchy changed since epoch
+   */
+  public synchronized boolean addNotOverriddenDependencies(List<RVMMethod> sources, CompiledMethod cm, int epoch) {
+    if (sources.isEmpty()) return true;
+    if (epoch != hierarchyEpoch) {
+      if (TRACE || DEBUG) {
+        report("CLDM: " + cm.getId() + "(" + cm.getMethod() + ") based on stale class hierarchy\n");
+      }
+      return false;
+    }
+    for (RVMMethod source : sources) {
+      addNotOverriddenDependency(source, cm);
+    }
+    return true;
+  }
+
   /**
    * Record that the code currently being compiled (cm) must be
    * invalidated if source is overridden.
@@ -78,6 +123,7 @@ public final class ClassLoadingDependencyManager implements ClassLoadingListener
       report("CLDM: " + cmid + "(" + cm.getMethod() + ") is dependent on " + source + " not being overridden\n");
     }
     db.addNotOverriddenDependency(source, cmid);
+    ((OptCompiledMethod)cm).setClassLoadingDependencies();
   }
 
   /**
@@ -93,6 +139,7 @@ public final class ClassLoadingDependencyManager implements ClassLoadingListener
       report("CLDM: " + cmid + "(" + cm.getMethod() + ") is dependent on " + source + " not having a subclass\n");
     }
     db.addNoSubclassDependency(source, cmid);
+    ((OptCompiledMethod)cm).setClassLoadingDependencies();
   }
 
   ////////////////////////
@@ -22,12 +22,13 @@ import org.jikesrvm.adaptive.database.callgraph.WeightedCallTargets;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.classloader.RVMType;
+import org.jikesrvm.compilers.baseline.TypeProfile;
+import org.jikesrvm.compilers.baseline.TypeProfiles;
 import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.opt.OptOptions;
 import org.jikesrvm.compilers.opt.driver.OptimizingCompiler;
 import org.jikesrvm.compilers.opt.runtimesupport.OptCompiledMethod;
-import org.jikesrvm.objectmodel.ObjectModel;
-import org.jikesrvm.scheduler.RVMThread;
 
 /**
  * The default inlining oracle used by the optimizing compiler.
@@ -40,6 +41,12 @@ import org.jikesrvm.scheduler.RVMThread;
  */
 public final class DefaultInlineOracle extends InlineTools implements InlineOracle {
 
+  /**
+   * Number of times a decision that relies on the class hierarchy is made
+   * before inlining is given up because classes keep being initialized
+   */
+  private static final int MAX_DECISION_ATTEMPTS = 3;
+
   @Override
   public InlineDecision shouldInline(final CompilationState state) {
     final OptOptions opts = state.getOptions();
@@ -118,6 +125,31 @@ public final class DefaultInlineOracle extends InlineTools implements InlineOrac
       return InlineDecision.NO("Root method is massive; no non-trivial inlines");
     }
 
+    // Stages 3 to 5 inspect the class hierarchy. If a class is initialized
+    // meanwhile, the decision cannot be committed and is made again.
+    for (int attempt = 0; attempt < MAX_DECISION_ATTEMPTS; attempt++) {
+      InlineDecision d = decideWithClassHierarchy(state);
+      if (d != null) return d;
+    }
+    return InlineDecision.NO("class hierarchy kept changing during inline decision");
+  }
+
+  /**
+   * Makes the part of an inlining decision that depends on the class
+   * hierarchy and on profile data.
+   *
+   * @param state compilation state at this point
+   * @return the decision or {@code null} if a class was initialized while
+   *  it was made, so that its dependencies could not be recorded
+   */
+  private InlineDecision decideWithClassHierarchy(final CompilationState state) {
+    final OptOptions opts = state.getOptions();
+    final boolean verbose = opts.PRINT_DETAILED_INLINE_REPORT;
+    final RVMMethod staticCallee = state.obtainTarget();
+    final NormalMethod rootMethod = state.getRootMethod();
+    final RVMMethod caller = state.getMethod();
+    final int bcIndex = state.getRealBytecodeIndex();
+
     // Stage 3: Determine based on profile data and static information
     //          what are the possible targets of this call.
     WeightedCallTargets targets = null;
@@ -142,289 +174,380 @@ public final class DefaultInlineOracle extends InlineTools implements InlineOrac
       }
     }
 
-    // Critical section: must prevent class hierarchy from changing while
-    // we are inspecting it to determine how/whether to do the inline guard.
-    synchronized (RVMClass.classLoadListener) {
-
-      boolean guardOverrideOnStaticCallee = false;
-      if (targets == null) {
-        if (verbose) VM.sysWriteln("\tNo profile data");
-        // No profile information.
-        // Fake up "profile data" based on static information to
-        // be able to share all the decision making logic.
-        if (state.isInvokeInterface()) {
-          if (opts.INLINE_GUARDED_INTERFACES) {
-            RVMMethod singleImpl = InterfaceHierarchy.getUniqueImplementation(staticCallee);
-            if (singleImpl != null && hasBody(singleImpl)) {
-              if (verbose) {
-                VM.sysWriteln("\tFound a single implementation " +
-                              singleImpl +
-                              " of an interface method " +
-                              staticCallee);
-              }
+    // Without call graph samples, a dominant receiver type recorded by the
+    // baseline code of the caller identifies a likely target.
+    if (targets == null && opts.INLINE_TYPE_PROFILE && !state.getHasPreciseTarget() &&
+        caller instanceof NormalMethod) {
+      TypeProfile profile = TypeProfiles.getTypeProfile((NormalMethod) caller, bcIndex);
+      RVMType dominant = profile == null ? null : profile.getDominantType(opts.PROFILE_DOMINANCE_FRACTION);
+      if (dominant != null && dominant.isClassType()) {
+        RVMMethod target = dominant.findVirtualMethod(staticCallee.getName(), staticCallee.getDescriptor());
+        if (target != null && !target.isAbstract()) {
+          if (verbose) VM.sysWriteln("\tFound dominant receiver type " + dominant);
+          targets = WeightedCallTargets.create(target, 0).filter(staticCallee, false);
+          if (targets != null) purelyStatic = false;
+        }
+      }
+    }
+
+    // The class hierarchy is inspected without blocking class initialization,
+    // so that several compilations can make inlining decisions at once. The
+    // dependencies a decision relies on are collected in a private list and
+    // only committed if no class was initialized in the meantime.
+    final int hierarchyEpoch = ((ClassLoadingDependencyManager) RVMClass.classLoadListener).getHierarchyEpoch();
+    final ArrayList<RVMMethod> dependencies = new ArrayList<RVMMethod>();
+
+    boolean guardOverrideOnStaticCallee = false;
+    if (targets == null) {
+      if (verbose) VM.sysWriteln("\tNo profile data");
+      // No profile information.
+      // Fake up "profile data" based on static information to
+      // be able to share all the decision making logic.
+      if (state.isInvokeInterface()) {
+        if (opts.INLINE_GUARDED_INTERFACES) {
+          RVMMethod singleImpl = InterfaceHierarchy.getUniqueImplementation(staticCallee);
+          if (singleImpl != null && hasBody(singleImpl)) {
+            if (verbose) {
+              VM.sysWriteln("\tFound a single implementation " +
+                            singleImpl +
+                            " of an interface method " +
+                            staticCallee);
+            }
+            targets = WeightedCallTargets.create(singleImpl, 0);
+            guardOverrideOnStaticCallee = true;
+          }
+        }
+      } else {
+        // invokestatic, invokevirtual, invokespecial
+        if (staticCallee.isAbstract()) {
+          // look for single non-abstract implementation of the abstract method
+          RVMClass klass = staticCallee.getDeclaringClass();
+          while (true) {
+            RVMClass[] subClasses = klass.getSubClasses();
+            if (subClasses.length != 1) break; // multiple subclasses => multiple targets
+            RVMMethod singleImpl =
+                subClasses[0].findDeclaredMethod(staticCallee.getName(), staticCallee.getDescriptor());
+            if (singleImpl != null && !singleImpl.isAbstract()) {
+              // found something
+              if (verbose) VM.sysWriteln("\tsingle impl of abstract method");
               targets = WeightedCallTargets.create(singleImpl, 0);
               guardOverrideOnStaticCallee = true;
+              break;
             }
+            klass = subClasses[0]; // keep crawling down the hierarchy
           }
         } else {
-          // invokestatic, invokevirtual, invokespecial
-          if (staticCallee.isAbstract()) {
-            // look for single non-abstract implementation of the abstract method
-            RVMClass klass = staticCallee.getDeclaringClass();
-            while (true) {
-              RVMClass[] subClasses = klass.getSubClasses();
-              if (subClasses.length != 1) break; // multiple subclasses => multiple targets
-              RVMMethod singleImpl =
-                  subClasses[0].findDeclaredMethod(staticCallee.getName(), staticCallee.getDescriptor());
-              if (singleImpl != null && !singleImpl.isAbstract()) {
-                // found something
-                if (verbose) VM.sysWriteln("\tsingle impl of abstract method");
-                targets = WeightedCallTargets.create(singleImpl, 0);
-                guardOverrideOnStaticCallee = true;
-                break;
-              }
-              klass = subClasses[0]; // keep crawling down the hierarchy
-            }
-          } else {
-            targets = WeightedCallTargets.create(staticCallee, 0);
-          }
+          targets = WeightedCallTargets.create(staticCallee, 0);
         }
       }
+    }
 
-      // At this point targets is either null, or accurately represents what we
-      // think are the likely target(s) of the call site.
-      // This information may be either derived from profile information or
-      // from static heuristics. To the first approximation, we don't care which.
-      // If there is a precise target, then targets contains exactly that target method.
-      if (targets == null) return InlineDecision.NO("No potential targets identified");
-
-      // Stage 4: We have one or more targets.  Determine what if anything should be done with them.
-      final ArrayList<RVMMethod> methodsToInline = new ArrayList<RVMMethod>();
-      final ArrayList<Boolean> methodsNeedGuard = new ArrayList<Boolean>();
-      final double callSiteWeight = targets.totalWeight();
-      final boolean goosc = guardOverrideOnStaticCallee; // real closures anyone?
-      final boolean ps = purelyStatic;                   // real closures anyone?
-      targets.visitTargets(new WeightedCallTargets.Visitor() {
-        @Override
-        public void visit(RVMMethod callee, double weight) {
-          if (hasBody(callee)) {
-            if (verbose) {
-              VM.sysWriteln("\tEvaluating target " +
-                            callee +
-                            " with " +
-                            weight +
-                            " samples (" +
-                            (100 * AdaptiveInlining.adjustedWeight(weight)) +
-                            "%)");
-            }
-            // Don't inline recursively and respect no inline pragmas
-            InlineSequence seq = state.getSequence();
-            if (seq.containsMethod(callee)) {
-              if (verbose) VM.sysWriteln("\t\tReject: recursive");
+    // At this point targets is either null, or accurately represents what we
+    // think are the likely target(s) of the call site.
+    // This information may be either derived from profile information or
+    // from static heuristics. To the first approximation, we don't care which.
+    // If there is a precise target, then targets contains exactly that target method.
+    if (targets == null) return InlineDecision.NO("No potential targets identified");
+
+    // Stage 4: We have one or more targets.  Determine what if anything should be done with them.
+    final ArrayList<RVMMethod> methodsToInline = new ArrayList<RVMMethod>();
+    final ArrayList<Boolean> methodsNeedGuard = new ArrayList<Boolean>();
+    // Profiled targets that are too big to inline; candidates for an inline cache entry
+    final ArrayList<RVMMethod> methodsToCall = new ArrayList<RVMMethod>();
+    final ArrayList<Double> methodsToCallWeights = new ArrayList<Double>();
+    final double callSiteWeight = targets.totalWeight();
+    final boolean goosc = guardOverrideOnStaticCallee; // real closures anyone?
+    final boolean ps = purelyStatic;                   // real closures anyone?
+    targets.visitTargets(new WeightedCallTargets.Visitor() {
+      @Override
+      public void visit(RVMMethod callee, double weight) {
+        if (hasBody(callee)) {
+          if (verbose) {
+            VM.sysWriteln("\tEvaluating target " +
+                          callee +
+                          " with " +
+                          weight +
+                          " samples (" +
+                          (100 * AdaptiveInlining.adjustedWeight(weight)) +
+                          "%)");
+          }
+          // Don't inline recursively and respect no inline pragmas
+          InlineSequence seq = state.getSequence();
+          if (seq.containsMethod(callee)) {
+            if (verbose) VM.sysWriteln("\t\tReject: recursive");
+            return;
+          }
+          if (hasNoInlinePragma(callee, state)) {
+            if (verbose) VM.sysWriteln("\t\tReject: noinline pragma");
+            return;
+          }
+
+          // more or less figure out the guard situation early -- impacts size estimate.
+          boolean needsGuard = !state.getHasPreciseTarget() && (staticCallee != callee || needsGuard(staticCallee));
+          if (needsGuard && isForbiddenSpeculation(state.getRootMethod(), callee)) {
+            if (verbose) VM.sysWriteln("\t\tReject: forbidden speculation");
+            return;
+          }
+          boolean currentlyFinal =
+              (goosc || (staticCallee == callee)) && isCurrentlyFinal(callee, !opts.guardWithClassTest());
+          boolean preEx = needsGuard && state.getIsExtant() && opts.INLINE_PREEX && currentlyFinal;
+          if (needsGuard && !preEx) {
+            if (!opts.INLINE_GUARDED) {
+              if (verbose) VM.sysWriteln("\t\tReject: guarded inlining disabled");
               return;
             }
-            if (hasNoInlinePragma(callee, state)) {
-              if (verbose) VM.sysWriteln("\t\tReject: noinline pragma");
+            if (!currentlyFinal && ps) {
+              if (verbose) VM.sysWriteln("\t\tReject: multiple targets and no profile data");
               return;
             }
+          }
 
-            // more or less figure out the guard situation early -- impacts size estimate.
-            boolean needsGuard = !state.getHasPreciseTarget() && (staticCallee != callee || needsGuard(staticCallee));
-            if (needsGuard && isForbiddenSpeculation(state.getRootMethod(), callee)) {
-              if (verbose) VM.sysWriteln("\t\tReject: forbidden speculation");
-              return;
-            }
-            boolean currentlyFinal =
-                (goosc || (staticCallee == callee)) && isCurrentlyFinal(callee, !opts.guardWithClassTest());
-            boolean preEx = needsGuard && state.getIsExtant() && opts.INLINE_PREEX && currentlyFinal;
-            if (needsGuard && !preEx) {
-              if (!opts.INLINE_GUARDED) {
-                if (verbose) VM.sysWriteln("\t\tReject: guarded inlining disabled");
-                return;
-              }
-              if (!currentlyFinal && ps) {
-                if (verbose) VM.sysWriteln("\t\tReject: multiple targets and no profile data");
-                return;
+          // Estimate cost of performing this inlining action.
+          // Includes cost of guard & off-branch call if they are going to be generated.
+          boolean decideYes = false;
+          boolean inlineCacheCandidate = false;
+          if (hasInlinePragma(callee, state)) {
+            if (verbose) VM.sysWriteln("\t\tSelect: pragma inline");
+            decideYes = true;
+          } else {
+            // Preserve previous inlining decisions
+            // Not the best thing in the world due to phase shifts, but
+            // it does buy some degree of stability. So, it is probably the lesser
+            // of two evils.
+            CompiledMethod prev = state.getRootMethod().getCurrentCompiledMethod();
+            if (prev != null && prev.getCompilerType() == CompiledMethod.OPT) {
+              if (((OptCompiledMethod)prev).getMCMap().hasInlinedEdge(caller, bcIndex, callee)) {
+                if (verbose) VM.sysWriteln("\t\tSelect: Previously inlined");
+                decideYes = true;
               }
             }
 
-            // Estimate cost of performing this inlining action.
-            // Includes cost of guard & off-branch call if they are going to be generated.
-            boolean decideYes = false;
-            if (hasInlinePragma(callee, state)) {
-              if (verbose) VM.sysWriteln("\t\tSelect: pragma inline");
-              decideYes = true;
-            } else {
-              // Preserve previous inlining decisions
-              // Not the best thing in the world due to phase shifts, but
-              // it does buy some degree of stability. So, it is probably the lesser
-              // of two evils.
-              CompiledMethod prev = state.getRootMethod().getCurrentCompiledMethod();
-              if (prev != null && prev.getCompilerType() == CompiledMethod.OPT) {
-                if (((OptCompiledMethod)prev).getMCMap().hasInlinedEdge(caller, bcIndex, callee)) {
-                  if (verbose) VM.sysWriteln("\t\tSelect: Previously inlined");
-                  decideYes = true;
-                }
-              }
+            if (!decideYes) {
+              int inlinedSizeEstimate = inlinedSizeEstimate((NormalMethod) callee, state);
+              int cost = inliningActionCost(inlinedSizeEstimate, needsGuard, preEx, opts);
+              int maxCost = opts.INLINE_MAX_TARGET_SIZE;
 
-              if (!decideYes) {
-                int inlinedSizeEstimate = inlinedSizeEstimate((NormalMethod) callee, state);
-                int cost = inliningActionCost(inlinedSizeEstimate, needsGuard, preEx, opts);
-                int maxCost = opts.INLINE_MAX_TARGET_SIZE;
-
-                if (callSiteWeight > Controller.options.INLINE_AI_SEED_MULTIPLIER) {
-                  // real profile data with enough samples for us to trust it.
-                  // Use weight and shape of call site distribution to compute
-                  // a higher maxCost.
-                  double fractionOfSample = weight / callSiteWeight;
-                  if (needsGuard && fractionOfSample < opts.INLINE_AI_MIN_CALLSITE_FRACTION) {
-                    // This call accounts for less than INLINE_AI_MIN_CALLSITE_FRACTION
-                    // of the profiled targets at this call site.
-                    // It is highly unlikely to be profitable to inline it.
-                    if (verbose) VM.sysWriteln("\t\tReject: less than INLINE_AI_MIN_CALLSITE_FRACTION of distribution");
-                    maxCost = 0;
-                  } else {
-                    if (cost > maxCost) {
-                      /* We're going to increase the maximum callee size (maxCost) we're willing
-                       * to inline based on how "hot" (what % of the total weight in the
-                       * dynamic call graph) the edge is.
+              if (callSiteWeight > Controller.options.INLINE_AI_SEED_MULTIPLIER) {
+                // real profile data with enough samples for us to trust it.
+                // Use weight and shape of call site distribution to compute
+                // a higher maxCost.
+                double fractionOfSample = weight / callSiteWeight;
+                if (needsGuard && fractionOfSample < opts.INLINE_AI_MIN_CALLSITE_FRACTION) {
+                  // This call accounts for less than INLINE_AI_MIN_CALLSITE_FRACTION
+                  // of the profiled targets at this call site.
+                  // It is highly unlikely to be profitable to inline it.
+                  if (verbose) VM.sysWriteln("\t\tReject: less than INLINE_AI_MIN_CALLSITE_FRACTION of distribution");
+                  maxCost = 0;
+                } else {
+                  if (cost > maxCost) {
+                    /* We're going to increase the maximum callee size (maxCost) we're willing
+                     * to inline based on how "hot" (what % of the total weight in the
+                     * dynamic call graph) the edge is.
+                     */
+                    double adjustedWeight = AdaptiveInlining.adjustedWeight(weight);
+                    if (adjustedWeight > Controller.options.INLINE_AI_HOT_CALLSITE_THRESHOLD) {
+                      /* A truly hot edge; use the max allowable callee size */
+                      maxCost = opts.INLINE_AI_MAX_TARGET_SIZE;
+                    } else {
+                      /* A warm edge, we will use a value between the static default and the max allowable.
+                       * The code below simply does a linear interpolation between 2x static default
+                       * and max allowable.
+                       * Other alternatives would be to do a log interpolation or some other step function.
                        */
-                      double adjustedWeight = AdaptiveInlining.adjustedWeight(weight);
-                      if (adjustedWeight > Controller.options.INLINE_AI_HOT_CALLSITE_THRESHOLD) {
-                        /* A truly hot edge; use the max allowable callee size */
-                        maxCost = opts.INLINE_AI_MAX_TARGET_SIZE;
-                      } else {
-                        /* A warm edge, we will use a value between the static default and the max allowable.
-                         * The code below simply does a linear interpolation between 2x static default
-                         * and max allowable.
-                         * Other alternatives would be to do a log interpolation or some other step function.
-                         */
-                        int range = opts.INLINE_AI_MAX_TARGET_SIZE - 2 * opts.INLINE_MAX_TARGET_SIZE;
-                        double slope = (range) / Controller.options.INLINE_AI_HOT_CALLSITE_THRESHOLD;
-                        int scaledAdj = (int) (slope * adjustedWeight);
-                        maxCost += opts.INLINE_MAX_TARGET_SIZE + scaledAdj;
-                      }
+                      int range = opts.INLINE_AI_MAX_TARGET_SIZE - 2 * opts.INLINE_MAX_TARGET_SIZE;
+                      double slope = (range) / Controller.options.INLINE_AI_HOT_CALLSITE_THRESHOLD;
+                      int scaledAdj = (int) (slope * adjustedWeight);
+                      maxCost += opts.INLINE_MAX_TARGET_SIZE + scaledAdj;
                     }
                   }
                 }
+              }
 
-                // Somewhat bogus, but if we get really deeply inlined we start backing off.
-                int curDepth = state.getInlineDepth();
-                if (curDepth > opts.INLINE_MAX_INLINE_DEPTH) {
-                  maxCost /= (curDepth - opts.INLINE_MAX_INLINE_DEPTH + 1);
-                }
+              // Somewhat bogus, but if we get really deeply inlined we start backing off.
+              int curDepth = state.getInlineDepth();
+              if (curDepth > opts.INLINE_MAX_INLINE_DEPTH) {
+                maxCost /= (curDepth - opts.INLINE_MAX_INLINE_DEPTH + 1);
+              }
 
-                decideYes = cost <= maxCost;
-                if (verbose) {
-                  if (decideYes) {
-                    VM.sysWriteln("\t\tAccept: cost of " + cost + " was below threshold " + maxCost);
-                  } else {
-                    VM.sysWriteln("\t\tReject: cost of " + cost + " was above threshold " + maxCost);
-                  }
+              decideYes = cost <= maxCost;
+              if (verbose) {
+                if (decideYes) {
+                  VM.sysWriteln("\t\tAccept: cost of " + cost + " was below threshold " + maxCost);
+                } else {
+                  VM.sysWriteln("\t\tReject: cost of " + cost + " was above threshold " + maxCost);
                 }
               }
+
+              // A target we won't inline may still be worth dispatching through
+              // an inline cache entry if the profile says it is a frequent receiver.
+              if (!decideYes && needsGuard && !preEx && !ps && opts.INLINE_CACHE &&
+                  callSiteWeight > Controller.options.INLINE_AI_SEED_MULTIPLIER &&
+                  weight / callSiteWeight >= opts.INLINE_CACHE_MIN_CALLSITE_FRACTION) {
+                if (verbose) VM.sysWriteln("\t\tSelect: inline cache entry");
+                inlineCacheCandidate = true;
+              }
             }
+          }
 
-            if (decideYes) {
-              // Ok, we're going to inline it.
-              // Record that and also whether or not we think it needs a guard.
-              methodsToInline.add(callee);
-              if (preEx) {
+          if (inlineCacheCandidate) {
+            // keep the candidates sorted by decreasing weight, so that the
+            // most likely receiver is tested first
+            int pos = 0;
+            while (pos < methodsToCallWeights.size() && methodsToCallWeights.get(pos) >= weight) {
+              pos++;
+            }
+            methodsToCall.add(pos, callee);
+            methodsToCallWeights.add(pos, weight);
+          }
+
+          if (decideYes) {
+            // Ok, we're going to inline it.
+            // Record that and also whether or not we think it needs a guard.
+            methodsToInline.add(callee);
+            if (preEx) {
+              if (ClassLoadingDependencyManager.TRACE || ClassLoadingDependencyManager.DEBUG) {
                 ClassLoadingDependencyManager cldm = (ClassLoadingDependencyManager) RVMClass.classLoadListener;
-                if (ClassLoadingDependencyManager.TRACE || ClassLoadingDependencyManager.DEBUG) {
-                  cldm.report("PREEX_INLINE: Inlined " + callee + " into " + caller + "\n");
-                }
-                cldm.addNotOverriddenDependency(callee, state.getCompiledMethod());
-                if (goosc) {
-                  cldm.addNotOverriddenDependency(staticCallee, state.getCompiledMethod());
-                }
-                methodsNeedGuard.add(Boolean.FALSE);
-              } else {
-                methodsNeedGuard.add(needsGuard);
+                cldm.report("PREEX_INLINE: Inlined " + callee + " into " + caller + "\n");
+              }
+              dependencies.add(callee);
+              if (goosc) {
+                dependencies.add(staticCallee);
               }
+              methodsNeedGuard.add(Boolean.FALSE);
+            } else {
+              methodsNeedGuard.add(needsGuard);
             }
           }
         }
-      });
+      }
+    });
 
-      // Stage 5: Choose guards and package up the results in an InlineDecision object
-      if (methodsToInline.isEmpty()) {
-        InlineDecision d = InlineDecision.NO("No desirable targets");
-        if (verbose) VM.sysWriteln("\tDecide: " + d);
-        return d;
-      } else if (methodsToInline.size() == 1) {
-        RVMMethod target = methodsToInline.get(0);
-        boolean needsGuard = methodsNeedGuard.get(0);
-        if (needsGuard) {
-          if ((guardOverrideOnStaticCallee || target == staticCallee) &&
-              isCurrentlyFinal(target, !opts.guardWithClassTest())) {
-            InlineDecision d =
-              InlineDecision.guardedYES(target,
-                  chooseGuard(caller, target, staticCallee, state, true),
-                  "Guarded inline of single static target");
-            /*
-             * Determine if it is allowable to put an OSR point in the failed case of
-             * the guarded inline instead of generating a real call instruction.
-             * There are several conditions that must be met for this to be allowable:
-             *   (1) OSR guarded inlining and recompilation must both be enabled
-             *   (2) The current context must be an interruptible method
-             *   (3) The application must be started.  This is a rough proxy for the VM
-             *       being fully booted so we can actually get through the OSR process.
-             *       Note: One implication of this requirement is that we will
-             *       never put an OSR on an off-branch of a guarded inline in bootimage
-             *       code.
-             */
-            if (opts.OSR_GUARDED_INLINING && Controller.options.ENABLE_RECOMPILATION &&
-                caller.isInterruptible() &&
-                OptimizingCompiler.getAppStarted()) {
-                if (VM.VerifyAssertions) VM._assert(VM.runningVM);
-                d.setOSRTestFailed();
-            }
-            if (verbose) VM.sysWriteln("\tDecide: " + d);
-            return d;
-          } else {
-            InlineDecision d =
-              InlineDecision.guardedYES(target,
-                  chooseGuard(caller, target, staticCallee, state, false),
-                  "Guarded inlining of one potential target");
-            if (verbose) VM.sysWriteln("\tDecide: " + d);
-            return d;
+    // Stage 5: Choose guards and package up the results in an InlineDecision object
+    if (!methodsToCall.isEmpty() && !methodsNeedGuard.contains(Boolean.FALSE)) {
+      // Polymorphic (or monomorphic but too big to inline) call site:
+      // inline the desirable targets and dispatch the remaining frequent
+      // targets through guarded direct calls.
+      int numCalls = Math.min(methodsToCall.size(), opts.INLINE_CACHE_MAX_TARGETS);
+      int numTargets = methodsToInline.size() + numCalls;
+      RVMMethod[] methods = new RVMMethod[numTargets];
+      byte[] guards = new byte[numTargets];
+      boolean[] directCalls = new boolean[numTargets];
+      int idx = 0;
+      for (RVMMethod target : methodsToInline) {
+        methods[idx] = target;
+        guards[idx] = chooseGuard(caller, target, staticCallee, state, false, dependencies);
+        idx++;
+      }
+      for (int i = 0; i < numCalls; i++) {
+        RVMMethod target = methodsToCall.get(i);
+        methods[idx] = target;
+        guards[idx] = chooseGuard(caller, target, staticCallee, state, false, dependencies);
+        directCalls[idx] = true;
+        idx++;
+      }
+      InlineDecision d = InlineDecision.guardedYES(methods, guards, directCalls, "Inline cache for profiled targets");
+      if (verbose) VM.sysWriteln("\tDecide: " + d);
+      return commitDependencies(d, dependencies, hierarchyEpoch, state);
+    } else if (methodsToInline.isEmpty()) {
+      InlineDecision d = InlineDecision.NO("No desirable targets");
+      if (verbose) VM.sysWriteln("\tDecide: " + d);
+      return d;
+    } else if (methodsToInline.size() == 1) {
+      RVMMethod target = methodsToInline.get(0);
+      boolean needsGuard = methodsNeedGuard.get(0);
+      if (needsGuard) {
+        if ((guardOverrideOnStaticCallee || target == staticCallee) &&
+            isCurrentlyFinal(target, !opts.guardWithClassTest())) {
+          InlineDecision d =
+            InlineDecision.guardedYES(target,
+                chooseGuard(caller, target, staticCallee, state, true, dependencies),
+                "Guarded inline of single static target");
+          /*
+           * Determine if it is allowable to put an OSR point in the failed case of
+           * the guarded inline instead of generating a real call instruction.
+           * There are several conditions that must be met for this to be allowable:
+           *   (1) OSR guarded inlining and recompilation must both be enabled
+           *   (2) The current context must be an interruptible method
+           *   (3) The application must be started.  This is a rough proxy for the VM
+           *       being fully booted so we can actually get through the OSR process.
+           *       Note: One implication of this requirement is that we will
+           *       never put an OSR on an off-branch of a guarded inline in bootimage
+           *       code.
+           */
+          if (opts.OSR_GUARDED_INLINING && Controller.options.ENABLE_RECOMPILATION &&
+              caller.isInterruptible() &&
+              OptimizingCompiler.getAppStarted()) {
+              if (VM.VerifyAssertions) VM._assert(VM.runningVM);
+              d.setOSRTestFailed();
           }
+          if (verbose) VM.sysWriteln("\tDecide: " + d);
+          return commitDependencies(d, dependencies, hierarchyEpoch, state);
         } else {
-          InlineDecision d = InlineDecision.YES(target, "Unique and desirable target");
+          InlineDecision d =
+            InlineDecision.guardedYES(target,
+                chooseGuard(caller, target, staticCallee, state, false, dependencies),
+                "Guarded inlining of one potential target");
           if (verbose) VM.sysWriteln("\tDecide: " + d);
-          return d;
+          return commitDependencies(d, dependencies, hierarchyEpoch, state);
         }
       } else {
-        RVMMethod[] methods = new RVMMethod[methodsNeedGuard.size()];
-        byte[] guards = new byte[methods.length];
-        int idx = 0;
-        Iterator<RVMMethod> methodIterator = methodsToInline.iterator();
-        Iterator<Boolean> guardIterator = methodsNeedGuard.iterator();
-        while (methodIterator.hasNext()) {
-          RVMMethod target = methodIterator.next();
-          boolean needsGuard = guardIterator.next();
-          if (VM.VerifyAssertions) {
-            if (!needsGuard) {
-              VM.sysWriteln("Error, inlining for " + methodsToInline.size() + " targets");
-              VM.sysWriteln("Inlining into " + rootMethod + " at bytecode index " + bcIndex);
-              VM.sysWriteln("Method: " + target + " doesn't need a guard");
-              for (int i = 0; i < methodsToInline.size(); i++) {
-                VM.sysWriteln("  Method " + i + ": " + methodsToInline.get(i));
-                VM.sysWriteln("  NeedsGuard: " + methodsNeedGuard.get(i));
-              }
-              VM._assert(VM.NOT_REACHED);
+        InlineDecision d = InlineDecision.YES(target, "Unique and desirable target");
+        if (verbose) VM.sysWriteln("\tDecide: " + d);
+        return commitDependencies(d, dependencies, hierarchyEpoch, state);
+      }
+    } else {
+      RVMMethod[] methods = new RVMMethod[methodsNeedGuard.size()];
+      byte[] guards = new byte[methods.length];
+      int idx = 0;
+      Iterator<RVMMethod> methodIterator = methodsToInline.iterator();
+      Iterator<Boolean> guardIterator = methodsNeedGuard.iterator();
+      while (methodIterator.hasNext()) {
+        RVMMethod target = methodIterator.next();
+        boolean needsGuard = guardIterator.next();
+        if (VM.VerifyAssertions) {
+          if (!needsGuard) {
+            VM.sysWriteln("Error, inlining for " + methodsToInline.size() + " targets");
+            VM.sysWriteln("Inlining into " + rootMethod + " at bytecode index " + bcIndex);
+            VM.sysWriteln("Method: " + target + " doesn't need a guard");
+            for (int i = 0; i < methodsToInline.size(); i++) {
+              VM.sysWriteln("  Method " + i + ": " + methodsToInline.get(i));
+              VM.sysWriteln("  NeedsGuard: " + methodsNeedGuard.get(i));
             }
+            VM._assert(VM.NOT_REACHED);
           }
-          methods[idx] = target;
-          guards[idx] = chooseGuard(caller, target, staticCallee, state, false);
-          idx++;
         }
-        InlineDecision d = InlineDecision.guardedYES(methods, guards, "Inline multiple targets");
-        if (verbose) VM.sysWriteln("\tDecide: " + d);
-        return d;
+        methods[idx] = target;
+        guards[idx] = chooseGuard(caller, target, staticCallee, state, false, dependencies);
+        idx++;
       }
+      InlineDecision d = InlineDecision.guardedYES(methods, guards, "Inline multiple targets");
+      if (verbose) VM.sysWriteln("\tDecide: " + d);
+      return commitDependencies(d, dependencies, hierarchyEpoch, state);
+    }
+  }
+
+  /**
+   * Records the dependencies an inlining decision relies on with the
+   * {@link ClassLoadingDependencyManager}. If a class was initialized
+   * since the class hierarchy was inspected, the decision may be based on
+   * stale information and must be made again.
+   *
+   * @param d the decision
+   * @param dependencies methods that must not be overridden for d to be valid
+   * @param hierarchyEpoch the class hierarchy epoch the decision was based on
+   * @param state compilation state at this point
+   * @return d or {@code null} if the class hierarchy changed
+   */
+  private InlineDecision commitDependencies(InlineDecision d, ArrayList<RVMMethod> dependencies, int hierarchyEpoch,
+                                            CompilationState state) {
+    ClassLoadingDependencyManager cldm = (ClassLoadingDependencyManager) RVMClass.classLoadListener;
+    if (cldm.addNotOverriddenDependencies(dependencies, state.getCompiledMethod(), hierarchyEpoch)) {
+      return d;
     }
+    if (state.getOptions().PRINT_DETAILED_INLINE_REPORT) {
+      VM.sysWriteln("\tClass hierarchy changed, discarding decision " + d);
+    }
+    return null;
   }
 
   /**
@@ -432,28 +555,26 @@ public final class DefaultInlineOracle extends InlineTools implements InlineOrac
    * from caller to callee according to the controlling {@link OptOptions}.
    * If we are using IG_CODE_PATCH, then this method also records
    * the required dependency.
-   * Precondition: lock on {@link RVMClass#classLoadListener} is held.
    *
    * @param caller The caller method
    * @param singleImpl the method implementation that will be protected by the guard
    * @param callee The callee method
    * @param state compilation state at this point
    * @param codePatchSupported   Can we use code patching at this call site?
+   * @param dependencies list of methods that must not be overridden,
+   *  updated if a code patch guard is chosen
    * @return the chosen guard
    */
   private byte chooseGuard(RVMMethod caller, RVMMethod singleImpl, RVMMethod callee, CompilationState state,
-                           boolean codePatchSupported) {
+                           boolean codePatchSupported, ArrayList<RVMMethod> dependencies) {
     byte guard = state.getOptions().INLINE_GUARD_KIND;
     if (codePatchSupported) {
-      if (VM.VerifyAssertions && VM.runningVM) {
-        VM._assert(ObjectModel.holdsLock(RVMClass.classLoadListener, RVMThread.getCurrentThread()));
-      }
       if (guard == OptOptions.INLINE_GUARD_CODE_PATCH) {
-        ClassLoadingDependencyManager cldm = (ClassLoadingDependencyManager) RVMClass.classLoadListener;
         if (ClassLoadingDependencyManager.TRACE || ClassLoadingDependencyManager.DEBUG) {
+          ClassLoadingDependencyManager cldm = (ClassLoadingDependencyManager) RVMClass.classLoadListener;
           cldm.report("CODE PATCH: Inlined " + singleImpl + " into " + caller + "\n");
         }
-        cldm.addNotOverriddenDependency(callee, state.getCompiledMethod());
+        dependencies.add(callee);
       }
     } else if (guard == OptOptions.INLINE_GUARD_CODE_PATCH) {
       guard = OptOptions.INLINE_GUARD_METHOD_TEST;
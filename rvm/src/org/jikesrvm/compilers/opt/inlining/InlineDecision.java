@@ -50,6 +50,12 @@ public final class InlineDecision {
    * The set of guards to use (only valid when code == GUARDED_YES)
    */
   private final byte[] guards;
+  /**
+   * Which targets are reached through a guarded direct call (an inline
+   * cache entry) rather than being inlined. Will be {@code null} if
+   * all targets are inlined.
+   */
+  private final boolean[] directCalls;
 
   /**
    * Should the test-failed block be replaced with an OSR point?
@@ -63,10 +69,23 @@ public final class InlineDecision {
    * @param reason a string rationale
    */
   private InlineDecision(RVMMethod[] targets, byte[] guards, Code code, String reason) {
+    this(targets, guards, null, code, reason);
+  }
+
+  /**
+   * @param targets   The methods to inline
+   * @param guards the chosen guards. will be {@code null} if no guards are necessary
+   * @param directCalls the targets that are called directly instead of being inlined.
+   *   will be {@code null} if all targets are inlined
+   * @param code the decision code
+   * @param reason a string rationale
+   */
+  private InlineDecision(RVMMethod[] targets, byte[] guards, boolean[] directCalls, Code code, String reason) {
     this.code = code;
     this.rationale = reason;
     this.targets = targets;
     this.guards = guards;
+    this.directCalls = directCalls;
   }
 
   /**
@@ -132,6 +151,22 @@ public final class InlineDecision {
     return new InlineDecision(targets, guards, Code.GUARDED_YES, reason);
   }
 
+  /**
+   * Return a decision YES to do a guarded inline where some of the targets
+   * are not inlined but dispatched through a guarded direct call instead.
+   * This turns the call site into a polymorphic inline cache whose entries
+   * are the profiled receiver targets.
+   *
+   * @param targets   The methods to inline or to call directly
+   * @param guards  the types of guard to use
+   * @param directCalls which of the targets are to be called directly
+   * @param reason   A rationale for inlining
+   * @return a decision YES to inline, but it is not always safe.
+   */
+  public static InlineDecision guardedYES(RVMMethod[] targets, byte[] guards, boolean[] directCalls, String reason) {
+    return new InlineDecision(targets, guards, directCalls, Code.GUARDED_YES, reason);
+  }
+
   /**
    * @return whether this inline decision is a YES
    */
@@ -167,6 +202,15 @@ public final class InlineDecision {
     return guards;
   }
 
+  /**
+   * @param i the index of the target
+   * @return whether the i-th target is reached through a guarded direct call
+   *  instead of being inlined
+   */
+  public boolean isDirectCall(int i) {
+    return directCalls != null && directCalls[i];
+  }
+
   /**
    * @return the number methods to inline
    */
@@ -197,6 +241,9 @@ public final class InlineDecision {
       for (int i = 0; i < targets.length; i++) {
         s.append(' ');
         s.append(targets[i]);
+        if (isDirectCall(i)) {
+          s.append(" (inline cache)");
+        }
         if (guards != null) {
           switch (guards[i]) {
             case OptOptions.INLINE_GUARD_METHOD_TEST:
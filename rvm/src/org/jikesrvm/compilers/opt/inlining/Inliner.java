@@ -46,6 +46,7 @@ import org.jikesrvm.compilers.opt.ir.InstanceOf;
 import org.jikesrvm.compilers.opt.ir.Instruction;
 import org.jikesrvm.compilers.opt.ir.Register;
 import org.jikesrvm.compilers.opt.ir.TypeCheck;
+import org.jikesrvm.compilers.opt.ir.operand.AddressConstantOperand;
 import org.jikesrvm.compilers.opt.ir.operand.BranchProfileOperand;
 import org.jikesrvm.compilers.opt.ir.operand.ConditionOperand;
 import org.jikesrvm.compilers.opt.ir.operand.IntConstantOperand;
@@ -144,6 +145,15 @@ public class Inliner {
       byte[] guards = inlDec.getGuards();
       GenerationContext[] children = new GenerationContext[targets.length];
       for (int i = 0; i < targets.length; i++) {
+        if (inlDec.isDirectCall(i)) {
+          // inline cache entry: no body to generate (see Step 5)
+          if (parent.getOptions().PRINT_INLINE_REPORT) {
+            VM.sysWrite("\tInline cache entry for " + targets[i] +
+                        " in " + callSite.position().getMethod() +
+                        " at bytecode " + callSite.getBytecodeIndex() + "\n");
+          }
+          continue;
+        }
         NormalMethod callee = (NormalMethod) targets[i];
         // (a)
         if (parent.getOptions().PRINT_INLINE_REPORT) {
@@ -164,16 +174,18 @@ public class Inliner {
       //         special purpose coding wrapping the calls to Operand.meet.
       if (Call.hasResult(callSite)) {
         Register reg = Call.getResult(callSite).getRegister();
-        container.setResult(children[0].getResult());
-        for (int i = 1; i < targets.length; i++) {
-          if (children[i].getResult() != null) {
+        boolean hasDirectCall = false;
+        for (int i = 0; i < targets.length; i++) {
+          if (children[i] == null) {
+            hasDirectCall = true;
+          } else if (children[i].getResult() != null) {
             container.setResult((container.getResult() == null) ? children[i].getResult() : Operand.meet(container.getResult(), children[i].getResult(), reg));
           }
         }
 
 
-        if (!inlDec.OSRTestFailed()) {
-          // Account for the non-predicted case as well...
+        if (!inlDec.OSRTestFailed() || hasDirectCall) {
+          // Account for the non-predicted case (and the inline cache entries) as well...
           RegisterOperand failureCaseResult = Call.getResult(callSite).copyRO();
           container.setResult((container.getResult() == null) ?  failureCaseResult : Operand.meet(container.getResult(), failureCaseResult, reg));
         }
@@ -197,6 +209,18 @@ public class Inliner {
         testFailed.appendInstruction(counterInst);
       }
 
+      boolean countInlineCache = false;
+      if (parent.getOptions().INLINE_CACHE_COUNTERS && Controller.options.INSERT_DEBUGGING_COUNTERS) {
+        for (int i = 0; i < targets.length; i++) {
+          countInlineCache |= inlDec.isDirectCall(i);
+        }
+      }
+      if (countInlineCache) {
+        // Get a dynamic count of the misses of this inline cache
+        testFailed.appendInstruction(AOSDatabase.debuggingCounterData.
+            getCounterInstructionForEvent(inlineCacheEventName("miss", callSite, null)));
+      }
+
       if (inlDec.OSRTestFailed()) {
         // note where we're storing the osr barrier instruction
         Instruction lastOsrBarrier = parent.getOSRBarrierFromInst(callSite);
@@ -272,7 +296,7 @@ public class Inliner {
         firstIfBlock = new BasicBlock(callSite.getBytecodeIndex(), callSite.position(), parent.getCfg());
         firstIfBlock.setExceptionHandlers(ebag);
         BasicBlock lastIfBlock = firstIfBlock;
-        RVMMethod target = children[i].getMethod();
+        RVMMethod target = targets[i];
         Instruction tmp;
 
         if (isInterface) {
@@ -409,13 +433,26 @@ public class Inliner {
         lastIfBlock.appendInstruction(tmp);
 
         lastIfBlock.insertOut(testFailed);
-        lastIfBlock.insertOut(children[i].getPrologue());
-        container.getCfg().linkInCodeOrder(lastIfBlock, children[i].getCfg().firstInCodeOrder());
-        if (children[i].getEpilogue() != null) {
-          children[i].getEpilogue().appendInstruction(container.getEpilogue().makeGOTO());
-          children[i].getEpilogue().insertOut(container.getEpilogue());
+        if (children[i] == null) {
+          // Inline cache entry: the guard has established the receiver's
+          // class, so the target can be called directly.
+          BasicBlock directCall = createDirectCallBlock(target, parent, ebag, callSite, receiver, container);
+          if (countInlineCache) {
+            directCall.prependInstruction(AOSDatabase.debuggingCounterData.
+                getCounterInstructionForEvent(inlineCacheEventName("hit", callSite, target)));
+          }
+          lastIfBlock.insertOut(directCall);
+          container.getCfg().linkInCodeOrder(lastIfBlock, directCall);
+          container.getCfg().linkInCodeOrder(directCall, testFailed);
+        } else {
+          lastIfBlock.insertOut(children[i].getPrologue());
+          container.getCfg().linkInCodeOrder(lastIfBlock, children[i].getCfg().firstInCodeOrder());
+          if (children[i].getEpilogue() != null) {
+            children[i].getEpilogue().appendInstruction(container.getEpilogue().makeGOTO());
+            children[i].getEpilogue().insertOut(container.getEpilogue());
+          }
+          container.getCfg().linkInCodeOrder(children[i].getCfg().lastInCodeOrder(), testFailed);
         }
-        container.getCfg().linkInCodeOrder(children[i].getCfg().lastInCodeOrder(), testFailed);
       }
       //Step 6: finish by linking container.prologue & testFailed
       container.getPrologue().insertOut(testFailed);
@@ -435,4 +472,65 @@ public class Inliner {
       return child;
     }
   }
+
+  /**
+   * Creates the block for an inline cache entry, i.e. a copy of the original
+   * call that is bound to a single target. The target is invoked via the JTOC
+   * instead of via the receiver's TIB (or IMT), so that every entry of the
+   * cache gets its own, monomorphic call instruction.
+   *
+   * @param target the method to call
+   * @param parent the caller generation context
+   * @param ebag exception handler scope for the caller
+   * @param callSite the call site
+   * @param receiver the receiver of the call site before any implements
+   *  test, which is only done on the path where all guards fail
+   * @param container the generation context of the guarded inline
+   * @return a basic block that calls target and then jumps to the epilogue
+   *  of container
+   */
+  private static BasicBlock createDirectCallBlock(RVMMethod target, GenerationContext parent,
+                                                  ExceptionHandlerBasicBlockBag ebag, Instruction callSite,
+                                                  Operand receiver, GenerationContext container) {
+    BasicBlock block = new BasicBlock(callSite.getBytecodeIndex(), callSite.position(), parent.getCfg());
+    block.setExceptionHandlers(ebag);
+    Instruction call = callSite.copyWithoutLinks();
+    MethodOperand mo = MethodOperand.VIRTUAL(target.getMemberRef().asMethodReference(), target);
+    mo.refine(target, true);
+    mo.setIsInlineCacheEntry(true);
+    Call.setMethod(call, mo);
+    Call.setAddress(call, new AddressConstantOperand(target.getOffset()));
+    // the call site may already use the result of the implements test,
+    // which is not defined on this path
+    Call.setParam(call, 0, receiver.copy());
+    call.copySourcePositionFrom(callSite);
+    block.appendInstruction(call);
+    block.appendInstruction(container.getEpilogue().makeGOTO());
+    block.insertOut(container.getEpilogue());
+    // As for the test failed block, we have to initialize the exception
+    // behavior of the block manually.
+    if (ebag != null) {
+      for (Enumeration<BasicBlock> e = ebag.enumerator(); e.hasMoreElements();) {
+        BasicBlock handler = e.nextElement();
+        block.insertOut(handler);
+      }
+    }
+    block.setCanThrowExceptions();
+    block.setMayThrowUncaughtException();
+    return block;
+  }
+
+  /**
+   * @param kind either "hit" or "miss"
+   * @param callSite the call site
+   * @param target the target of the inline cache entry, {@code null} for misses
+   * @return the name of the debugging counter event for the inline cache
+   */
+  private static String inlineCacheEventName(String kind, Instruction callSite, RVMMethod target) {
+    String name = "Inline cache " + kind + ": " + callSite.position().getMethod() + " @ " + callSite.getBytecodeIndex();
+    if (target != null) {
+      name += " -> " + target;
+    }
+    return name;
+  }
 }
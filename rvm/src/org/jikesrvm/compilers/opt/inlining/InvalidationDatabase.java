@@ -33,6 +33,9 @@ import org.jikesrvm.util.HashSetRVM;
  *     We don't want the invalidaton database to keep code alive!
  *     This would be an ideal use of weak references if we had them.
  *
+ * <p> The database is not synchronized; all accesses go through the
+ *     {@link ClassLoadingDependencyManager}, which holds its lock.
+ *
  * <p> TODO: In the future, we should think about implementing a general
  *       dependency mechanism.
  *   See Chambers, Dean, Grove in ICSE-17 (1995) for one possible design
@@ -41,6 +41,7 @@ import java.util.Map;
 import java.util.Stack;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.TypeReference;
 import org.jikesrvm.compilers.common.CompiledMethod;
@@ -745,6 +746,35 @@ public final class IR {
     return gc.generatedExceptionHandlers();
   }
 
+  /**
+   * Should the machine code for this IR be allocated in the hot code
+   * space?  Only methods that the adaptive system has sampled at least
+   * {@link OptOptions#HOT_CODE_SAMPLES} times qualify; without such
+   * evidence the code goes to the cold code space with everything else.
+   *
+   * @return whether the method being compiled is known to be hot
+   */
+  public boolean isHotCode() {
+    return hasHotSamples(options.HOT_CODE_SAMPLES);
+  }
+
+  /**
+   * Has the adaptive system sampled the current compiled version of the
+   * method being compiled at least the given number of times?
+   *
+   * @param threshold the number of samples, or a negative number if no
+   *  number of samples is enough
+   * @return whether the method has at least {@code threshold} samples
+   */
+  public boolean hasHotSamples(double threshold) {
+    if (threshold < 0 || !VM.BuildForAdaptiveSystem || Controller.methodSamples == null) {
+      return false;
+    }
+    CompiledMethod cm = method.getCurrentCompiledMethod();
+    if (cm == null) return false;
+    return Controller.methodSamples.getData(cm.getId()) >= threshold;
+  }
+
   /**
    * Partially convert the FCFG into a more traditional
    * CFG by splitting all nodes that contain PEIs and that
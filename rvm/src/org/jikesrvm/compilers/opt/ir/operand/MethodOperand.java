@@ -68,6 +68,11 @@ public final class MethodOperand extends Operand {
    */
   boolean isGuardedInlineOffBranch;
 
+  /**
+   * Is this the operand of a call that is an entry of an inline cache?
+   */
+  boolean isInlineCacheEntry;
+
   /**
    * The type of the invoke (STATIC, SPECIAL, VIRTUAL, INTERFACE)
    */
@@ -251,6 +256,24 @@ public final class MethodOperand extends Operand {
     isGuardedInlineOffBranch = f;
   }
 
+  /**
+   * @return whether this operand is the call of an inline cache entry
+   */
+  public boolean isInlineCacheEntry() {
+    return isInlineCacheEntry;
+  }
+
+  /**
+   * Record that this operand is the call of an inline cache entry, i.e.
+   * a call to a precise target that has been guarded by a test on the
+   * receiver's type.
+   *
+   * @param f if the operand is the call of an inline cache entry
+   */
+  public void setIsInlineCacheEntry(boolean f) {
+    isInlineCacheEntry = f;
+  }
+
   /**
    * Refines the target information. Used to reduce the set of
    * targets for an invokevirtual.
@@ -295,6 +318,7 @@ public final class MethodOperand extends Operand {
     mo.isPreciseTarget = isPreciseTarget;
     mo.isNonReturningCall = isNonReturningCall;
     mo.isGuardedInlineOffBranch = isGuardedInlineOffBranch;
+    mo.isInlineCacheEntry = isInlineCacheEntry;
     return mo;
   }
 
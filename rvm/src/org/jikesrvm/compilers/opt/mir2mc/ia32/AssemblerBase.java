@@ -233,6 +233,15 @@ abstract class AssemblerBase extends Assembler {
     return true;
   }
 
+  /**
+   * Opt compiled code is only placed in the hot code space if the
+   * adaptive system has seen enough samples of the method.
+   */
+  @Override
+  protected boolean allocateInHotCodeSpace() {
+    return ir.isHotCode();
+  }
+
   /**
    *  Is the given operand an immediate?  In the IA32 assembly, one
    * cannot specify floating-point constants, so the possible
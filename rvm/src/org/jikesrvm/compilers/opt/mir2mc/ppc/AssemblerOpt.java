@@ -123,7 +123,7 @@ public class AssemblerOpt {
    * @return the number of machinecode instructions generated
    */
   public int generateCode() {
-    ir.MIRInfo.machinecode = CodeArray.Factory.create(ir.MIRInfo.mcSizeEstimate, true);
+    ir.MIRInfo.machinecode = CodeArray.Factory.create(ir.MIRInfo.mcSizeEstimate, ir.isHotCode());
     return genCode(ir, shouldPrint);
   }
 
@@ -0,0 +1,569 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.opt.regalloc;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.compilers.opt.OptOptions;
+import org.jikesrvm.compilers.opt.driver.CompilerPhase;
+import org.jikesrvm.compilers.opt.ir.GenericPhysicalRegisterSet;
+import org.jikesrvm.compilers.opt.ir.IR;
+import org.jikesrvm.compilers.opt.ir.Register;
+import org.jikesrvm.compilers.opt.util.GraphEdge;
+import org.jikesrvm.compilers.opt.util.GraphNode;
+
+/**
+ * Graph coloring register allocation, an alternative to {@link LinearScanPhase}
+ * for methods where the extra compile time pays off.<p>
+ *
+ * The allocator works on the compound intervals computed by
+ * {@link IntervalAnalysis}. Two symbolic registers interfere if their
+ * compound intervals intersect; conflicts with physical registers
+ * (fixed uses, restrictions and pinned registers) are folded into the
+ * set of registers each node may be assigned to. The allocator then
+ * <ol>
+ *   <li>conservatively coalesces nodes connected by an affinity in the
+ *   {@link CoalesceGraph} (Briggs' test),</li>
+ *   <li>simplifies the graph, optimistically pushing the cheapest node
+ *   (by the {@link SpillCostEstimator}) when no node of insignificant
+ *   degree remains, and</li>
+ *   <li>selects registers in reverse order, biased towards registers that
+ *   the node has an affinity with.</li>
+ * </ol>
+ * Nodes that cannot be colored are spilled through the
+ * {@link SpillLocationManager}, so spill code insertion and the GC map
+ * updates are shared with linear scan. If a register that must not be
+ * spilled cannot be colored, the phase gives up and leaves the method
+ * to linear scan.<p>
+ *
+ * See Chaitin, SIGPLAN '82; Briggs et al., TOPLAS 16(3), May 1994.
+ */
+public final class GraphColoringPhase extends CompilerPhase {
+
+  private static final boolean DEBUG = false;
+
+  private static final Constructor<CompilerPhase> constructor = getCompilerPhaseConstructor(GraphColoringPhase.class);
+
+  /**
+   * {@inheritDoc}
+   * @return compiler phase constructor
+   */
+  @Override
+  public Constructor<CompilerPhase> getClassConstructor() {
+    return constructor;
+  }
+
+  @Override
+  public boolean shouldPerform(OptOptions options) {
+    return options.REGALLOC_GRAPH_COLORING || options.REGALLOC_GRAPH_COLORING_HOT_SAMPLES >= 0;
+  }
+
+  @Override
+  public String getName() {
+    return "Graph Coloring";
+  }
+
+  @Override
+  public boolean printingEnabled(OptOptions options, boolean before) {
+    return false;
+  }
+
+  /**
+   * A node of the interference graph. After coalescing, a node stands
+   * for all the compound intervals that were merged into it.
+   */
+  private static final class Node {
+    /** the compound intervals represented by this node */
+    final ArrayList<CompoundInterval> members = new ArrayList<CompoundInterval>(1);
+    /** the physical register type of the members */
+    final int type;
+    /** interfering nodes */
+    final HashSet<Node> adjacent = new HashSet<Node>();
+    /** registers the node may be assigned to, in order of preference */
+    ArrayList<Register> allowed;
+    /** the node this node was coalesced into, if any */
+    Node alias;
+    /** the current degree during simplification */
+    int degree;
+    /** the estimated cost of spilling all members */
+    double cost;
+    /** does some member have to live in a register? */
+    boolean mustNotSpill;
+    /** the register selected for this node, {@code null} if none */
+    Register color;
+
+    Node(CompoundInterval ci, int type) {
+      members.add(ci);
+      this.type = type;
+    }
+
+    @Override
+    public String toString() {
+      return members.toString();
+    }
+  }
+
+  /** The governing IR */
+  private IR ir;
+
+  private RegisterAllocatorState regAllocState;
+
+  private GenericRegisterRestrictions restrict;
+
+  private GenericPhysicalRegisterSet phys;
+
+  /** Maps a symbolic register to its node */
+  private HashMap<Register, Node> nodeMap;
+
+  /** Nodes of the interference graph, in order of creation */
+  private ArrayList<Node> nodes;
+
+  /** Intervals spilled without being considered for coloring */
+  private ArrayList<CompoundInterval> eagerSpills;
+
+  /** Number of registers available for each physical register type */
+  private HashMap<Integer, Integer> colorCount;
+
+  /**
+   * Decides whether a method should be allocated by graph coloring,
+   * either because the option is set for the current optimization level
+   * or because the adaptive system has observed the method to be hot.
+   *
+   * @param ir the IR
+   * @return {@code true} if graph coloring should be attempted
+   */
+  static boolean shouldColor(IR ir) {
+    if (ir.options.REGALLOC_GRAPH_COLORING) return true;
+    return ir.hasHotSamples(ir.options.REGALLOC_GRAPH_COLORING_HOT_SAMPLES);
+  }
+
+  /**
+   * Performs graph coloring register allocation, if {@link #shouldColor}
+   * selects the method.
+   *
+   * @param ir the IR
+   */
+  @Override
+  public void perform(IR ir) {
+    if (!shouldColor(ir)) return;
+
+    this.ir = ir;
+    this.regAllocState = ir.MIRInfo.regAllocState;
+    this.restrict = ir.stackManager.getRestrictions();
+    this.phys = ir.regpool.getPhysicalRegisterSet();
+    nodeMap = new HashMap<Register, Node>();
+    nodes = new ArrayList<Node>();
+    eagerSpills = new ArrayList<CompoundInterval>();
+    colorCount = new HashMap<Integer, Integer>();
+
+    buildInterferenceGraph();
+    if (ir.options.REGALLOC_COALESCE_MOVES) {
+      coalesce();
+    }
+    ArrayList<Node> stack = simplify();
+    if (!select(stack)) {
+      if (DEBUG) System.out.println("Graph coloring failed for " + ir.method + ", using linear scan");
+      return;
+    }
+    assignRegisters();
+  }
+
+  /**
+   * Creates a node for each symbolic compound interval and adds an
+   * interference edge between every pair of nodes whose intervals
+   * intersect. The basic intervals are visited in order of increasing
+   * start point, keeping a list of the intervals live at that point.
+   */
+  private void buildInterferenceGraph() {
+    SpillCostEstimator spillCost = LinearScanPhase.determineSpillCostEstimator(ir);
+    HashSet<CompoundInterval> eager = new HashSet<CompoundInterval>();
+    ArrayList<MappedBasicInterval> live = new ArrayList<MappedBasicInterval>();
+
+    for (BasicInterval b : ir.MIRInfo.linearScanState.intervals) {
+      MappedBasicInterval bi = (MappedBasicInterval) b;
+      CompoundInterval ci = bi.container;
+      Register r = ci.getRegister();
+
+      if (r.isPhysical()) {
+        // Any physical register with a live range is used by the method.
+        r.touchRegister();
+        continue;
+      }
+
+      if (eager.contains(ci)) continue;
+      Node n = nodeMap.get(r);
+      if (n == null) {
+        if (ir.options.FREQ_FOCUS_EFFORT && ci.isInfrequent() && !restrict.mustNotSpill(r)) {
+          // as in linear scan, don't bother finding a register
+          eager.add(ci);
+          eagerSpills.add(ci);
+          continue;
+        }
+        n = new Node(ci, GenericPhysicalRegisterSet.getPhysicalRegisterType(r));
+        n.cost = spillCost.getCost(r);
+        n.mustNotSpill = restrict.mustNotSpill(r);
+        n.allowed = computeAllowedRegisters(ci);
+        nodeMap.put(r, n);
+        nodes.add(n);
+      }
+
+      for (Iterator<MappedBasicInterval> e = live.iterator(); e.hasNext();) {
+        MappedBasicInterval other = e.next();
+        if (!other.endsAfter(bi.getBegin())) {
+          e.remove();
+        } else if (other.container != ci && other.intersects(bi)) {
+          Node m = nodeMap.get(other.container.getRegister());
+          if (m.type == n.type) {
+            m.adjacent.add(n);
+            n.adjacent.add(m);
+          }
+        }
+      }
+      live.add(bi);
+    }
+  }
+
+  /**
+   * @param ci a symbolic compound interval
+   * @return the physical registers that ci may be assigned to without
+   *  violating a restriction or overlapping a fixed use of the register;
+   *  volatiles come first, then nonvolatiles in the order linear scan
+   *  tries them
+   */
+  private ArrayList<Register> computeAllowedRegisters(CompoundInterval ci) {
+    ArrayList<Register> result = new ArrayList<Register>();
+    Register r = ci.getRegister();
+    int type = GenericPhysicalRegisterSet.getPhysicalRegisterType(r);
+    if (!restrict.allVolatilesForbidden(r)) {
+      for (Enumeration<Register> e = phys.enumerateVolatiles(type); e.hasMoreElements();) {
+        Register p = e.nextElement();
+        if (isAllowed(ci, p)) result.add(p);
+      }
+    }
+    for (Enumeration<Register> e = phys.enumerateNonvolatilesBackwards(type); e.hasMoreElements();) {
+      Register p = e.nextElement();
+      if (isAllowed(ci, p)) result.add(p);
+    }
+    return result;
+  }
+
+  private boolean isAllowed(CompoundInterval ci, Register p) {
+    if (!phys.isAllocatable(p) || p.isPinned() || restrict.isForbidden(ci.getRegister(), p)) {
+      return false;
+    }
+    CompoundInterval pInterval = regAllocState.getInterval(p);
+    return pInterval == null || !ci.intersects(pInterval);
+  }
+
+  /**
+   * @param type a physical register type
+   * @return the number of registers of the type that can be allocated
+   */
+  private int colors(int type) {
+    Integer k = colorCount.get(type);
+    if (k == null) {
+      int count = 0;
+      for (Enumeration<Register> e = phys.enumerateVolatiles(type); e.hasMoreElements();) {
+        Register p = e.nextElement();
+        if (phys.isAllocatable(p) && !p.isPinned()) count++;
+      }
+      for (Enumeration<Register> e = phys.enumerateNonvolatilesBackwards(type); e.hasMoreElements();) {
+        Register p = e.nextElement();
+        if (phys.isAllocatable(p) && !p.isPinned()) count++;
+      }
+      k = count;
+      colorCount.put(type, k);
+    }
+    return k;
+  }
+
+  private static Node find(Node n) {
+    while (n.alias != null) {
+      n = n.alias;
+    }
+    return n;
+  }
+
+  /**
+   * Merges nodes connected by an affinity, heaviest affinities first,
+   * if Briggs' conservative test guarantees that the merged node is
+   * still colorable.
+   */
+  private void coalesce() {
+    ArrayList<CoalesceGraph.Edge> affinities = new ArrayList<CoalesceGraph.Edge>();
+    CoalesceGraph graph = ir.stackManager.getPreferences().getGraph();
+    for (Enumeration<GraphNode> e = graph.enumerateNodes(); e.hasMoreElements();) {
+      CoalesceGraph.Node node = (CoalesceGraph.Node) e.nextElement();
+      for (Enumeration<GraphEdge> out = node.outEdges(); out.hasMoreElements();) {
+        affinities.add((CoalesceGraph.Edge) out.nextElement());
+      }
+    }
+    Collections.sort(affinities, new Comparator<CoalesceGraph.Edge>() {
+      @Override
+      public int compare(CoalesceGraph.Edge e1, CoalesceGraph.Edge e2) {
+        return e2.getWeight() - e1.getWeight();
+      }
+    });
+
+    for (CoalesceGraph.Edge edge : affinities) {
+      Register r1 = ((CoalesceGraph.Node) edge.from()).getRegister();
+      Register r2 = ((CoalesceGraph.Node) edge.to()).getRegister();
+      Node n1 = nodeMap.get(r1);
+      Node n2 = nodeMap.get(r2);
+      if (n1 == null || n2 == null) continue;
+      Node a = find(n1);
+      Node b = find(n2);
+      if (a == b || a.type != b.type || a.adjacent.contains(b)) continue;
+      if (canCoalesce(a, b)) {
+        if (DEBUG) System.out.println("Coalesce " + a + " and " + b);
+        merge(a, b);
+      }
+    }
+  }
+
+  private boolean canCoalesce(Node a, Node b) {
+    // the merged node must have a register it may be assigned to
+    boolean common = false;
+    for (Register p : a.allowed) {
+      if (b.allowed.contains(p)) {
+        common = true;
+        break;
+      }
+    }
+    if (!common) return false;
+
+    // Briggs: fewer than k neighbors of significant degree
+    int k = colors(a.type);
+    HashSet<Node> neighbors = new HashSet<Node>(a.adjacent);
+    neighbors.addAll(b.adjacent);
+    int significant = 0;
+    for (Node m : neighbors) {
+      if (m.adjacent.size() >= k) significant++;
+    }
+    return significant < k;
+  }
+
+  private void merge(Node a, Node b) {
+    b.alias = a;
+    a.members.addAll(b.members);
+    a.cost += b.cost;
+    a.mustNotSpill |= b.mustNotSpill;
+    a.allowed.retainAll(b.allowed);
+    for (Node m : b.adjacent) {
+      m.adjacent.remove(b);
+      m.adjacent.add(a);
+      a.adjacent.add(m);
+    }
+    b.adjacent.clear();
+  }
+
+  /**
+   * Removes nodes from the graph, nodes of insignificant degree first.
+   * When only nodes of significant degree remain, the one that is
+   * cheapest to spill relative to its degree is removed optimistically.
+   *
+   * @return the removed nodes, in order of removal
+   */
+  private ArrayList<Node> simplify() {
+    ArrayList<Node> low = new ArrayList<Node>();
+    LinkedHashSet<Node> high = new LinkedHashSet<Node>();
+    for (Node n : nodes) {
+      if (n.alias != null) continue;
+      n.degree = n.adjacent.size();
+      if (n.degree < colors(n.type)) {
+        low.add(n);
+      } else {
+        high.add(n);
+      }
+    }
+
+    ArrayList<Node> stack = new ArrayList<Node>();
+    while (!low.isEmpty() || !high.isEmpty()) {
+      Node n;
+      if (!low.isEmpty()) {
+        n = low.remove(low.size() - 1);
+      } else {
+        n = chooseSpillCandidate(high);
+        high.remove(n);
+      }
+      stack.add(n);
+      n.degree = -1;
+      for (Node m : n.adjacent) {
+        if (m.degree < 0) continue;
+        m.degree--;
+        if (m.degree == colors(m.type) - 1 && high.remove(m)) {
+          low.add(m);
+        }
+      }
+    }
+    return stack;
+  }
+
+  private Node chooseSpillCandidate(LinkedHashSet<Node> high) {
+    Node result = null;
+    double best = Double.MAX_VALUE;
+    for (Node n : high) {
+      // registers that must not be spilled are removed last
+      double metric = n.mustNotSpill ? Double.MAX_VALUE / 2 : n.cost / Math.max(n.degree, 1);
+      if (result == null || metric < best) {
+        result = n;
+        best = metric;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Pops nodes off the stack and assigns each a register that none of
+   * its colored neighbors use.
+   *
+   * @param stack the nodes in order of removal
+   * @return {@code false} if a node that must not be spilled could not
+   *  be colored
+   */
+  private boolean select(ArrayList<Node> stack) {
+    for (int i = stack.size() - 1; i >= 0; i--) {
+      Node n = stack.get(i);
+      HashSet<Register> used = new HashSet<Register>();
+      for (Node m : n.adjacent) {
+        if (m.color != null) used.add(m.color);
+      }
+      ArrayList<Register> candidates = new ArrayList<Register>();
+      for (Register p : n.allowed) {
+        if (!used.contains(p)) candidates.add(p);
+      }
+      if (candidates.isEmpty()) {
+        if (n.mustNotSpill) return false;
+        if (DEBUG) System.out.println("Spill " + n);
+        continue;
+      }
+      n.color = getPreference(n, candidates);
+      if (DEBUG) System.out.println("Color " + n + " " + n.color);
+    }
+    return true;
+  }
+
+  /**
+   * @param n a node to color
+   * @param candidates the registers available for n
+   * @return the candidate with the heaviest affinity to n, or the first
+   *  candidate if there is no affinity
+   */
+  private Register getPreference(Node n, ArrayList<Register> candidates) {
+    if (!ir.options.REGALLOC_COALESCE_MOVES) return candidates.get(0);
+
+    HashMap<Register, Integer> map = new HashMap<Register, Integer>();
+    CoalesceGraph graph = ir.stackManager.getPreferences().getGraph();
+    for (CompoundInterval ci : n.members) {
+      CoalesceGraph.Node node = graph.findNode(ci.getRegister());
+      if (node == null) continue;
+      for (Enumeration<GraphEdge> in = node.inEdges(); in.hasMoreElements();) {
+        CoalesceGraph.Edge edge = (CoalesceGraph.Edge) in.nextElement();
+        addPreference(map, ((CoalesceGraph.Node) edge.from()).getRegister(), edge.getWeight(), candidates);
+      }
+      for (Enumeration<GraphEdge> out = node.outEdges(); out.hasMoreElements();) {
+        CoalesceGraph.Edge edge = (CoalesceGraph.Edge) out.nextElement();
+        addPreference(map, ((CoalesceGraph.Node) edge.to()).getRegister(), edge.getWeight(), candidates);
+      }
+    }
+
+    Register result = candidates.get(0);
+    int weight = -1;
+    for (Map.Entry<Register, Integer> entry : map.entrySet()) {
+      int w = entry.getValue();
+      if (w > weight) {
+        weight = w;
+        result = entry.getKey();
+      }
+    }
+    return result;
+  }
+
+  private void addPreference(HashMap<Register, Integer> map, Register neighbor, int w,
+                             ArrayList<Register> candidates) {
+    if (neighbor.isSymbolic()) {
+      // an affinity with a colored node is an affinity for its register
+      Node m = nodeMap.get(neighbor);
+      neighbor = (m == null) ? null : find(m).color;
+    }
+    if (neighbor != null && candidates.contains(neighbor)) {
+      Integer oldW = map.get(neighbor);
+      map.put(neighbor, (oldW == null) ? w : oldW + w);
+    }
+  }
+
+  /**
+   * Records the coloring in the register allocator state and spills the
+   * intervals that were not colored.
+   */
+  private void assignRegisters() {
+    SpillLocationManager spillManager = new SpillLocationManager(ir);
+    ArrayList<CompoundInterval> spills = new ArrayList<CompoundInterval>(eagerSpills);
+
+    for (Node n : nodes) {
+      if (n.alias != null) continue;
+      if (n.color == null) {
+        spills.addAll(n.members);
+        continue;
+      }
+      for (CompoundInterval ci : n.members) {
+        ci.assign(n.color);
+        updatePhysicalInterval(n.color, ci);
+      }
+    }
+
+    for (CompoundInterval ci : spills) {
+      ci.spill(spillManager, regAllocState);
+      // the location may be reused by any interval that does not
+      // intersect ci
+      spillManager.freeInterval(ci.getSpillInterval());
+    }
+
+    LinearScanState state = ir.MIRInfo.linearScanState;
+    state.active = new ActiveSet(ir, spillManager, null);
+    state.graphColored = true;
+    if (!spills.isEmpty()) {
+      state.spilledSomething = true;
+    }
+  }
+
+  /**
+   * Updates the interval representing the allocations of a physical
+   * register p to include the basic intervals of c.
+   *
+   * @param p a physical register
+   * @param c the compound interval assigned to p
+   */
+  private void updatePhysicalInterval(Register p, CompoundInterval c) {
+    for (BasicInterval b : c) {
+      CompoundInterval physInterval = regAllocState.getInterval(p);
+      if (physInterval == null) {
+        regAllocState.setInterval(p, new CompoundInterval(b, p));
+      } else {
+        CompoundInterval ci = new CompoundInterval(b, p);
+        if (VM.VerifyAssertions) VM._assert(!ci.intersects(physInterval));
+        physInterval.addAll(ci);
+      }
+    }
+  }
+}
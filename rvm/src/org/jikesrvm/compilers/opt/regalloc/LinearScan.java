@@ -18,7 +18,8 @@ import org.jikesrvm.compilers.opt.driver.OptimizationPlanCompositeElement;
 import org.jikesrvm.compilers.opt.driver.OptimizationPlanElement;
 
 /**
- * Main driver for linear scan register allocation.
+ * Main driver for linear scan register allocation. Methods selected by
+ * {@link GraphColoringPhase} are allocated by graph coloring instead.
  */
 public final class LinearScan extends OptimizationPlanCompositeElement {
 
@@ -29,6 +30,7 @@ public final class LinearScan extends OptimizationPlanCompositeElement {
     super("Linear Scan Composite Phase",
           new OptimizationPlanElement[]{new OptimizationPlanAtomicElement(new IntervalAnalysis()),
                                             new OptimizationPlanAtomicElement(new RegisterRestrictionsPhase()),
+                                            new OptimizationPlanAtomicElement(new GraphColoringPhase()),
                                             new OptimizationPlanAtomicElement(new LinearScanPhase()),
                                             new OptimizationPlanAtomicElement(new UpdateGCMaps1()),
                                             new OptimizationPlanAtomicElement(new SpillCode()),
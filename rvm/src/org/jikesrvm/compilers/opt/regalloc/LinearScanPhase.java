@@ -63,6 +63,9 @@ public final class LinearScanPhase extends CompilerPhase {
    */
   @Override
   public void perform(IR ir) {
+    // Nothing to do if the graph coloring allocator took care of the method
+    if (ir.MIRInfo.linearScanState.graphColored) return;
+
     // Create the object that manages spill locations
     spillManager = new SpillLocationManager(ir);
 
@@ -101,7 +104,7 @@ public final class LinearScanPhase extends CompilerPhase {
     return active;
   }
 
-  private SpillCostEstimator determineSpillCostEstimator(IR ir) {
+  static SpillCostEstimator determineSpillCostEstimator(IR ir) {
     SpillCostEstimator spillCost = null;
     switch (ir.options.REGALLOC_SPILL_COST_ESTIMATE) {
       case OptOptions.REGALLOC_SIMPLE_SPILL_COST:
@@ -26,6 +26,11 @@ public final class LinearScanState {
    */
   public boolean spilledSomething = false;
 
+  /**
+   * Were the registers assigned by {@link GraphColoringPhase}?
+   */
+  public boolean graphColored = false;
+
   /**
    * Analysis information used by linear scan.
    */
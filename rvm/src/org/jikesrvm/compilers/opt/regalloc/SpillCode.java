@@ -13,6 +13,7 @@
 package org.jikesrvm.compilers.opt.regalloc;
 
 import java.util.Enumeration;
+import java.util.HashSet;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.classloader.TypeReference;
@@ -116,6 +117,10 @@ final class SpillCode extends CompilerPhase {
    */
   @Override
   public void perform(IR ir) {
+    if (ir.options.PRINT_REGALLOC_SPILLS) {
+      printSpillCount(ir);
+    }
+
     replaceSymbolicRegisters(ir);
 
     // Generate spill code if necessary
@@ -129,6 +134,26 @@ final class SpillCode extends CompilerPhase {
     }
   }
 
+  /**
+   *  Prints how many of the symbolic registers were spilled by the
+   *  register allocator.
+   *
+   *  @param ir the IR to process
+   */
+  private static void printSpillCount(IR ir) {
+    LinearScanState state = ir.MIRInfo.linearScanState;
+    RegisterAllocatorState regAllocState = ir.MIRInfo.regAllocState;
+    HashSet<CompoundInterval> seen = new HashSet<CompoundInterval>();
+    int spilled = 0;
+    for (BasicInterval b : state.intervals) {
+      CompoundInterval ci = ((MappedBasicInterval) b).container;
+      if (ci.getRegister().isPhysical() || !seen.add(ci)) continue;
+      if (ci.isSpilled(regAllocState)) spilled++;
+    }
+    String allocator = state.graphColored ? "graph coloring" : "linear scan";
+    System.out.println("Spilled " + spilled + " of " + seen.size() + " intervals (" + allocator + ") in " + ir.method);
+  }
+
   /**
    *  Iterates over the IR and replace each symbolic register with its
    *  allocated physical register.
@@ -350,6 +350,12 @@ public final class OptCompiledMethod extends CompiledMethod {
   private boolean volatilesSaved;
   /** is the current method executing with instrumentation */
   private boolean instrumented;
+  /**
+   * has a dependency on the class hierarchy been recorded for this method?
+   * Its id then stays in the invalidation database even after its code is
+   * reclaimed, so the id must not be reused.
+   */
+  private boolean classLoadingDependencies;
 
   public int getUnsignedNonVolatileOffset() {
     return nonvolatileOffset;
@@ -379,6 +385,10 @@ public final class OptCompiledMethod extends CompiledMethod {
     return instrumented;
   }
 
+  public boolean hasClassLoadingDependencies() {
+    return classLoadingDependencies;
+  }
+
   public int getFrameFixedSize() {
     return stackFrameFixedSize;
   }
@@ -416,6 +426,10 @@ public final class OptCompiledMethod extends CompiledMethod {
     instrumented = _instrumented;
   }
 
+  public void setClassLoadingDependencies() {
+    classLoadingDependencies = true;
+  }
+
   public void setFrameFixedSize(int x) {
     if (VM.VerifyAssertions) VM._assert(x >= 0 && x < 0xFFFF);
     stackFrameFixedSize = (char) x;
@@ -0,0 +1,627 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.opt.ssa;
+
+import static org.jikesrvm.compilers.opt.ir.Operators.ARRAYLENGTH_opcode;
+import static org.jikesrvm.compilers.opt.ir.Operators.BOUNDS_CHECK_opcode;
+import static org.jikesrvm.compilers.opt.ir.Operators.GUARD_MOVE;
+import static org.jikesrvm.compilers.opt.ir.Operators.INT_ADD_opcode;
+import static org.jikesrvm.compilers.opt.ir.Operators.INT_IFCMP;
+import static org.jikesrvm.compilers.opt.ir.Operators.INT_MOVE_opcode;
+import static org.jikesrvm.compilers.opt.ir.Operators.INT_SUB_opcode;
+import static org.jikesrvm.compilers.opt.ir.Operators.NEWARRAY_UNRESOLVED_opcode;
+import static org.jikesrvm.compilers.opt.ir.Operators.NEWARRAY_opcode;
+import static org.jikesrvm.compilers.opt.ir.Operators.PHI_opcode;
+import static org.jikesrvm.compilers.opt.ir.Operators.PI_opcode;
+import static org.jikesrvm.compilers.opt.ir.Operators.REF_MOVE_opcode;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.jikesrvm.compilers.opt.DefUse;
+import org.jikesrvm.compilers.opt.OptOptions;
+import org.jikesrvm.compilers.opt.controlflow.DominanceFrontier;
+import org.jikesrvm.compilers.opt.controlflow.DominatorsPhase;
+import org.jikesrvm.compilers.opt.driver.CompilerPhase;
+import org.jikesrvm.compilers.opt.driver.OptimizationPlanAtomicElement;
+import org.jikesrvm.compilers.opt.driver.OptimizationPlanCompositeElement;
+import org.jikesrvm.compilers.opt.driver.OptimizationPlanElement;
+import org.jikesrvm.compilers.opt.ir.Binary;
+import org.jikesrvm.compilers.opt.ir.BoundsCheck;
+import org.jikesrvm.compilers.opt.ir.GuardedUnary;
+import org.jikesrvm.compilers.opt.ir.IR;
+import org.jikesrvm.compilers.opt.ir.IfCmp;
+import org.jikesrvm.compilers.opt.ir.Instruction;
+import org.jikesrvm.compilers.opt.ir.Move;
+import org.jikesrvm.compilers.opt.ir.NewArray;
+import org.jikesrvm.compilers.opt.ir.Phi;
+import org.jikesrvm.compilers.opt.ir.Register;
+import org.jikesrvm.compilers.opt.ir.operand.ConditionOperand;
+import org.jikesrvm.compilers.opt.ir.operand.Operand;
+import org.jikesrvm.compilers.opt.ir.operand.RegisterOperand;
+
+/**
+ * Array bounds check elimination on demand (ABCD), after Bodik, Gupta
+ * and Sarkar, "ABCD: Eliminating Array Bounds Checks on Demand",
+ * PLDI 2000.
+ * <p>
+ * PI nodes are inserted to name the facts established by conditional
+ * branches and bounds checks, and the IR is put in SSA form.  Two
+ * inequality graphs are then built over the integer SSA variables,
+ * constants and array lengths: an edge <code>u -w-&gt; v</code> in the
+ * upper bound graph records that <code>v &lt;= u + w</code>, and the
+ * lower bound graph records the same relation over the negated values.
+ * A bounds check <code>a[i]</code> is redundant if
+ * <code>i - a.length &lt;= -1</code> can be proven in the upper bound
+ * graph and <code>0 - i &lt;= 0</code> in the lower bound graph.  Each
+ * proof is a demand-driven search backwards from <code>i</code> in which
+ * PHI nodes need all of their operands proven, other vertices need any
+ * one of them, and a cycle back to an active PHI succeeds only if going
+ * around it does not strengthen the bound being proven.
+ * <p>
+ * Unlike the original formulation, the graph edges contributed by
+ * <code>INT_ADD</code> and <code>INT_SUB</code> with a constant are only
+ * followed once a nested query has shown that the operation cannot
+ * overflow.
+ */
+public final class ABCD extends OptimizationPlanCompositeElement {
+
+  @Override
+  public boolean shouldPerform(OptOptions options) {
+    return options.SSA_ABCD;
+  }
+
+  /**
+   * Build this phase as a composite of others.
+   */
+  public ABCD() {
+    super("Array Bounds Check Elimination", new OptimizationPlanElement[]{
+        // 1. Name the facts established by branches and bounds checks
+        new OptimizationPlanAtomicElement(new InsertPiNodes()),
+        // 2. Require SSA form
+        new OptimizationPlanAtomicElement(new DominatorsPhase(true)),
+        new OptimizationPlanAtomicElement(new DominanceFrontier()),
+        new OptimizationPlanAtomicElement(new EnsureSSA()),
+        // 3. Do the optimization
+        new OptimizationPlanAtomicElement(new ABCDTransform()),
+        // 4. Turn the PI nodes back into moves and leave SSA form
+        new OptimizationPlanAtomicElement(new RemovePiNodes()),
+        new OptimizationPlanAtomicElement(new LeaveSSA())});
+  }
+
+  private static final class InsertPiNodes extends CompilerPhase {
+
+    @Override
+    public String getName() {
+      return "ABCD Insert PI Nodes";
+    }
+
+    @Override
+    public CompilerPhase newExecution(IR ir) {
+      return this;
+    }
+
+    @Override
+    public void perform(IR ir) {
+      new PiNodes(true).perform(ir);
+    }
+  }
+
+  private static final class EnsureSSA extends CompilerPhase {
+
+    @Override
+    public String getName() {
+      return "ABCD Ensure SSA";
+    }
+
+    @Override
+    public CompilerPhase newExecution(IR ir) {
+      return this;
+    }
+
+    @Override
+    public void perform(IR ir) {
+      ir.desiredSSAOptions = new SSAOptions();
+      new EnterSSA().perform(ir);
+    }
+  }
+
+  private static final class RemovePiNodes extends CompilerPhase {
+
+    @Override
+    public String getName() {
+      return "ABCD Remove PI Nodes";
+    }
+
+    @Override
+    public CompilerPhase newExecution(IR ir) {
+      return this;
+    }
+
+    @Override
+    public void perform(IR ir) {
+      PiNodes.cleanUp(ir);
+    }
+  }
+
+  private static final class ABCDTransform extends CompilerPhase {
+
+    /** Number of bounds checks seen by ABCD in all compilations */
+    private static int totalChecks;
+    /** Number of bounds checks removed by ABCD in all compilations */
+    private static int totalRemoved;
+
+    @Override
+    public String getName() {
+      return "ABCD Transform";
+    }
+
+    /**
+     * Return this instance of this phase. This phase contains
+     * no per-compilation instance fields.
+     * @param ir not used
+     * @return this
+     */
+    @Override
+    public CompilerPhase newExecution(IR ir) {
+      return this;
+    }
+
+    @Override
+    public void perform(IR ir) {
+      DefUse.computeDU(ir);
+      DefUse.recomputeSSA(ir);
+
+      InequalityGraphs graphs = new InequalityGraphs();
+      ArrayList<Instruction> checks = new ArrayList<Instruction>();
+      for (Enumeration<Instruction> e = ir.forwardInstrEnumerator(); e.hasMoreElements();) {
+        Instruction s = e.nextElement();
+        if (s.getOpcode() == BOUNDS_CHECK_opcode) {
+          checks.add(s);
+        } else {
+          graphs.addConstraints(s);
+        }
+      }
+
+      // Decide everything before changing anything: the PI nodes of a
+      // removed check still refer to its guard for their constraints.
+      ArrayList<Instruction> redundant = new ArrayList<Instruction>();
+      for (Instruction s : checks) {
+        Object length = graphs.lengthOf(BoundsCheck.getRef(s));
+        Object index = vertexFor(BoundsCheck.getIndex(s));
+        if (length == null || index == null) continue;
+        Prover prover = new Prover(graphs);
+        if (prover.demandProve(graphs.upper, length, index, -1) &&
+            prover.demandProve(graphs.lower, ZERO, index, 0)) {
+          redundant.add(s);
+        }
+      }
+      for (Instruction s : redundant) {
+        Move.mutate(s, GUARD_MOVE, BoundsCheck.getClearGuardResult(s), BoundsCheck.getClearGuard(s));
+      }
+
+      recordStatistics(ir, checks.size(), redundant.size());
+    }
+
+    /**
+     * Update the running totals and report them if requested.
+     *
+     * @param ir the IR that was optimized
+     * @param checks number of bounds checks in the IR
+     * @param removed number of bounds checks removed from the IR
+     */
+    private static synchronized void recordStatistics(IR ir, int checks, int removed) {
+      totalChecks += checks;
+      totalRemoved += removed;
+      if (ir.options.PRINT_ABCD && checks > 0) {
+        System.out.println("ABCD removed " + removed + " of " + checks + " bounds checks in " + ir.method +
+                           " (" + totalRemoved + " of " + totalChecks + " in total)");
+      }
+    }
+  }
+
+  /**
+   * @param op an operand
+   * @return the vertex for an integer operand: the register for an SSA
+   *  variable, a {@link Long} for a constant, otherwise {@code null}
+   */
+  private static Object vertexFor(Operand op) {
+    if (op.isIntConstant()) {
+      return Long.valueOf(op.asIntConstant().value);
+    }
+    if (op.isRegister()) {
+      Register r = op.asRegister().getRegister();
+      if (r.isInteger() && r.isSSA()) {
+        return r;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param op the result operand of an instruction
+   * @return the register defined by op if it is an integer SSA
+   *  variable, otherwise {@code null}
+   */
+  private static Register ssaResult(Operand op) {
+    if (op instanceof RegisterOperand) {
+      Register r = op.asRegister().getRegister();
+      if (r.isInteger() && r.isSSA()) {
+        return r;
+      }
+    }
+    return null;
+  }
+
+  /** The vertex for the constant zero */
+  private static final Long ZERO = Long.valueOf(0);
+
+  /** Marks an edge that is valid without any side condition */
+  private static final long NO_BOUND = Long.MIN_VALUE;
+
+  /**
+   * An edge of an inequality graph: <code>target &lt;= source + weight</code>
+   * in the (possibly negated) values of the graph.
+   */
+  private static final class Edge {
+    final Object source;
+    final long weight;
+    /**
+     * The edge is only valid if <code>source &lt;= bound</code> (when
+     * {@link #boundIsUpper}) or <code>source &gt;= bound</code> (otherwise),
+     * or always if the bound is {@link #NO_BOUND}.
+     */
+    final long bound;
+    final boolean boundIsUpper;
+
+    Edge(Object source, long weight, long bound, boolean boundIsUpper) {
+      this.source = source;
+      this.weight = weight;
+      this.bound = bound;
+      this.boundIsUpper = boundIsUpper;
+    }
+  }
+
+  /**
+   * The inequality graph for either upper or lower bounds.
+   */
+  private static final class InequalityGraph {
+    /** Are the values of the vertices negated (the lower bound graph)? */
+    final boolean negated;
+    /** Incoming edges of each vertex */
+    final HashMap<Object, ArrayList<Edge>> inEdges = new HashMap<Object, ArrayList<Edge>>();
+    /** Vertices defined by PHI nodes */
+    final HashSet<Object> phis = new HashSet<Object>();
+
+    InequalityGraph(boolean negated) {
+      this.negated = negated;
+    }
+
+    void addEdge(Object source, Object target, long weight) {
+      addEdge(new Edge(source, weight, NO_BOUND, false), target);
+    }
+
+    void addEdge(Edge e, Object target) {
+      ArrayList<Edge> edges = inEdges.get(target);
+      if (edges == null) {
+        edges = new ArrayList<Edge>(2);
+        inEdges.put(target, edges);
+      }
+      edges.add(e);
+    }
+
+    long valueOf(Long constant) {
+      return negated ? -constant.longValue() : constant.longValue();
+    }
+  }
+
+  /**
+   * The upper and lower bound graphs of one method, built from the
+   * instructions of its IR.
+   */
+  private static final class InequalityGraphs {
+    final InequalityGraph upper = new InequalityGraph(false);
+    final InequalityGraph lower = new InequalityGraph(true);
+    /** Length vertex of each array */
+    private final HashMap<Register, ArrayLength> lengths = new HashMap<Register, ArrayLength>();
+
+    /**
+     * Find or create the vertex for the length of an array.  A new
+     * vertex is bounded by 0 and Integer.MAX_VALUE.
+     *
+     * @param ref an operand holding an array
+     * @return the vertex for the length of the array, or {@code null} if
+     *  it is not an SSA variable
+     */
+    Object lengthOf(Operand ref) {
+      if (!ref.isRegister()) return null;
+      Register r = ref.asRegister().getRegister();
+      if (!r.isSSA()) return null;
+      ArrayLength length = lengths.get(r);
+      if (length == null) {
+        length = new ArrayLength(r);
+        lengths.put(r, length);
+        upper.addEdge(Long.valueOf(Integer.MAX_VALUE), length, 0);
+        lower.addEdge(ZERO, length, 0);
+      }
+      return length;
+    }
+
+    /**
+     * Add the constraints established by an instruction.
+     *
+     * @param s the instruction
+     */
+    void addConstraints(Instruction s) {
+      switch (s.getOpcode()) {
+        case INT_MOVE_opcode: {
+          Register result = ssaResult(Move.getResult(s));
+          Object val = vertexFor(Move.getVal(s));
+          if (result != null && val != null) {
+            upper.addEdge(val, result, 0);
+            lower.addEdge(val, result, 0);
+          }
+          break;
+        }
+        case INT_ADD_opcode:
+        case INT_SUB_opcode: {
+          Register result = ssaResult(Binary.getResult(s));
+          if (result == null) break;
+          Operand val1 = Binary.getVal1(s);
+          Operand val2 = Binary.getVal2(s);
+          Object source;
+          long constant;
+          if (val2.isIntConstant()) {
+            source = vertexFor(val1);
+            constant = val2.asIntConstant().value;
+            if (s.getOpcode() == INT_SUB_opcode) constant = -constant;
+          } else if (val1.isIntConstant() && s.getOpcode() == INT_ADD_opcode) {
+            source = vertexFor(val2);
+            constant = val1.asIntConstant().value;
+          } else {
+            break;
+          }
+          if (!(source instanceof Register) || constant < Integer.MIN_VALUE || constant > Integer.MAX_VALUE) break;
+          // result <= source + constant unless source + constant underflows,
+          // result >= source + constant unless source + constant overflows
+          upper.addEdge(new Edge(source, constant, constant < 0 ? Integer.MIN_VALUE - constant : NO_BOUND, false),
+                        result);
+          lower.addEdge(new Edge(source, -constant, constant > 0 ? Integer.MAX_VALUE - constant : NO_BOUND, true),
+                        result);
+          break;
+        }
+        case PHI_opcode: {
+          Register result = ssaResult(Phi.getResult(s));
+          if (result == null) break;
+          int n = Phi.getNumberOfValues(s);
+          Object[] sources = new Object[n];
+          for (int i = 0; i < n; i++) {
+            sources[i] = vertexFor(Phi.getValue(s, i));
+            // a PHI is only as good as its weakest operand
+            if (sources[i] == null) return;
+          }
+          for (Object source : sources) {
+            upper.addEdge(source, result, 0);
+            lower.addEdge(source, result, 0);
+          }
+          upper.phis.add(result);
+          lower.phis.add(result);
+          break;
+        }
+        case PI_opcode:
+          addPiConstraints(s);
+          break;
+        case ARRAYLENGTH_opcode: {
+          Register result = ssaResult(GuardedUnary.getResult(s));
+          Object length = lengthOf(GuardedUnary.getVal(s));
+          if (result != null && length != null) {
+            addEquality(result, length);
+          }
+          break;
+        }
+        case NEWARRAY_opcode:
+        case NEWARRAY_UNRESOLVED_opcode: {
+          Object length = lengthOf(NewArray.getResult(s));
+          Object size = vertexFor(NewArray.getSize(s));
+          if (length != null && size != null) {
+            addEquality(size, length);
+          }
+          break;
+        }
+        case REF_MOVE_opcode: {
+          Object length = lengthOf(Move.getResult(s));
+          Object source = lengthOf(Move.getVal(s));
+          if (length != null && source != null) {
+            addEquality(source, length);
+          }
+          break;
+        }
+        default:
+          break;
+      }
+    }
+
+    /**
+     * Add the constraints named by a PI node: it is a copy of its
+     * operand, and it is also bounded by the condition that was tested
+     * by its generating conditional branch or bounds check.
+     *
+     * @param s the PI node
+     */
+    private void addPiConstraints(Instruction s) {
+      Register result = ssaResult(GuardedUnary.getResult(s));
+      Object val = vertexFor(GuardedUnary.getVal(s));
+      if (result == null || !(val instanceof Register)) return;
+      upper.addEdge(val, result, 0);
+      lower.addEdge(val, result, 0);
+
+      Operand guard = GuardedUnary.getGuard(s);
+      if (!guard.isRegister() || !guard.asRegister().getRegister().isSSA()) return;
+      Instruction generator = PiNodes.getGenerator(s);
+      if (PiNodes.isBoundsCheckPi(s)) {
+        if (generator.getOpcode() != BOUNDS_CHECK_opcode || vertexFor(BoundsCheck.getIndex(generator)) != val) return;
+        // 0 <= result <= length - 1
+        Object length = lengthOf(BoundsCheck.getRef(generator));
+        if (length != null) {
+          upper.addEdge(length, result, -1);
+        }
+        lower.addEdge(ZERO, result, 0);
+      } else if (PiNodes.isTakenPi(s) || PiNodes.isNotTakenPi(s)) {
+        if (generator.operator() != INT_IFCMP) return;
+        ConditionOperand cond = (ConditionOperand) IfCmp.getCond(generator).copy();
+        if (PiNodes.isNotTakenPi(s)) {
+          cond.flipCode();
+        }
+        Object val1 = vertexFor(IfCmp.getVal1(generator));
+        Object val2 = vertexFor(IfCmp.getVal2(generator));
+        Object other;
+        if (val1 == val && val2 != val) {
+          other = val2;
+        } else if (val2 == val && val1 != val) {
+          other = val1;
+          cond.flipOperands();
+        } else {
+          return;
+        }
+        if (other == null) return;
+        // result cond other
+        if (cond.isLESS()) {
+          upper.addEdge(other, result, -1);
+        } else if (cond.isLESS_EQUAL()) {
+          upper.addEdge(other, result, 0);
+        } else if (cond.isGREATER()) {
+          lower.addEdge(other, result, -1);
+        } else if (cond.isGREATER_EQUAL()) {
+          lower.addEdge(other, result, 0);
+        } else if (cond.isEQUAL()) {
+          upper.addEdge(other, result, 0);
+          lower.addEdge(other, result, 0);
+        }
+      }
+    }
+
+    /**
+     * Record that two vertices always have the same value.
+     *
+     * @param a a vertex
+     * @param b another vertex
+     */
+    private void addEquality(Object a, Object b) {
+      upper.addEdge(a, b, 0);
+      upper.addEdge(b, a, 0);
+      lower.addEdge(a, b, 0);
+      lower.addEdge(b, a, 0);
+    }
+  }
+
+  /**
+   * The vertex for the length of an array held in an SSA variable.
+   */
+  private static final class ArrayLength {
+    final Register array;
+
+    ArrayLength(Register array) {
+      this.array = array;
+    }
+
+    @Override
+    public String toString() {
+      return "length(" + array + ")";
+    }
+  }
+
+  /**
+   * Demand-driven prover for the queries made to eliminate one bounds
+   * check.
+   */
+  private static final class Prover {
+    /** Results of a proof, ordered so that min is AND and max is OR */
+    private static final int FALSE = 0;
+    private static final int REDUCED = 1;
+    private static final int TRUE = 2;
+
+    /** The most vertices visited on behalf of one bounds check */
+    private static final int MAX_STEPS = 1000;
+
+    private final InequalityGraphs graphs;
+    private int steps;
+
+    Prover(InequalityGraphs graphs) {
+      this.graphs = graphs;
+    }
+
+    /**
+     * @param g the graph to search
+     * @param a the vertex to prove relative to
+     * @param v the vertex to bound
+     * @param c the bound
+     * @return whether <code>v - a &lt;= c</code> holds in the values of g
+     */
+    boolean demandProve(InequalityGraph g, Object a, Object v, long c) {
+      return prove(g, a, v, c, new HashMap<Object, Long>(), new HashMap<Object, Long>(),
+                   new HashMap<Object, Long>()) != FALSE;
+    }
+
+    private int prove(InequalityGraph g, Object a, Object v, long c, HashMap<Object, Long> active,
+                      HashMap<Object, Long> proven, HashMap<Object, Long> refuted) {
+      if (v == a) {
+        return c >= 0 ? TRUE : FALSE;
+      }
+      if (v instanceof Long && a instanceof Long) {
+        return g.valueOf((Long) v) - g.valueOf((Long) a) <= c ? TRUE : FALSE;
+      }
+      Long known = proven.get(v);
+      if (known != null && known <= c) return TRUE;
+      known = refuted.get(v);
+      if (known != null && known >= c) return FALSE;
+      Long activeBound = active.get(v);
+      if (activeBound != null) {
+        // Only a cycle through a PHI that does not amplify the bound can
+        // be discounted; the PHI's other operands must bound it.
+        return g.phis.contains(v) && c >= activeBound ? REDUCED : FALSE;
+      }
+      ArrayList<Edge> edges = g.inEdges.get(v);
+      if (edges == null || ++steps > MAX_STEPS) return FALSE;
+
+      active.put(v, c);
+      boolean isPhi = g.phis.contains(v);
+      int result = isPhi ? TRUE : FALSE;
+      for (Edge e : edges) {
+        int r = prove(g, a, e.source, c - e.weight, active, proven, refuted);
+        if (r != FALSE && e.bound != NO_BOUND) {
+          boolean holds = e.boundIsUpper ?
+                          demandProve(graphs.upper, Long.valueOf(e.bound), e.source, 0) :
+                          demandProve(graphs.lower, Long.valueOf(e.bound), e.source, 0);
+          if (!holds) r = FALSE;
+        }
+        if (isPhi) {
+          result = Math.min(result, r);
+          if (result == FALSE) break;
+        } else {
+          result = Math.max(result, r);
+          if (result == TRUE) break;
+        }
+      }
+      active.remove(v);
+
+      if (result == TRUE) {
+        proven.put(v, c);
+      } else if (result == FALSE) {
+        refuted.put(v, c);
+      }
+      return result;
+    }
+  }
+}
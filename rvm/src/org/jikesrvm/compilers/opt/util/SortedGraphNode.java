@@ -92,7 +92,15 @@ public abstract class SortedGraphNode extends SpaceEffGraphNode {
   //  public int isForwardSorted(SortedGraphNode node) {
   //    return forwardSortNumber - node.forwardSortNumber;
   //  }
-  public static int getNewSortMarker(SortedGraphNode anchor) {
+  /**
+   * Returns a sort marker that is distinct from the markers handed out
+   * before. Synchronized because graphs of several compilations may be
+   * sorted at the same time.
+   *
+   * @param anchor a node of the graph about to be sorted
+   * @return the new marker
+   */
+  public static synchronized int getNewSortMarker(SortedGraphNode anchor) {
     if (currentSortMarker == Integer.MAX_VALUE) {
       SortedGraphNode current;
       for (current = anchor; current != null; current = current.sortedPrev) {
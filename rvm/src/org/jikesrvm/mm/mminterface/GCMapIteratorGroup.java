@@ -109,6 +109,31 @@ public final class GCMapIteratorGroup {
     jniIterator.newStackWalk(thread);
   }
 
+  /**
+   * Get the current location of a register.  Used when a stack is scanned
+   * in segments, to pass the register locations found at the end of one
+   * segment on to the walk of the next one.
+   *
+   * @param register the number of the register
+   * @return the address at which the register is saved
+   */
+  @Uninterruptible
+  public Address getRegisterLocation(int register) {
+    return registerLocations.get(register);
+  }
+
+  /**
+   * Set the current location of a register.
+   *
+   * @param register the number of the register
+   * @param location the address at which the register is saved
+   * @see #getRegisterLocation(int)
+   */
+  @Uninterruptible
+  public void setRegisterLocation(int register, Address location) {
+    registerLocations.set(register, location);
+  }
+
   /**
    * Select iterator for scanning for object references in a stackframe.
    * Called by collector threads while scanning a threads stack.
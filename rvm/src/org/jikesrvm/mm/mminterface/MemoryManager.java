@@ -18,6 +18,7 @@ import static org.jikesrvm.HeapLayoutConstants.BOOT_IMAGE_DATA_SIZE;
 import static org.jikesrvm.HeapLayoutConstants.BOOT_IMAGE_DATA_START;
 import static org.jikesrvm.objectmodel.TIBLayoutConstants.IMT_METHOD_SLOTS;
 import static org.jikesrvm.runtime.ExitStatus.EXIT_STATUS_BOGUS_COMMAND_LINE_ARG;
+import static org.jikesrvm.runtime.SysCall.sysCall;
 import static org.mmtk.utility.Constants.MIN_ALIGNMENT;
 import static org.mmtk.utility.heap.layout.HeapParameters.MAX_SPACES;
 
@@ -36,6 +37,7 @@ import org.jikesrvm.classloader.TypeReference;
 import org.jikesrvm.compilers.common.CodeArray;
 import org.jikesrvm.mm.mmtk.FinalizableProcessor;
 import org.jikesrvm.mm.mmtk.ReferenceProcessor;
+import org.jikesrvm.mm.mmtk.ScanThread;
 import org.jikesrvm.mm.mmtk.SynchronizedCounter;
 import org.jikesrvm.objectmodel.BootImageInterface;
 import org.jikesrvm.objectmodel.IMT;
@@ -48,9 +50,11 @@ import org.jikesrvm.options.OptionSet;
 import org.jikesrvm.runtime.BootRecord;
 import org.jikesrvm.runtime.Callbacks;
 import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.scheduler.RVMThread;
 import org.mmtk.plan.CollectorContext;
 import org.mmtk.plan.Plan;
 import org.mmtk.policy.Space;
+import org.mmtk.utility.Conversions;
 import org.mmtk.utility.Memory;
 import org.mmtk.utility.alloc.Allocator;
 import org.mmtk.utility.gcspy.GCspy;
@@ -151,6 +155,14 @@ public final class MemoryManager {
       RVMType.JavaLangRefReferenceReferenceField.makeTraced();
     }
 
+    if (Options.useHandshakeStackScans.getValue()) {
+      ScanThread.createHandshakeScanners(sysCall.sysNumProcessors());
+    }
+
+    if (Options.stackSegmentFrames.getValue() > 0) {
+      ScanThread.createStackSegments();
+    }
+
     if (VM.BuildWithGCSpy) {
       // start the GCSpy interpreter server
       MemoryManager.startGCspyServer();
@@ -173,6 +185,31 @@ public final class MemoryManager {
     return collectionEnabled;
   }
 
+  /**
+   * Called by a thread that runs Java code when it is about to stop for a
+   * collection, with its context saved.  The stack of the thread cannot
+   * change until the collection is over, so the thread may scan it now
+   * rather than leave it to the collectors.
+   */
+  public static void stoppingForCollection() {
+    if (Options.useHandshakeStackScans.getValue()) {
+      ScanThread.recordOwnStackRoots();
+    }
+  }
+
+  /**
+   * Called by the collector thread that stops the world for a thread that
+   * it found blocked in native code, while it waits for the threads that
+   * run Java code to stop.
+   *
+   * @param thread the blocked thread
+   */
+  public static void blockedForCollection(RVMThread thread) {
+    if (Options.useHandshakeStackScans.getValue()) {
+      ScanThread.recordBlockedStackRoots(thread);
+    }
+  }
+
   /**
    * Notify the MM that the host VM is now fully booted.
    */
@@ -304,6 +341,24 @@ public final class MemoryManager {
     return Space.isMappedAddress(address);
   }
 
+  /**
+   * Checks if an address may be in compiled code, that is in the code of
+   * the boot image or in one of the spaces that code is allocated in.
+   *
+   * @param address the address to be checked
+   * @return <code>true</code> if the address may refer to compiled code
+   */
+  @Inline
+  public static boolean addressInCodeSpace(Address address) {
+    if (address.isZero()) return false;
+    if (address.GE(BOOT_IMAGE_CODE_START) && address.LT(BOOT_IMAGE_CODE_START.plus(BOOT_IMAGE_CODE_SIZE))) {
+      return true;
+    }
+    if (!Plan.USE_CODE_SPACE) return Space.isMappedAddress(address);
+    return Space.isInSpace(Plan.SMALL_CODE, address) || Space.isInSpace(Plan.LARGE_CODE, address) ||
+        Space.isInSpace(Plan.SMALL_HOT_CODE, address);
+  }
+
   /**
    * Checks if a reference refers to an object in an in-use area of
    * memory.
@@ -666,6 +721,18 @@ public final class MemoryManager {
     return (CodeArray) allocateArray(numInstrs, width, headerSize, tib, allocator, align, offset, Plan.DEFAULT_SITE);
   }
 
+  /**
+   * @return the number of bytes reserved by the code spaces, or 0 if code
+   *  is not allocated in dedicated spaces
+   */
+  @Interruptible
+  public static long codeSpaceReservedBytes() {
+    if (!Plan.USE_CODE_SPACE) return 0;
+    long pages = (long) Plan.smallCodeSpace.reservedPages() + Plan.largeCodeSpace.reservedPages() +
+        Plan.smallHotCodeSpace.reservedPages();
+    return Conversions.pagesToBytes(pages).toLong();
+  }
+
   /**
    * Allocate a stack
    * @param bytes the number of bytes to allocate. Must be greater than
@@ -12,8 +12,13 @@
  */
 package org.jikesrvm.mm.mminterface;
 
+import static org.jikesrvm.runtime.SysCall.sysCall;
+import static org.jikesrvm.runtime.UnboxedSizeConstants.LOG_BYTES_IN_ADDRESS;
+
+import org.jikesrvm.runtime.Memory;
 import org.mmtk.plan.CollectorContext;
 import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.unboxed.Address;
 
 /**
  * RVMThread must extend this class to associate appropriate context with processor.
@@ -29,5 +34,138 @@ public abstract class ThreadContext extends Selected.Mutator {
   public final boolean isCollectorThread() {
     return collectorContext != null;
   }
+
+  /** Number of pairs for which room is made when stack roots are first recorded */
+  private static final int INITIAL_STACK_ROOTS = 256;
+
+  /**
+   * The roots found by a scan of the stack of the thread ahead of the
+   * collection that needs them, as pairs of words: the location of a
+   * reference and zero, or the location of a return address and the code
+   * that it points into.  Allocated outside of the heap, since the thread
+   * may not allocate once a collection has been requested.
+   */
+  private Address stackRoots = Address.zero();
+  /** Number of pairs that {@link #stackRoots} has room for */
+  private int stackRootsCapacity;
+  /** Number of pairs recorded */
+  private int stackRootsLength;
+  /** Did the recording scan stop at the return barrier, short of the bottom of the stack? */
+  private boolean stackRootsShort;
+  /** Are the recorded roots complete, so that the stack need not be scanned again? */
+  private boolean stackRootsValid;
+  /** Did the thread run out of memory while it recorded the roots? */
+  private boolean stackRootsOverflow;
+
+  /**
+   * Starts recording the roots of the stack of this thread.
+   *
+   * @param shortScan whether the scan stops at the return barrier, so that
+   *  the roots are only sufficient for a collection that accepts a short
+   *  stack scan
+   */
+  public final void beginStackRoots(boolean shortScan) {
+    stackRootsValid = false;
+    stackRootsOverflow = false;
+    stackRootsLength = 0;
+    stackRootsShort = shortScan;
+  }
+
+  /**
+   * Records a root of the stack of this thread.
+   *
+   * @param location the location of a reference, or of a return address
+   * @param code the code that the return address points into, or zero for
+   *  a reference
+   */
+  public final void addStackRoot(Address location, Address code) {
+    if (stackRootsLength == stackRootsCapacity) {
+      if (stackRootsOverflow || !growStackRoots()) {
+        stackRootsOverflow = true;
+        return;
+      }
+    }
+    Address pair = stackRoots.plus(stackRootsLength << (LOG_BYTES_IN_ADDRESS + 1));
+    pair.store(location);
+    pair.plus(1 << LOG_BYTES_IN_ADDRESS).store(code);
+    stackRootsLength++;
+  }
+
+  /**
+   * Doubles the room for stack roots.
+   *
+   * @return {@code false} if there was not enough memory
+   */
+  private boolean growStackRoots() {
+    int capacity = stackRootsCapacity == 0 ? INITIAL_STACK_ROOTS : stackRootsCapacity * 2;
+    Address roots = sysCall.sysMalloc(capacity << (LOG_BYTES_IN_ADDRESS + 1));
+    if (roots.isZero()) return false;
+    if (!stackRoots.isZero()) {
+      Memory.memcopy(roots, stackRoots, stackRootsLength << (LOG_BYTES_IN_ADDRESS + 1));
+      sysCall.sysFree(stackRoots);
+    }
+    stackRoots = roots;
+    stackRootsCapacity = capacity;
+    return true;
+  }
+
+  /**
+   * Finishes recording the roots of the stack of this thread.
+   */
+  public final void endStackRoots() {
+    stackRootsValid = !stackRootsOverflow;
+  }
+
+  /**
+   * @param shortScan whether only the roots of the frames that changed
+   *  since the last collection are needed
+   * @return whether the roots of the stack of this thread have been
+   *  recorded, for all the frames that the collection needs
+   */
+  public final boolean hasStackRoots(boolean shortScan) {
+    return stackRootsValid && (shortScan || !stackRootsShort);
+  }
+
+  /** @return the number of recorded roots */
+  public final int getStackRootsLength() {
+    return stackRootsLength;
+  }
+
+  /**
+   * @param i the index of a recorded root
+   * @return the location of the root
+   */
+  public final Address getStackRootLocation(int i) {
+    return stackRoots.plus(i << (LOG_BYTES_IN_ADDRESS + 1)).loadAddress();
+  }
+
+  /**
+   * @param i the index of a recorded root
+   * @return the code that the return address at the location of the root
+   *  points into, or zero if the root is a reference
+   */
+  public final Address getStackRootCode(int i) {
+    return stackRoots.plus((i << (LOG_BYTES_IN_ADDRESS + 1)) + (1 << LOG_BYTES_IN_ADDRESS)).loadAddress();
+  }
+
+  /**
+   * Forgets the recorded roots, once they have been used or can no longer
+   * be.
+   */
+  public final void discardStackRoots() {
+    stackRootsValid = false;
+  }
+
+  /**
+   * Frees the memory for recording roots, when the thread terminates.
+   */
+  public final void freeStackRoots() {
+    stackRootsValid = false;
+    if (!stackRoots.isZero()) {
+      sysCall.sysFree(stackRoots);
+      stackRoots = Address.zero();
+      stackRootsCapacity = 0;
+    }
+  }
 }
 
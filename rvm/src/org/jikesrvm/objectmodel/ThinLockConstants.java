@@ -14,7 +14,6 @@ package org.jikesrvm.objectmodel;
 
 import static org.jikesrvm.runtime.UnboxedSizeConstants.BITS_IN_ADDRESS;
 
-import org.jikesrvm.scheduler.RVMThread;
 import org.vmmagic.unboxed.Word;
 
 /**
@@ -26,14 +25,24 @@ import org.vmmagic.unboxed.Word;
  * how the bits available for thin locks are allocated.
  * Either a lock is in fat state, in which case it looks like
  * 1Z..Z where Z..Z is the id of a heavy lock, or it is in
- * thin state in which case it looks like 0I..IC..C where
- * I is the thread id of the thread that owns the lock and
- * C is the recursion count of the lock.
+ * thin state in which case it looks like 0SEEC..CI..I where
+ * S is the status, E the bias epoch, I is the thread id of the thread
+ * that owns the lock and C is the recursion count of the lock.
+ * <p>
+ * The bias epoch is only used by biased lock words: the bias of a lock
+ * word holds only while its epoch is the epoch of the type of the object
+ * (see {@link org.jikesrvm.classloader.RVMType#biasEpoch}), so the biases
+ * of all instances of a type are withdrawn at once by changing the epoch
+ * of the type.  It is zero in the other thin states, and part of the lock
+ * id in the fat state.
  * <pre>
  * aaaaTTTTTTTTTTbbbbb
  * JavaHeader.NUM_THIN_LOCK_BITS = # of T's
  * JavaHeader.THIN_LOCK_SHIFT = # of b's
  * </pre>
+ * The number of thread id bits does not limit the number of threads: a
+ * thread whose slot does not fit them has no thin lock id (see
+ * {@link #TL_NO_THREAD_ID}) and inflates every lock that it acquires.
  */
 public final class ThinLockConstants {
 
@@ -43,22 +52,26 @@ public final class ThinLockConstants {
   // 10 -> fat unbiasable
 
   public static final int TL_NUM_BITS_STAT = 2;
-  public static final int TL_NUM_BITS_TID = RVMThread.LOG_MAX_THREADS;
-  public static final int TL_NUM_BITS_RC = JavaHeader.NUM_THIN_LOCK_BITS - TL_NUM_BITS_TID - TL_NUM_BITS_STAT;
+  public static final int TL_NUM_BITS_TID = 10;
+  public static final int TL_NUM_BITS_EPOCH = 2;
+  public static final int TL_NUM_BITS_RC = JavaHeader.NUM_THIN_LOCK_BITS - TL_NUM_BITS_TID - TL_NUM_BITS_STAT - TL_NUM_BITS_EPOCH;
 
   public static final int TL_THREAD_ID_SHIFT = JavaHeader.THIN_LOCK_SHIFT;
   public static final int TL_LOCK_COUNT_SHIFT = TL_THREAD_ID_SHIFT + TL_NUM_BITS_TID;
-  public static final int TL_STAT_SHIFT = TL_LOCK_COUNT_SHIFT + TL_NUM_BITS_RC;
+  public static final int TL_EPOCH_SHIFT = TL_LOCK_COUNT_SHIFT + TL_NUM_BITS_RC;
+  public static final int TL_STAT_SHIFT = TL_EPOCH_SHIFT + TL_NUM_BITS_EPOCH;
   public static final int TL_LOCK_ID_SHIFT = JavaHeader.THIN_LOCK_SHIFT;
   public static final int TL_DEDICATED_U16_OFFSET = JavaHeader.THIN_LOCK_DEDICATED_U16_OFFSET;
   public static final int TL_DEDICATED_U16_SHIFT = JavaHeader.THIN_LOCK_DEDICATED_U16_SHIFT;
 
   public static final Word TL_LOCK_COUNT_UNIT = Word.fromIntSignExtend(1 << TL_LOCK_COUNT_SHIFT);
+  public static final Word TL_EPOCH_UNIT = Word.fromIntSignExtend(1 << TL_EPOCH_SHIFT);
 
   public static final Word TL_LOCK_COUNT_MASK = Word.fromIntSignExtend(-1).rshl(BITS_IN_ADDRESS - TL_NUM_BITS_RC).lsh(TL_LOCK_COUNT_SHIFT);
   public static final Word TL_THREAD_ID_MASK = Word.fromIntSignExtend(-1).rshl(BITS_IN_ADDRESS - TL_NUM_BITS_TID).lsh(TL_THREAD_ID_SHIFT);
+  public static final Word TL_EPOCH_MASK = Word.fromIntSignExtend(-1).rshl(BITS_IN_ADDRESS - TL_NUM_BITS_EPOCH).lsh(TL_EPOCH_SHIFT);
   public static final Word TL_LOCK_ID_MASK =
-      Word.fromIntSignExtend(-1).rshl(BITS_IN_ADDRESS - (TL_NUM_BITS_RC + TL_NUM_BITS_TID)).lsh(TL_LOCK_ID_SHIFT);
+      Word.fromIntSignExtend(-1).rshl(BITS_IN_ADDRESS - (TL_NUM_BITS_RC + TL_NUM_BITS_EPOCH + TL_NUM_BITS_TID)).lsh(TL_LOCK_ID_SHIFT);
   public static final Word TL_STAT_MASK = Word.fromIntSignExtend(-1).rshl(BITS_IN_ADDRESS - TL_NUM_BITS_TID).lsh(TL_STAT_SHIFT);
   public static final Word TL_UNLOCK_MASK = Word.fromIntSignExtend(-1).rshl(BITS_IN_ADDRESS - JavaHeader
       .NUM_THIN_LOCK_BITS).lsh(JavaHeader.THIN_LOCK_SHIFT).not();
@@ -67,6 +80,17 @@ public final class ThinLockConstants {
   public static final Word TL_STAT_THIN = Word.fromIntSignExtend(1).lsh(TL_STAT_SHIFT);
   public static final Word TL_STAT_FAT = Word.fromIntSignExtend(2).lsh(TL_STAT_SHIFT);
 
+  /** Threads with a slot below this have a thin lock id */
+  public static final int TL_MAX_THREAD_IDS = 1 << TL_NUM_BITS_TID;
+
+  /**
+   * The thin lock id of a thread whose slot does not fit the thread id bits.
+   * A fat status with a non-zero count never occurs in a thin lock word, so
+   * neither the inlined locking fast path nor the unlocking fast path ever
+   * matches this id.
+   */
+  public static final int TL_NO_THREAD_ID = TL_STAT_FAT.or(TL_LOCK_COUNT_UNIT).toInt();
+
   private ThinLockConstants() {
     // prevent instantiation
   }
@@ -17,9 +17,15 @@ import static org.jikesrvm.classloader.BytecodeConstants.JBC_invokespecial;
 import static org.jikesrvm.classloader.BytecodeConstants.JBC_invokestatic;
 import static org.jikesrvm.classloader.BytecodeConstants.JBC_invokevirtual;
 import static org.jikesrvm.osr.OSRConstants.CLEANREFS;
+import static org.jikesrvm.osr.OSRConstants.CLEANSHARED;
 import static org.jikesrvm.osr.OSRConstants.DOUBLE;
 import static org.jikesrvm.osr.OSRConstants.FLOAT;
 import static org.jikesrvm.osr.OSRConstants.GETREFAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDDOUBLEAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDFLOATAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDINTAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDLONGAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDREFAT;
 import static org.jikesrvm.osr.OSRConstants.INT;
 import static org.jikesrvm.osr.OSRConstants.LONG;
 import static org.jikesrvm.osr.OSRConstants.REF;
@@ -32,6 +38,7 @@ import org.jikesrvm.VM;
 import org.jikesrvm.classloader.BytecodeStream;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.compilers.common.CompiledMethods;
+import org.jikesrvm.runtime.Magic;
 import org.jikesrvm.osr.bytecodes.AConstNull;
 import org.jikesrvm.osr.bytecodes.DoubleStore;
 import org.jikesrvm.osr.bytecodes.FloatStore;
@@ -154,6 +161,9 @@ public class ExecutionState {
   private int objnum;
   private int rid;
 
+  /** Is the prologue being generated shared with other states? */
+  private boolean shared;
+
   /**
    * Goes through variable elements and produces specialized
    * prologue using pseudo-bytecode.
@@ -161,12 +171,32 @@ public class ExecutionState {
    * @return the specialized prologue
    */
   public byte[] generatePrologue() {
+    return generatePrologue(false);
+  }
+
+  /**
+   * Produces a prologue that can be shared by all states with the same
+   * shape as this one (see {@link #hasSameShape}).  Instead of loading the
+   * values of this state as constants, the prologue loads the values that
+   * were handed in for the thread running it by
+   * {@link #handinSharedValues}.
+   *
+   * @return the shared prologue
+   */
+  public byte[] generateSharedPrologue() {
+    return generatePrologue(true);
+  }
+
+  private byte[] generatePrologue(boolean shared) {
 
     int size = varElms.size();
 
-    this.objs = new Object[size];
-    this.objnum = 0;
-    this.rid = ObjectHolder.handinRefs(this.objs);
+    this.shared = shared;
+    if (!shared) {
+      this.objs = new Object[size];
+      this.objnum = 0;
+      this.rid = ObjectHolder.handinRefs(this.objs);
+    }
 
     PseudoBytecode head = new Nop();
     PseudoBytecode tail = head;
@@ -206,7 +236,10 @@ public class ExecutionState {
       tail = processElement(var, tail, elmcount);
     }// end of for loop
 
-    if (this.objnum != 0) {
+    if (shared) {
+      tail.next = new InvokeStatic(CLEANSHARED);
+      tail = tail.next;
+    } else if (this.objnum != 0) {
       tail.next = new LoadIntConst(this.rid);
       tail = tail.next;
 
@@ -281,14 +314,96 @@ public class ExecutionState {
     // clean fields
     this.objs = null;
     this.objnum = 0;
+    this.shared = false;
 
     return prologue;
   }// end of method
 
+  /**
+   * Two states have the same shape when a prologue generated by
+   * {@link #generateSharedPrologue} for one of them restores the other one
+   * too: they are at the same bytecode index of the same method, have the
+   * same variables with the same types, the same return addresses and words,
+   * and objects of the same types.  Only states without callers or callees
+   * are considered.
+   *
+   * @param other another state
+   * @return whether the states have the same shape
+   */
+  public boolean hasSameShape(ExecutionState other) {
+    if (meth != other.meth || bcIndex != other.bcIndex) return false;
+    if (callerState != null || other.callerState != null) return false;
+    if (callee_cmid != -1 || other.callee_cmid != -1) return false;
+    if (varElms.size() != other.varElms.size()) return false;
+
+    for (int i = 0, n = varElms.size(); i < n; i++) {
+      VariableElement var = varElms.get(i);
+      VariableElement otherVar = other.varElms.get(i);
+      if (var.isLocal() != otherVar.isLocal() ||
+          var.getNumber() != otherVar.getNumber() ||
+          var.getTypeCode() != otherVar.getTypeCode()) {
+        return false;
+      }
+      switch (var.getTypeCode()) {
+        case RET_ADDR:
+        case WORD:
+          // loaded as constants
+          if (var.getLongBits() != otherVar.getLongBits()) return false;
+          break;
+        case REF:
+          if (var.getObject() == null || otherVar.getObject() == null) {
+            if (var.getObject() != otherVar.getObject()) return false;
+          } else if (Magic.getObjectType(var.getObject()) != Magic.getObjectType(otherVar.getObject())) {
+            return false;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Hands in the values of this state for the prologue of shared specialized
+   * code, which runs on the thread of this state.
+   */
+  public void handinSharedValues() {
+    int size = varElms.size();
+    long[] bits = new long[size];
+    Object[] refs = new Object[size];
+    for (int i = 0; i < size; i++) {
+      VariableElement var = varElms.get(i);
+      switch (var.getTypeCode()) {
+        case INT:
+        case FLOAT:
+          bits[i] = var.getIntBits();
+          break;
+        case LONG:
+        case DOUBLE:
+          bits[i] = var.getLongBits();
+          break;
+        case REF:
+          refs[i] = var.getObject();
+          break;
+        default:
+          break;
+      }
+    }
+    ObjectHolder.handinSharedValues(thread, bits, refs);
+  }
+
   private PseudoBytecode processElement(VariableElement var, PseudoBytecode tail, int i) {
     switch (var.getTypeCode()) {
       case INT: {
-        tail.next = new LoadIntConst(var.getIntBits());
+        if (shared) {
+          tail.next = new LoadIntConst(i);
+          tail = tail.next;
+
+          tail.next = new InvokeStatic(GETSHAREDINTAT);
+        } else {
+          tail.next = new LoadIntConst(var.getIntBits());
+        }
         tail = tail.next;
 
         if (var.isLocal()) {
@@ -298,7 +413,14 @@ public class ExecutionState {
         break;
       }
       case FLOAT: {
-        tail.next = new LoadFloatConst(var.getIntBits());
+        if (shared) {
+          tail.next = new LoadIntConst(i);
+          tail = tail.next;
+
+          tail.next = new InvokeStatic(GETSHAREDFLOATAT);
+        } else {
+          tail.next = new LoadFloatConst(var.getIntBits());
+        }
         tail = tail.next;
 
         if (var.isLocal()) {
@@ -308,7 +430,14 @@ public class ExecutionState {
         break;
       }
       case LONG: {
-        tail.next = new LoadLongConst(var.getLongBits());
+        if (shared) {
+          tail.next = new LoadIntConst(i);
+          tail = tail.next;
+
+          tail.next = new InvokeStatic(GETSHAREDLONGAT);
+        } else {
+          tail.next = new LoadLongConst(var.getLongBits());
+        }
         tail = tail.next;
 
         if (var.isLocal()) {
@@ -318,7 +447,14 @@ public class ExecutionState {
         break;
       }
       case DOUBLE: {
-        tail.next = new LoadDoubleConst(var.getLongBits());
+        if (shared) {
+          tail.next = new LoadIntConst(i);
+          tail = tail.next;
+
+          tail.next = new InvokeStatic(GETSHAREDDOUBLEAT);
+        } else {
+          tail.next = new LoadDoubleConst(var.getLongBits());
+        }
         tail = tail.next;
 
         if (var.isLocal()) {
@@ -338,6 +474,29 @@ public class ExecutionState {
         break;
       }
       case REF: {
+        if (shared) {
+          if (var.getObject() != null) {
+            // the opt compiler will adjust the type of return value to
+            // this type, which is the same in all states sharing the code
+            tail.next = new LoadIntConst(Magic.getObjectType(var.getObject()).getId());
+            tail = tail.next;
+
+            tail.next = new LoadIntConst(i);
+            tail = tail.next;
+
+            tail.next = new InvokeStatic(GETSHAREDREFAT);
+          } else {
+            tail.next = new AConstNull();
+          }
+          tail = tail.next;
+
+          if (var.isLocal()) {
+            tail.next = new RefStore(var.getNumber());
+            tail = tail.next;
+          }
+          break;
+        }
+
         this.objs[i] = var.getObject();
 
         if (this.objs[i] != null) {
@@ -163,6 +163,12 @@ public final class OSRConstants {
   /* special method id for PSEUDO_InvokeStatic, target must be listed here */
   public static final int GETREFAT = 0;  // ObjectHolder.getRefAt
   public static final int CLEANREFS = 1;  // ObjectHolder.cleanRefAt
+  public static final int GETSHAREDINTAT = 2;  // ObjectHolder.getSharedIntAt
+  public static final int GETSHAREDLONGAT = 3;  // ObjectHolder.getSharedLongAt
+  public static final int GETSHAREDFLOATAT = 4;  // ObjectHolder.getSharedFloatAt
+  public static final int GETSHAREDDOUBLEAT = 5;  // ObjectHolder.getSharedDoubleAt
+  public static final int GETSHAREDREFAT = 6;  // ObjectHolder.getSharedRefAt
+  public static final int CLEANSHARED = 7;  // ObjectHolder.cleanSharedValues
 
   public static final byte ReturnAddressTypeCode = (byte) 'R';
   public static final byte WordTypeCode = (byte) 'W';  //'A'
@@ -17,6 +17,7 @@ import static org.jikesrvm.runtime.UnboxedSizeConstants.LOG_BYTES_IN_ADDRESS;
 import org.jikesrvm.VM;
 import org.jikesrvm.mm.mminterface.Barriers;
 import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.scheduler.RVMThread;
 import org.vmmagic.pragma.Inline;
 import org.vmmagic.pragma.Interruptible;
 import org.vmmagic.pragma.Uninterruptible;
@@ -106,4 +107,82 @@ public class ObjectHolder {
       Magic.setObjectAtOffset(refs, Offset.fromIntSignExtend(h << LOG_BYTES_IN_ADDRESS), null);
     }
   }
+
+  /**
+   * Hands in the values of a frame whose specialized code is shared with
+   * the frames of other threads.  The values are read by the prologue of
+   * the shared code when the thread resumes.
+   *
+   * @param thread the thread owning the frame
+   * @param bits the bits of the primitive values, indexed by variable element
+   * @param objs the references, indexed by variable element
+   */
+  @Interruptible
+  public static void handinSharedValues(RVMThread thread, long[] bits, Object[] objs) {
+    thread.osrSharedBits = bits;
+    thread.osrSharedRefs = objs;
+  }
+
+  /**
+   * @param i the index of a variable element
+   * @return the value handed in for the current thread, only called by
+   *  shared specialized code
+   */
+  @Inline
+  public static int getSharedIntAt(int i) {
+    return (int) RVMThread.getCurrentThread().osrSharedBits[i];
+  }
+
+  /**
+   * @param i the index of a variable element
+   * @return the value handed in for the current thread, only called by
+   *  shared specialized code
+   */
+  @Inline
+  public static long getSharedLongAt(int i) {
+    return RVMThread.getCurrentThread().osrSharedBits[i];
+  }
+
+  /**
+   * @param i the index of a variable element
+   * @return the value handed in for the current thread, only called by
+   *  shared specialized code
+   */
+  @Inline
+  public static float getSharedFloatAt(int i) {
+    return Magic.intBitsAsFloat((int) RVMThread.getCurrentThread().osrSharedBits[i]);
+  }
+
+  /**
+   * @param i the index of a variable element
+   * @return the value handed in for the current thread, only called by
+   *  shared specialized code
+   */
+  @Inline
+  public static double getSharedDoubleAt(int i) {
+    return Magic.longBitsAsDouble(RVMThread.getCurrentThread().osrSharedBits[i]);
+  }
+
+  /**
+   * @param typeId the id of the type of the object, which is the same in
+   *  all frames sharing the code; only read by the opt compiler
+   * @param i the index of a variable element
+   * @return the object handed in for the current thread, only called by
+   *  shared specialized code
+   */
+  @Inline
+  public static Object getSharedRefAt(int typeId, int i) {
+    return RVMThread.getCurrentThread().osrSharedRefs[i];
+  }
+
+  /**
+   * Clears the values handed in for the current thread.  Called at the
+   * end of the prologue of shared specialized code.
+   */
+  @Inline
+  public static void cleanSharedValues() {
+    RVMThread t = RVMThread.getCurrentThread();
+    t.osrSharedBits = null;
+    t.osrSharedRefs = null;
+  }
 }
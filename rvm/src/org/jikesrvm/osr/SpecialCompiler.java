@@ -146,10 +146,39 @@ public class SpecialCompiler {
    * @return the compiled method produced by the optimizing compiler
    */
   public static CompiledMethod optCompile(ExecutionState state) {
+    CompiledMethod newCompiledMethod = optCompile(state, false);
+
+    // compilation failed because compilation is in progress,
+    // reverse back to the baseline
+    if (newCompiledMethod == null) {
+      if (VM.TraceOnStackReplacement) {
+        VM.sysWriteln("OPT : fialed, because compilation in progress, " + "fall back to baseline");
+      }
+      return baselineCompile(state);
+    }
+    return newCompiledMethod;
+  }
+
+  /**
+   * Compiles a state with the optimizing compiler, producing code that is
+   * shared by all states with the same shape (see
+   * {@link ExecutionState#hasSameShape}).  Each of these states must hand
+   * in its values with {@link ExecutionState#handinSharedValues} before its
+   * thread runs the code.
+   *
+   * @param state one of the states sharing the code
+   * @return the compiled method, or {@code null} if the compilation failed
+   */
+  public static CompiledMethod optCompileShared(ExecutionState state) {
+    if (VM.VerifyAssertions) VM._assert(state.callerState == null && state.callee_cmid == -1);
+    return optCompile(state, true);
+  }
+
+  private static CompiledMethod optCompile(ExecutionState state, boolean shared) {
 
     NormalMethod method = state.getMethod();
     if (VM.TraceOnStackReplacement) {
-      VM.sysWriteln("OPT : starts compiling " + method);
+      VM.sysWriteln("OPT : starts compiling " + method + (shared ? " (shared)" : ""));
     }
 
     ControllerPlan latestPlan = ControllerMemory.findLatestPlan(method);
@@ -176,7 +205,7 @@ public class SpecialCompiler {
     // without OSR.
 
     /* generate prologue bytes */
-    byte[] prologue = state.generatePrologue();
+    byte[] prologue = shared ? state.generateSharedPrologue() : state.generatePrologue();
     int prosize = prologue.length;
 
     method.setForOsrSpecialization(prologue, state.getMaxStackHeight());
@@ -234,14 +263,7 @@ public class SpecialCompiler {
       }
     }
 
-    // compilation failed because compilation is in progress,
-    // reverse back to the baseline
-    if (newCompiledMethod == null) {
-      if (VM.TraceOnStackReplacement) {
-        VM.sysWriteln("OPT : fialed, because compilation in progress, " + "fall back to baseline");
-      }
-      return baselineCompile(state);
-    }
+    if (newCompiledMethod == null) return null;
 
     // mark the method is a specialized one
     newCompiledMethod.setSpecialForOSR();
@@ -16,7 +16,13 @@ import static org.jikesrvm.classloader.ClassLoaderConstants.DoubleTypeCode;
 import static org.jikesrvm.classloader.ClassLoaderConstants.LongTypeCode;
 import static org.jikesrvm.classloader.ClassLoaderConstants.VoidTypeCode;
 import static org.jikesrvm.osr.OSRConstants.CLEANREFS;
+import static org.jikesrvm.osr.OSRConstants.CLEANSHARED;
 import static org.jikesrvm.osr.OSRConstants.GETREFAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDDOUBLEAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDFLOATAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDINTAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDLONGAT;
+import static org.jikesrvm.osr.OSRConstants.GETSHAREDREFAT;
 import static org.jikesrvm.osr.OSRConstants.PSEUDO_InvokeStatic;
 
 import org.jikesrvm.VM;
@@ -25,9 +31,9 @@ import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.classloader.TypeReference;
 
 /**
- * Special invokestatic, with only two possible target
- * ObjectHolder.getRefAt and ObjectHolder.cleanRefs
- * indiced by GETREFAT and CLEANREFS.
+ * Special invokestatic, whose targets are the methods of ObjectHolder
+ * listed in OSRConstants, e.g. ObjectHolder.getRefAt and
+ * ObjectHolder.cleanRefs indiced by GETREFAT and CLEANREFS.
  */
 public class InvokeStatic extends PseudoBytecode {
 
@@ -82,6 +88,18 @@ public class InvokeStatic extends PseudoBytecode {
         return AosEntrypoints.osrGetRefAtMethod;
       case CLEANREFS:
         return AosEntrypoints.osrCleanRefsMethod;
+      case GETSHAREDINTAT:
+        return AosEntrypoints.osrGetSharedIntAtMethod;
+      case GETSHAREDLONGAT:
+        return AosEntrypoints.osrGetSharedLongAtMethod;
+      case GETSHAREDFLOATAT:
+        return AosEntrypoints.osrGetSharedFloatAtMethod;
+      case GETSHAREDDOUBLEAT:
+        return AosEntrypoints.osrGetSharedDoubleAtMethod;
+      case GETSHAREDREFAT:
+        return AosEntrypoints.osrGetSharedRefAtMethod;
+      case CLEANSHARED:
+        return AosEntrypoints.osrCleanSharedValuesMethod;
       default:
         if (VM.VerifyAssertions) VM._assert(VM.NOT_REACHED);
         return null;
@@ -238,6 +238,7 @@ public class BootRecord {
 
   // misc. info on the process -- used in startup/shutdown
   public Address sysGetenvIP;
+  public Address sysGetPidIP;
 
   // memory
   public Address sysCopyIP;
@@ -255,6 +256,7 @@ public class BootRecord {
   public Address sysWriteByteIP;
   public Address sysReadBytesIP;
   public Address sysWriteBytesIP;
+  public Address sysPerfJitdumpMarkerIP;
 
   // mmap - memory mapping
   public Address sysMMapIP;
@@ -310,6 +312,7 @@ public class BootRecord {
   // time
   Address sysCurrentTimeMillisIP;
   Address sysNanoTimeIP;
+  Address sysMonotonicNanoTimeIP;
   Address sysNanoSleepIP;
 
   // shared libraries
@@ -402,5 +405,11 @@ public class BootRecord {
   public Address sysPerfEventEnableIP;
   public Address sysPerfEventDisableIP;
   public Address sysPerfEventReadIP;
+  public Address sysPerfSamplerOpenIP;
+  public Address sysPerfSamplerReadIP;
+  public Address sysPerfSamplerCloseIP;
+  public Address sysPerfCountersOpenIP;
+  public Address sysPerfCountersReadIP;
+  public Address sysPerfCountersCloseIP;
 
 }
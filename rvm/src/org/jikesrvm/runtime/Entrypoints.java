@@ -198,6 +198,9 @@ public class Entrypoints {
       getField(org.jikesrvm.scheduler.RVMThread.class, "takeYieldpoint", int.class);
 
   public static final RVMField execStatusField = getField(org.jikesrvm.scheduler.RVMThread.class, "execStatus", int.class);
+  public static final RVMField parkStateField = getField(org.jikesrvm.scheduler.RVMThread.class, "parkState", int.class);
+  public static final RVMField perfCounterHandleField =
+      getField(org.jikesrvm.scheduler.RVMThread.class, "perfCounterHandle", org.vmmagic.unboxed.Address.class);
 
   public static final RVMField referenceReferentField =
       getField(java.lang.ref.Reference.class, "_referent", org.vmmagic.unboxed.Address.class);
@@ -486,6 +489,8 @@ public class Entrypoints {
 
   public static final RVMField edgeCountersField =
       getField(org.jikesrvm.compilers.baseline.EdgeCounts.class, "data", int[][].class);
+  public static final NormalMethod recordTypeMethod =
+      getMethod(org.jikesrvm.compilers.baseline.TypeProfiles.class, "recordType", "(Ljava/lang/Object;II)V");
 
   public static final RVMField classLoadedCountField =
       getField(org.jikesrvm.classloader.JMXSupport.class, "classLoadedCount", int.class);
@@ -0,0 +1,318 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.runtime;
+
+import static org.jikesrvm.runtime.SysCall.sysCall;
+
+import java.util.ArrayList;
+import org.jikesrvm.scheduler.RVMThread;
+import org.jikesrvm.scheduler.Synchronization;
+import org.vmmagic.pragma.Inline;
+import org.vmmagic.pragma.Interruptible;
+import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.unboxed.Address;
+
+/**
+ * Counts hardware and software events (cycles, instructions, cache misses,
+ * page faults and context switches) for every thread of the VM with the
+ * perf event system of Linux.
+ * <p>
+ * Each thread has a group of counters that is read with a single system
+ * call.  The counts are attributed to the phase the thread is in: the
+ * collector threads are always in the GC phase; other threads are in the
+ * mutator phase, except while they run the optimizing compiler.  A thread
+ * only reads its own counters, when it changes phase, so counting costs
+ * nothing between phase changes.  The counts of a thread are kept when it
+ * terminates.
+ * <p>
+ * The events are selected with the same option as the MMTk perf event
+ * counters, which read the VM-wide totals at the start and the end of each
+ * collection (see {@link org.jikesrvm.mm.mmtk.Statistics}).  The counts of
+ * each thread are printed with the totals of the MMTk statistics.
+ */
+@Uninterruptible
+public final class PerfCounters {
+
+  /** The events that can be counted */
+  private static final String[] EVENT_NAMES = {"cycles", "instructions", "cache-misses", "page-faults", "context-switches"};
+
+  public static final int MUTATOR = 0;
+  public static final int GC = 1;
+  public static final int OPT_COMPILE = 2;
+  public static final int NUM_PHASES = 3;
+
+  private static final String[] PHASE_NAMES = {"mu", "gc", "opt"};
+
+  /** Are events being counted? */
+  public static boolean enabled = false;
+
+  /** The bit mask of the counted events */
+  private static int eventMask;
+
+  /**
+   * The counted events, as indices in {@link #EVENT_NAMES}, in the order in
+   * which the counters of a thread are read
+   */
+  private static int[] events;
+
+  /** The final counts of the threads that terminated, indexed like the counts of a thread */
+  private static long[] terminatedCounts;
+
+  /** The counts of terminated threads, kept for the report */
+  private static final ArrayList<ThreadCounts> terminated = new ArrayList<ThreadCounts>();
+
+  /** The counts of a thread, for the report */
+  public static final class ThreadCounts {
+    /** The name of the thread */
+    public final String name;
+    /** The counts, indexed by {@code phase * getNumEvents() + event} */
+    public final long[] counts;
+
+    ThreadCounts(String name, long[] counts) {
+      this.name = name;
+      this.counts = counts;
+    }
+  }
+
+  private PerfCounters() {}
+
+  /**
+   * @param name the name of an event
+   * @return the index of the event, or -1 if it is not one of the events
+   *  that can be counted
+   */
+  public static int eventIndex(String name) {
+    for (int i = 0; i < EVENT_NAMES.length; i++) {
+      if (EVENT_NAMES[i].equals(name)) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Starts counting events for all threads.
+   *
+   * @param eventIndices the events to count, as returned by {@link #eventIndex}
+   */
+  @Interruptible
+  public static void boot(int[] eventIndices) {
+    for (int e : eventIndices) {
+      eventMask |= 1 << e;
+    }
+    events = new int[Integer.bitCount(eventMask)];
+    int n = 0;
+    for (int e = 0; e < EVENT_NAMES.length; e++) {
+      if ((eventMask & (1 << e)) != 0) events[n++] = e;
+    }
+    terminatedCounts = new long[NUM_PHASES * events.length];
+
+    // allocate the counts of the running threads first, as we may not
+    // allocate while holding the lock
+    RVMThread[] running = new RVMThread[RVMThread.numThreads + 16];
+    n = 0;
+    RVMThread.acctLock.lockNoHandshake();
+    for (int i = 0; i < RVMThread.numThreads && n < running.length; i++) {
+      running[n++] = RVMThread.threads[i];
+    }
+    enabled = true;
+    RVMThread.acctLock.unlock();
+    for (int i = 0; i < n; i++) {
+      threadStarted(running[i]);
+    }
+  }
+
+  /**
+   * @return the number of counted events
+   */
+  public static int getNumEvents() {
+    return events.length;
+  }
+
+  /**
+   * @param eventIndex an event, as returned by {@link #eventIndex}
+   * @return the counted event, or -1 if it is not counted
+   */
+  public static int counterOf(int eventIndex) {
+    for (int i = 0; i < events.length; i++) {
+      if (events[i] == eventIndex) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * @param event a counted event
+   * @return its name
+   */
+  public static String getEventName(int event) {
+    return EVENT_NAMES[events[event]];
+  }
+
+  /**
+   * @param phase a phase
+   * @return its name
+   */
+  public static String getPhaseName(int phase) {
+    return PHASE_NAMES[phase];
+  }
+
+  /**
+   * Opens the counters of a thread that started running.
+   *
+   * @param t the thread
+   */
+  @Interruptible
+  public static void threadStarted(RVMThread t) {
+    if (!enabled || !t.perfCounterHandle.isZero()) return;
+    long[] values = new long[events.length];
+    long[] scratch = new long[events.length];
+    long[] counts = new long[NUM_PHASES * events.length];
+    Address handle = sysCall.sysPerfCountersOpen(t.priority_handle.toInt(), eventMask);
+    if (handle.isZero()) return;
+    // boot may open the counters of a thread that is starting at the same
+    // time as the thread itself; the first to install its group keeps it
+    if (!Synchronization.tryCompareAndSwap(t, Entrypoints.perfCounterHandleField.getOffset(),
+        Address.zero(), handle)) {
+      sysCall.sysPerfCountersClose(handle);
+      return;
+    }
+    sysCall.sysPerfCountersRead(handle, values);
+    t.perfCounterPhase = t.isCollectorThread() ? GC : MUTATOR;
+    t.perfCounterValues = values;
+    t.perfCounterScratch = scratch;
+    // publish last: the counters of a thread are open if it has counts
+    RVMThread.acctLock.lockNoHandshake();
+    t.perfCounterCounts = counts;
+    RVMThread.acctLock.unlock();
+  }
+
+  /**
+   * Closes the counters of the current thread, which is terminating, and
+   * keeps its counts.
+   *
+   * @param t the thread
+   */
+  @Interruptible
+  public static void threadTerminated(RVMThread t) {
+    if (t.perfCounterCounts == null) return;
+    enterPhase(t.perfCounterPhase);
+    long[] counts = t.perfCounterCounts;
+    ThreadCounts record = new ThreadCounts(t.getName(), counts);
+    synchronized (terminated) {
+      terminated.add(record);
+    }
+    // move the counts to the terminated threads at once, so that they are
+    // neither lost nor counted twice by readTotal
+    RVMThread.acctLock.lockNoHandshake();
+    for (int i = 0; i < counts.length; i++) {
+      terminatedCounts[i] += counts[i];
+    }
+    t.perfCounterCounts = null;
+    RVMThread.acctLock.unlock();
+    sysCall.sysPerfCountersClose(t.perfCounterHandle);
+    t.perfCounterHandle = Address.zero();
+  }
+
+  /**
+   * Attributes the events counted since the last phase change of the
+   * current thread to its phase, and enters a new phase.
+   *
+   * @param phase the new phase
+   * @return the previous phase, to be restored when the new one ends
+   */
+  @Inline
+  public static int enterPhase(int phase) {
+    if (!enabled) return phase;
+    return enterPhase(RVMThread.getCurrentThread(), phase);
+  }
+
+  private static int enterPhase(RVMThread t, int phase) {
+    int previous = t.perfCounterPhase;
+    if (t.perfCounterCounts == null) return previous;
+    long[] now = t.perfCounterScratch;
+    if (sysCall.sysPerfCountersRead(t.perfCounterHandle, now) == 0) {
+      long[] last = t.perfCounterValues;
+      long[] counts = t.perfCounterCounts;
+      int base = previous * last.length;
+      for (int e = 0; e < last.length; e++) {
+        counts[base + e] += now[e] - last[e];
+        last[e] = now[e];
+      }
+    }
+    t.perfCounterPhase = phase;
+    return previous;
+  }
+
+  /**
+   * Reads the total count of an event over all threads, including the
+   * threads that terminated.  Reads the counters of every thread.
+   *
+   * @param event a counted event
+   * @return the total count
+   */
+  public static long readTotal(int event) {
+    long total = 0;
+    RVMThread.acctLock.lockNoHandshake();
+    for (int i = 0; i < RVMThread.numThreads; i++) {
+      RVMThread t = RVMThread.threads[i];
+      if (t.perfCounterCounts != null) {
+        total += readThread(t, event);
+      }
+    }
+    for (int p = 0; p < NUM_PHASES; p++) {
+      total += terminatedCounts[p * events.length + event];
+    }
+    RVMThread.acctLock.unlock();
+    return total;
+  }
+
+  /**
+   * @param t a thread whose counters are open
+   * @param event a counted event
+   * @return the count of the event since the counters were opened
+   */
+  private static long readThread(RVMThread t, int event) {
+    long total = 0;
+    for (int p = 0; p < NUM_PHASES; p++) {
+      total += t.perfCounterCounts[p * events.length + event];
+    }
+    // the thread updates its counts by itself, so read its counters into a
+    // buffer of our own and add what it has not attributed yet
+    long[] now = RVMThread.getCurrentThread().perfCounterScratch;
+    if (now != null && sysCall.sysPerfCountersRead(t.perfCounterHandle, now) == 0) {
+      total += now[event] - t.perfCounterValues[event];
+    }
+    return total;
+  }
+
+  /**
+   * Collects the counts of all threads, including the threads that
+   * terminated, for the report.  The counts of running threads are those
+   * of their last phase change.
+   *
+   * @return the counts of each thread
+   */
+  @Interruptible
+  public static ThreadCounts[] getThreadCounts() {
+    ArrayList<ThreadCounts> all = new ArrayList<ThreadCounts>();
+    synchronized (terminated) {
+      all.addAll(terminated);
+    }
+    for (int i = 0; i < RVMThread.numThreads; i++) {
+      RVMThread t = RVMThread.threads[i];
+      long[] counts = t == null ? null : t.perfCounterCounts;
+      if (counts != null) {
+        all.add(new ThreadCounts(t.getName(), counts.clone()));
+      }
+    }
+    return all.toArray(new ThreadCounts[all.size()]);
+  }
+}
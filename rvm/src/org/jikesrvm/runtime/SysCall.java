@@ -79,6 +79,9 @@ public abstract class SysCall {
   @SysCallTemplate
   public abstract int sysGetenv(byte[] varName, byte[] buf, int limit);
 
+  @SysCallTemplate
+  public abstract int sysGetPid();
+
   // memory
 
   /**
@@ -137,6 +140,18 @@ public abstract class SysCall {
   public abstract void sysPerfEventDisable();
   @SysCallTemplate
   public abstract int sysPerfEventRead(int id, long[] values);
+  @SysCallTemplate
+  public abstract Address sysPerfSamplerOpen(int tid, int cpuClock, long periodNanos);
+  @SysCallTemplate
+  public abstract int sysPerfSamplerRead(Address sampler, long[] ips, int max);
+  @SysCallTemplate
+  public abstract long sysPerfSamplerClose(Address sampler);
+  @SysCallTemplate
+  public abstract Address sysPerfCountersOpen(int tid, int events);
+  @SysCallTemplate
+  public abstract int sysPerfCountersRead(Address counters, long[] values);
+  @SysCallTemplate
+  public abstract void sysPerfCountersClose(Address counters);
 
   // files
   @SysCallTemplate
@@ -151,6 +166,9 @@ public abstract class SysCall {
   @SysCallTemplate
   public abstract int sysWriteBytes(int fd, Address buf, int cnt);
 
+  @SysCallTemplate
+  public abstract int sysPerfJitdumpMarker(byte[] fileName);
+
   // mmap - memory mapping
   @SysCallTemplate
   public abstract Address sysMMap(Address start, Extent length, int protection, int flags, int fd, Offset offset);
@@ -337,6 +355,9 @@ public abstract class SysCall {
   @SysCallTemplate
   public abstract long sysNanoTime();
 
+  @SysCallTemplate
+  public abstract long sysMonotonicNanoTime();
+
   @SysCallTemplate
   public abstract void sysNanoSleep(long howLongNanos);
 
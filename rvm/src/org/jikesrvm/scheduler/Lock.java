@@ -15,6 +15,7 @@ package org.jikesrvm.scheduler;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_LOCK_ID_MASK;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_LOCK_ID_SHIFT;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_THREAD_ID_SHIFT;
+import static org.jikesrvm.runtime.SysCall.sysCall;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.objectmodel.ObjectModel;
@@ -85,7 +86,9 @@ java.lang.Object#notifyAll}, and {@link java.lang.Object#wait()}.
  inflate the lock and yield to the heavy-weight lock's entering
  queue.  Currently, yield n times, then inflate.
  (This seemed to be best for the portBOB benchmark on a 12-way AIX
- SMP in the Fall of '99.)
+ SMP in the Fall of '99.)  Once the lock is inflated, a thread that
+ finds it held spins for about as long as the lock is usually held,
+ and only then joins the entering queue and blocks.
  <LI> <EM>When should a heavy-weight lock be deflated?</EM>  Currently,
  deflation happens when the lock is unlocked with nothing on either
  of its queues.  Probably better, would be to periodically (what
@@ -175,6 +178,12 @@ public final class Lock {
   public static int unlockOperations;
   /** Number of deflations */
   public static int deflations;
+  /** Number of heavy locks acquired after spinning */
+  public static int spinAcquisitions;
+  /** Number of times a thread spun for a heavy lock, and then had to queue */
+  public static int spinFailures;
+  /** Number of times a heavy lock was handed to a queued thread */
+  public static int handoffs;
 
   /****************************************************************************
    * Instance
@@ -194,10 +203,35 @@ public final class Lock {
   private Lock nextFreeLock;
   /** This lock's index in the lock table*/
   protected int index;
-  /** Queue for entering the lock, guarded by mutex. */
+  /**
+   * Queue for entering the lock, guarded by mutex.  When the lock is
+   * released, it is handed to the first thread of the queue, which is the
+   * only thread that is woken.
+   */
   ThreadQueue entering;
   /** Queue for waiting on a notify, guarded by mutex as well. */
   ThreadQueue waiting;
+  /**
+   * The average time the lock has been held by its recent owners, in time
+   * base ticks.  Written with the mutex held; read without it by threads
+   * deciding how long to spin.
+   */
+  private long averageHoldTime;
+  /** When the lock was acquired by its current owner, in time base ticks. Guarded by mutex. */
+  private long acquireTime;
+
+  /**
+   * The weight of each hold time in {@link #averageHoldTime}, as a power of
+   * two: each hold time counts for 1/8th of the average.
+   */
+  private static final int HOLD_TIME_WEIGHT = 3;
+
+  /**
+   * How long a thread spins for a lock that has not been held yet, as a
+   * fraction of the {@code HeavyLockMaxSpin} option: a power of two, so
+   * 1/8th of the longest spin.
+   */
+  private static final int INITIAL_SPIN_SHIFT = 3;
 
   /**
    * A heavy weight lock to handle extreme contention and wait/notify
@@ -217,6 +251,7 @@ public final class Lock {
    */
   @Unpreemptible
   public boolean lockHeavy(Object o) {
+    boolean spun = spinWhileHeld(o);
     if (tentativeMicrolocking) {
       if (!mutex.tryLock()) {
         return false;
@@ -224,9 +259,47 @@ public final class Lock {
     } else {
       mutex.lock();  // Note: thread switching is not allowed while mutex is held.
     }
+    if (STATS && spun) {
+      if (ownerId == 0) {
+        spinAcquisitions++;
+      } else {
+        spinFailures++;
+      }
+    }
     return lockHeavyLocked(o);
   }
 
+  /**
+   * Spins while another thread holds this lock, if it is usually held for
+   * a short time, as blocking and being woken costs more than spinning.
+   * The spin is bounded by twice the average hold time, and by the
+   * {@code HeavyLockMaxSpin} option.  A lock that has no hold times yet
+   * spins for a fraction of that option.  Does not spin if other threads
+   * are queued already, as the lock will be handed to them first.
+   *
+   * @param o the object to be locked
+   * @return whether the thread spun
+   */
+  @Inline
+  private boolean spinWhileHeld(Object o) {
+    int owner = ownerId;
+    if (owner == 0 || owner == RVMThread.getCurrentThread().getLockingId() ||
+        RVMThread.availableProcessors <= 1) {
+      return false;
+    }
+    long average = averageHoldTime;
+    long limit = average == 0 ? VM.HeavyLockMaxSpin >> INITIAL_SPIN_SHIFT : average << 1;
+    if (limit == 0 || limit > VM.HeavyLockMaxSpin) {
+      return false;
+    }
+    long start = Magic.getTimeBase();
+    while (ownerId != 0 && lockedObject == o && entering.isEmpty() &&
+           Magic.getTimeBase() - start < limit) {
+      Magic.pause();
+    }
+    return true;
+  }
+
   /**
    * Completes the task of acquiring the heavy lock, assuming that the mutex
       is already acquired (locked).
@@ -247,15 +320,22 @@ public final class Lock {
     } else if (ownerId == 0) {
       ownerId = threadId;
       recursionCount = 1;
+      acquireTime = Magic.getTimeBase();
     } else {
       entering.enqueue(me);
       mutex.unlock();
+      long start = LockProfiler.enabled ? sysCall.sysNanoTime() : 0;
       me.monitor().lockNoHandshake();
       while (entering.isQueued(me)) {
         me.monitor().waitWithHandshake(); // this may spuriously return
       }
       me.monitor().unlock();
-      return false;
+      if (LockProfiler.enabled) {
+        LockProfiler.record(LockProfiler.BLOCK, o, (int) ((sysCall.sysNanoTime() - start) / 1000));
+      }
+      // the lock was handed to us when we were dequeued (see handOff)
+      Magic.isync();
+      return ownerId == threadId;
     }
     mutex.unlock(); // thread-switching benign
     return true;
@@ -286,9 +366,9 @@ public final class Lock {
       return;
     }
     if (STATS) unlockOperations++;
-    ownerId = 0;
-    RVMThread toAwaken = entering.dequeue();
-    if (toAwaken == null && entering.isEmpty() && waiting.isEmpty()) { // heavy lock can be deflated
+    averageHoldTime += (Magic.getTimeBase() - acquireTime - averageHoldTime) >> HOLD_TIME_WEIGHT;
+    RVMThread toAwaken = handOff();
+    if (toAwaken == null && waiting.isEmpty()) { // heavy lock can be deflated
       // Possible project: decide on a heuristic to control when lock should be deflated
       Offset lockOffset = Magic.getObjectType(o).getThinLockOffset();
       if (!lockOffset.isMax()) { // deflate heavy lock
@@ -299,7 +379,34 @@ public final class Lock {
     mutex.unlock(); // does a Magic.sync();  (thread-switching benign)
     if (toAwaken != null) {
       toAwaken.monitor().lockedBroadcastNoHandshake();
+      if (LockProfiler.enabled) LockProfiler.record(LockProfiler.RELEASE, o, 0);
+    }
+  }
+
+  /**
+   * Releases this lock, which the current thread holds and whose mutex is
+   * held, by handing it to the first thread of the entering queue.  The
+   * thread owns the lock when it is dequeued, so that threads enter the
+   * lock in the order in which they queued, and no thread that spins or
+   * comes along later can take it first.  If no thread is queued, the lock
+   * is left free.
+   *
+   * @return the thread that now owns the lock and must be woken, or
+   *  {@code null} if the lock is free
+   */
+  RVMThread handOff() {
+    RVMThread successor = entering.peek();
+    if (successor == null) {
+      ownerId = 0;
+      return null;
     }
+    if (STATS) handoffs++;
+    ownerId = successor.getLockingId();
+    recursionCount = 1;
+    acquireTime = Magic.getTimeBase();
+    Magic.sync(); // the successor must see that it owns the lock once it is dequeued
+    entering.dequeue();
+    return successor;
   }
 
   /**
@@ -329,6 +436,7 @@ public final class Lock {
    */
   public void setOwnerId(int id) {
     ownerId = id;
+    if (id != 0) acquireTime = Magic.getTimeBase();
   }
 
   /**
@@ -545,6 +653,9 @@ public final class Lock {
    */
   protected static void free(Lock l) {
     l.active = false;
+    // the next object to use this lock starts without hold times
+    l.averageHoldTime = 0;
+    l.acquireTime = 0;
     RVMThread me = RVMThread.getCurrentThread();
     if (me.cachedFreeLock == null) {
       if (trace) {
@@ -713,6 +824,9 @@ public final class Lock {
       lockOperations = 0;
       unlockOperations = 0;
       deflations = 0;
+      spinAcquisitions = 0;
+      spinFailures = 0;
+      handoffs = 0;
 
       ThinLock.notifyAppRunStart("", 0);
     }
@@ -738,6 +852,13 @@ public final class Lock {
       VM.sysWrite("FatLocks: ");
       VM.sysWrite(deflations);
       VM.sysWrite(" deflations\n");
+      VM.sysWrite("FatLocks: ");
+      VM.sysWrite(spinAcquisitions);
+      VM.sysWrite(" acquired after spinning, ");
+      VM.sysWrite(spinFailures);
+      VM.sysWrite(" queued after spinning, ");
+      VM.sysWrite(handoffs);
+      VM.sysWrite(" handed to a queued thread\n");
 
       ThinLock.notifyExit(totalLocks);
       VM.sysWriteln();
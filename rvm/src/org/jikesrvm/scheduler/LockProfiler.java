@@ -0,0 +1,478 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.scheduler;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import org.jikesrvm.VM;
+import org.jikesrvm.architecture.ArchConstants;
+import org.jikesrvm.architecture.StackFrameLayout;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.classloader.RVMType;
+import org.jikesrvm.compilers.common.CompiledMethod;
+import org.jikesrvm.compilers.common.CompiledMethods;
+import org.jikesrvm.compilers.opt.runtimesupport.OptCompiledMethod;
+import org.jikesrvm.mm.mminterface.MemoryManager;
+import org.jikesrvm.runtime.Callbacks;
+import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.runtime.StackBrowser;
+import org.vmmagic.pragma.Interruptible;
+import org.vmmagic.pragma.NoInline;
+import org.vmmagic.pragma.NonMoving;
+import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.unboxed.Address;
+import org.vmmagic.unboxed.Offset;
+
+/**
+ * Profiles the contention for heavy locks, to find the monitors that limit
+ * the throughput of an application.
+ * <p>
+ * With <code>-X:vm:profileLocks=true</code>, the slow paths of locking
+ * record an event whenever a lock is inflated, a thread blocks for a heavy
+ * lock, or a thread releases a heavy lock that other threads are queued for.
+ * Each event records the type of the locked object, the time the thread was
+ * blocked and the return addresses of the innermost frames of the stack.
+ * Threads record their events in a buffer of their own, without locking or
+ * allocating; when the buffer is full, events are dropped and counted.
+ * <p>
+ * A background thread takes the events out of the buffers of all threads
+ * every <code>-X:vm:LockProfilePeriod</code> milliseconds, and adds them up
+ * per call site and object type.  The call site of an event is the first
+ * frame, walked with a {@link StackBrowser}, of an interruptible method
+ * outside of this package, so it is the method that entered or left the
+ * monitor.  The sites are reported, sorted by the time threads were blocked
+ * at them, when the VM exits, and written to
+ * <code>-X:vm:LockProfileFile</code> as tab separated values if that is set.
+ * <p>
+ * Compiled methods are found by their id when the events are added up; a
+ * method whose code was reclaimed in the meantime is not found, or may be
+ * mistaken for the method that reused its id.  Frames whose offset is not
+ * a call site of the method found are skipped.
+ */
+@Uninterruptible
+public final class LockProfiler {
+
+  /** A lock was inflated, because threads contended for it */
+  public static final int INFLATE_CONTENTION = 0;
+  /** A lock was inflated, because its recursion count overflowed the thin lock */
+  public static final int INFLATE_RECURSION = 1;
+  /** A lock was inflated, to wait on or notify its object */
+  public static final int INFLATE_WAIT = 2;
+  /** A lock was inflated, because the locking thread has no thin lock id */
+  public static final int INFLATE_NO_ID = 3;
+  /** A thread blocked until a heavy lock was handed to it */
+  public static final int BLOCK = 4;
+  /** A thread released a heavy lock that other threads were queued for */
+  public static final int RELEASE = 5;
+
+  private static final int NUM_KINDS = 6;
+  private static final int NUM_CAUSES = 4;
+
+  private static final String[] CAUSE_NAMES = {"contention", "recursion", "wait", "no-id"};
+
+  /** The number of frames recorded for each event */
+  private static final int CALL_SITE_DEPTH = 8;
+  /** The number of ints in each record: kind, type id, wait time, depth and a pair per frame */
+  private static final int RECORD_SIZE = 4 + 2 * CALL_SITE_DEPTH;
+  /** The number of records in the buffer of each thread, a power of two */
+  private static final int BUFFER_RECORDS = 256;
+
+  /** The number of buckets of the histograms of wait times, in log2 microseconds */
+  private static final int HISTOGRAM_BUCKETS = 32;
+
+  /** The number of sites printed in the report */
+  private static final int REPORT_SITES = 20;
+
+  /** Are events being recorded? */
+  public static boolean enabled = false;
+
+  /** The call sites, guarded by their own lock, which serializes the readers of the buffers */
+  private static final HashMap<Site, Site> sites = new HashMap<Site, Site>();
+
+  /** The number of events dropped by threads that terminated */
+  private static long dropped;
+
+  /** The contention at a call site, on objects of one type */
+  private static final class Site {
+    final RVMType type;
+    final RVMMethod method;
+    final int bytecodeIndex;
+    final int[] inflations = new int[NUM_CAUSES];
+    int blocks;
+    long totalWait;
+    long maxWait;
+    final int[] waitHistogram = new int[HISTOGRAM_BUCKETS];
+    int releases;
+
+    Site(RVMType type, RVMMethod method, int bytecodeIndex) {
+      this.type = type;
+      this.method = method;
+      this.bytecodeIndex = bytecodeIndex;
+    }
+
+    @Override
+    public int hashCode() {
+      return type.hashCode() * 31 + (method == null ? 0 : method.hashCode()) + bytecodeIndex;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Site)) return false;
+      Site s = (Site) other;
+      return type == s.type && method == s.method && bytecodeIndex == s.bytecodeIndex;
+    }
+
+    int totalInflations() {
+      int total = 0;
+      for (int n : inflations) total += n;
+      return total;
+    }
+
+    String location() {
+      if (method == null) return "<unknown>";
+      String s = method.getDeclaringClass() + "." + method.getName() + method.getDescriptor();
+      if (method instanceof NormalMethod) {
+        int line = ((NormalMethod) method).getLineNumberForBCIndex(bytecodeIndex);
+        if (line > 0) return s + ":" + line;
+      }
+      return s + "@" + bytecodeIndex;
+    }
+  }
+
+  private LockProfiler() {}
+
+  /**
+   * Starts recording events in all threads and the thread that adds them up.
+   */
+  @Interruptible
+  public static void boot() {
+    // allocate the buffers of the running threads first, as we may not
+    // allocate while holding the lock
+    RVMThread[] running = new RVMThread[RVMThread.numThreads + 16];
+    int n = 0;
+    RVMThread.acctLock.lockNoHandshake();
+    for (int i = 0; i < RVMThread.numThreads && n < running.length; i++) {
+      running[n++] = RVMThread.threads[i];
+    }
+    enabled = true;
+    RVMThread.acctLock.unlock();
+    for (int i = 0; i < n; i++) {
+      threadStarted(running[i]);
+    }
+    new Aggregator().start();
+    Callbacks.addExitMonitor(new Callbacks.ExitMonitor() {
+      @Override
+      @Interruptible
+      public void notifyExit(int value) {
+        report();
+      }
+    });
+  }
+
+  /**
+   * Gives a thread that started running a buffer for its events.
+   *
+   * @param t the thread
+   */
+  @Interruptible
+  public static void threadStarted(RVMThread t) {
+    if (!enabled || t.lockProfileBuffer != null) return;
+    t.lockProfileBuffer = new int[BUFFER_RECORDS * RECORD_SIZE];
+  }
+
+  /**
+   * Takes the remaining events of a thread that is terminating.
+   *
+   * @param t the thread
+   */
+  @Interruptible
+  public static void threadTerminated(RVMThread t) {
+    if (t.lockProfileBuffer == null) return;
+    synchronized (sites) {
+      drain(t);
+      dropped += t.lockProfileDropped;
+      t.lockProfileDropped = 0;
+    }
+  }
+
+  /**
+   * Records an event of the current thread.
+   *
+   * @param kind the kind of the event
+   * @param o the locked object
+   * @param waitMicros the time the thread was blocked, in microseconds
+   */
+  @NoInline
+  public static void record(int kind, Object o, int waitMicros) {
+    RVMThread t = RVMThread.getCurrentThread();
+    int[] buffer = t.lockProfileBuffer;
+    if (buffer == null) return;
+    int head = t.lockProfileHead;
+    if (head - t.lockProfileTail == BUFFER_RECORDS) {
+      t.lockProfileDropped++;
+      return;
+    }
+    int base = (head & (BUFFER_RECORDS - 1)) * RECORD_SIZE;
+    buffer[base] = kind;
+    buffer[base + 1] = Magic.getObjectType(o).getId();
+    buffer[base + 2] = waitMicros;
+
+    // walk the stack from our caller, recording the compiled method and
+    // the offset of the return address of each frame
+    Address fp = Magic.getFramePointer();
+    Address ip = Magic.getReturnAddress(fp);
+    fp = Magic.getCallerFramePointer(fp);
+    int depth = 0;
+    while (depth < CALL_SITE_DEPTH &&
+           Magic.getCallerFramePointer(fp).NE(StackFrameLayout.getStackFrameSentinelFP())) {
+      int cmid = Magic.getCompiledMethodID(fp);
+      if (cmid != StackFrameLayout.getInvisibleMethodID() && MemoryManager.addressInVM(ip)) {
+        CompiledMethod cm = CompiledMethods.getCompiledMethod(cmid);
+        if (cm != null && cm.isCompiled()) {
+          int offset = ip.diff(Magic.objectAsAddress(cm.getEntryCodeArray())).toInt();
+          int max = cm.numberOfInstructions() << ArchConstants.getLogInstructionWidth();
+          if (offset >= 0 && offset <= max) {
+            buffer[base + 4 + 2 * depth] = cmid;
+            buffer[base + 5 + 2 * depth] = offset;
+            depth++;
+          }
+        }
+      }
+      ip = Magic.getReturnAddress(fp);
+      fp = Magic.getCallerFramePointer(fp);
+    }
+    buffer[base + 3] = depth;
+    t.lockProfileHead = head + 1; // publish the record
+  }
+
+  /**
+   * Takes the events out of the buffer of a thread and adds them to their
+   * sites.  The caller holds the lock of {@link #sites}.
+   *
+   * @param t the thread
+   */
+  @Interruptible
+  private static void drain(RVMThread t) {
+    int[] buffer = t.lockProfileBuffer;
+    if (buffer == null) return;
+    int head = t.lockProfileHead;
+    Magic.isync();
+    for (int i = t.lockProfileTail; i != head; i++) {
+      add(buffer, (i & (BUFFER_RECORDS - 1)) * RECORD_SIZE);
+    }
+    t.lockProfileTail = head; // the thread may reuse the records
+  }
+
+  @Interruptible
+  private static void add(int[] buffer, int base) {
+    int kind = buffer[base];
+    RVMType type = RVMType.getType(buffer[base + 1]);
+    int waitMicros = buffer[base + 2];
+    int depth = buffer[base + 3];
+
+    RVMMethod method = null;
+    int bytecodeIndex = 0;
+    for (int i = 0; i < depth && method == null; i++) {
+      CompiledMethod cm = CompiledMethods.getCompiledMethod(buffer[base + 4 + 2 * i]);
+      if (cm == null || cm.getMethod() == null || !cm.isCompiled()) continue;
+      int offset = buffer[base + 5 + 2 * i];
+      // the id may have been reused by a method with less code
+      if (offset > cm.numberOfInstructions() << ArchConstants.getLogInstructionWidth()) continue;
+      if (!hasCallSiteInfo(cm, offset)) continue;
+      StackBrowser browser = new StackBrowser();
+      cm.set(browser, Offset.fromIntSignExtend(offset));
+      if (browser.getCompiledMethod() != cm) continue;
+      // look through the methods inlined at this frame, innermost first
+      do {
+        RVMMethod m = browser.getMethod();
+        if (m != null && isCallSite(m)) {
+          method = m;
+          bytecodeIndex = browser.getBytecodeIndex();
+          break;
+        }
+      } while (cm.up(browser));
+    }
+
+    Site key = new Site(type, method, bytecodeIndex);
+    Site site = sites.get(key);
+    if (site == null) {
+      site = key;
+      sites.put(key, site);
+    }
+    if (kind < NUM_CAUSES) {
+      site.inflations[kind]++;
+    } else if (kind == BLOCK) {
+      site.blocks++;
+      site.totalWait += waitMicros;
+      if (waitMicros > site.maxWait) site.maxWait = waitMicros;
+      site.waitHistogram[histogramBucket(waitMicros)]++;
+    } else if (kind == RELEASE) {
+      site.releases++;
+    }
+    if (VM.VerifyAssertions) VM._assert(kind < NUM_KINDS);
+  }
+
+  /**
+   * @param cm a compiled method
+   * @param offset the offset of a return address in its code
+   * @return whether {@link CompiledMethod#set} can find the method and
+   *  bytecode index of the offset; opt compiled code has no entry for an
+   *  offset that is not a call site
+   */
+  @Interruptible
+  private static boolean hasCallSiteInfo(CompiledMethod cm, int offset) {
+    if (VM.BuildForOptCompiler && cm.getCompilerType() == CompiledMethod.OPT) {
+      OptCompiledMethod ocm = (OptCompiledMethod) cm;
+      return ocm.getMCMap().getInlineEncodingForMCOffset(Offset.fromIntSignExtend(offset)) >= 0;
+    }
+    return true;
+  }
+
+  /**
+   * @param m a method on the stack of an event
+   * @return whether the method is where a monitor was entered or left,
+   *  rather than part of the implementation of locking
+   */
+  @Interruptible
+  private static boolean isCallSite(RVMMethod m) {
+    return m.isInterruptible() && !m.getDeclaringClass().getPackageName().equals("org.jikesrvm.scheduler");
+  }
+
+  /**
+   * @param micros a wait time
+   * @return the bucket of the histogram for the time: 0 for less than a
+   *  microsecond, and <code>i</code> for up to <code>2^i</code> microseconds
+   */
+  @Interruptible
+  private static int histogramBucket(int micros) {
+    int bucket = 32 - Integer.numberOfLeadingZeros(micros);
+    return bucket < HISTOGRAM_BUCKETS ? bucket : HISTOGRAM_BUCKETS - 1;
+  }
+
+  /**
+   * Takes the events out of the buffers of all threads.
+   */
+  @Interruptible
+  static void aggregate() {
+    RVMThread[] running = new RVMThread[RVMThread.numThreads + 16];
+    int n = 0;
+    RVMThread.acctLock.lockNoHandshake();
+    for (int i = 0; i < RVMThread.numThreads && n < running.length; i++) {
+      running[n++] = RVMThread.threads[i];
+    }
+    RVMThread.acctLock.unlock();
+    synchronized (sites) {
+      for (int i = 0; i < n; i++) {
+        drain(running[i]);
+      }
+    }
+  }
+
+  /**
+   * Prints the most contended sites, and writes all sites to the profile
+   * file if there is one.
+   */
+  @Interruptible
+  public static void report() {
+    aggregate();
+    Site[] all;
+    long lost;
+    synchronized (sites) {
+      all = sites.values().toArray(new Site[sites.size()]);
+      lost = dropped;
+      for (int i = 0; i < RVMThread.numThreads; i++) {
+        RVMThread t = RVMThread.threads[i];
+        if (t != null) lost += t.lockProfileDropped;
+      }
+    }
+    Arrays.sort(all, new Comparator<Site>() {
+      @Override
+      public int compare(Site a, Site b) {
+        if (a.totalWait != b.totalWait) return a.totalWait > b.totalWait ? -1 : 1;
+        if (a.blocks != b.blocks) return b.blocks - a.blocks;
+        return b.totalInflations() - a.totalInflations();
+      }
+    });
+
+    VM.sysWriteln("Lock contention, by time blocked (" + lost + " events dropped)");
+    VM.sysWriteln("blocked\twait-us\tmax-us\tinflated\treleases\ttype\tsite");
+    for (int i = 0; i < all.length && i < REPORT_SITES; i++) {
+      Site s = all[i];
+      VM.sysWriteln(s.blocks + "\t" + s.totalWait + "\t" + s.maxWait + "\t" + s.totalInflations() + "\t" +
+                    s.releases + "\t" + s.type + "\t" + s.location());
+      if (s.blocks > 0) {
+        StringBuilder histogram = new StringBuilder("  wait histogram (<= 2^i us):");
+        for (int b = 0; b < HISTOGRAM_BUCKETS; b++) {
+          if (s.waitHistogram[b] != 0) histogram.append(' ').append(b).append(':').append(s.waitHistogram[b]);
+        }
+        VM.sysWriteln(histogram.toString());
+      }
+    }
+    if (VM.LockProfileFile != null) {
+      writeFile(all, VM.LockProfileFile);
+    }
+  }
+
+  @Interruptible
+  private static void writeFile(Site[] all, String fileName) {
+    try {
+      PrintStream out = new PrintStream(new FileOutputStream(fileName));
+      out.print("type\tsite\tblocked\twait-us\tmax-us\treleases");
+      for (String cause : CAUSE_NAMES) {
+        out.print("\tinflated-" + cause);
+      }
+      for (int b = 0; b < HISTOGRAM_BUCKETS; b++) {
+        out.print("\twait-le-2^" + b + "-us");
+      }
+      out.println();
+      for (Site s : all) {
+        out.print(s.type + "\t" + s.location() + "\t" + s.blocks + "\t" + s.totalWait + "\t" + s.maxWait + "\t" + s.releases);
+        for (int n : s.inflations) {
+          out.print("\t" + n);
+        }
+        for (int n : s.waitHistogram) {
+          out.print("\t" + n);
+        }
+        out.println();
+      }
+      out.close();
+    } catch (IOException e) {
+      VM.sysWriteln("LockProfiler: could not write " + fileName + ": " + e);
+    }
+  }
+
+  /** The thread that adds up the events of all threads periodically */
+  @NonMoving
+  private static final class Aggregator extends SystemThread {
+    Aggregator() {
+      super("LockProfiler");
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          RVMThread.sleep(VM.LockProfilePeriod * 1000L * 1000L);
+        } catch (InterruptedException e) {
+          // aggregate now
+        }
+        aggregate();
+      }
+    }
+  }
+}
@@ -17,6 +17,10 @@ import static org.jikesrvm.runtime.ExitStatus.EXIT_STATUS_DYING_WITH_UNCAUGHT_EX
 import static org.jikesrvm.runtime.ExitStatus.EXIT_STATUS_MAIN_THREAD_COULD_NOT_LAUNCH;
 import static org.jikesrvm.runtime.ExitStatus.EXIT_STATUS_RECURSIVELY_SHUTTING_DOWN;
 import static org.jikesrvm.runtime.SysCall.sysCall;
+import static org.jikesrvm.objectmodel.ThinLockConstants.TL_MAX_THREAD_IDS;
+import static org.jikesrvm.objectmodel.ThinLockConstants.TL_NO_THREAD_ID;
+import static org.jikesrvm.objectmodel.ThinLockConstants.TL_STAT_MASK;
+import static org.jikesrvm.objectmodel.ThinLockConstants.TL_STAT_THIN;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_THREAD_ID_SHIFT;
 
 import java.security.AccessController;
@@ -49,6 +53,7 @@ import org.jikesrvm.runtime.BootRecord;
 import org.jikesrvm.runtime.Entrypoints;
 import org.jikesrvm.runtime.Magic;
 import org.jikesrvm.runtime.Memory;
+import org.jikesrvm.runtime.PerfCounters;
 import org.jikesrvm.runtime.RuntimeEntrypoints;
 import org.jikesrvm.runtime.Time;
 import org.jikesrvm.tuningfork.Feedlet;
@@ -437,14 +442,31 @@ public final class RVMThread extends ThreadContext {
   private int priority;
 
   /**
-   * Index of this thread in {@link #threadBySlot}[]. This value must be non-zero
-   * because it is shifted and used in {@link Object} lock ownership tests.
+   * Index of this thread in the thread slot table (see {@link #getThreadBySlot}).
+   * This value must be non-zero because it is shifted and used in
+   * {@link Object} lock ownership tests.
    */
   @Entrypoint
   public int threadSlot;
 
+  /** The id of this thread in the ownership tests of heavy-weight locks */
   public int lockingId;
 
+  /**
+   * The id of this thread in thin lock words, which is its {@link #lockingId}
+   * if its slot fits the thread id bits of thin locks, or else
+   * {@link org.jikesrvm.objectmodel.ThinLockConstants#TL_NO_THREAD_ID}.  Such a thread never holds a
+   * thin lock, but inflates every lock it acquires.
+   */
+  public int thinLockId;
+
+  /**
+   * The thread id and status bits of a thin lock that this thread may
+   * acquire with a CAS: {@link org.jikesrvm.objectmodel.ThinLockConstants#TL_STAT_THIN} if this
+   * thread has a thin lock id, or else a pattern that no lock word has.
+   */
+  public Word thinLockUnowned;
+
   /**
    * Non-null indicates this is a system thread, that is one used by the system and as such
    * doesn't have a Runnable...
@@ -636,6 +658,41 @@ public final class RVMThread extends ThreadContext {
    */
   public static Monitor handshakeLock;
 
+  /**
+   * Lock that protects the count of threads that have not yet acknowledged a
+   * stop-the-world request, and the safepoint statistics.
+   */
+  private static Monitor safepointLock;
+
+  /**
+   * How many threads have been asked to block for the current stop-the-world
+   * request and have not yet acknowledged it?  (protected by safepointLock)
+   */
+  private static int safepointAcksPending;
+
+  /** When the current stop-the-world request was made, in nanoseconds */
+  private static long safepointRequestTime;
+
+  /** The number of buckets of the time-to-safepoint histograms */
+  private static final int SAFEPOINT_HISTOGRAM_BUCKETS = 32;
+
+  /**
+   * Histogram of the times that threads took to acknowledge stop-the-world
+   * requests: bucket {@code i} counts times of less than {@code 2^i}
+   * microseconds (protected by safepointLock)
+   */
+  private static final int[] threadTimeToSafepoint = new int[SAFEPOINT_HISTOGRAM_BUCKETS];
+
+  /**
+   * Histogram of the times that stop-the-world requests took until all
+   * threads were blocked, bucketed like {@link #threadTimeToSafepoint}
+   */
+  private static final int[] timeToSafepoint = new int[SAFEPOINT_HISTOGRAM_BUCKETS];
+
+  /** The number of stop-the-world requests, and the longest time one took, in nanoseconds */
+  private static int numSafepoints;
+  private static long maxTimeToSafepoint;
+
   /**
    * Place to save register state when this thread is not actually running.
    */
@@ -721,6 +778,12 @@ public final class RVMThread extends ThreadContext {
    */
   boolean isBlockedForGC;
 
+  /**
+   * Is the current stop-the-world request waiting for this thread to
+   * acknowledge it?  (protected by the monitor())
+   */
+  private boolean safepointAckPending;
+
   /**
    * An integer token identifying the last stack trace request
    */
@@ -1039,8 +1102,21 @@ public final class RVMThread extends ThreadContext {
    */
   public int timeSliceExpired;
 
-  /** Is a running thread permitted to ignore the next park request */
-  private boolean parkingPermit;
+  /** {@link #parkState}: no permit, and the thread is not parked */
+  private static final int PARK_NO_PERMIT = 0;
+  /** {@link #parkState}: the thread may ignore the next park request */
+  private static final int PARK_PERMIT = 1;
+  /** {@link #parkState}: the thread waits on its monitor for a permit */
+  private static final int PARKED = 2;
+
+  /**
+   * Park state of this thread.  It changes by CAS, so that park with a
+   * permit and unpark of a thread that is not parked never take the
+   * monitor; only a thread that really blocks in park, and the unpark that
+   * wakes it, do.
+   */
+  @Entrypoint
+  private int parkState;
 
   /*
    * JNI fields
@@ -1119,6 +1195,14 @@ public final class RVMThread extends ThreadContext {
    */
   public boolean osr_done = false;
 
+  /**
+   * The values of the frame being replaced, when its specialized code is
+   * shared with other threads.  Read by the specialized prologue, indexed
+   * by variable element: the bits of primitive values and the references.
+   */
+  public long[] osrSharedBits = null;
+  public Object[] osrSharedRefs = null;
+
   /**
    * The number of processors to use.
    */
@@ -1136,6 +1220,45 @@ public final class RVMThread extends ThreadContext {
    */
   public Word priority_handle;
 
+  /**
+   * The perf event counters of this thread, or zero if events are not
+   * counted for it.  Set with a compare and swap, as the thread itself and
+   * {@link PerfCounters#boot} may both open its counters.  See
+   * {@link PerfCounters}.
+   */
+  @Entrypoint
+  public Address perfCounterHandle;
+
+  /**
+   * The counts of this thread, for each phase and counted event, or
+   * {@code null} if its counters are not open.
+   */
+  public long[] perfCounterCounts;
+
+  /** The values of the counters of this thread at its last phase change */
+  public long[] perfCounterValues;
+
+  /** Buffer to read the counters of this or another thread */
+  public long[] perfCounterScratch;
+
+  /** The phase to which the events of this thread are attributed */
+  public int perfCounterPhase;
+
+  /**
+   * The lock contention events of this thread, or {@code null} if locks
+   * are not profiled.  See {@link LockProfiler}.
+   */
+  int[] lockProfileBuffer;
+
+  /** The number of events this thread has recorded, written only by this thread */
+  volatile int lockProfileHead;
+
+  /** The number of events taken out of the buffer, written only by the {@link LockProfiler} */
+  volatile int lockProfileTail;
+
+  /** The number of events this thread dropped because its buffer was full */
+  int lockProfileDropped;
+
   /**
    * Scratch area for use for gpr &lt;=&gt; fpr transfers by PPC baseline compiler.
    * Used to transfer x87 to SSE registers on IA32
@@ -1191,21 +1314,41 @@ public final class RVMThread extends ThreadContext {
   /** Index of thread in which "VM.boot()" runs */
   public static final int PRIMORDIAL_THREAD_INDEX = 1;
 
-  /** Maximum number of RVMThread's that we can support. */
-  public static final int LOG_MAX_THREADS = 10;
+  /**
+   * Maximum number of RVMThread's that we can support.  The slot of a thread,
+   * shifted by {@link org.jikesrvm.objectmodel.ThinLockConstants#TL_THREAD_ID_SHIFT}, must fit its
+   * {@link #lockingId}.
+   */
+  public static final int LOG_MAX_THREADS = 19;
 
   public static final int MAX_THREADS = 1 << LOG_MAX_THREADS;
 
   /**
-   * thread array - all threads are stored in this array according to their
-   * threadSlot.
+   * The tables indexed by thread slot are made of chunks of this many slots,
+   * so that they can grow without moving the entries that are already there.
    */
-  public static RVMThread[] threadBySlot = new RVMThread[MAX_THREADS];
+  private static final int LOG_SLOT_CHUNK = 10;
+  private static final int SLOT_CHUNK = 1 << LOG_SLOT_CHUNK;
+  private static final int SLOT_CHUNK_MASK = SLOT_CHUNK - 1;
 
   /**
-   * Per-thread monitors. Note that this array is statically initialized. It
-   * starts out all null. When a new thread slot is allocated, a monitor is
-   * added for that slot.
+   * The number of thread slots that the tables can hold.  It only grows, in
+   * steps of {@link #SLOT_CHUNK}, when all slots are in use.
+   */
+  private static int slotCapacity = SLOT_CHUNK;
+
+  /**
+   * Thread table - all threads are stored in this table according to their
+   * threadSlot.  Read it with {@link #getThreadBySlot}: it is read without
+   * locking, which is safe because a chunk is never moved once it has been
+   * published.
+   */
+  private static RVMThread[][] threadBySlot = {new RVMThread[SLOT_CHUNK]};
+
+  /**
+   * Per-thread monitors, in chunks like {@link #threadBySlot}. Note that this
+   * table is statically initialized. It starts out all null. When a new
+   * thread slot is allocated, a monitor is added for that slot.
    * <p>
    * Question: what is the outcome, if any, of taking a yieldpoint while holding
    * this lock?
@@ -1218,9 +1361,9 @@ public final class RVMThread extends ThreadContext {
    * <li>???</li>
    * </ol>
    */
-  private static final NoYieldpointsMonitor[] monitorBySlot = new NoYieldpointsMonitor[MAX_THREADS];
+  private static NoYieldpointsMonitor[][] monitorBySlot = {new NoYieldpointsMonitor[SLOT_CHUNK]};
 
-  private static final Monitor[] communicationLockBySlot = new Monitor[MAX_THREADS];
+  private static Monitor[][] communicationLockBySlot = {new Monitor[SLOT_CHUNK]};
 
   /**
    * Lock (mutex) used for creating and destroying threads as well as thread
@@ -1250,7 +1393,7 @@ public final class RVMThread extends ThreadContext {
    * an int array because it's accessed from code that cannot have
    * barriers.
    */
-  private static final int[] aboutToTerminate = new int[MAX_THREADS];
+  private static int[] aboutToTerminate = new int[SLOT_CHUNK];
 
   /**
    * Number of threads that are about to terminate.
@@ -1260,7 +1403,7 @@ public final class RVMThread extends ThreadContext {
   /**
    * Free thread slots
    */
-  private static final int[] freeSlots = new int[MAX_THREADS];
+  private static int[] freeSlots = new int[SLOT_CHUNK];
 
   /**
    * Number of free thread slots.
@@ -1286,18 +1429,21 @@ public final class RVMThread extends ThreadContext {
    * <p>
    * Note further that threads remain in this array even after the Java
    * libraries no longer consider the thread to be active.
+   * <p>
+   * The array is replaced by a larger copy when the thread slot tables grow,
+   * so read the field again rather than keeping the array.
    */
-  public static final RVMThread[] threads = new RVMThread[MAX_THREADS];
+  public static RVMThread[] threads = new RVMThread[SLOT_CHUNK];
 
   /**
    * Preallocated array for use in handshakes. Protected by handshakeLock.
    */
-  public static final RVMThread[] handshakeThreads = new RVMThread[MAX_THREADS];
+  public static RVMThread[] handshakeThreads = new RVMThread[SLOT_CHUNK];
 
   /**
    * Preallocated array for use in debug requested. Protected by debugLock.
    */
-  public static final RVMThread[] debugThreads = new RVMThread[MAX_THREADS];
+  public static RVMThread[] debugThreads = new RVMThread[SLOT_CHUNK];
 
   /**
    * Number of active threads in the system.
@@ -1329,7 +1475,7 @@ public final class RVMThread extends ThreadContext {
    * @return a NoYieldpointsCondLock for a given thread slot.
    */
   static NoYieldpointsMonitor monitorForSlot(int slot) {
-    NoYieldpointsMonitor result = monitorBySlot[slot];
+    NoYieldpointsMonitor result = monitorBySlot[slot >> LOG_SLOT_CHUNK][slot & SLOT_CHUNK_MASK];
     if (VM.VerifyAssertions)
       VM._assert(result != null);
     return result;
@@ -1343,7 +1489,7 @@ public final class RVMThread extends ThreadContext {
   }
 
   public Monitor communicationLockForSlot(int slot) {
-    Monitor result = communicationLockBySlot[slot];
+    Monitor result = communicationLockBySlot[slot >> LOG_SLOT_CHUNK][slot & SLOT_CHUNK_MASK];
     if (VM.VerifyAssertions)
       VM._assert(result != null);
     return result;
@@ -1353,6 +1499,111 @@ public final class RVMThread extends ThreadContext {
     return communicationLockForSlot(threadSlot);
   }
 
+  /**
+   * Looks up a thread by its slot, without locking.
+   *
+   * @param slot a thread slot
+   * @return the thread in the slot, or {@code null} if the slot is free
+   */
+  @Inline
+  public static RVMThread getThreadBySlot(int slot) {
+    RVMThread[][] table = threadBySlot;
+    if ((slot >> LOG_SLOT_CHUNK) >= table.length) return null;
+    return table[slot >> LOG_SLOT_CHUNK][slot & SLOT_CHUNK_MASK];
+  }
+
+  /**
+   * @return the number of thread slots that the slot tables can currently
+   *  hold; all slots are below {@link #nextSlot}, which is at most this
+   */
+  public static int getThreadSlotCapacity() {
+    return slotCapacity;
+  }
+
+  @NoCheckStore
+  private static void setThreadBySlot(int slot, RVMThread t) {
+    threadBySlot[slot >> LOG_SLOT_CHUNK][slot & SLOT_CHUNK_MASK] = t;
+  }
+
+  /**
+   * Grows the thread slot tables by one chunk if all slots are in use.  The
+   * new chunks and arrays are allocated before taking the locks; the
+   * thread slot tables are only changed while holding the handshake, debug
+   * and accounting locks, so that no handshake or debug request is using
+   * the arrays that are replaced.
+   */
+  @Interruptible
+  private static void growThreadSlotTables() {
+    int capacity = slotCapacity;
+    if (nextSlot < capacity || freeSlotN > 0) return;
+    if (capacity >= MAX_THREADS) {
+      VM.sysFail("too many threads");
+    }
+    int newCapacity = capacity + SLOT_CHUNK;
+    int chunks = newCapacity >> LOG_SLOT_CHUNK;
+    RVMThread[][] newThreadBySlot = new RVMThread[chunks][];
+    NoYieldpointsMonitor[][] newMonitorBySlot = new NoYieldpointsMonitor[chunks][];
+    Monitor[][] newCommunicationLockBySlot = new Monitor[chunks][];
+    RVMThread[] threadChunk = new RVMThread[SLOT_CHUNK];
+    NoYieldpointsMonitor[] monitorChunk = new NoYieldpointsMonitor[SLOT_CHUNK];
+    Monitor[] communicationLockChunk = new Monitor[SLOT_CHUNK];
+    RVMThread[] newThreads = new RVMThread[newCapacity];
+    RVMThread[] newHandshakeThreads = new RVMThread[newCapacity];
+    RVMThread[] newDebugThreads = new RVMThread[newCapacity];
+    int[] newAboutToTerminate = new int[newCapacity];
+    int[] newFreeSlots = new int[newCapacity];
+
+    handshakeLock.lockWithHandshake();
+    debugLock.lockNoHandshake();
+    acctLock.lockNoHandshake();
+    if (slotCapacity == capacity) {
+      installThreadSlotTables(newThreadBySlot, newMonitorBySlot, newCommunicationLockBySlot,
+          threadChunk, monitorChunk, communicationLockChunk,
+          newThreads, newHandshakeThreads, newDebugThreads, newAboutToTerminate, newFreeSlots);
+    }
+    acctLock.unlock();
+    debugLock.unlock();
+    handshakeLock.unlock();
+  }
+
+  @Uninterruptible
+  private static void installThreadSlotTables(RVMThread[][] newThreadBySlot,
+      NoYieldpointsMonitor[][] newMonitorBySlot, Monitor[][] newCommunicationLockBySlot,
+      RVMThread[] threadChunk, NoYieldpointsMonitor[] monitorChunk, Monitor[] communicationLockChunk,
+      RVMThread[] newThreads, RVMThread[] newHandshakeThreads, RVMThread[] newDebugThreads,
+      int[] newAboutToTerminate, int[] newFreeSlots) {
+    int chunks = threadBySlot.length;
+    for (int i = 0; i < chunks; i++) {
+      Services.setArrayUninterruptible(newThreadBySlot, i, threadBySlot[i]);
+      Services.setArrayUninterruptible(newMonitorBySlot, i, monitorBySlot[i]);
+      Services.setArrayUninterruptible(newCommunicationLockBySlot, i, communicationLockBySlot[i]);
+    }
+    Services.setArrayUninterruptible(newThreadBySlot, chunks, threadChunk);
+    Services.setArrayUninterruptible(newMonitorBySlot, chunks, monitorChunk);
+    Services.setArrayUninterruptible(newCommunicationLockBySlot, chunks, communicationLockChunk);
+    for (int i = 0; i < numThreads; i++) {
+      Services.setArrayUninterruptible(newThreads, i, threads[i]);
+    }
+    for (int i = 0; i < aboutToTerminateN; i++) {
+      newAboutToTerminate[i] = aboutToTerminate[i];
+    }
+    for (int i = 0; i < freeSlotN; i++) {
+      newFreeSlots[i] = freeSlots[i];
+    }
+    // publish the contents of the new tables before the tables themselves
+    Magic.sync();
+    threadBySlot = newThreadBySlot;
+    monitorBySlot = newMonitorBySlot;
+    communicationLockBySlot = newCommunicationLockBySlot;
+    threads = newThreads;
+    handshakeThreads = newHandshakeThreads;
+    debugThreads = newDebugThreads;
+    aboutToTerminate = newAboutToTerminate;
+    freeSlots = newFreeSlots;
+    Magic.sync();
+    slotCapacity += SLOT_CHUNK;
+  }
+
   /**
    * Initialize the threading subsystem for the boot image.
    */
@@ -1448,9 +1699,10 @@ public final class RVMThread extends ThreadContext {
     outputLock = new NoYieldpointsMonitor();
     softHandshakeDataLock = new Monitor();
     handshakeLock = new Monitor();
+    safepointLock = new Monitor();
     doProfileReport = new Latch(false);
-    monitorBySlot[getCurrentThread().threadSlot] = new NoYieldpointsMonitor();
-    communicationLockBySlot[getCurrentThread().threadSlot] = new Monitor();
+    monitorBySlot[0][getCurrentThread().threadSlot] = new NoYieldpointsMonitor();
+    communicationLockBySlot[0][getCurrentThread().threadSlot] = new Monitor();
     sysCall.sysStashVMThread(getCurrentThread());
 
     if (traceAcct) {
@@ -1467,6 +1719,7 @@ public final class RVMThread extends ThreadContext {
     }
 
     FinalizerThread.boot();
+    VirtualThreadScheduler.boot();
     getCurrentThread().enableYieldpoints();
     if (traceAcct) VM.sysWriteln("RVMThread booted");
   }
@@ -1479,10 +1732,12 @@ public final class RVMThread extends ThreadContext {
     monitor().lockNoHandshake();
     isAboutToTerminate = true;
     activeMutatorContext = false;
+    acknowledgeSafepoint();
     monitor().broadcast();
 
     handleHandshakeRequest();
     deinitMutator();
+    freeStackRoots();
 
     // WARNING! DANGER! Since we've set isAboutToTerminate to true, when we
     // release this lock the GC will:
@@ -1518,7 +1773,7 @@ public final class RVMThread extends ThreadContext {
         int notKilled = 0;
         acctLock.lockNoHandshake();
         for (int i = 0; i < aboutToTerminateN; ++i) {
-          RVMThread t = threadBySlot[aboutToTerminate[i]];
+          RVMThread t = getThreadBySlot(aboutToTerminate[i]);
           if (t.getExecStatus() == TERMINATED) {
             aboutToTerminate[i--] = aboutToTerminate[--aboutToTerminateN];
             acctLock.unlock();
@@ -1546,20 +1801,24 @@ public final class RVMThread extends ThreadContext {
     if (!VM.runningVM) {
       // primordial thread
       threadSlot = 1;
-      threadBySlot[1] = this;
+      setThreadBySlot(1, this);
       threads[0] = this;
       threadIdx = 0;
       numThreads = 1;
     } else {
       processAboutToTerminate();
-      acctLock.lockNoHandshake();
-      if (freeSlotN > 0) {
-        threadSlot = freeSlots[--freeSlotN];
-      } else {
-        if (nextSlot == threads.length) {
-          VM.sysFail("too many threads");
+      for (;;) {
+        growThreadSlotTables();
+        acctLock.lockNoHandshake();
+        if (freeSlotN > 0) {
+          threadSlot = freeSlots[--freeSlotN];
+          break;
+        } else if (nextSlot < slotCapacity) {
+          threadSlot = nextSlot++;
+          break;
         }
-        threadSlot = nextSlot++;
+        // another thread took the last slot before we could; grow again
+        acctLock.unlock();
       }
       acctLock.unlock();
       // before we actually use this slot, ensure that there is a monitor
@@ -1567,13 +1826,15 @@ public final class RVMThread extends ThreadContext {
       // "own" it since we allocated it above but haven't done anything
       // with it (it's not assigned to a thread, so nobody else can touch
       // it)
-      if (monitorBySlot[threadSlot] == null) {
-        monitorBySlot[threadSlot] = new NoYieldpointsMonitor();
+      int chunk = threadSlot >> LOG_SLOT_CHUNK;
+      int index = threadSlot & SLOT_CHUNK_MASK;
+      if (monitorBySlot[chunk][index] == null) {
+        monitorBySlot[chunk][index] = new NoYieldpointsMonitor();
       }
-      if (communicationLockBySlot[threadSlot] == null) {
+      if (communicationLockBySlot[chunk][index] == null) {
         Monitor m = new Monitor();
         handshakeLock.lockWithHandshake();
-        communicationLockBySlot[threadSlot] = m;
+        communicationLockBySlot[chunk][index] = m;
         handshakeLock.unlock();
       }
       Magic.sync(); /*
@@ -1582,7 +1843,7 @@ public final class RVMThread extends ThreadContext {
                      */
 
       acctLock.lockNoHandshake();
-      threadBySlot[threadSlot] = this;
+      setThreadBySlot(threadSlot, this);
 
       threadIdx = numThreads++;
       threads[threadIdx] = this;
@@ -1590,6 +1851,14 @@ public final class RVMThread extends ThreadContext {
       acctLock.unlock();
     }
     lockingId = threadSlot << TL_THREAD_ID_SHIFT;
+    if (threadSlot < TL_MAX_THREAD_IDS) {
+      thinLockId = lockingId;
+      thinLockUnowned = TL_STAT_THIN;
+    } else {
+      // the slot does not fit in a thin lock: inflate every lock instead
+      thinLockId = TL_NO_THREAD_ID;
+      thinLockUnowned = TL_STAT_MASK;
+    }
     if (traceAcct) {
       VM.sysWriteln("Thread #", threadSlot, " at ", Magic.objectAsAddress(this));
       VM.sysWriteln("stack at ", Magic.objectAsAddress(stack), " up to ", Magic.objectAsAddress(stack).plus(stack.length));
@@ -1615,7 +1884,7 @@ public final class RVMThread extends ThreadContext {
                    * arrangement at worst they will see it twice)
                    */
     threads[--numThreads] = null;
-    threadBySlot[threadSlot] = null;
+    setThreadBySlot(threadSlot, null);
     freeSlots[freeSlotN++] = threadSlot;
     acctLock.unlock();
   }
@@ -1782,10 +2051,29 @@ public final class RVMThread extends ThreadContext {
       }
     }
     if (hadSome) {
+      acknowledgeSafepoint();
       monitor().broadcast();
     }
   }
 
+  /**
+   * Tells the thread that makes the current stop-the-world request that this
+   * thread has blocked, or is terminating, if it is waiting for this thread.
+   * The monitor() lock must be held.
+   */
+  private void acknowledgeSafepoint() {
+    if (safepointAckPending) {
+      safepointAckPending = false;
+      long time = sysCall.sysNanoTime() - safepointRequestTime;
+      safepointLock.lockNoHandshake();
+      threadTimeToSafepoint[safepointHistogramBucket(time)]++;
+      if (--safepointAcksPending == 0) {
+        safepointLock.broadcast();
+      }
+      safepointLock.unlock();
+    }
+  }
+
   /**
    * Checks if the thread system has acknowledged that the thread is supposed
    * to be blocked. This will return true if the thread is actually blocking, or
@@ -2027,6 +2315,10 @@ public final class RVMThread extends ThreadContext {
   @Unpreemptible("May block if asked to do so, but otherwise does not actions that would block")
   void checkBlock() {
     saveThreadState();
+    if (shouldBlockForGC) {
+      // the stack cannot change until the collection is over
+      MemoryManager.stoppingForCollection();
+    }
     checkBlockNoSaveContext();
   }
 
@@ -2457,6 +2749,9 @@ public final class RVMThread extends ThreadContext {
   public static void enterJNIFromCallIntoNative() {
     // FIXME: call these in PPC instead of doing it in machine code...
     getCurrentThread().observeExecStatus();
+    if (getCurrentThread().isCarryingVirtualThread()) {
+      VirtualThreadScheduler.enterNative();
+    }
     if (!getCurrentThread().attemptFastExecStatusTransition(RVMThread.IN_JAVA,
         RVMThread.IN_JNI)) {
       RVMThread.enterJNIBlockedFromCallIntoNative();
@@ -2471,6 +2766,9 @@ public final class RVMThread extends ThreadContext {
         RVMThread.IN_JAVA)) {
       RVMThread.leaveJNIBlockedFromCallIntoNative();
     }
+    if (getCurrentThread().isCarryingVirtualThread()) {
+      VirtualThreadScheduler.endBlocking();
+    }
   }
 
   public static void enterJNIFromJNIFunctionCall() {
@@ -2655,6 +2953,45 @@ public final class RVMThread extends ThreadContext {
     return thread;
   }
 
+  /**
+   * Mounts a virtual thread on this thread, which is the current thread and
+   * a carrier thread of the {@link VirtualThreadScheduler}: the virtual
+   * thread becomes the java.lang.Thread of this thread until it is
+   * unmounted.
+   *
+   * @param virtual the virtual thread
+   */
+  void mountVirtualThread(VirtualThread virtual) {
+    thread = virtual;
+    parkState = PARK_NO_PERMIT;
+  }
+
+  /**
+   * Unmounts the virtual thread that this thread ran.
+   *
+   * @param own the java.lang.Thread of this thread
+   */
+  void unmountVirtualThread(Thread own) {
+    thread = own;
+    parkState = PARK_NO_PERMIT;
+  }
+
+  /**
+   * Gives this thread, which is the current thread, the permit of an
+   * unpark that its virtual thread received before it was mounted.
+   */
+  void grantParkPermit() {
+    parkState = PARK_PERMIT;
+  }
+
+  /**
+   * @return whether this thread runs a virtual thread
+   */
+  @Inline
+  boolean isCarryingVirtualThread() {
+    return thread instanceof VirtualThread;
+  }
+
   /**
    * @return current thread's JNI environment.
    */
@@ -2773,6 +3110,8 @@ public final class RVMThread extends ThreadContext {
 
     currentThread.enableYieldpoints();
     sysCall.sysStashVMThread(currentThread);
+    PerfCounters.threadStarted(currentThread);
+    LockProfiler.threadStarted(currentThread);
     if (traceAcct) {
       VM.sysWriteln("Thread #", currentThread.threadSlot, " with pthread id ",
           currentThread.pthread_id, " running!");
@@ -2849,6 +3188,8 @@ public final class RVMThread extends ThreadContext {
     java.lang.JikesRVMSupport.threadDied(thread);
 
     TraceEngine.engine.removeFeedlet(feedlet);
+    PerfCounters.threadTerminated(this);
+    LockProfiler.threadTerminated(this);
 
     if (VM.VerifyAssertions) {
       if (Lock.countLocksHeldByThread(getLockingId()) > 0) {
@@ -3214,7 +3555,7 @@ public final class RVMThread extends ThreadContext {
     RVMThread t = getCurrentThread();
       if (!t.hijackedReturnCalleeFp.EQ(hijackedFp)) {
         for (int tid = 0; tid < nextSlot; tid++) {
-          t = threadBySlot[tid];
+          t = getThreadBySlot(tid);
           if (t != null && t.hijackedReturnCalleeFp.EQ(hijackedFp))
             break;
         }
@@ -3328,6 +3669,8 @@ public final class RVMThread extends ThreadContext {
   @Interruptible
   public static void sleep(long ns) throws InterruptedException {
     RVMThread t = getCurrentThread();
+    boolean carrying = t.isCarryingVirtualThread();
+    if (carrying) VirtualThreadScheduler.beginBlocking();
     t.waiting = Waiting.TIMED_WAITING;
     long atStart = sysCall.sysNanoTime();
     long whenEnd = atStart + ns;
@@ -3348,6 +3691,7 @@ public final class RVMThread extends ThreadContext {
     }
     t.monitor().unlock();
     t.waiting = Waiting.RUNNABLE;
+    if (carrying) VirtualThreadScheduler.endBlocking();
     if (throwThis != null) {
       RuntimeEntrypoints.athrow(throwThis);
     }
@@ -3389,6 +3733,8 @@ public final class RVMThread extends ThreadContext {
       if (STATS) {
         waitTimeStart = Time.currentTimeMillis();
       }
+      boolean carrying = isCarryingVirtualThread();
+      if (carrying) VirtualThreadScheduler.beginBlocking();
       waiting = hasTimeout ? Waiting.TIMED_WAITING : Waiting.WAITING;
       if (STATS) {
         if (hasTimeout) {
@@ -3404,17 +3750,16 @@ public final class RVMThread extends ThreadContext {
       l.mutex.lock();
       // this thread is supposed to own the lock on o
       if (VM.VerifyAssertions) VM._assert(l.getOwnerId() == getLockingId());
-      RVMThread toAwaken = l.entering.dequeue();
       waitObject = l.getLockedObject();
       waitCount = l.getRecursionCount();
-      l.setOwnerId(0);
+      RVMThread toAwaken = l.handOff();
       l.waiting.enqueue(this);
       l.mutex.unlock();
 
-      // if there was a thread waiting, awaken it
+      // if there was a thread waiting, it now owns the lock, so awaken it
       if (toAwaken != null) {
-        // is this where the problem is coming from?
         toAwaken.monitor().lockedBroadcastNoHandshake();
+        if (LockProfiler.enabled) LockProfiler.record(LockProfiler.RELEASE, o, 0);
       }
       // block
       monitor().lockNoHandshake();
@@ -3456,6 +3801,7 @@ public final class RVMThread extends ThreadContext {
         l2.setRecursionCount(waitCount);
       }
       waiting = Waiting.RUNNABLE;
+      if (carrying) VirtualThreadScheduler.endBlocking();
       if (STATS) {
         totalWaitTime += (sysCall.sysCurrentTimeMillis() - waitTimeStart);
       }
@@ -3607,12 +3953,14 @@ public final class RVMThread extends ThreadContext {
    */
   @Interruptible
   public void park(boolean isAbsolute, long time) throws Throwable {
-    if (parkingPermit) {
-      // fast path
-      parkingPermit = false;
-      Magic.sync();
+    if (Synchronization.tryCompareAndSwap(this, Entrypoints.parkStateField.getOffset(),
+        PARK_PERMIT, PARK_NO_PERMIT)) {
+      // fast path: consume the permit without taking the monitor
+      Magic.isync();
       return;
     }
+    boolean carrying = isCarryingVirtualThread();
+    if (carrying) VirtualThreadScheduler.beginBlocking();
     // massive retardation. someone might be holding the java.lang.Thread lock.
     boolean holdsLock = holdsLock(thread);
     if (holdsLock)
@@ -3628,21 +3976,30 @@ public final class RVMThread extends ThreadContext {
     Throwable throwThis = null;
     monitor().lockNoHandshake();
     waiting = hasTimeout ? Waiting.TIMED_WAITING : Waiting.WAITING;
-    while (!parkingPermit && !hasInterrupt && asyncThrowable == null &&
-           (!hasTimeout || sysCall.sysNanoTime() < whenWakeupNanos)) {
-      if (hasTimeout) {
-        monitor().timedWaitAbsoluteWithHandshake(whenWakeupNanos);
-      } else {
-        monitor().waitWithHandshake();
+    // announce that we are about to wait, so that unpark takes the monitor
+    // to wake us.  If this fails, a permit arrived since the fast path.
+    if (Synchronization.tryCompareAndSwap(this, Entrypoints.parkStateField.getOffset(),
+        PARK_NO_PERMIT, PARKED)) {
+      while (parkState == PARKED && !hasInterrupt && asyncThrowable == null &&
+             (!hasTimeout || sysCall.sysNanoTime() < whenWakeupNanos)) {
+        if (hasTimeout) {
+          monitor().timedWaitAbsoluteWithHandshake(whenWakeupNanos);
+        } else {
+          monitor().waitWithHandshake();
+        }
       }
     }
     waiting = Waiting.RUNNABLE;
-    parkingPermit = false;
+    // consume the permit, or stop waiting for one after a timeout or
+    // interrupt. An unpark racing with this either counts as having woken
+    // this park or finds PARK_NO_PERMIT and leaves a permit behind.
+    parkState = PARK_NO_PERMIT;
     if (asyncThrowable != null) {
       throwThis = asyncThrowable;
       asyncThrowable = null;
     }
     monitor().unlock();
+    if (carrying) VirtualThreadScheduler.endBlocking();
 
     if (holdsLock)
       ObjectModel.genericLock(thread);
@@ -3654,10 +4011,26 @@ public final class RVMThread extends ThreadContext {
 
   @Interruptible
   public void unpark() {
-    monitor().lockNoHandshake();
-    parkingPermit = true;
-    monitor().broadcast();
-    monitor().unlock();
+    Offset offset = Entrypoints.parkStateField.getOffset();
+    Magic.sync();
+    for (;;) {
+      int state = parkState;
+      if (state == PARK_PERMIT) {
+        return;
+      } else if (state == PARK_NO_PERMIT) {
+        // fast path: the thread is running, so leave it a permit
+        if (Synchronization.tryCompareAndSwap(this, offset, PARK_NO_PERMIT, PARK_PERMIT)) {
+          return;
+        }
+      } else if (Synchronization.tryCompareAndSwap(this, offset, PARKED, PARK_PERMIT)) {
+        // the thread checks parkState with its monitor held before it
+        // waits, so this cannot slip in between the check and the wait
+        monitor().lockNoHandshake();
+        monitor().broadcast();
+        monitor().unlock();
+        return;
+      }
+    }
   }
 
   /**
@@ -3671,6 +4044,14 @@ public final class RVMThread extends ThreadContext {
     return lockingId;
   }
 
+  /**
+   * @return the thread's id in thin lock words, see {@link #thinLockId}
+   */
+  @Inline
+  public int getThinLockId() {
+    return thinLockId;
+  }
+
   /**
    * Provides a skeleton implementation for use in soft handshakes.
    * <p>
@@ -3926,6 +4307,117 @@ public final class RVMThread extends ThreadContext {
     }
   }
 
+  /**
+   * Asks the threads in {@code handshakeThreads[0, numToHandshake)} to block
+   * and waits until those that run Java code have done so.  The threads are
+   * all asked before any is waited for, and they acknowledge through a
+   * single counter: the requesting thread sleeps until the last of them has
+   * blocked, rather than waiting on each of them in turn.  Threads in native
+   * code are blocked on their behalf, as they cannot return to Java code
+   * while they are blocked.  The handshakeLock must be held.
+   *
+   * @param ba the reason for blocking
+   * @param numToHandshake the number of threads
+   * @param requestTime the time of the stop-the-world request, for the
+   *  time-to-safepoint histograms
+   * @return the number of threads that were waited for
+   */
+  @NoCheckStore
+  @Unpreemptible("Waits for the threads to block")
+  private static int requestSafepoint(BlockAdapter ba, int numToHandshake, long requestTime) {
+    safepointRequestTime = requestTime;
+    int numWaited = 0;
+    int numBlockedInNative = 0;
+    for (int i = 0; i < numToHandshake; i++) {
+      RVMThread t = handshakeThreads[i];
+      handshakeThreads[i] = null; // help GC
+      t.monitor().lockNoHandshake();
+      if (!ba.isBlocked(t)) {
+        int state = t.asyncBlock(ba);
+        observeExecStatusAtSTW(state);
+        if (state == BLOCKED_IN_NATIVE && ba == gcBlockAdapter) {
+          // keep it to scan its stack while we wait for the others
+          handshakeThreads[numBlockedInNative++] = t;
+        }
+        if (!notRunning(state) && !ba.isBlocked(t)) {
+          // the thread runs Java code and will acknowledge at its next
+          // yieldpoint, or when it enters native code or terminates.  count
+          // it while holding its monitor, so that it cannot acknowledge first.
+          t.safepointAckPending = true;
+          safepointLock.lockNoHandshake();
+          safepointAcksPending++;
+          safepointLock.unlock();
+          numWaited++;
+        }
+      }
+      t.monitor().unlock();
+    }
+    for (int i = 0; i < numBlockedInNative; i++) {
+      if (numWaited > 0 && safepointAcksPending > 0) {
+        // the thread cannot leave native code until the collection is over
+        MemoryManager.blockedForCollection(handshakeThreads[i]);
+      }
+      handshakeThreads[i] = null; // help GC
+    }
+    if (numWaited > 0) {
+      safepointLock.lockNoHandshake();
+      while (safepointAcksPending > 0) {
+        safepointLock.waitNoHandshake();
+      }
+      safepointLock.unlock();
+    }
+    return numWaited;
+  }
+
+  /**
+   * @param nanos a time in nanoseconds
+   * @return the bucket of the time in the time-to-safepoint histograms
+   */
+  private static int safepointHistogramBucket(long nanos) {
+    int bucket = 0;
+    for (long micros = nanos / 1000; micros > 0 && bucket < SAFEPOINT_HISTOGRAM_BUCKETS - 1; micros >>= 1) {
+      bucket++;
+    }
+    return bucket;
+  }
+
+  /**
+   * Records the time that a stop-the-world request took until all threads
+   * were blocked.
+   *
+   * @param nanos the time in nanoseconds
+   */
+  private static void recordTimeToSafepoint(long nanos) {
+    safepointLock.lockNoHandshake();
+    numSafepoints++;
+    timeToSafepoint[safepointHistogramBucket(nanos)]++;
+    if (nanos > maxTimeToSafepoint) maxTimeToSafepoint = nanos;
+    safepointLock.unlock();
+  }
+
+  /**
+   * Prints the time-to-safepoint histograms of the stop-the-world requests
+   * (for garbage collection and hard handshakes) and of the threads that
+   * were waited for.
+   */
+  public static void reportTimeToSafepoint() {
+    VM.sysWriteln("Time to safepoint:");
+    VM.sysWriteln("  stop-the-world requests: ", numSafepoints,
+        ", longest: ", maxTimeToSafepoint / 1000, " us");
+    dumpSafepointHisto("Requests (time until all threads blocked)", timeToSafepoint);
+    dumpSafepointHisto("Threads (time until the thread blocked)", threadTimeToSafepoint);
+  }
+
+  private static void dumpSafepointHisto(String name, int[] histo) {
+    VM.sysWriteln("  ", name, ":");
+    for (int i = 0; i < SAFEPOINT_HISTOGRAM_BUCKETS; ++i) {
+      if (histo[i] != 0) {
+        VM.sysWrite("    < ", 1L << i, " us");
+        VM.sysWriteln(" ", histo[i]);
+      }
+    }
+  }
+
   /**
    * Stop all mutator threads. This is current intended to be run by a single thread.
    *
@@ -3936,6 +4428,7 @@ public final class RVMThread extends ThreadContext {
   @Unpreemptible
   public static void blockAllMutatorsForGC() {
     RVMThread.handshakeLock.lockNoHandshake();
+    long before = sysCall.sysNanoTime();
     while (true) {
       // (1) Find all the threads that need to be blocked for GC
       RVMThread.acctLock.lockNoHandshake();
@@ -3948,35 +4441,18 @@ public final class RVMThread extends ThreadContext {
       }
       RVMThread.acctLock.unlock();
 
-      // (2) Remove any threads that have already been blocked from the list.
-      for (int i = 0; i < numToHandshake; i++) {
-        RVMThread t = RVMThread.handshakeThreads[i];
-        t.monitor().lockNoHandshake();
-        if (t.blockedFor(RVMThread.gcBlockAdapter) || RVMThread.notRunning(t.asyncBlock(RVMThread.gcBlockAdapter))) {
-          // Already blocked or not running, remove.
-          RVMThread.handshakeThreads[i--] = RVMThread.handshakeThreads[--numToHandshake];
-          RVMThread.handshakeThreads[numToHandshake] = null; // help GC
-        }
-        t.monitor().unlock();
-      }
-
-      // (3) Quit trying to block threads if all threads are either blocked
-      //     or not running (a thread is "not running" if it is NEW or TERMINATED;
-      //     in the former case it means that the thread has not had start()
-      //     called on it while in the latter case it means that the thread
-      //     is either in the TERMINATED state or is about to be in that state
-      //     real soon now, and will not perform any heap-related work before
-      //     terminating).
-      if (numToHandshake == 0) break;
-
-      // (4) Request a block for GC from all other threads.
-      for (int i = 0; i < numToHandshake; i++) {
-        if (false) VM.sysWriteln("Waiting for ", RVMThread.handshakeThreads[i].getThreadSlot(), " to block.");
-        RVMThread t = RVMThread.handshakeThreads[i];
-        RVMThread.observeExecStatusAtSTW(t.block(RVMThread.gcBlockAdapter));
-        RVMThread.handshakeThreads[i] = null; // help GC
-      }
-    }
+      // (2) Request a block for GC from all of them, and wait until those
+      //     that run Java code have blocked.  Threads that are blocked
+      //     already, in native code or not running (a thread is "not running"
+      //     if it is NEW or TERMINATED; in the former case it means that the
+      //     thread has not had start() called on it while in the latter case
+      //     it means that the thread is either in the TERMINATED state or is
+      //     about to be in that state real soon now, and will not perform any
+      //     heap-related work before terminating) are not waited for.
+      // (3) Quit trying to block threads if we did not have to wait for any.
+      if (requestSafepoint(RVMThread.gcBlockAdapter, numToHandshake, before) == 0) break;
+    }
+    recordTimeToSafepoint(sysCall.sysNanoTime() - before);
     RVMThread.handshakeLock.unlock();
 
     // Deal with terminating threads to ensure that all threads are either dead to MMTk or stopped above.
@@ -4000,6 +4476,8 @@ public final class RVMThread extends ThreadContext {
     }
     RVMThread.acctLock.unlock();
     for (int i = 0; i < numToHandshake; i++) {
+      // roots recorded ahead of the collection are stale now
+      RVMThread.handshakeThreads[i].discardStackRoots();
       RVMThread.handshakeThreads[i].unblock(RVMThread.gcBlockAdapter);
       RVMThread.handshakeThreads[i] = null; // Help GC
     }
@@ -4039,7 +4517,7 @@ public final class RVMThread extends ThreadContext {
     handshakeLock.lockWithHandshake();
     int numLockedLocks = 0;
     for (int i = 0; i < nextSlot;++i) {
-      Monitor l = communicationLockBySlot[i];
+      Monitor l = communicationLockBySlot[i >> LOG_SLOT_CHUNK][i & SLOT_CHUNK_MASK];
       if (l != null) {
         l.lockWithHandshake();
         numLockedLocks++;
@@ -4062,17 +4540,6 @@ public final class RVMThread extends ThreadContext {
       }
       acctLock.unlock();
 
-      for (int i = 0; i < numToHandshake;++i) {
-        RVMThread t = handshakeThreads[i];
-        t.monitor().lockNoHandshake();
-        if (t.blockedFor(ba) ||
-            notRunning(t.asyncBlock(ba))) {
-          // already blocked or not running, remove
-          handshakeThreads[i--] = handshakeThreads[--numToHandshake];
-          handshakeThreads[numToHandshake] = null; // help GC
-        }
-        t.monitor().unlock();
-      }
       // quit trying to block threads if all threads are either blocked
       // or not running (a thread is "not running" if it is NEW or TERMINATED;
       // in the former case it means that the thread has not had start()
@@ -4080,14 +4547,10 @@ public final class RVMThread extends ThreadContext {
       // is either in the TERMINATED state or is about to be in that state
       // real soon now, and will not perform any heap-related stuff before
       // terminating).
-      if (numToHandshake == 0) break;
-      for (int i = 0; i < numToHandshake;++i) {
-        RVMThread t = handshakeThreads[i];
-        observeExecStatusAtSTW(t.block(ba));
-        handshakeThreads[i] = null; // help GC
-      }
+      if (requestSafepoint(ba, numToHandshake, before) == 0) break;
     }
     worldStopped = true;
+    recordTimeToSafepoint(sysCall.sysNanoTime() - before);
 
     processAboutToTerminate(); /*
                                 * ensure that any threads that died while
@@ -4097,7 +4560,7 @@ public final class RVMThread extends ThreadContext {
 
     int numUnlockedLocks = 0;
     for (int i = 0; i < nextSlot;++i) {
-      Monitor l = communicationLockBySlot[i];
+      Monitor l = communicationLockBySlot[i >> LOG_SLOT_CHUNK][i & SLOT_CHUNK_MASK];
       if (l != null) {
         l.unlock();
         numUnlockedLocks++;
@@ -4645,6 +5108,13 @@ public final class RVMThread extends ThreadContext {
     return systemThread != null;
   }
 
+  /**
+   * @return the system thread that this thread runs, or {@code null}
+   */
+  SystemThread getSystemThread() {
+    return systemThread;
+  }
+
   /** @return the collector thread this RVMTHread is running */
   public CollectorThread getCollectorThread() {
     if (VM.VerifyAssertions) VM._assert(isCollectorThread());
@@ -5104,7 +5574,7 @@ public final class RVMThread extends ThreadContext {
       VM.sysWrite(i, ":");
       int threadSlot = array[i];
       VM.sysWrite(threadSlot, ",");
-      dumpThread(threadBySlot[array[i]]);
+      dumpThread(getThreadBySlot(array[i]));
     }
   }
 
@@ -5126,7 +5596,15 @@ public final class RVMThread extends ThreadContext {
     acctLock.lockNoHandshake();
     dumpLock.lockNoHandshake();
     VM.sysWriteln("====== Begin Thread Accounting Dump ======");
-    dumpThreadArray("threadBySlot", threadBySlot, nextSlot);
+    VM.sysWrite("threadBySlot: ");
+    for (int i = 0; i < nextSlot; ++i) {
+      if (i != 0) {
+        VM.sysWrite(", ");
+      }
+      VM.sysWrite(i, ":");
+      dumpThread(getThreadBySlot(i));
+    }
+    VM.sysWriteln();
     dumpThreadSlotArray("aboutToTerminate", aboutToTerminate, aboutToTerminateN);
     VM.sysWrite("freeSlots: ");
     for (int i = 0; i < freeSlotN; ++i) {
@@ -14,11 +14,14 @@ package org.jikesrvm.scheduler;
 
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_DEDICATED_U16_OFFSET;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_DEDICATED_U16_SHIFT;
+import static org.jikesrvm.objectmodel.ThinLockConstants.TL_EPOCH_MASK;
+import static org.jikesrvm.objectmodel.ThinLockConstants.TL_EPOCH_UNIT;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_LOCK_COUNT_MASK;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_LOCK_COUNT_SHIFT;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_LOCK_COUNT_UNIT;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_LOCK_ID_MASK;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_LOCK_ID_SHIFT;
+import static org.jikesrvm.objectmodel.ThinLockConstants.TL_NO_THREAD_ID;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_STAT_BIASABLE;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_STAT_FAT;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_STAT_MASK;
@@ -28,7 +31,9 @@ import static org.jikesrvm.objectmodel.ThinLockConstants.TL_THREAD_ID_SHIFT;
 import static org.jikesrvm.objectmodel.ThinLockConstants.TL_UNLOCK_MASK;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.classloader.RVMType;
 import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.runtime.Time;
 import org.jikesrvm.util.Services;
 import org.vmmagic.pragma.Inline;
 import org.vmmagic.pragma.NoInline;
@@ -52,14 +57,17 @@ public final class ThinLock {
   public static void inlineLock(Object o, Offset lockOffset) {
     Word old = Magic.prepareWord(o, lockOffset); // FIXME: bad for PPC?
     Word id = old.and(TL_THREAD_ID_MASK.or(TL_STAT_MASK));
-    Word tid = Word.fromIntSignExtend(RVMThread.getCurrentThread().getLockingId());
+    RVMThread me = RVMThread.getCurrentThread();
+    Word tid = Word.fromIntSignExtend(me.getThinLockId());
     if (id.EQ(tid)) {
+      // biased in our favor, if the bias is of the current epoch of the type
       Word changed = old.plus(TL_LOCK_COUNT_UNIT);
-      if (!changed.and(TL_LOCK_COUNT_MASK).isZero()) {
+      if (!changed.and(TL_LOCK_COUNT_MASK).isZero() &&
+          old.and(TL_EPOCH_MASK).EQ(getBiasEpoch(o))) {
         setDedicatedU16(o, lockOffset, changed);
         return;
       }
-    } else if (id.EQ(TL_STAT_THIN)) {
+    } else if (id.EQ(me.thinLockUnowned)) {
       // lock is thin and not held by anyone
       if (Magic.attemptWord(o, lockOffset, old, old.or(tid))) {
         Magic.isync();
@@ -75,7 +83,7 @@ public final class ThinLock {
   public static void inlineUnlock(Object o, Offset lockOffset) {
     Word old = Magic.prepareWord(o, lockOffset); // FIXME: bad for PPC?
     Word id = old.and(TL_THREAD_ID_MASK.or(TL_STAT_MASK));
-    Word tid = Word.fromIntSignExtend(RVMThread.getCurrentThread().getLockingId());
+    Word tid = Word.fromIntSignExtend(RVMThread.getCurrentThread().getThinLockId());
     if (id.EQ(tid)) {
       if (!old.and(TL_LOCK_COUNT_MASK).isZero()) {
         setDedicatedU16(o, lockOffset, old.minus(TL_LOCK_COUNT_UNIT));
@@ -96,22 +104,35 @@ public final class ThinLock {
   public static void lock(Object o, Offset lockOffset) {
     if (STATS) fastLocks++;
 
-    Word threadId = Word.fromIntZeroExtend(RVMThread.getCurrentThread().getLockingId());
+    int thinLockId = RVMThread.getCurrentThread().getThinLockId();
+    if (thinLockId == TL_NO_THREAD_ID) {
+      lockInflated(o, lockOffset);
+      return;
+    }
+    Word threadId = Word.fromIntZeroExtend(thinLockId);
 
     for (int cnt = 0;;cnt++) {
       Word old = Magic.getWordAtOffset(o, lockOffset);
       Word stat = old.and(TL_STAT_MASK);
       boolean tryToInflate = false;
+      int inflateCause = LockProfiler.INFLATE_CONTENTION;
       if (stat.EQ(TL_STAT_BIASABLE)) {
         Word id = old.and(TL_THREAD_ID_MASK);
-        if (id.isZero()) {
-          if (ENABLE_BIASED_LOCKING) {
+        RVMType type = Magic.getObjectType(o);
+        Word epoch = Word.fromIntZeroExtend(type.biasEpoch);
+        boolean stale = !id.isZero() && old.and(TL_EPOCH_MASK).NE(epoch);
+        if (id.isZero() || (stale && old.and(TL_LOCK_COUNT_MASK).isZero())) {
+          // a bias of an earlier epoch no longer holds, and nobody holds
+          // the lock, so it may be taken without asking the thread it was
+          // biased to: that thread, too, has to CAS it now
+          if (ENABLE_BIASED_LOCKING && !type.biasingRevoked) {
             // lock is unbiased, bias it in our favor and grab it
             if (Synchronization.tryCompareAndSwap(
                   o, lockOffset,
                   old,
-                  old.or(threadId).plus(TL_LOCK_COUNT_UNIT))) {
+                  old.and(TL_UNLOCK_MASK).or(epoch).or(threadId).plus(TL_LOCK_COUNT_UNIT))) {
               Magic.isync();
+              if (stale) rebiasedLocks++;
               return;
             }
           } else {
@@ -120,21 +141,26 @@ public final class ThinLock {
             if (Synchronization.tryCompareAndSwap(
                   o, lockOffset,
                   old,
-                  old.or(threadId).or(TL_STAT_THIN))) {
+                  old.and(TL_UNLOCK_MASK).or(threadId).or(TL_STAT_THIN))) {
               Magic.isync();
               return;
             }
           }
         } else if (id.EQ(threadId)) {
-          // lock is biased in our favor
+          // lock is biased in our favor, and held by us if the bias is of an
+          // earlier epoch, so nobody else may change it
           Word changed = old.plus(TL_LOCK_COUNT_UNIT);
           if (!changed.and(TL_LOCK_COUNT_MASK).isZero()) {
             setDedicatedU16(o, lockOffset, changed);
             return;
           } else {
             tryToInflate = true;
+            inflateCause = LockProfiler.INFLATE_RECURSION;
           }
         } else {
+          if (!stale && shouldRebiasInBulk(type) && rebiasInBulk(type)) {
+            continue; // the bias is of an earlier epoch now
+          }
           if (casFromBiased(o, lockOffset, old, biasBitsToThinBits(old), cnt)) {
             continue; // don't spin, since it's thin now
           }
@@ -151,6 +177,7 @@ public final class ThinLock {
           Word changed = old.plus(TL_LOCK_COUNT_UNIT);
           if (changed.and(TL_LOCK_COUNT_MASK).isZero()) {
             tryToInflate = true;
+            inflateCause = LockProfiler.INFLATE_RECURSION;
           } else if (Synchronization.tryCompareAndSwap(
                        o, lockOffset, old, changed)) {
             Magic.isync();
@@ -175,7 +202,7 @@ public final class ThinLock {
         // succeeds, we're done.
         // NB: this calls into our attemptToMarkInflated() method, which will do the
         // Right Thing if the lock is biased to someone else.
-        if (inflateAndLock(o, lockOffset)) {
+        if (inflateAndLock(o, lockOffset, inflateCause)) {
           return;
         }
       } else {
@@ -184,11 +211,35 @@ public final class ThinLock {
     }
   }
 
+  /**
+   * Locks an object for a thread that has no thin lock id, by inflating its
+   * lock if it is not fat yet.
+   *
+   * @param o the object to lock
+   * @param lockOffset the offset of the thin lock word in the object
+   */
+  @NoNullCheck
+  @Unpreemptible
+  private static void lockInflated(Object o, Offset lockOffset) {
+    if (STATS) slowLocks++;
+    for (;;) {
+      Word old = Magic.getWordAtOffset(o, lockOffset);
+      if (isFat(old)) {
+        if (Lock.getLock(getLockIndex(old)).lockHeavy(o)) {
+          return;
+        }
+      } else if (inflateAndLock(o, lockOffset, LockProfiler.INFLATE_NO_ID)) {
+        return;
+      }
+      RVMThread.yieldNoHandshake();
+    }
+  }
+
   @NoInline
   @NoNullCheck
   @Unpreemptible
   public static void unlock(Object o, Offset lockOffset) {
-    Word threadId = Word.fromIntZeroExtend(RVMThread.getCurrentThread().getLockingId());
+    Word threadId = Word.fromIntZeroExtend(RVMThread.getCurrentThread().getThinLockId());
     for (int cnt = 0;;cnt++) {
       Word old = Magic.getWordAtOffset(o, lockOffset);
       Word stat = old.and(TL_STAT_MASK);
@@ -237,7 +288,7 @@ public final class ThinLock {
   @NoNullCheck
   public static boolean holdsLock(Object o, Offset lockOffset, RVMThread thread) {
     for (int cnt = 0;;++cnt) {
-      int tid = thread.getLockingId();
+      int tid = thread.getThinLockId();
       Word bits = Magic.getWordAtOffset(o, lockOffset);
       if (bits.and(TL_STAT_MASK).EQ(TL_STAT_BIASABLE)) {
         // if locked, then it is locked with a thin lock
@@ -252,7 +303,7 @@ public final class ThinLock {
         Lock l = Lock.getLock(getLockIndex(bits));
         if (l != null) {
           l.mutex.lock();
-          boolean result = (l.getOwnerId() == tid && l.getLockedObject() == o);
+          boolean result = (l.getOwnerId() == thread.getLockingId() && l.getLockedObject() == o);
           l.mutex.unlock();
           return result;
         }
@@ -347,7 +398,7 @@ public final class ThinLock {
       if (false) VM.sysWriteln("id = ",id);
       int slot = id.toInt() >> TL_THREAD_ID_SHIFT;
       if (false) VM.sysWriteln("slot = ",slot);
-      RVMThread owner = RVMThread.threadBySlot[slot];
+      RVMThread owner = RVMThread.getThreadBySlot(slot);
       if (owner == me /* I own it, so I can unbias it trivially.  This occurs
                        when we are inflating due to, for example, wait() */ ||
           owner == null /* the thread that owned it is dead, so it's safe to
@@ -382,11 +433,81 @@ public final class ThinLock {
         owner.endPairHandshake();
         if (false) VM.sysWriteln("that worked.");
 
+        if (result) {
+          RVMType type = Magic.getObjectType(o);
+          type.biasRevocations++;
+          type.totalBiasRevocations++;
+          handshakeRevocations++;
+        }
+
         return result;
       }
     }
   }
 
+  /**
+   * @param o an object
+   * @return the bias epoch of the type of the object, in the position of the
+   *  epoch in the lock word
+   */
+  @Inline
+  private static Word getBiasEpoch(Object o) {
+    return Word.fromIntZeroExtend(Magic.getObjectType(o).biasEpoch);
+  }
+
+  /**
+   * Have so many biases of instances of a type been revoked that the next
+   * revocation should be done for the type as a whole?
+   *
+   * @param type the type
+   * @return whether to rebias the instances of the type in bulk
+   */
+  @Inline
+  private static boolean shouldRebiasInBulk(RVMType type) {
+    return VM.BulkRebiasThreshold > 0 &&
+      !type.biasingRevoked &&
+      type.biasRevocations >= VM.BulkRebiasThreshold &&
+      !RVMThread.worldStopped() &&
+      !RVMThread.getCurrentThread().isCollectorThread();
+  }
+
+  /**
+   * Revoke the biases of all instances of a type at once, by moving the type
+   * to its next bias epoch with all other threads stopped.  A bias of an
+   * earlier epoch no longer holds: as long as the lock is not held, any
+   * thread may take it and bias it in its own favor with a CAS, without a
+   * handshake with the thread that the lock was biased to.
+   * <p>
+   * If the biases of the type had to be revoked in bulk only a short time
+   * ago, the type is shared between threads too much for biasing to pay off,
+   * so biasing is disabled for it instead; its instances become thin locks
+   * when they are next locked.
+   *
+   * @param type the type
+   * @return {@code true} if the epoch of the type was changed, {@code false}
+   *  if another thread changed it first
+   */
+  @NoInline
+  @Unpreemptible
+  private static boolean rebiasInBulk(RVMType type) {
+    RVMThread.hardHandshakeSuspend();
+    boolean result = type.biasRevocations >= VM.BulkRebiasThreshold && !type.biasingRevoked;
+    if (result) {
+      long now = Time.nanoTime();
+      if (type.lastBulkRebias != 0 && now - type.lastBulkRebias < BULK_REVOKE_INTERVAL) {
+        type.biasingRevoked = true;
+        bulkRevocations++;
+      } else {
+        bulkRebiases++;
+      }
+      type.lastBulkRebias = now;
+      type.biasEpoch = (type.biasEpoch + TL_EPOCH_UNIT.toInt()) & TL_EPOCH_MASK.toInt();
+      type.biasRevocations = 0;
+    }
+    RVMThread.hardHandshakeResume();
+    return result;
+  }
+
   @Inline
   @Unpreemptible
   public static boolean attemptToMarkInflated(Object o, Offset lockOffset,
@@ -536,8 +657,10 @@ public final class ThinLock {
       VM._assert(l != null); // inflate called by wait (or notify) which shouldn't be called during GC
     }
     Lock rtn = attemptToInflate(o, lockOffset, l);
-    if (rtn == l)
+    if (rtn == l) {
       l.mutex.unlock();
+      if (LockProfiler.enabled) LockProfiler.record(LockProfiler.INFLATE_WAIT, o, 0);
+    }
     return rtn;
   }
 
@@ -549,16 +672,19 @@ public final class ThinLock {
    *
    * @param o the object to get a heavy-weight lock
    * @param lockOffset the offset of the thin lock word in the object.
+   * @param cause why the lock is inflated, for the {@link LockProfiler}
    * @return whether the object was successfully locked
    */
   @Unpreemptible
-  private static boolean inflateAndLock(Object o, Offset lockOffset) {
+  private static boolean inflateAndLock(Object o, Offset lockOffset, int cause) {
     Lock l = Lock.allocate();
     if (l == null) return false; // can't allocate locks during GC
     Lock rtn = attemptToInflate(o, lockOffset, l);
     if (l != rtn) {
       l = rtn;
       l.mutex.lock();
+    } else if (LockProfiler.enabled) {
+      LockProfiler.record(cause, o, 0);
     }
     return l.lockHeavyLocked(o);
   }
@@ -609,6 +735,63 @@ public final class ThinLock {
   static int fastLocks;
   static int slowLocks;
 
+  /**
+   * If the biases of a type have to be revoked in bulk twice within this
+   * many nanoseconds, biasing is disabled for the type.
+   */
+  private static final long BULK_REVOKE_INTERVAL = 10L * 1000 * 1000 * 1000;
+
+  /** Number of biases revoked with a handshake with the thread that had the bias */
+  private static int handshakeRevocations;
+  /** Number of biases of an earlier epoch taken over without a handshake */
+  private static int rebiasedLocks;
+  /** Number of times that the biases of the instances of a type were revoked in bulk */
+  private static int bulkRebiases;
+  /** Number of types for which biasing was disabled */
+  private static int bulkRevocations;
+
+  /** Maximum number of types listed by {@link #reportBiasedLocking()} */
+  private static final int REPORTED_TYPES = 20;
+
+  /**
+   * Report how often biases had to be revoked, and the types whose
+   * biases were revoked most often.
+   */
+  public static void reportBiasedLocking() {
+    VM.sysWriteln("BiasedLocks: ", handshakeRevocations, " revoked with a handshake");
+    VM.sysWriteln("BiasedLocks: ", rebiasedLocks, " rebiased without a handshake");
+    VM.sysWriteln("BiasedLocks: ", bulkRebiases, " bulk rebiases");
+    VM.sysWriteln("BiasedLocks: ", bulkRevocations, " types with biasing revoked");
+
+    // select the types in the order of their revocations, without allocating
+    int lastCount = Integer.MAX_VALUE;
+    int lastId = 0;
+    for (int n = 0; n < REPORTED_TYPES; n++) {
+      RVMType next = null;
+      for (int i = 1; i <= RVMType.numTypes(); i++) {
+        RVMType type = RVMType.getType(i);
+        if (type == null) continue;
+        int count = type.totalBiasRevocations;
+        if (count == 0 || count > lastCount || (count == lastCount && i <= lastId)) continue;
+        if (next == null || count > next.totalBiasRevocations) {
+          next = type;
+        }
+      }
+      if (next == null) break;
+      lastCount = next.totalBiasRevocations;
+      lastId = next.getId();
+      VM.sysWrite("BiasedLocks: ");
+      VM.sysWrite(lastCount);
+      VM.sysWrite(" revocations of ");
+      VM.sysWrite(next.getDescriptor());
+      if (next.biasingRevoked) {
+        VM.sysWrite(" (biasing revoked)");
+      }
+      VM.sysWriteln();
+    }
+  }
+
+
   static void notifyAppRunStart(String app, int value) {
     if (!STATS) return;
     fastLocks = 0;
@@ -0,0 +1,73 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.scheduler;
+
+/**
+ * A thread that does not have a native thread or a stack of its own but
+ * runs on one of the carrier threads of the {@link VirtualThreadScheduler}.
+ * <p>
+ * A virtual thread is started like any other thread.  Creating and starting
+ * it costs no more than allocating the objects, so an application may run
+ * a very large number of short tasks as threads.  A virtual thread that
+ * blocks is not unmounted, though: it holds its carrier thread until it
+ * terminates, and at most {@link org.jikesrvm.VM#VirtualThreadMaxCarriers}
+ * of them can be blocked at once.  Virtual threads are always daemon
+ * threads and run at normal priority.
+ */
+public final class VirtualThread extends Thread {
+
+  /** Started, but waiting for a carrier thread */
+  static final int QUEUED = 1;
+  /** Mounted on a carrier thread */
+  static final int RUNNING = 2;
+  /** Finished running */
+  static final int TERMINATED = 3;
+
+  /** The state of the thread after it was started, changed with the lock of the scheduler held */
+  volatile int state;
+
+  /** The carrier thread while the thread is running, changed with the lock of the scheduler held */
+  volatile RVMThread carrier;
+
+  /**
+   * Has the thread been interrupted while it was not running?  Guarded by
+   * the lock of the scheduler.
+   */
+  boolean pendingInterrupt;
+
+  /**
+   * Has the thread been unparked while it was waiting for a carrier
+   * thread?  Guarded by the lock of the scheduler.
+   */
+  boolean pendingUnpark;
+
+  /** The next thread in the queue of the thread while it waits for a carrier thread */
+  VirtualThread next;
+
+  /**
+   * @param target the task to run
+   */
+  public VirtualThread(Runnable target) {
+    super(target);
+    setDaemon(true);
+  }
+
+  /**
+   * @param target the task to run
+   * @param name the name of the thread
+   */
+  public VirtualThread(Runnable target, String name) {
+    super(target, name);
+    setDaemon(true);
+  }
+}
@@ -0,0 +1,624 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.scheduler;
+
+import static org.jikesrvm.runtime.SysCall.sysCall;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.runtime.Time;
+import org.vmmagic.pragma.Interruptible;
+import org.vmmagic.pragma.NonMoving;
+import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.pragma.Unpreemptible;
+
+/**
+ * Runs {@link VirtualThread virtual threads} on a bounded pool of carrier
+ * threads.
+ * <p>
+ * A started virtual thread is queued until a carrier thread takes it.  A
+ * carrier thread then mounts it: the virtual thread becomes the
+ * {@link Thread#currentThread() current thread} of the carrier, and keeps
+ * the carrier until it terminates.  Each carrier has a queue of its own for
+ * the virtual threads started by the virtual thread it runs, so that they
+ * run where their data is, and takes the virtual threads queued by other
+ * carriers when it runs out of work.  The virtual threads started by other
+ * threads go to a shared queue.
+ * <p>
+ * This is not M:N scheduling: a virtual thread is never unmounted.  One
+ * that blocks (in {@code park}, {@link Object#wait()},
+ * {@link Thread#sleep(long)}, {@link Thread#join()} or a native method)
+ * keeps its carrier, with the native thread and stack of the carrier, until
+ * it terminates, as the VM can neither scan nor move the stack of a thread
+ * that no native thread runs.  Virtual threads that mostly block therefore
+ * cost as much as ordinary threads; only short tasks that run to
+ * completion are cheap.
+ * <p>
+ * To keep the other virtual threads running, the scheduler adds a carrier
+ * thread when one blocks, but never more than
+ * {@link VM#VirtualThreadMaxCarriers}.  Once that many carriers are
+ * blocked, queued virtual threads wait until one of them resumes, and a
+ * warning is printed the first time this happens.  A carrier that stays
+ * idle for {@link #KEEP_ALIVE_NANOS} while there are more carriers than
+ * {@link VM#VirtualThreadParallelism} terminates.
+ * <p>
+ * A native method may return quickly, so a carrier that enters one does
+ * not add a carrier itself.  It wakes the spawner thread, which adds a
+ * carrier if the carrier is still blocked after {@link #NATIVE_GRACE_NANOS}.
+ */
+public final class VirtualThreadScheduler {
+
+  /** How long an idle carrier thread beyond the parallelism waits for work before it terminates */
+  private static final long KEEP_ALIVE_NANOS = 10L * 1000 * 1000 * 1000;
+
+  /** How long carriers may be blocked in native code before the spawner adds a carrier */
+  private static final long NATIVE_GRACE_NANOS = 1000L * 1000;
+
+  /** Guards the queues and the carriers */
+  private static Monitor lock;
+
+  /** The virtual threads started by threads that are not carrier threads */
+  private static TaskQueue submitted;
+
+  /** The carrier threads that are running, in {@code [0, numInstalled)} */
+  private static Carrier[] carriers;
+  private static int numInstalled;
+
+  /** The number of carrier threads, including those that are being created */
+  private static int numCarriers;
+
+  /** The number of carrier threads whose virtual threads are blocked */
+  private static int numBlocked;
+
+  /** The number of carrier threads waiting for work */
+  private static int numIdle;
+
+  /** The number of queued virtual threads */
+  private static int numQueued;
+
+  /** The number of carrier threads that run at once, and the largest number of carrier threads */
+  private static int parallelism;
+  private static int maxCarriers;
+
+  /** The number of carrier threads that have been created, to name them */
+  private static int numCreated;
+
+  /** Has the warning that all carrier threads are blocked been printed? */
+  private static boolean warnedAllBlocked;
+
+  /**
+   * Has a carrier thread entered native code while virtual threads were
+   * queued and no carrier thread was idle?  Tells the spawner thread to
+   * check whether a carrier thread must be added.
+   */
+  private static boolean spawnRequested;
+
+  private VirtualThreadScheduler() {}
+
+  /**
+   * Initializes the scheduler.  The carrier threads are started when the
+   * first virtual thread starts.
+   */
+  @Interruptible
+  public static void boot() {
+    lock = new Monitor();
+    submitted = new TaskQueue();
+  }
+
+  /**
+   * Sizes the pool when the first virtual thread starts, after the command
+   * line has been read.
+   */
+  @Interruptible
+  private static synchronized void initialize() {
+    if (carriers != null) return;
+    parallelism = VM.VirtualThreadParallelism > 0 ? VM.VirtualThreadParallelism : RVMThread.availableProcessors;
+    if (parallelism < 1) parallelism = 1;
+    maxCarriers = Math.max(parallelism, VM.VirtualThreadMaxCarriers);
+    carriers = new Carrier[maxCarriers];
+    new Spawner().start();
+  }
+
+  /**
+   * Queues a virtual thread to run on a carrier thread.
+   *
+   * @param v the thread, which has not been started
+   */
+  @Interruptible
+  public static void start(VirtualThread v) {
+    if (carriers == null) initialize();
+    if (enqueue(v, currentCarrier())) {
+      addCarrier();
+    }
+  }
+
+  /**
+   * @return the carrier thread that the current thread is, or {@code null}
+   */
+  @Uninterruptible
+  private static Carrier currentCarrier() {
+    RVMThread me = RVMThread.getCurrentThread();
+    return me.getJavaLangThread() instanceof VirtualThread ? (Carrier) me.getSystemThread() : null;
+  }
+
+  /**
+   * Queues a virtual thread and wakes an idle carrier thread.
+   *
+   * @param v the thread
+   * @param local the current carrier thread, or {@code null}
+   * @return {@code true} if a carrier thread was reserved for the caller to
+   *  add, as none is idle
+   */
+  @Uninterruptible
+  private static boolean enqueue(VirtualThread v, Carrier local) {
+    lock.lockNoHandshake();
+    v.state = VirtualThread.QUEUED;
+    if (local != null) {
+      local.queue.add(v);
+    } else {
+      submitted.add(v);
+    }
+    numQueued++;
+    boolean reserved = false;
+    if (numIdle > 0) {
+      lock.broadcast();
+    } else {
+      reserved = reserveCarrier();
+    }
+    lock.unlock();
+    return reserved;
+  }
+
+  /**
+   * Reserves a carrier thread if fewer than the parallelism are running
+   * and the pool is below its largest size.  Called with the lock held.
+   *
+   * @return whether the caller must add a carrier thread
+   */
+  @Uninterruptible
+  private static boolean reserveCarrier() {
+    if (numCarriers - numBlocked < parallelism && numCarriers < maxCarriers) {
+      numCarriers++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Prints a warning the first time that every carrier thread of a full
+   * pool is blocked while virtual threads are queued.  Called with the
+   * lock held, after a carrier thread could not be reserved.
+   */
+  @Uninterruptible
+  private static void checkAllBlocked() {
+    if (!warnedAllBlocked && numQueued > 0 && numBlocked >= maxCarriers) {
+      warnedAllBlocked = true;
+      VM.sysWriteln("Warning: all ", maxCarriers,
+          " carrier threads are blocked, queued virtual threads wait until one resumes (see -X:vm:VirtualThreadMaxCarriers)");
+    }
+  }
+
+  /**
+   * Creates and starts a carrier thread that has been reserved.
+   */
+  @Interruptible
+  private static void addCarrier() {
+    Carrier c = new Carrier("VirtualThreadCarrier-" + nextCarrierNumber());
+    install(c);
+    c.start();
+  }
+
+  private static synchronized int nextCarrierNumber() {
+    return numCreated++;
+  }
+
+  @Uninterruptible
+  private static void install(Carrier c) {
+    lock.lockNoHandshake();
+    carriers[numInstalled++] = c;
+    lock.unlock();
+  }
+
+  /**
+   * Takes the next virtual thread for a carrier thread to run: one from its
+   * own queue, or else from the shared queue, or else from the queue of
+   * another carrier.  Waits if there is none.
+   *
+   * @param c the carrier thread
+   * @return the virtual thread, or {@code null} if the carrier thread has
+   *  been idle for long enough to terminate
+   */
+  @Unpreemptible("Waits for work with a handshake")
+  private static VirtualThread take(Carrier c) {
+    lock.lockNoHandshake();
+    VirtualThread v;
+    while (true) {
+      v = c.queue.poll();
+      if (v == null) v = submitted.poll();
+      for (int i = 0; v == null && i < numInstalled; i++) {
+        v = carriers[i].queue.poll();
+      }
+      if (v != null) break;
+
+      numIdle++;
+      long start = sysCall.sysNanoTime();
+      lock.timedWaitRelativeWithHandshake(KEEP_ALIVE_NANOS);
+      numIdle--;
+      if (sysCall.sysNanoTime() - start >= KEEP_ALIVE_NANOS && numQueued == 0 &&
+          numCarriers - numBlocked > parallelism) {
+        uninstall(c);
+        break;
+      }
+    }
+    if (v != null) numQueued--;
+    lock.unlock();
+    return v;
+  }
+
+  /**
+   * Removes a carrier thread that terminates.  Called with the lock held.
+   *
+   * @param c the carrier thread
+   */
+  @Uninterruptible
+  private static void uninstall(Carrier c) {
+    for (int i = 0; i < numInstalled; i++) {
+      if (carriers[i] == c) {
+        carriers[i] = carriers[--numInstalled];
+        carriers[numInstalled] = null;
+        break;
+      }
+    }
+    numCarriers--;
+  }
+
+  /**
+   * Runs a virtual thread on the current carrier thread.
+   *
+   * @param c the current carrier thread
+   * @param v the virtual thread
+   */
+  @Interruptible
+  private static void run(Carrier c, VirtualThread v) {
+    RVMThread me = c.getRVMThread();
+    me.mountVirtualThread(v);
+    mount(me, v);
+    try {
+      synchronized (v) {
+        Throwable t = java.lang.JikesRVMSupport.getStillBorn(v);
+        if (t != null) {
+          java.lang.JikesRVMSupport.setStillBorn(v, null);
+          throw t;
+        }
+      }
+      v.run();
+    } catch (Throwable t) {
+      try {
+        v.getUncaughtExceptionHandler().uncaughtException(v, t);
+      } catch (Throwable ignore) {
+      }
+    }
+    // allow java.lang.Thread.exit() to remove the thread from its ThreadGroup
+    java.lang.JikesRVMSupport.threadDied(v);
+    unmount(me, v);
+    me.unmountVirtualThread(c.ownThread);
+    synchronized (v) {
+      v.notifyAll();
+    }
+  }
+
+  @Uninterruptible
+  private static void mount(RVMThread me, VirtualThread v) {
+    lock.lockNoHandshake();
+    v.carrier = me;
+    v.state = VirtualThread.RUNNING;
+    if (v.pendingInterrupt) {
+      v.pendingInterrupt = false;
+      me.hasInterrupt = true;
+    }
+    if (v.pendingUnpark) {
+      v.pendingUnpark = false;
+      me.grantParkPermit();
+    }
+    lock.unlock();
+  }
+
+  @Uninterruptible
+  private static void unmount(RVMThread me, VirtualThread v) {
+    lock.lockNoHandshake();
+    v.carrier = null;
+    v.state = VirtualThread.TERMINATED;
+    // an interrupt of the terminated thread must not reach the next one
+    me.hasInterrupt = false;
+    lock.unlock();
+  }
+
+  /**
+   * Called by the current thread, which runs a virtual thread, before it
+   * blocks.  Adds a carrier thread if none is left to run the queued
+   * virtual threads and the pool is not full.
+   */
+  @Interruptible
+  static void beginBlocking() {
+    if (blocking()) {
+      addCarrier();
+    }
+  }
+
+  @Uninterruptible
+  private static boolean blocking() {
+    lock.lockNoHandshake();
+    numBlocked++;
+    boolean reserved = numQueued > 0 && numIdle == 0 && reserveCarrier();
+    if (!reserved) checkAllBlocked();
+    lock.unlock();
+    return reserved;
+  }
+
+  /**
+   * Called by the current thread, which runs a virtual thread, after it
+   * blocked.
+   */
+  @Uninterruptible
+  static void endBlocking() {
+    lock.lockNoHandshake();
+    numBlocked--;
+    lock.unlock();
+  }
+
+  /**
+   * Called by the current thread, which runs a virtual thread, before it
+   * calls a native method.  The carrier thread counts as blocked until
+   * {@link #endBlocking()}.  As this may not allocate, the spawner thread
+   * adds a carrier thread if one is needed.
+   */
+  @Uninterruptible
+  static void enterNative() {
+    lock.lockNoHandshake();
+    numBlocked++;
+    if (numQueued > 0 && numIdle == 0) {
+      spawnRequested = true;
+      lock.broadcast();
+    }
+    lock.unlock();
+  }
+
+  /**
+   * Waits until a carrier thread that entered native code asks for a
+   * carrier thread to be added.
+   */
+  @Unpreemptible("Waits for a request with a handshake")
+  private static void awaitSpawnRequest() {
+    lock.lockNoHandshake();
+    while (!spawnRequested) {
+      lock.waitWithHandshake();
+    }
+    spawnRequested = false;
+    lock.unlock();
+  }
+
+  /**
+   * @return whether a carrier thread was reserved for the spawner thread
+   *  to add, as virtual threads are still queued and no carrier thread
+   *  is left to run them
+   */
+  @Uninterruptible
+  private static boolean reserveForBlockedCarriers() {
+    lock.lockNoHandshake();
+    boolean reserved = numQueued > 0 && numIdle == 0 && reserveCarrier();
+    if (!reserved) checkAllBlocked();
+    lock.unlock();
+    return reserved;
+  }
+
+  /**
+   * @param v a virtual thread
+   * @return the carrier thread that runs it, or {@code null} if it is not
+   *  running
+   */
+  @Uninterruptible
+  public static RVMThread getCarrier(VirtualThread v) {
+    return v.carrier;
+  }
+
+  /**
+   * @param v a started virtual thread
+   * @return its state
+   */
+  @Interruptible
+  public static Thread.State getState(VirtualThread v) {
+    RVMThread c = v.carrier;
+    switch (v.state) {
+      case VirtualThread.QUEUED:
+        return Thread.State.RUNNABLE;
+      case VirtualThread.RUNNING:
+        if (c != null) return c.getState();
+        return Thread.State.RUNNABLE;
+      default:
+        return Thread.State.TERMINATED;
+    }
+  }
+
+  /**
+   * Interrupts a virtual thread.
+   *
+   * @param v the thread
+   */
+  @Uninterruptible
+  public static void interrupt(VirtualThread v) {
+    lock.lockNoHandshake();
+    RVMThread c = v.carrier;
+    if (c != null) {
+      c.monitor().lockNoHandshake();
+      c.hasInterrupt = true;
+      c.monitor().broadcast();
+      c.monitor().unlock();
+    } else if (v.state != VirtualThread.TERMINATED) {
+      v.pendingInterrupt = true;
+    }
+    lock.unlock();
+  }
+
+  /**
+   * Makes a permit available to a virtual thread, as
+   * {@link java.util.concurrent.locks.LockSupport#unpark(Thread)}.  The
+   * permit of a virtual thread that is not running is kept until it is
+   * mounted.
+   *
+   * @param v the thread
+   */
+  @Interruptible
+  public static void unpark(VirtualThread v) {
+    RVMThread c = permitCarrier(v);
+    if (c != null) c.unpark();
+  }
+
+  /**
+   * Keeps the permit of a virtual thread that is not running.
+   *
+   * @param v the thread
+   * @return the carrier thread to unpark, or {@code null} if the permit
+   *  has been kept or the thread has terminated
+   */
+  @Uninterruptible
+  private static RVMThread permitCarrier(VirtualThread v) {
+    lock.lockNoHandshake();
+    RVMThread c = v.carrier;
+    if (c == null && v.state == VirtualThread.QUEUED) {
+      v.pendingUnpark = true;
+    }
+    lock.unlock();
+    return c;
+  }
+
+  /**
+   * @param v a virtual thread
+   * @return whether it has been interrupted
+   */
+  @Uninterruptible
+  public static boolean isInterrupted(VirtualThread v) {
+    lock.lockNoHandshake();
+    RVMThread c = v.carrier;
+    boolean result = c != null ? c.hasInterrupt : v.pendingInterrupt;
+    lock.unlock();
+    return result;
+  }
+
+  /**
+   * Waits for a virtual thread to terminate.
+   *
+   * @param v the thread
+   * @param ms milliseconds to wait, or 0 with {@code ns} 0 to wait until it terminates
+   * @param ns nanoseconds to wait
+   * @throws InterruptedException if the current thread is interrupted
+   */
+  @Interruptible
+  public static void join(VirtualThread v, long ms, int ns) throws InterruptedException {
+    synchronized (v) {
+      if (ms == 0 && ns == 0) {
+        while (v.state != VirtualThread.TERMINATED) {
+          v.wait();
+        }
+      } else {
+        long whenEnd = Time.nanoTime() + ms * 1000L * 1000L + ns;
+        while (v.state != VirtualThread.TERMINATED) {
+          long left = whenEnd - Time.nanoTime();
+          if (left <= 0) break;
+          v.wait(left / (1000L * 1000L), (int) (left % (1000L * 1000L)));
+        }
+      }
+    }
+  }
+
+  /**
+   * The virtual threads queued on a carrier thread, or started by other
+   * threads, linked through the threads.
+   */
+  @Uninterruptible
+  private static final class TaskQueue {
+    private VirtualThread head;
+    private VirtualThread tail;
+
+    void add(VirtualThread v) {
+      v.next = null;
+      if (tail == null) {
+        head = v;
+      } else {
+        tail.next = v;
+      }
+      tail = v;
+    }
+
+    VirtualThread poll() {
+      VirtualThread v = head;
+      if (v != null) {
+        head = v.next;
+        if (head == null) tail = null;
+        v.next = null;
+      }
+      return v;
+    }
+  }
+
+  /**
+   * Adds a carrier thread when the carrier threads stay blocked in native
+   * code while virtual threads are queued.
+   */
+  @NonMoving
+  private static final class Spawner extends SystemThread {
+    Spawner() {
+      super("VirtualThreadSpawner");
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        awaitSpawnRequest();
+        try {
+          // most native methods return before this
+          RVMThread.sleep(NATIVE_GRACE_NANOS);
+        } catch (InterruptedException e) {
+          // check now
+        }
+        if (reserveForBlockedCarriers()) {
+          addCarrier();
+        }
+      }
+    }
+  }
+
+  /**
+   * A thread that runs virtual threads.
+   */
+  @NonMoving
+  private static final class Carrier extends SystemThread {
+    /** The virtual threads started by the virtual threads that this carrier runs */
+    final TaskQueue queue = new TaskQueue();
+
+    /** The java.lang.Thread of the carrier, while it does not run a virtual thread */
+    final Thread ownThread;
+
+    Carrier(String name) {
+      super(name);
+      ownThread = rvmThread.getJavaLangThread();
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        VirtualThread v = take(this);
+        if (v == null) return;
+        VirtualThreadScheduler.run(this, v);
+      }
+    }
+  }
+}
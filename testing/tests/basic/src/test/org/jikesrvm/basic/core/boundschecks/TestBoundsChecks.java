@@ -0,0 +1,173 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package test.org.jikesrvm.basic.core.boundschecks;
+
+/**
+ * Loops whose bounds checks can be proven redundant next to near misses
+ * whose checks must stay, so that an over-eager bounds check eliminator
+ * shows up as a missing exception.  The near misses run often enough to be
+ * optimized; the test is also run with every method compiled at O3, where
+ * ABCD is enabled.
+ */
+public class TestBoundsChecks {
+
+  private static final int ITERATIONS = 2000;
+  private static final int NEAR_MISS_ITERATIONS = 20000;
+
+  public static void main(String[] args) {
+    int[] a = new int[10];
+    int[][] image = new int[8][12];
+    long sum = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      sum += countUp(a);
+      sum += countDown(a);
+      sum += pairs(a);
+      sum += image(image);
+      sum += fixedSize(7);
+    }
+    System.out.println("Sum: " + sum);
+
+    int[] b = new int[5];
+    int[][] jagged = {new int[4], new int[2]};
+    int offByOne = 0;
+    int startsNegative = 0;
+    int wrongArray = 0;
+    int overflow = 0;
+    int jaggedCaught = 0;
+    for (int i = 0; i < NEAR_MISS_ITERATIONS; i++) {
+      if (offByOne(a)) offByOne++;
+      if (startsNegative(a)) startsNegative++;
+      if (wrongArray(a, b)) wrongArray++;
+      if (overflow(a, Integer.MAX_VALUE)) overflow++;
+      if (jagged(jagged)) jaggedCaught++;
+    }
+    report("offByOne", offByOne);
+    report("startsNegative", startsNegative);
+    report("wrongArray", wrongArray);
+    report("overflow", overflow);
+    report("jagged", jaggedCaught);
+  }
+
+  static void report(String name, int caught) {
+    if (caught == NEAR_MISS_ITERATIONS) {
+      System.out.println(name + ": caught AIOOBE");
+    } else {
+      System.out.println(name + ": no exception in " + (NEAR_MISS_ITERATIONS - caught) + " runs");
+    }
+  }
+
+  static int countUp(int[] a) {
+    int sum = 0;
+    for (int i = 0; i < a.length; i++) {
+      a[i] = i;
+      sum += a[i];
+    }
+    return sum;
+  }
+
+  static int countDown(int[] a) {
+    int sum = 0;
+    for (int i = a.length - 1; i >= 0; i--) {
+      sum += a[i];
+    }
+    return sum;
+  }
+
+  static int pairs(int[] a) {
+    int sum = 0;
+    for (int i = 0; i < a.length - 1; i++) {
+      sum += a[i] * a[i + 1];
+    }
+    return sum;
+  }
+
+  static int image(int[][] image) {
+    int sum = 0;
+    for (int y = 0; y < image.length; y++) {
+      int[] row = image[y];
+      for (int x = 0; x < row.length; x++) {
+        row[x] = x + y;
+        sum += row[x];
+      }
+    }
+    return sum;
+  }
+
+  static int fixedSize(int n) {
+    int[] b = new int[n];
+    int sum = 0;
+    for (int i = 0; i < n; i++) {
+      b[i] = i;
+      sum += b[i];
+    }
+    return sum;
+  }
+
+  static boolean offByOne(int[] a) {
+    try {
+      for (int i = 0; i <= a.length; i++) {
+        a[i] = i;
+      }
+      return false;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      return true;
+    }
+  }
+
+  static boolean startsNegative(int[] a) {
+    try {
+      for (int i = -1; i < a.length; i++) {
+        a[i] = i;
+      }
+      return false;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      return true;
+    }
+  }
+
+  static boolean wrongArray(int[] a, int[] b) {
+    try {
+      for (int i = 0; i < a.length; i++) {
+        b[i] = a[i];
+      }
+      return false;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      return true;
+    }
+  }
+
+  static boolean overflow(int[] a, int start) {
+    try {
+      for (int i = start; i > 0; i++) {
+        a[i + 1] = i;
+      }
+      return false;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      return true;
+    }
+  }
+
+  static boolean jagged(int[][] image) {
+    try {
+      int width = image[0].length;
+      for (int y = 0; y < image.length; y++) {
+        for (int x = 0; x < width; x++) {
+          image[y][x] = x;
+        }
+      }
+      return false;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      return true;
+    }
+  }
+}
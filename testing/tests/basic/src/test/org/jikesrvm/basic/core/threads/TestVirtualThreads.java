@@ -0,0 +1,180 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package test.org.jikesrvm.basic.core.threads;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jikesrvm.scheduler.VirtualThread;
+
+/**
+ * Test that virtual threads run, see themselves as the current thread,
+ * block without stopping the other virtual threads, and can be interrupted
+ * and joined.  Also run with one carrier thread at a time and a pool of
+ * two carrier threads; the argument is then the number of virtual threads
+ * that may block at once.
+ */
+public class TestVirtualThreads {
+  private static final int NUM_THREADS = 10000;
+  private static final long PARK_LIMIT_NANOS = 10L * 1000 * 1000 * 1000;
+
+  private static final AtomicInteger ran = new AtomicInteger();
+  private static final AtomicInteger wrongCurrentThread = new AtomicInteger();
+
+  public static void main(String[] args) throws Exception {
+    int blocking = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2 + 1;
+    unparkQueued();
+    runMany();
+    blockAll(blocking);
+    interruptWait();
+    children();
+  }
+
+  /** Runs more virtual threads than the VM could run native threads */
+  private static void runMany() throws Exception {
+    Thread[] threads = new Thread[NUM_THREADS];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new VirtualThread(new Runnable() {
+        public void run() {
+          if (!(Thread.currentThread() instanceof VirtualThread)) {
+            wrongCurrentThread.incrementAndGet();
+          }
+          ran.incrementAndGet();
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    System.out.println("ran: " + ran.get() + ", wrong current thread: " + wrongCurrentThread.get());
+  }
+
+  /**
+   * Parks virtual threads until the last one runs, which only finishes if
+   * the blocked threads do not keep the last one from running.
+   *
+   * @param n the number of threads, more than there are processors unless
+   *  the pool of carrier threads is smaller
+   */
+  private static void blockAll(int n) throws Exception {
+    final AtomicInteger parked = new AtomicInteger();
+    final Thread[] threads = new Thread[n];
+    for (int i = 0; i < n; i++) {
+      final int index = i;
+      threads[i] = new VirtualThread(new Runnable() {
+        public void run() {
+          if (parked.incrementAndGet() == threads.length) {
+            for (int j = 0; j < threads.length; j++) {
+              if (j != index) LockSupport.unpark(threads[j]);
+            }
+          } else {
+            while (parked.get() < threads.length) {
+              LockSupport.park();
+            }
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    System.out.println("all parked threads released");
+  }
+
+  /**
+   * Unparks a virtual thread that may still wait for a carrier thread, as
+   * the only carrier thread that may run is busy.  The thread must not
+   * lose the permit.  Runs first, so that no idle carrier thread is left
+   * over from the other tests.
+   */
+  private static void unparkQueued() throws Exception {
+    final AtomicBoolean release = new AtomicBoolean();
+    final long[] parkedNanos = new long[1];
+    Thread spinner = new VirtualThread(new Runnable() {
+      public void run() {
+        while (!release.get()) {
+          // keep the carrier thread busy
+        }
+      }
+    });
+    Thread parker = new VirtualThread(new Runnable() {
+      public void run() {
+        long start = System.nanoTime();
+        LockSupport.parkNanos(PARK_LIMIT_NANOS);
+        parkedNanos[0] = System.nanoTime() - start;
+      }
+    });
+    spinner.start();
+    parker.start();
+    LockSupport.unpark(parker);
+    release.set(true);
+    spinner.join();
+    parker.join();
+    System.out.println("unparked before it ran: " + (parkedNanos[0] < PARK_LIMIT_NANOS / 2));
+  }
+
+  private static void interruptWait() throws Exception {
+    final Object lock = new Object();
+    final AtomicInteger interrupted = new AtomicInteger();
+    Thread t = new VirtualThread(new Runnable() {
+      public void run() {
+        synchronized (lock) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            interrupted.incrementAndGet();
+          }
+        }
+      }
+    }, "waiter");
+    t.start();
+    while (t.getState() != Thread.State.WAITING) {
+      Thread.sleep(10);
+    }
+    t.interrupt();
+    t.join();
+    System.out.println(t.getName() + " interrupted: " + interrupted.get() + ", alive: " + t.isAlive());
+  }
+
+  /** Virtual threads started by a virtual thread */
+  private static void children() throws Exception {
+    final AtomicInteger sum = new AtomicInteger();
+    Thread parent = new VirtualThread(new Runnable() {
+      public void run() {
+        Thread[] children = new Thread[100];
+        for (int i = 0; i < children.length; i++) {
+          final int value = i;
+          children[i] = new VirtualThread(new Runnable() {
+            public void run() {
+              sum.addAndGet(value);
+            }
+          });
+          children[i].start();
+        }
+        try {
+          for (Thread child : children) {
+            child.join();
+          }
+        } catch (InterruptedException e) {
+          System.out.println("join interrupted");
+        }
+      }
+    });
+    parent.start();
+    parent.join();
+    System.out.println("sum of children: " + sum.get());
+  }
+}
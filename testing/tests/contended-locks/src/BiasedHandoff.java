@@ -0,0 +1,135 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+
+/**
+ * Measures the cost of handing objects from a producer thread to a consumer
+ * thread when both lock them.  The producer creates batches of objects of
+ * one class and locks each of them, which biases their locks towards it,
+ * and the consumer then locks each of them again, which revokes the biases.
+ * Unless the biases of the class are revoked in bulk, each object costs a
+ * handshake between the two threads.
+ * <p>
+ * Arguments: the number of batches (default 200), the number of objects in
+ * a batch (default 5000), and the number of runs (default 5).
+ */
+class BiasedHandoff {
+
+  static final class Item {
+    int value;
+
+    synchronized void set(int v) {
+      value = v;
+    }
+
+    synchronized int get() {
+      return value;
+    }
+  }
+
+  /** The batch handed from the producer to the consumer, or null */
+  static Item[] slot;
+  static final Object slotLock = new Object();
+
+  public static void main(String[] args) throws InterruptedException {
+    int batches = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    for (int run = 1; run <= runs; run++) {
+      if (!measure(run, batches, batchSize)) {
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Hands the batches over once and prints how long it took.
+   *
+   * @param run the number of the run
+   * @param batches the number of batches
+   * @param batchSize the number of objects in a batch
+   * @return whether the consumer saw all the values of the producer
+   */
+  static boolean measure(int run, final int batches, final int batchSize) throws InterruptedException {
+    final long[] sum = new long[1];
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        for (int b = 0; b < batches; b++) {
+          Item[] batch = new Item[batchSize];
+          for (int i = 0; i < batchSize; i++) {
+            batch[i] = new Item();
+            batch[i].set(i);
+          }
+          put(batch);
+        }
+      }
+    };
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        long s = 0;
+        for (int b = 0; b < batches; b++) {
+          Item[] batch = take();
+          for (Item item : batch) {
+            s += item.get();
+          }
+        }
+        sum[0] = s;
+      }
+    };
+    long start = System.nanoTime();
+    producer.start();
+    consumer.start();
+    producer.join();
+    consumer.join();
+    long elapsed = (System.nanoTime() - start) / 1000000;
+    long expected = (long) batches * batchSize * (batchSize - 1) / 2;
+    if (sum[0] != expected) {
+      System.out.println(run + " handoff: summed " + sum[0] + " instead of " + expected);
+      return false;
+    }
+    System.out.println(run + " handoff time: " + elapsed + " ms");
+    return true;
+  }
+
+  static void put(Item[] batch) {
+    synchronized (slotLock) {
+      while (slot != null) {
+        try {
+          slotLock.wait();
+        } catch (InterruptedException e) {
+          throw new Error(e);
+        }
+      }
+      slot = batch;
+      slotLock.notifyAll();
+    }
+  }
+
+  static Item[] take() {
+    synchronized (slotLock) {
+      while (slot == null) {
+        try {
+          slotLock.wait();
+        } catch (InterruptedException e) {
+          throw new Error(e);
+        }
+      }
+      Item[] batch = slot;
+      slot = null;
+      slotLock.notifyAll();
+      return batch;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+
+/**
+ * Measures the throughput of threads that contend for a single monitor.
+ * Each thread enters the monitor a fixed number of times, does some work
+ * while holding it and some work outside of it.  The work inside the
+ * monitor is either short, so that waiting threads are best off spinning,
+ * or long, so that they are best off blocking.
+ * <p>
+ * Arguments: the number of threads (default 8), the number of times each
+ * thread enters the monitor (default 200000), and the number of runs
+ * (default 5).
+ */
+class ContendedLocks {
+
+  static final Object lock = new Object();
+  static long counter;
+  static volatile int sink;
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    for (int run = 1; run <= runs; run++) {
+      if (!measure(run, "short", threads, iterations, 10, 100) ||
+          !measure(run, "long", threads, iterations / 10, 2000, 2000)) {
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Runs the threads once and prints how long they took.
+   *
+   * @param run the number of the run
+   * @param name the name of the kind of critical section
+   * @param threads the number of threads
+   * @param iterations the number of times each thread enters the monitor
+   * @param inside the amount of work in the monitor
+   * @param outside the amount of work outside the monitor
+   * @return whether the monitor excluded the threads from each other
+   */
+  static boolean measure(int run, String name, int threads, final int iterations,
+                         final int inside, final int outside) throws InterruptedException {
+    counter = 0;
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < iterations; j++) {
+            synchronized (lock) {
+              counter++;
+              work(inside);
+            }
+            work(outside);
+          }
+        }
+      };
+    }
+    long start = System.nanoTime();
+    for (Thread t : workers) {
+      t.start();
+    }
+    for (Thread t : workers) {
+      t.join();
+    }
+    long elapsed = (System.nanoTime() - start) / 1000000;
+    long expected = (long) threads * iterations;
+    if (counter != expected) {
+      System.out.println(run + " " + name + ": counted " + counter + " instead of " + expected);
+      return false;
+    }
+    System.out.println(run + " " + name + " time: " + elapsed + " ms");
+    return true;
+  }
+
+  static void work(int amount) {
+    int x = sink;
+    for (int i = 0; i < amount; i++) {
+      x = x * 31 + i;
+    }
+    sink = x;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Measures how fast threads hand work to each other through
+ * java.util.concurrent queues, which park and unpark threads.  In the
+ * ping-pong run two threads pass a token back and forth through queues of
+ * capacity one, so nearly every put unparks a thread that is parked.  In
+ * the pipeline run a chain of threads passes messages through larger
+ * queues, so most unparks find their thread running.
+ * <p>
+ * Arguments: the number of threads in the pipeline (default 8), the number
+ * of messages (default 200000), and the number of runs (default 5).
+ */
+class QueuePingPong {
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    for (int run = 1; run <= runs; run++) {
+      if (!measure(run, "pingpong", 2, 1, messages) ||
+          !measure(run, "pipeline", threads, 64, messages)) {
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Sends messages around a ring of threads once and prints how long it took.
+   *
+   * @param run the number of the run
+   * @param name the name of the kind of run
+   * @param threads the number of threads in the ring
+   * @param capacity the capacity of each queue
+   * @param messages the number of messages that the first thread sends
+   * @return whether every message came back in order
+   */
+  static boolean measure(int run, String name, int threads, final int capacity,
+                         final int messages) throws InterruptedException {
+    final BlockingQueue<Integer>[] queues = createQueues(threads, capacity);
+    final boolean[] ok = {true};
+    Thread[] stages = new Thread[threads];
+    stages[0] = new Thread() {
+      @Override
+      public void run() {
+        try {
+          // keep no more messages in flight than the first queue holds,
+          // so that the ring cannot fill up and deadlock
+          int inFlight = Math.min(messages, capacity);
+          for (int i = 0; i < inFlight; i++) {
+            queues[0].put(i);
+          }
+          for (int i = 0; i < messages; i++) {
+            if (queues[queues.length - 1].take() != i) {
+              ok[0] = false;
+            }
+            if (i + inFlight < messages) {
+              queues[0].put(i + inFlight);
+            }
+          }
+        } catch (InterruptedException e) {
+          ok[0] = false;
+        }
+      }
+    };
+    for (int i = 1; i < threads; i++) {
+      final BlockingQueue<Integer> in = queues[i - 1];
+      final BlockingQueue<Integer> out = queues[i];
+      stages[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < messages; j++) {
+              out.put(in.take());
+            }
+          } catch (InterruptedException e) {
+            ok[0] = false;
+          }
+        }
+      };
+    }
+    long start = System.nanoTime();
+    for (Thread t : stages) {
+      t.start();
+    }
+    for (Thread t : stages) {
+      t.join();
+    }
+    long elapsed = (System.nanoTime() - start) / 1000000;
+    if (!ok[0]) {
+      System.out.println(run + " " + name + ": messages lost or reordered");
+      return false;
+    }
+    System.out.println(run + " " + name + " time: " + elapsed + " ms");
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  static BlockingQueue<Integer>[] createQueues(int threads, int capacity) {
+    BlockingQueue<Integer>[] queues = new BlockingQueue[threads];
+    for (int i = 0; i < threads; i++) {
+      queues[i] = new ArrayBlockingQueue<Integer>(capacity);
+    }
+    return queues;
+  }
+}
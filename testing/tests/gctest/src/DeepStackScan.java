@@ -0,0 +1,115 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+
+/**
+ * Collect while a few threads have very deep stacks, so that their stacks
+ * are split into segments when they are scanned.  Every frame keeps the
+ * only reference to an object of its own, and passes another one on to the
+ * frame below, so roots in the frames at the boundaries of the segments are
+ * checked as well as those in the middle.
+ */
+public class DeepStackScan {
+
+  static final int THREADS = 3;
+  static final int DEPTH = 2000;
+  static final int COLLECTIONS = 10;
+
+  static final Object gate = new Object();
+  static boolean open;
+  static int waiting;
+  static volatile boolean failed;
+
+  private static class Cell {
+    final int value;
+    Cell(int value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Recurses with fresh objects in every frame, waits at the bottom, and
+   * checks the objects on the way back up.
+   *
+   * @param depth the number of frames still to add
+   * @param id a value that identifies the thread
+   * @param above the object of the frame above
+   */
+  static void recurse(int depth, int id, Cell above) throws InterruptedException {
+    Cell cell = new Cell(id * DEPTH + depth);
+    if (depth == 0) {
+      synchronized (gate) {
+        waiting++;
+        gate.notifyAll();
+        while (!open) {
+          gate.wait();
+        }
+      }
+    } else {
+      recurse(depth - 1, id, cell);
+    }
+    check(cell, id * DEPTH + depth);
+    check(above, id * DEPTH + depth + 1);
+  }
+
+  static void check(Cell cell, int expected) {
+    if (cell.value != expected) {
+      System.out.println("Expected " + expected + " but found " + cell.value);
+      failed = true;
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      final int id = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            recurse(DEPTH - 1, id, new Cell(id * DEPTH + DEPTH));
+          } catch (InterruptedException e) {
+            failed = true;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    synchronized (gate) {
+      while (waiting < THREADS) {
+        gate.wait();
+      }
+    }
+
+    for (int i = 0; i < COLLECTIONS; i++) {
+      Object[] garbage = new Object[64];
+      for (int j = 0; j < 10000; j++) {
+        garbage[j & 63] = new int[16];
+      }
+      System.gc();
+    }
+
+    synchronized (gate) {
+      open = true;
+      gate.notifyAll();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    if (failed) {
+      System.out.println("FAILED");
+    } else {
+      System.out.println("ALL TESTS PASSED");
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+
+/**
+ * Collect while many threads are blocked with deep stacks and a few threads
+ * allocate.  Every frame keeps the only reference to an object of its own,
+ * so a root that is missed or not updated when the object moves shows up
+ * as a wrong value when the frames unwind.
+ */
+public class StackScanStress {
+
+  static final int BLOCKED_THREADS = 64;
+  static final int RUNNING_THREADS = 4;
+  static final int DEPTH = 200;
+  static final int ITERATIONS = 200;
+
+  static final Object gate = new Object();
+  static boolean open;
+  static int waiting;
+  static volatile boolean failed;
+
+  private static class Cell {
+    final int value;
+    Cell(int value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Recurses with a fresh object in every frame, waits at the bottom, and
+   * checks the objects on the way back up.
+   *
+   * @param depth the number of frames still to add
+   * @param id a value that identifies the thread
+   */
+  static void blockDeep(int depth, int id) throws InterruptedException {
+    Cell cell = new Cell(id * DEPTH + depth);
+    if (depth == 0) {
+      synchronized (gate) {
+        waiting++;
+        gate.notifyAll();
+        while (!open) {
+          gate.wait();
+        }
+      }
+    } else {
+      blockDeep(depth - 1, id);
+    }
+    check(cell, id * DEPTH + depth);
+  }
+
+  /**
+   * Recurses with a fresh object in every frame, allocating garbage at the
+   * bottom.
+   *
+   * @param depth the number of frames still to add
+   * @param id a value that identifies the thread
+   */
+  static void allocateDeep(int depth, int id) {
+    Cell cell = new Cell(id * DEPTH + depth);
+    if (depth == 0) {
+      Object[] garbage = new Object[64];
+      for (int i = 0; i < 10000; i++) {
+        garbage[i & 63] = new int[16];
+      }
+    } else {
+      allocateDeep(depth - 1, id);
+    }
+    check(cell, id * DEPTH + depth);
+  }
+
+  static void check(Cell cell, int expected) {
+    if (cell.value != expected) {
+      System.out.println("Expected " + expected + " but found " + cell.value);
+      failed = true;
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    Thread[] blocked = new Thread[BLOCKED_THREADS];
+    for (int i = 0; i < BLOCKED_THREADS; i++) {
+      final int id = i;
+      blocked[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            blockDeep(DEPTH - 1, id);
+          } catch (InterruptedException e) {
+            failed = true;
+          }
+        }
+      };
+      blocked[i].start();
+    }
+    synchronized (gate) {
+      while (waiting < BLOCKED_THREADS) {
+        gate.wait();
+      }
+    }
+
+    Thread[] running = new Thread[RUNNING_THREADS];
+    for (int i = 0; i < RUNNING_THREADS; i++) {
+      final int id = BLOCKED_THREADS + i;
+      running[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < ITERATIONS; j++) {
+            allocateDeep(j % DEPTH, id);
+          }
+        }
+      };
+      running[i].start();
+    }
+    for (int i = 0; i < 10; i++) {
+      System.gc();
+    }
+    for (Thread t : running) {
+      t.join();
+    }
+
+    synchronized (gate) {
+      open = true;
+      gate.notifyAll();
+    }
+    for (Thread t : blocked) {
+      t.join();
+    }
+
+    if (failed) {
+      System.out.println("FAILED");
+    } else {
+      System.out.println("ALL TESTS PASSED");
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package test.org.jikesrvm.opttests.inlining;
+
+/**
+ * Calls an interface method through a receiver of interface type from two
+ * frequent receiver classes whose implementations are too big to inline,
+ * so that the opt compiler dispatches them through inline cache entries.
+ * The receiver needs an implements test, which is done only where all
+ * guards fail; the direct calls must still pass the original receiver.
+ */
+public class InlineCacheInterfaceCall {
+
+  interface Shape {
+    int area(int scale);
+  }
+
+  static final class Square implements Shape {
+    final int side;
+    Square(int side) {
+      this.side = side;
+    }
+    @Override
+    public int area(int scale) {
+      int result = 0;
+      for (int i = 0; i < 4; i++) {
+        result += side * side * scale;
+        result ^= i << 3;
+        result -= i * 7;
+        result = (result << 1) >>> 1;
+        result += (side & i) * scale;
+        result ^= i << 3;
+        result += i * 7;
+        result -= (side & i) * scale;
+      }
+      return result / 4;
+    }
+  }
+
+  static final class Rectangle implements Shape {
+    final int width;
+    final int height;
+    Rectangle(int width, int height) {
+      this.width = width;
+      this.height = height;
+    }
+    @Override
+    public int area(int scale) {
+      int result = 0;
+      for (int i = 0; i < 4; i++) {
+        result += width * height * scale;
+        result ^= i << 5;
+        result -= i * 11;
+        result = (result << 1) >>> 1;
+        result += (width & i) * scale;
+        result ^= i << 5;
+        result += i * 11;
+        result -= (width & i) * scale;
+      }
+      return result / 4;
+    }
+  }
+
+  static int area(Object shape, int scale) {
+    // shape is not known to implement Shape, so the call needs an
+    // implements test
+    return ((Shape) shape).area(scale);
+  }
+
+  public static void main(String[] args) {
+    Object[] shapes = {new Square(3), new Rectangle(2, 5), new Square(4), new Rectangle(1, 7)};
+    int[] areas = new int[shapes.length];
+    for (int i = 0; i < shapes.length; i++) {
+      areas[i] = area(shapes[i], 1);
+    }
+    boolean success = true;
+    for (int round = 0; round < 2000000 && success; round++) {
+      int i = round & 3;
+      int area = area(shapes[i], 1);
+      if (area != areas[i]) {
+        System.out.println("Round " + round + ": expected " + areas[i] + " but got " + area);
+        success = false;
+      }
+    }
+    if (success) {
+      System.out.println("ALL TESTS PASSED");
+    }
+  }
+}
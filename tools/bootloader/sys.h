@@ -237,6 +237,8 @@ EXTERNAL void sysSyncCache(void *address, size_t size);
 // sysMisc
 EXTERNAL int sysArg(int argno, char *buf, int buflen);
 EXTERNAL int sysGetenv(const char *varName, char *buf, int limit);
+EXTERNAL int sysGetPid();
+EXTERNAL int sysPerfJitdumpMarker(const char *fileName);
 EXTERNAL jlong sysParseMemorySize(const char *sizeName, const char *sizeFlag,
                                   const char *defaultFactor, int roundTo,
                                   const char *token, const char *subtoken);
@@ -256,6 +258,12 @@ EXTERNAL void sysPerfEventCreate(int id, const char *eventName);
 EXTERNAL void sysPerfEventEnable();
 EXTERNAL void sysPerfEventDisable();
 EXTERNAL void sysPerfEventRead(int id, long long *values);
+EXTERNAL void * sysPerfSamplerOpen(int tid, int cpuClock, long long periodNanos);
+EXTERNAL int sysPerfSamplerRead(void *sampler, long long *ips, int max);
+EXTERNAL long long sysPerfSamplerClose(void *sampler);
+EXTERNAL void * sysPerfCountersOpen(int tid, int events);
+EXTERNAL int sysPerfCountersRead(void *counters, long long *values);
+EXTERNAL void sysPerfCountersClose(void *counters);
 // sysSignal
 EXTERNAL int inRVMAddressSpace(Address addr);
 EXTERNAL void hardwareTrapHandler(int signo, siginfo_t *si, void *context);
@@ -308,6 +316,7 @@ EXTERNAL void bootThread(void *, void *, void *, void *);
 // sysTime
 EXTERNAL long long sysCurrentTimeMillis();
 EXTERNAL long long sysNanoTime();
+EXTERNAL long long sysMonotonicNanoTime();
 // sysVarArgs
 EXTERNAL va_list* sysVaCopy(va_list ap);
 EXTERNAL void sysVaEnd(va_list *ap);
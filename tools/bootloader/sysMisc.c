@@ -16,6 +16,9 @@
 #include <stdlib.h> // getenv
 #include <errno.h> // errno
 #include <limits.h> // UINT_MAX
+#include <fcntl.h> // open
+#include <sys/mman.h> // mmap
+#include <unistd.h> // getpid, close, sysconf
 
 /**
  * Access host o/s command line arguments.
@@ -111,6 +114,33 @@ EXTERNAL int sysGetenv(const char *varName, char *buf, int limit)
   return loadResultBuf(buf, limit, getenv(varName));
 }
 
+/**
+ * Returned: the id of the VM process
+ */
+EXTERNAL int sysGetPid()
+{
+  TRACE_PRINTF("%s: sysGetPid\n", Me);
+  return getpid();
+}
+
+/**
+ * Maps the start of a perf jitdump file executable.  perf record only
+ * notices a jitdump file through such a mapping; the VM never touches it.
+ * Taken:     FILENAME, the jitdump file, which must already exist
+ * Returned:  0 on success, -1 on failure
+ */
+EXTERNAL int sysPerfJitdumpMarker(const char *fileName)
+{
+  TRACE_PRINTF("%s: sysPerfJitdumpMarker %s\n", Me, fileName);
+  int fd = open(fileName, O_RDONLY);
+  if (fd < 0) {
+    return -1;
+  }
+  void *marker = mmap(NULL, sysconf(_SC_PAGESIZE), PROT_READ | PROT_EXEC, MAP_PRIVATE, fd, 0);
+  close(fd);
+  return marker == MAP_FAILED ? -1 : 0;
+}
+
 /**
  * Parse memory sizes. Negative return values indicate errors.
  * Taken:     name of the memory area (one of ("initial heap", "maximum heap",
@@ -108,3 +108,283 @@
     }
   }
 #endif
+
+/*
+ * Sampling of threads of this process with the software clocks of the
+ * perf event system.  Unlike the counters above this needs nothing but
+ * the kernel headers.  Each sampler owns a ring buffer into which the
+ * kernel writes the instruction pointer of every sample.
+ */
+
+#ifdef RVM_FOR_LINUX
+#include <errno.h>
+#include <linux/perf_event.h>
+#include <stdlib.h>
+#include <sys/mman.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+
+#define SAMPLER_DATA_PAGES 8
+
+struct sampler {
+  int fd;
+  char *base;
+  size_t dataSize;
+  long long lost;
+};
+#endif
+
+/**
+ * Starts sampling a thread.
+ *
+ * @param tid kernel id of the thread to sample
+ * @param cpuClock whether to use the cpu clock instead of the task clock
+ * @param periodNanos nanoseconds of the clock between samples
+ * @return the new sampler or NULL if it could not be created
+ */
+EXTERNAL void * sysPerfSamplerOpen(int tid, int cpuClock, long long periodNanos)
+{
+  TRACE_PRINTF("%s: sysPerfSamplerOpen %d\n", Me, tid);
+#ifdef RVM_FOR_LINUX
+  struct perf_event_attr attr;
+  struct sampler *s;
+  size_t pageSize = (size_t) sysconf(_SC_PAGESIZE);
+  void *base;
+  int fd;
+
+  memset(&attr, 0, sizeof(attr));
+  attr.size = sizeof(attr);
+  attr.type = PERF_TYPE_SOFTWARE;
+  attr.config = cpuClock ? PERF_COUNT_SW_CPU_CLOCK : PERF_COUNT_SW_TASK_CLOCK;
+  attr.sample_period = periodNanos;
+  attr.sample_type = PERF_SAMPLE_IP;
+  attr.exclude_kernel = 1;
+  attr.exclude_hv = 1;
+  fd = (int) syscall(__NR_perf_event_open, &attr, (pid_t) tid, -1, -1, 0);
+  if (fd == -1) {
+    TRACE_PRINTF("%s: perf_event_open failed: %s\n", Me, strerror(errno));
+    return NULL;
+  }
+  base = mmap(NULL, (1 + SAMPLER_DATA_PAGES) * pageSize, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+  if (base == MAP_FAILED) {
+    TRACE_PRINTF("%s: mmap of perf ring buffer failed: %s\n", Me, strerror(errno));
+    close(fd);
+    return NULL;
+  }
+  s = (struct sampler *) checkMalloc(sizeof(struct sampler));
+  s->fd = fd;
+  s->base = (char *) base;
+  s->dataSize = SAMPLER_DATA_PAGES * pageSize;
+  s->lost = 0;
+  return s;
+#else
+  return NULL;
+#endif
+}
+
+/**
+ * Copies the instruction pointers of the samples a sampler has taken
+ * since the last call.
+ *
+ * @param sampler the sampler
+ * @param ips buffer for the instruction pointers
+ * @param max length of the buffer
+ * @return the number of instruction pointers copied; if this is max,
+ *  there may be more
+ */
+EXTERNAL int sysPerfSamplerRead(void *sampler, long long *ips, int max)
+{
+  TRACE_PRINTF("%s: sysPerfSamplerRead\n", Me);
+#ifdef RVM_FOR_LINUX
+  struct sampler *s = (struct sampler *) sampler;
+  size_t pageSize = (size_t) sysconf(_SC_PAGESIZE);
+  struct perf_event_mmap_page *meta = (struct perf_event_mmap_page *) s->base;
+  char *data = s->base + pageSize;
+  __u64 head = meta->data_head;
+  __u64 tail = meta->data_tail;
+  int count = 0;
+
+  __sync_synchronize(); // read the records only after data_head
+  while (tail < head && count < max) {
+    // records are 8 byte aligned, so a header never wraps around the end
+    struct perf_event_header *header = (struct perf_event_header *) (data + (tail % s->dataSize));
+    __u64 payload = tail + sizeof(struct perf_event_header);
+    if (header->type == PERF_RECORD_SAMPLE) {
+      ips[count++] = *(long long *) (data + (payload % s->dataSize));
+    } else if (header->type == PERF_RECORD_LOST) {
+      s->lost += *(long long *) (data + ((payload + 8) % s->dataSize));
+    }
+    tail += header->size;
+  }
+  __sync_synchronize(); // finish reading before the kernel may overwrite
+  meta->data_tail = tail;
+  return count;
+#else
+  return 0;
+#endif
+}
+
+/**
+ * Stops a sampler and releases its ring buffer.
+ *
+ * @param sampler the sampler
+ * @return the number of samples the kernel had to drop because the
+ *  ring buffer was full
+ */
+EXTERNAL long long sysPerfSamplerClose(void *sampler)
+{
+  TRACE_PRINTF("%s: sysPerfSamplerClose\n", Me);
+#ifdef RVM_FOR_LINUX
+  struct sampler *s = (struct sampler *) sampler;
+  size_t pageSize = (size_t) sysconf(_SC_PAGESIZE);
+  long long lost = s->lost;
+  munmap(s->base, (1 + SAMPLER_DATA_PAGES) * pageSize);
+  close(s->fd);
+  free(s);
+  return lost;
+#else
+  return 0;
+#endif
+}
+
+/*
+ * Per-thread counter groups for the counters every perf event system has
+ * (see org.jikesrvm.runtime.PerfCounters).  A group is read with a single
+ * system call.  Events the processor or the kernel do not support are left
+ * out of the group and read as zero.
+ */
+
+#define MAX_COUNTERS 8
+
+#ifdef RVM_FOR_LINUX
+struct counters {
+  int mask;
+  int numEvents;
+  int fds[MAX_COUNTERS];
+  int slot[MAX_COUNTERS];  // index in the group, -1 if not counted
+  int numCounted;
+};
+
+static void counterAttr(struct perf_event_attr *attr, int event)
+{
+  memset(attr, 0, sizeof(*attr));
+  attr->size = sizeof(*attr);
+  switch (event) {
+    case 0: attr->type = PERF_TYPE_HARDWARE; attr->config = PERF_COUNT_HW_CPU_CYCLES; break;
+    case 1: attr->type = PERF_TYPE_HARDWARE; attr->config = PERF_COUNT_HW_INSTRUCTIONS; break;
+    case 2: attr->type = PERF_TYPE_HARDWARE; attr->config = PERF_COUNT_HW_CACHE_MISSES; break;
+    case 3: attr->type = PERF_TYPE_SOFTWARE; attr->config = PERF_COUNT_SW_PAGE_FAULTS; break;
+    case 4: attr->type = PERF_TYPE_SOFTWARE; attr->config = PERF_COUNT_SW_CONTEXT_SWITCHES; break;
+  }
+  attr->read_format = PERF_FORMAT_GROUP | PERF_FORMAT_TOTAL_TIME_ENABLED | PERF_FORMAT_TOTAL_TIME_RUNNING;
+  attr->exclude_hv = 1;
+}
+#endif
+
+/**
+ * Starts counting events for a thread.
+ *
+ * @param tid kernel id of the thread
+ * @param events bit mask of the events to count, bit i standing for
+ *  event i of org.jikesrvm.runtime.PerfCounters
+ * @return the counters, NULL if none of the events can be counted
+ */
+EXTERNAL void * sysPerfCountersOpen(int tid, int events)
+{
+  TRACE_PRINTF("%s: sysPerfCountersOpen %d\n", Me, tid);
+#ifdef RVM_FOR_LINUX
+  struct counters *c = (struct counters *) checkCalloc(1, sizeof(struct counters));
+  struct perf_event_attr attr;
+  int leader = -1;
+  int event;
+
+  c->mask = events;
+  for (event = 0; event < MAX_COUNTERS; event++) {
+    c->slot[event] = -1;
+    if (!(events & (1 << event))) continue;
+    c->numEvents = event + 1;
+    counterAttr(&attr, event);
+    c->fds[event] = (int) syscall(__NR_perf_event_open, &attr, (pid_t) tid, -1, leader, 0);
+    if (c->fds[event] == -1) {
+      // not allowed to count the kernel; count user mode only
+      attr.exclude_kernel = 1;
+      c->fds[event] = (int) syscall(__NR_perf_event_open, &attr, (pid_t) tid, -1, leader, 0);
+    }
+    if (c->fds[event] == -1) {
+      TRACE_PRINTF("%s: perf_event_open of event %d failed: %s\n", Me, event, strerror(errno));
+      continue;
+    }
+    if (leader == -1) leader = c->fds[event];
+    c->slot[event] = c->numCounted++;
+  }
+  if (c->numCounted == 0) {
+    free(c);
+    return NULL;
+  }
+  return c;
+#else
+  return NULL;
+#endif
+}
+
+/**
+ * Reads the counts of a thread.  Counts of events that shared the
+ * hardware with other events are scaled to the time the thread ran.
+ *
+ * @param counters the counters of the thread
+ * @param values buffer for the counts, one for each requested event in the
+ *  order of the bits of the mask
+ * @return 0 on success, -1 if the counters could not be read
+ */
+EXTERNAL int sysPerfCountersRead(void *counters, long long *values)
+{
+  TRACE_PRINTF("%s: sysPerfCountersRead\n", Me);
+#ifdef RVM_FOR_LINUX
+  struct counters *c = (struct counters *) counters;
+  unsigned long long buffer[3 + MAX_COUNTERS];
+  int leader = -1;
+  int event;
+  int i = 0;
+  ssize_t expectedBytes = (3 + c->numCounted) * sizeof(unsigned long long);
+
+  for (event = 0; event < c->numEvents; event++) {
+    if (c->slot[event] == 0) leader = c->fds[event];
+  }
+  if (read(leader, buffer, expectedBytes) != expectedBytes) {
+    return -1;
+  }
+  // buffer holds nr, time_enabled, time_running and the counts
+  for (event = 0; event < c->numEvents; event++) {
+    long long value = 0;
+    if (!(c->mask & (1 << event))) continue;
+    if (c->slot[event] >= 0) {
+      value = (long long) buffer[3 + c->slot[event]];
+      if (buffer[2] != 0 && buffer[2] < buffer[1]) {
+        value = (long long) ((double) value * buffer[1] / buffer[2]);
+      }
+    }
+    values[i++] = value;
+  }
+  return 0;
+#else
+  return -1;
+#endif
+}
+
+/**
+ * Stops counting events for a thread.
+ *
+ * @param counters the counters of the thread
+ */
+EXTERNAL void sysPerfCountersClose(void *counters)
+{
+  TRACE_PRINTF("%s: sysPerfCountersClose\n", Me);
+#ifdef RVM_FOR_LINUX
+  struct counters *c = (struct counters *) counters;
+  int event;
+  for (event = 0; event < c->numEvents; event++) {
+    if (c->slot[event] >= 0) close(c->fds[event]);
+  }
+  free(c);
+#endif
+}
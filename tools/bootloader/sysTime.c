@@ -65,3 +65,24 @@ EXTERNAL long long sysNanoTime()
 #endif
   return retVal;
 }
+
+/**
+ * Reads CLOCK_MONOTONIC, which is the clock that Linux perf uses for
+ * timestamps when recording with -k mono.
+ * Returned: nanoseconds since an arbitrary point in the past
+ */
+EXTERNAL long long sysMonotonicNanoTime()
+{
+  TRACE_PRINTF("%s: sysMonotonicNanoTime\n", Me);
+#ifndef __MACH__
+  struct timespec tp = {0};
+  int rc = clock_gettime(CLOCK_MONOTONIC, &tp);
+  if (rc != 0) {
+    ERROR_PRINTF("sysMonotonicNanoTime: Non-zero return code %d from clock_gettime\n", rc);
+    return rc;
+  }
+  return (((long long) tp.tv_sec) * 1000000000) + tp.tv_nsec;
+#else
+  return sysNanoTime();
+#endif
+}